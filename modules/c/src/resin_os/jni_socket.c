@@ -1070,6 +1070,43 @@ Java_com_caucho_vfs_JniSocketImpl_nativeIsEof(JNIEnv *env,
   return result == 0;
 }
 
+/**
+ * Returns true if a read would not block, including end of file.
+ */
+JNIEXPORT jboolean JNICALL
+Java_com_caucho_vfs_JniSocketImpl_nativeIsReadAvailable(JNIEnv *env,
+                                                        jobject obj,
+                                                        jlong conn_fd)
+{
+  connection_t *conn = (connection_t *) (PTR) conn_fd;
+  int fd;
+  int result;
+  char buffer[1];
+
+  if (! conn)
+    return 1;
+
+  fd = conn->fd;
+
+  if (fd <= 0) {
+    return 1;
+  }
+
+  /* openssl may hold decrypted data the socket doesn't show */
+  if (conn->ssl_sock) {
+    return 1;
+  }
+
+#ifdef MSG_DONTWAIT
+  result = recv(fd, buffer, 1, MSG_DONTWAIT|MSG_PEEK);
+
+  if (result < 0 && (errno == EAGAIN || errno == EWOULDBLOCK))
+    return 0;
+#endif
+
+  return 1;
+}
+
 #ifdef AI_NUMERICHOST
 
 static struct sockaddr_in *
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2001-2004 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.client;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Future for an asynchronous Hessian call. The request has already been
+ * sent; the reply is read on the first get().
+ */
+class HessianFuture implements Future<Object> {
+  private final HessianProxy _proxy;
+  private final Class<?> _type;
+  
+  private HessianConnection _conn;
+
+  private boolean _isDone;
+  private Object _value;
+  private Throwable _exn;
+
+  HessianFuture(HessianProxy proxy, HessianConnection conn, Class<?> type)
+  {
+    _proxy = proxy;
+    _conn = conn;
+    _type = type;
+  }
+
+  @Override
+  public boolean cancel(boolean isInterrupt)
+  {
+    return false;
+  }
+
+  @Override
+  public boolean isCancelled()
+  {
+    return false;
+  }
+
+  /**
+   * True if the reply has been read or, for a pipelined connection,
+   * has arrived.
+   */
+  @Override
+  public synchronized boolean isDone()
+  {
+    if (_isDone)
+      return true;
+    
+    HessianConnection conn = _conn;
+    
+    return (conn instanceof HessianMuxConnection
+            && ((HessianMuxConnection) conn).isDone());
+  }
+
+  @Override
+  public synchronized Object get()
+    throws ExecutionException
+  {
+    if (! _isDone) {
+      HessianConnection conn = _conn;
+      _conn = null;
+      
+      try {
+        _value = _proxy.readReply(conn, _type);
+      } catch (Throwable e) {
+        _exn = e;
+      }
+      
+      _isDone = true;
+    }
+    
+    if (_exn != null)
+      throw new ExecutionException(_exn);
+    
+    return _value;
+  }
+
+  /**
+   * Returns the value, waiting at most the timeout for a pipelined
+   * reply. Other connections read the reply under the proxy factory's
+   * read timeout.
+   */
+  @Override
+  public Object get(long timeout, TimeUnit unit)
+    throws ExecutionException, TimeoutException
+  {
+    HessianConnection conn;
+    
+    synchronized (this) {
+      conn = _conn;
+    }
+    
+    if (conn instanceof HessianMuxConnection) {
+      HessianMuxConnection muxConn = (HessianMuxConnection) conn;
+      
+      if (! muxConn.awaitReply(unit.toMillis(Math.max(timeout, 0)))) {
+        throw new TimeoutException(this + " no reply after "
+                                   + unit.toMillis(timeout) + "ms");
+      }
+    }
+    
+    return get();
+  }
+  
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _proxy.getURL() + "]";
+  }
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright (c) 2001-2004 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A persistent HTTP/1.1 connection shared by concurrent Hessian calls.
+ *
+ * Calls are written whole and queued under the write lock. The server
+ * replies in order, so a waiting caller takes the read lock and reads
+ * replies from the head of the queue, handing each one to its call,
+ * until its own reply has arrived. Other callers wait on their own call
+ * and are woken as soon as the reader completes it, instead of waiting
+ * for the read lock.
+ */
+class HessianMuxChannel
+{
+  private static final Logger log
+    = Logger.getLogger(HessianMuxChannel.class.getName());
+  
+  private final String _host;
+  private final int _port;
+  private final long _connectTimeout;
+  private final long _readTimeout;
+  
+  private final Object _writeLock = new Object();
+  private final ReentrantLock _readLock = new ReentrantLock();
+  
+  private final ArrayDeque<HessianMuxConnection> _pending
+    = new ArrayDeque<HessianMuxConnection>();
+  
+  private Socket _socket;
+  private InputStream _is;
+  private OutputStream _os;
+  
+  private long _nextCallId;
+  
+  private volatile boolean _isClosed;
+  
+  private final StringBuilder _line = new StringBuilder();
+  
+  HessianMuxChannel(String host,
+                    int port,
+                    long connectTimeout,
+                    long readTimeout)
+  {
+    _host = host;
+    _port = port;
+    _connectTimeout = connectTimeout;
+    _readTimeout = readTimeout;
+  }
+  
+  boolean isClosed()
+  {
+    return _isClosed;
+  }
+  
+  int getPendingCount()
+  {
+    synchronized (_pending) {
+      return _pending.size();
+    }
+  }
+  
+  /**
+   * Writes the call's request and queues the call for its reply.
+   */
+  void send(HessianMuxConnection call)
+    throws IOException
+  {
+    synchronized (_writeLock) {
+      if (_isClosed)
+        throw new HessianConnectionException(this + " is closed");
+      
+      if (_socket == null)
+        connect();
+      
+      call.setCallId(_nextCallId++);
+      
+      try {
+        call.writeRequest(_os);
+        _os.flush();
+      } catch (IOException e) {
+        failAll(e);
+        
+        throw e;
+      }
+      
+      synchronized (_pending) {
+        _pending.add(call);
+      }
+    }
+  }
+  
+  private void connect()
+    throws IOException
+  {
+    Socket socket = new Socket();
+    
+    try {
+      socket.setTcpNoDelay(true);
+      
+      int connectTimeout = (int) Math.max(0, _connectTimeout);
+      
+      socket.connect(new InetSocketAddress(_host, _port), connectTimeout);
+      
+      if (_readTimeout > 0)
+        socket.setSoTimeout((int) _readTimeout);
+      
+      _is = new BufferedInputStream(socket.getInputStream(), 8 * 1024);
+      _os = new BufferedOutputStream(socket.getOutputStream(), 8 * 1024);
+      _socket = socket;
+    } catch (IOException e) {
+      _isClosed = true;
+      
+      try {
+        socket.close();
+      } catch (IOException e1) {
+      }
+      
+      throw new HessianConnectionException(this + " cannot connect", e);
+    }
+  }
+  
+  /**
+   * Waits for the call's reply, reading the replies of earlier calls
+   * on the way.
+   *
+   * @param timeout the maximum wait in milliseconds, or -1 for no limit.
+   *   A reply already being read is finished first, bounded by the
+   *   socket read timeout.
+   *
+   * @return false if the timeout expired before the reply arrived
+   */
+  boolean await(HessianMuxConnection call, long timeout)
+  {
+    long expireTime = (timeout >= 0
+                       ? System.currentTimeMillis() + timeout
+                       : Long.MAX_VALUE);
+    
+    while (! call.isDone()) {
+      if (_readLock.tryLock()) {
+        try {
+          readUntil(call, expireTime);
+        } finally {
+          _readLock.unlock();
+        }
+        
+        wakeHead();
+        
+        if (! call.isDone())
+          return false;
+      }
+      else {
+        long delta = expireTime - System.currentTimeMillis();
+        
+        if (delta <= 0)
+          return false;
+        
+        call.waitForDone(Math.min(delta, 10));
+      }
+    }
+    
+    return true;
+  }
+  
+  private void readUntil(HessianMuxConnection call, long expireTime)
+  {
+    while (! call.isDone()
+           && System.currentTimeMillis() < expireTime) {
+      HessianMuxConnection head;
+      
+      synchronized (_pending) {
+        head = _pending.peek();
+      }
+      
+      if (head == null)
+        return;
+      
+      try {
+        boolean isKeepalive = readReply(head);
+        
+        synchronized (_pending) {
+          _pending.poll();
+        }
+        
+        head.complete();
+        
+        if (! isKeepalive)
+          failAll(new IOException(this + " closed by server"));
+      } catch (IOException e) {
+        log.log(Level.FINER, e.toString(), e);
+        
+        failAll(e);
+      } catch (RuntimeException e) {
+        log.log(Level.FINER, e.toString(), e);
+        
+        failAll(new IOException(e));
+      }
+    }
+  }
+  
+  /**
+   * Wakes the caller waiting on the oldest call so it can take over
+   * reading.
+   */
+  private void wakeHead()
+  {
+    HessianMuxConnection head;
+    
+    synchronized (_pending) {
+      head = _pending.peek();
+    }
+    
+    if (head != null)
+      head.wake();
+  }
+  
+  /**
+   * Reads a reply into the call.
+   *
+   * @return false if the server will close the connection
+   */
+  private boolean readReply(HessianMuxConnection call)
+    throws IOException
+  {
+    InputStream is = _is;
+    
+    int status;
+    String message;
+    
+    do {
+      String statusLine = readLine(is);
+      
+      int p = statusLine.indexOf(' ');
+      
+      if (p < 0 || ! statusLine.startsWith("HTTP/"))
+        throw new IOException("unexpected reply '" + statusLine + "'");
+      
+      int q = statusLine.indexOf(' ', p + 1);
+      
+      if (q < 0)
+        q = statusLine.length();
+      
+      status = Integer.parseInt(statusLine.substring(p + 1, q).trim());
+      message = q < statusLine.length() ? statusLine.substring(q + 1) : "";
+      
+      if (status < 200)
+        skipHeaders(is);
+    } while (status < 200);
+    
+    long contentLength = -1;
+    boolean isChunked = false;
+    boolean isKeepalive = true;
+    String contentEncoding = null;
+    
+    String line;
+    
+    while ((line = readLine(is)).length() > 0) {
+      int p = line.indexOf(':');
+      
+      if (p < 0)
+        continue;
+      
+      String key = line.substring(0, p).trim();
+      String value = line.substring(p + 1).trim();
+      
+      if (key.equalsIgnoreCase("Content-Length"))
+        contentLength = Long.parseLong(value);
+      else if (key.equalsIgnoreCase("Transfer-Encoding"))
+        isChunked = value.equalsIgnoreCase("chunked");
+      else if (key.equalsIgnoreCase("Connection"))
+        isKeepalive = ! value.equalsIgnoreCase("close");
+      else if (key.equalsIgnoreCase("Content-Encoding"))
+        contentEncoding = value;
+    }
+    
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    
+    if (isChunked) {
+      int chunkLength;
+      
+      while ((chunkLength = readChunkLength(is)) > 0) {
+        readBody(is, body, chunkLength);
+        readLine(is);
+      }
+      
+      // trailers
+      skipHeaders(is);
+    }
+    else if (contentLength >= 0) {
+      readBody(is, body, contentLength);
+    }
+    else {
+      // body ends at close
+      byte []buffer = new byte[1024];
+      int len;
+      
+      while ((len = is.read(buffer, 0, buffer.length)) > 0) {
+        body.write(buffer, 0, len);
+      }
+      
+      isKeepalive = false;
+    }
+    
+    call.setReply(status, message, contentEncoding, body.toByteArray());
+    
+    return isKeepalive;
+  }
+  
+  private void readBody(InputStream is,
+                        ByteArrayOutputStream body,
+                        long length)
+    throws IOException
+  {
+    byte []buffer = new byte[(int) Math.min(length, 8 * 1024)];
+    
+    while (length > 0) {
+      int sublen = (int) Math.min(length, buffer.length);
+      
+      int len = is.read(buffer, 0, sublen);
+      
+      if (len < 0)
+        throw new IOException(this + " unexpected end of reply");
+      
+      body.write(buffer, 0, len);
+      
+      length -= len;
+    }
+  }
+  
+  private int readChunkLength(InputStream is)
+    throws IOException
+  {
+    String line = readLine(is);
+    
+    int p = line.indexOf(';');
+    
+    if (p >= 0)
+      line = line.substring(0, p);
+    
+    return Integer.parseInt(line.trim(), 16);
+  }
+  
+  private void skipHeaders(InputStream is)
+    throws IOException
+  {
+    while (readLine(is).length() > 0) {
+    }
+  }
+  
+  private String readLine(InputStream is)
+    throws IOException
+  {
+    StringBuilder sb = _line;
+    sb.setLength(0);
+    
+    int ch;
+    
+    while ((ch = is.read()) >= 0 && ch != '\n') {
+      if (ch != '\r')
+        sb.append((char) ch);
+    }
+    
+    if (ch < 0 && sb.length() == 0)
+      throw new IOException(this + " unexpected end of reply");
+    
+    return sb.toString();
+  }
+  
+  /**
+   * Closes the socket and fails all queued calls.
+   */
+  private void failAll(IOException e)
+  {
+    HessianMuxConnection []pending;
+    Socket socket;
+    
+    synchronized (_pending) {
+      _isClosed = true;
+      
+      socket = _socket;
+      _socket = null;
+      
+      pending = new HessianMuxConnection[_pending.size()];
+      _pending.toArray(pending);
+      _pending.clear();
+    }
+    
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e1) {
+        log.log(Level.FINEST, e1.toString(), e1);
+      }
+    }
+    
+    for (HessianMuxConnection call : pending) {
+      call.fail(e);
+    }
+  }
+  
+  void close()
+  {
+    failAll(new IOException(this + " is closed"));
+  }
+  
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _host + ":" + _port + "]";
+  }
+}
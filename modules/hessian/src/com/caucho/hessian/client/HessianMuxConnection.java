@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2001-2004 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+
+/**
+ * A single Hessian call pipelined on a shared HessianMuxChannel.
+ *
+ * The request body is buffered so the whole request can be written
+ * at once. sendRequest() returns as soon as the request is written;
+ * the reply is waited for when the status or input stream is needed.
+ */
+public class HessianMuxConnection extends AbstractHessianConnection {
+  private final HessianMuxConnectionFactory _factory;
+  private final HessianMuxChannel _channel;
+  private final URL _url;
+  
+  private final ArrayList<String> _headers = new ArrayList<String>();
+  
+  private ByteArrayOutputStream _body;
+  
+  private long _callId;
+  
+  private volatile boolean _isDone;
+  private IOException _failure;
+  
+  private int _statusCode;
+  private String _statusMessage;
+  private String _contentEncoding;
+  private byte []_reply;
+
+  HessianMuxConnection(HessianMuxConnectionFactory factory,
+                       HessianMuxChannel channel,
+                       URL url)
+  {
+    _factory = factory;
+    _channel = channel;
+    _url = url;
+  }
+  
+  /**
+   * Returns the call's sequence id on its channel.
+   */
+  public long getCallId()
+  {
+    return _callId;
+  }
+  
+  void setCallId(long callId)
+  {
+    _callId = callId;
+  }
+
+  /**
+   * Adds a HTTP header.
+   */
+  @Override
+  public void addHeader(String key, String value)
+  {
+    _headers.add(key);
+    _headers.add(value);
+  }
+  
+  /**
+   * Returns the buffered output stream for the request body.
+   */
+  @Override
+  public OutputStream getOutputStream()
+    throws IOException
+  {
+    if (_body == null)
+      _body = _factory.allocateBuffer();
+    
+    return _body;
+  }
+
+  /**
+   * Writes the request to the channel without waiting for the reply.
+   */
+  @Override
+  public void sendRequest()
+    throws IOException
+  {
+    try {
+      _channel.send(this);
+    } finally {
+      freeBody();
+    }
+  }
+  
+  void writeRequest(OutputStream os)
+    throws IOException
+  {
+    String path = _url.getFile();
+    
+    if (path == null || path.length() == 0)
+      path = "/";
+    
+    print(os, "POST ");
+    print(os, path);
+    print(os, " HTTP/1.1\r\nHost: ");
+    print(os, _url.getHost());
+    
+    if (_url.getPort() > 0) {
+      print(os, ":");
+      print(os, String.valueOf(_url.getPort()));
+    }
+    
+    print(os, "\r\n");
+    
+    for (int i = 0; i < _headers.size(); i += 2) {
+      print(os, _headers.get(i));
+      print(os, ": ");
+      print(os, _headers.get(i + 1));
+      print(os, "\r\n");
+    }
+    
+    ByteArrayOutputStream body = _body;
+    int length = body != null ? body.size() : 0;
+    
+    print(os, "Content-Length: ");
+    print(os, String.valueOf(length));
+    print(os, "\r\n\r\n");
+    
+    if (body != null)
+      body.writeTo(os);
+  }
+  
+  private static void print(OutputStream os, String value)
+    throws IOException
+  {
+    int len = value.length();
+    
+    for (int i = 0; i < len; i++) {
+      os.write(value.charAt(i));
+    }
+  }
+  
+  /**
+   * True if the reply has arrived or the call has failed.
+   */
+  public boolean isDone()
+  {
+    return _isDone;
+  }
+  
+  void setReply(int statusCode,
+                String statusMessage,
+                String contentEncoding,
+                byte []reply)
+  {
+    _statusCode = statusCode;
+    _statusMessage = statusMessage;
+    _contentEncoding = contentEncoding;
+    _reply = reply;
+  }
+  
+  void complete()
+  {
+    synchronized (this) {
+      _isDone = true;
+      
+      notifyAll();
+    }
+  }
+  
+  void fail(IOException e)
+  {
+    _failure = e;
+    
+    complete();
+  }
+  
+  void wake()
+  {
+    synchronized (this) {
+      notifyAll();
+    }
+  }
+  
+  void waitForDone(long timeout)
+  {
+    synchronized (this) {
+      if (! _isDone) {
+        try {
+          wait(timeout);
+        } catch (InterruptedException e) {
+        }
+      }
+    }
+  }
+  
+  /**
+   * Waits up to the timeout in milliseconds for the reply.
+   *
+   * @return false if the timeout expired before the reply arrived
+   */
+  boolean awaitReply(long timeout)
+  {
+    return _channel.await(this, timeout);
+  }
+  
+  private void awaitReply()
+    throws IOException
+  {
+    if (! _channel.await(this, -1) && _failure == null)
+      throw new HessianConnectionException(this + " has no reply");
+    
+    if (_failure != null)
+      throw _failure;
+  }
+
+  /**
+   * Returns the status code, waiting for the reply.
+   */
+  @Override
+  public int getStatusCode()
+  {
+    try {
+      awaitReply();
+    } catch (IOException e) {
+      throw new HessianRuntimeException(e);
+    }
+    
+    return _statusCode;
+  }
+
+  /**
+   * Returns the status string, waiting for the reply.
+   */
+  @Override
+  public String getStatusMessage()
+  {
+    try {
+      awaitReply();
+    } catch (IOException e) {
+      throw new HessianRuntimeException(e);
+    }
+    
+    return _statusMessage;
+  }
+  
+  @Override
+  public String getContentEncoding()
+  {
+    try {
+      awaitReply();
+    } catch (IOException e) {
+      throw new HessianRuntimeException(e);
+    }
+    
+    return _contentEncoding;
+  }
+
+  /**
+   * Returns the InputStream to the result, waiting for the reply.
+   */
+  @Override
+  public InputStream getInputStream()
+    throws IOException
+  {
+    awaitReply();
+    
+    if (_statusCode != 200) {
+      throw new HessianConnectionException(_statusCode + ": "
+                                           + new String(_reply, "ISO-8859-1"));
+    }
+    
+    return new ByteArrayInputStream(_reply);
+  }
+  
+  private void freeBody()
+  {
+    ByteArrayOutputStream body = _body;
+    _body = null;
+    
+    if (body != null)
+      _factory.freeBuffer(body);
+  }
+
+  /**
+   * Frees the call. The channel stays open for other calls.
+   */
+  @Override
+  public void close()
+  {
+    freeBody();
+  }
+
+  /**
+   * Frees the call. The channel stays open for other calls.
+   */
+  @Override
+  public void destroy()
+  {
+    close();
+  }
+  
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _url + ",id=" + _callId + "]";
+  }
+}
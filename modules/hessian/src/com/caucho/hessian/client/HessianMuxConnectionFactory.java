@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2001-2004 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.hessian.util.HessianFreeList;
+
+/**
+ * Connection factory multiplexing concurrent calls over a few persistent
+ * HTTP/1.1 connections per server.
+ *
+ * Each call is buffered and written whole, so calls from many threads
+ * can be pipelined on the same socket without waiting for the previous
+ * reply. The server replies in request order, so each reply belongs to
+ * the oldest call still waiting on the channel. https URLs fall back to
+ * HessianURLConnectionFactory.
+ */
+public class HessianMuxConnectionFactory
+  extends AbstractHessianConnectionFactory
+{
+  private static final Logger log
+    = Logger.getLogger(HessianMuxConnectionFactory.class.getName());
+  
+  private final HashMap<String,HessianMuxChannel[]> _channelMap
+    = new HashMap<String,HessianMuxChannel[]>();
+  
+  private final HessianFreeList<ByteArrayOutputStream> _freeBuffers
+    = new HessianFreeList<ByteArrayOutputStream>(32);
+  
+  private final HessianURLConnectionFactory _urlFactory
+    = new HessianURLConnectionFactory();
+  
+  private int _connectionMax = 4;
+  
+  /**
+   * Sets the number of persistent connections to each server.
+   */
+  public void setConnectionMax(int max)
+  {
+    if (max < 1)
+      throw new IllegalArgumentException("connection-max must be positive");
+    
+    _connectionMax = max;
+  }
+  
+  public int getConnectionMax()
+  {
+    return _connectionMax;
+  }
+  
+  @Override
+  public void setHessianProxyFactory(HessianProxyFactory factory)
+  {
+    super.setHessianProxyFactory(factory);
+    
+    _urlFactory.setHessianProxyFactory(factory);
+  }
+  
+  /**
+   * Opens a call on the least busy connection to the server.
+   */
+  @Override
+  public HessianConnection open(URL url)
+    throws IOException
+  {
+    if (! "http".equals(url.getProtocol()))
+      return _urlFactory.open(url);
+    
+    if (log.isLoggable(Level.FINER))
+      log.finer(this + " open(" + url + ")");
+    
+    return new HessianMuxConnection(this, getChannel(url), url);
+  }
+  
+  private HessianMuxChannel getChannel(URL url)
+  {
+    String host = url.getHost();
+    int port = url.getPort();
+    
+    if (port < 0)
+      port = url.getDefaultPort();
+    
+    String key = host + ":" + port;
+    
+    synchronized (_channelMap) {
+      HessianMuxChannel []channels = _channelMap.get(key);
+      
+      if (channels == null) {
+        channels = new HessianMuxChannel[_connectionMax];
+        _channelMap.put(key, channels);
+      }
+      
+      HessianMuxChannel bestChannel = null;
+      int bestIndex = 0;
+      
+      for (int i = 0; i < channels.length; i++) {
+        HessianMuxChannel channel = channels[i];
+        
+        if (channel == null || channel.isClosed()) {
+          bestChannel = null;
+          bestIndex = i;
+          break;
+        }
+        
+        if (bestChannel == null
+            || channel.getPendingCount() < bestChannel.getPendingCount()) {
+          bestChannel = channel;
+          bestIndex = i;
+        }
+      }
+      
+      if (bestChannel == null) {
+        HessianProxyFactory factory = getHessianProxyFactory();
+        
+        bestChannel = new HessianMuxChannel(host, port,
+                                            factory.getConnectTimeout(),
+                                            factory.getReadTimeout());
+        channels[bestIndex] = bestChannel;
+      }
+      
+      return bestChannel;
+    }
+  }
+  
+  ByteArrayOutputStream allocateBuffer()
+  {
+    ByteArrayOutputStream buffer = _freeBuffers.allocate();
+    
+    if (buffer == null)
+      buffer = new ByteArrayOutputStream(8 * 1024);
+    
+    buffer.reset();
+    
+    return buffer;
+  }
+  
+  void freeBuffer(ByteArrayOutputStream buffer)
+  {
+    _freeBuffers.free(buffer);
+  }
+  
+  /**
+   * Closes all persistent connections.
+   */
+  public void close()
+  {
+    synchronized (_channelMap) {
+      for (HessianMuxChannel []channels : _channelMap.values()) {
+        for (HessianMuxChannel channel : channels) {
+          if (channel != null)
+            channel.close();
+        }
+      }
+      
+      _channelMap.clear();
+    }
+  }
+  
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[]";
+  }
+}
@@ -55,7 +55,10 @@ import java.io.*;
 import java.util.logging.*;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.util.concurrent.Future;
 import java.util.WeakHashMap;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -161,15 +164,46 @@ public class HessianProxy implements InvocationHandler, Serializable {
       }
     }
 
+    if (log.isLoggable(Level.FINER))
+      log.finer("Hessian[" + _url + "] calling " + mangleName);
+
+    HessianConnection conn = sendRequest(mangleName, args);
+
+    // a Future return reads the reply when the caller asks for it, so
+    // pipelining connection factories can have several calls in flight
+    if (Future.class.equals(method.getReturnType()))
+      return new HessianFuture(this, conn, getFutureType(method));
+
+    return readReply(conn, method.getReturnType());
+  }
+
+  /**
+   * Returns the value type of a Future return, e.g. String for
+   * Future&lt;String&gt;.
+   */
+  private Class<?> getFutureType(Method method)
+  {
+    Type type = method.getGenericReturnType();
+
+    if (type instanceof ParameterizedType) {
+      Type []args = ((ParameterizedType) type).getActualTypeArguments();
+
+      if (args.length == 1 && args[0] instanceof Class)
+        return (Class<?>) args[0];
+    }
+
+    return Object.class;
+  }
+
+  /**
+   * Reads the reply for a sent request and frees the connection.
+   */
+  Object readReply(HessianConnection conn, Class<?> returnType)
+    throws Throwable
+  {
     InputStream is = null;
-    HessianConnection conn = null;
     
     try {
-      if (log.isLoggable(Level.FINER))
-        log.finer("Hessian[" + _url + "] calling " + mangleName);
-      
-      conn = sendRequest(mangleName, args);
-
       is = getInputStream(conn);
 
       if (log.isLoggable(Level.FINEST)) {
@@ -192,7 +226,7 @@ public class HessianProxy implements InvocationHandler, Serializable {
 
         in = _factory.getHessian2Input(is);
 
-        Object value = in.readReply(method.getReturnType());
+        Object value = in.readReply(returnType);
 
         return value;
       }
@@ -204,7 +238,7 @@ public class HessianProxy implements InvocationHandler, Serializable {
 
         in.startReplyBody();
 
-        Object value = in.readObject(method.getReturnType());
+        Object value = in.readObject(returnType);
 
         if (value instanceof InputStream) {
           value = new ResultInputStream(conn, is, in, (InputStream) value);
@@ -293,6 +327,8 @@ public class HessianProxy implements InvocationHandler, Serializable {
       out.call(methodName, args);
       out.flush();
 
+      _factory.freeHessianOutput(out);
+
       conn.sendRequest();
 
       isValid = true;
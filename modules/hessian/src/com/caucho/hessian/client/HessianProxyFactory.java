@@ -75,6 +75,7 @@ import com.caucho.hessian.io.HessianOutput;
 import com.caucho.hessian.io.HessianRemoteObject;
 import com.caucho.hessian.io.HessianRemoteResolver;
 import com.caucho.hessian.io.SerializerFactory;
+import com.caucho.hessian.util.HessianFreeList;
 import com.caucho.services.client.ServiceProxyFactory;
 
 /**
@@ -144,6 +145,9 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
   private long _readTimeout = -1;
   private long _connectTimeout = -1;
 
+  private final HessianFreeList<Hessian2Output> _freeHessian2Output
+    = new HessianFreeList<Hessian2Output>(32);
+
   /**
    * Creates the new proxy factory.
    */
@@ -499,8 +503,16 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
   {
     AbstractHessianOutput out;
 
-    if (_isHessian2Request)
-      out = new Hessian2Output(os);
+    if (_isHessian2Request) {
+      Hessian2Output out2 = _freeHessian2Output.allocate();
+
+      if (out2 == null)
+        out2 = new Hessian2Output(os);
+      else
+        out2.init(os);
+
+      out = out2;
+    }
     else {
       HessianOutput out1 = new HessianOutput(os);
       out = out1;
@@ -514,6 +526,21 @@ public class HessianProxyFactory implements ServiceProxyFactory, ObjectFactory {
     return out;
   }
 
+  /**
+   * Frees a serializer after the request is written, so its buffer can
+   * be reused by the next call.
+   */
+  public void freeHessianOutput(AbstractHessianOutput out)
+  {
+    if (out instanceof Hessian2Output) {
+      Hessian2Output out2 = (Hessian2Output) out;
+
+      out2.free();
+
+      _freeHessian2Output.free(out2);
+    }
+  }
+
   /**
    * JNDI object factory so the proxy can be used as a resource.
    */
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.HashSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sun.misc.Unsafe;
+
+/**
+ * Deserializing an object with a generated field reader. When the
+ * stream's field order matches the serializer's order, the fields are
+ * read with a straight-line generated reader. Other orders use the
+ * UnsafeDeserializer field map.
+ */
+public class GeneratedDeserializer extends UnsafeDeserializer
+{
+  private static final Logger log
+    = Logger.getLogger(GeneratedDeserializer.class.getName());
+
+  private final Object []_fieldOrder;
+  private final FieldReader _reader;
+
+  // last definition fields matching the generated order
+  private Object []_lastFields;
+
+  private GeneratedDeserializer(Class<?> cl)
+    throws Exception
+  {
+    super(cl);
+
+    Field []fields = UnsafeSerializer.getFieldList(cl);
+
+    HashSet<String> names = new HashSet<String>();
+
+    _fieldOrder = new Object[fields.length];
+
+    for (int i = 0; i < fields.length; i++) {
+      String name = fields[i].getName();
+
+      if (! names.add(name))
+        throw new IllegalStateException(cl.getName() + ": duplicate field " + name);
+
+      _fieldOrder[i] = createField(name);
+    }
+
+    _reader = SerializerGenerator.generateReader(cl, fields);
+  }
+
+  /**
+   * Returns the generated deserializer for the class, or null if the
+   * class can't use a generated deserializer.
+   */
+  public static GeneratedDeserializer create(Class<?> cl)
+  {
+    if (! UnsafeDeserializer.isEnabled())
+      return null;
+
+    try {
+      if (SerializerGenerator.FIELD_MAX
+          < UnsafeSerializer.getFieldList(cl).length) {
+        return null;
+      }
+
+      return new GeneratedDeserializer(cl);
+    } catch (Throwable e) {
+      log.log(Level.FINE, cl.getName() + ": " + e, e);
+
+      return null;
+    }
+  }
+
+  @Override
+  public Object readObject(AbstractHessianInput in,
+                           Object []fields)
+    throws IOException
+  {
+    if (fields != _lastFields) {
+      if (! isGeneratedOrder(fields))
+        return super.readObject(in, fields);
+
+      _lastFields = fields;
+    }
+
+    try {
+      Object obj = instantiate();
+
+      int ref = in.addRef(obj);
+
+      _reader.readFields(in, obj);
+
+      Object resolve = resolve(in, obj);
+
+      if (obj != resolve)
+        in.setRef(ref, resolve);
+
+      return resolve;
+    } catch (IOException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOExceptionWrapper(getType().getName() + ":" + e.getMessage(), e);
+    }
+  }
+
+  private boolean isGeneratedOrder(Object []fields)
+  {
+    Object []fieldOrder = _fieldOrder;
+
+    if (fields.length != fieldOrder.length)
+      return false;
+
+    for (int i = 0; i < fields.length; i++) {
+      if (fields[i] != fieldOrder[i])
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Base class of the generated field readers.
+   */
+  public abstract static class FieldReader {
+    protected static final Unsafe _unsafe = UnsafeSerializer.getUnsafe();
+
+    private Class<?> []_types;
+
+    void init(Class<?> []types)
+    {
+      _types = types;
+    }
+
+    /**
+     * Reads the object's fields in the serializer's order.
+     */
+    public abstract void readFields(AbstractHessianInput in, Object obj)
+      throws IOException;
+
+    protected static char readChar(AbstractHessianInput in)
+      throws IOException
+    {
+      String value = in.readString();
+
+      if (value != null && value.length() > 0)
+        return value.charAt(0);
+      else
+        return 0;
+    }
+
+    protected final Object readField(AbstractHessianInput in, int index)
+      throws IOException
+    {
+      Class<?> type = _types[index];
+
+      if (java.sql.Date.class.equals(type)) {
+        java.util.Date date = (java.util.Date) in.readObject();
+
+        return date != null ? new java.sql.Date(date.getTime()) : null;
+      }
+      else if (java.sql.Timestamp.class.equals(type)) {
+        java.util.Date date = (java.util.Date) in.readObject();
+
+        return date != null ? new java.sql.Timestamp(date.getTime()) : null;
+      }
+      else if (java.sql.Time.class.equals(type)) {
+        java.util.Date date = (java.util.Date) in.readObject();
+
+        return date != null ? new java.sql.Time(date.getTime()) : null;
+      }
+
+      Object value = in.readObject(type);
+
+      if (value != null && ! type.isInstance(value)) {
+        throw new HessianFieldException(value.getClass().getName()
+                                        + " (" + value + ")"
+                                        + " cannot be assigned to '"
+                                        + type.getName() + "'");
+      }
+
+      return value;
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sun.misc.Unsafe;
+
+import com.caucho.hessian.HessianUnshared;
+
+/**
+ * Serializing an object with a generated field writer. The writer is
+ * a class generated at first use with the field offsets as constants
+ * and a straight-line sequence of reads and writes.
+ */
+public class GeneratedSerializer extends UnsafeSerializer
+{
+  private static final Logger log
+    = Logger.getLogger(GeneratedSerializer.class.getName());
+
+  private static final boolean _isEnabled;
+
+  private static final WeakHashMap<Class<?>,SoftReference<GeneratedSerializer>> _serializerMap
+    = new WeakHashMap<Class<?>,SoftReference<GeneratedSerializer>>();
+
+  private final FieldWriter _writer;
+
+  private GeneratedSerializer(Class<?> cl)
+    throws Exception
+  {
+    super(cl);
+
+    _writer = SerializerGenerator.generateWriter(cl, getFields());
+  }
+
+  /**
+   * True if generated serializers are enabled by default, using the
+   * com.caucho.hessian.generated system property.
+   */
+  public static boolean isEnabled()
+  {
+    return _isEnabled;
+  }
+
+  /**
+   * Returns the generated serializer for the class, or null if the
+   * class can't use a generated serializer.
+   */
+  public static GeneratedSerializer create(Class<?> cl)
+  {
+    if (! UnsafeSerializer.isEnabled()
+        || cl.isAnnotationPresent(HessianUnshared.class)) {
+      return null;
+    }
+
+    synchronized (_serializerMap) {
+      SoftReference<GeneratedSerializer> baseRef
+        = _serializerMap.get(cl);
+
+      GeneratedSerializer base = baseRef != null ? baseRef.get() : null;
+
+      if (base == null) {
+        try {
+          if (SerializerGenerator.FIELD_MAX
+              < UnsafeSerializer.getFieldList(cl).length) {
+            return null;
+          }
+
+          base = new GeneratedSerializer(cl);
+        } catch (Throwable e) {
+          log.log(Level.FINE, cl.getName() + ": " + e, e);
+
+          return null;
+        }
+
+        baseRef = new SoftReference<GeneratedSerializer>(base);
+        _serializerMap.put(cl, baseRef);
+      }
+
+      return base;
+    }
+  }
+
+  @Override
+  public void writeInstance(Object obj, AbstractHessianOutput out)
+    throws IOException
+  {
+    try {
+      _writer.writeFields(obj, out);
+    } catch (RuntimeException e) {
+      throw new RuntimeException(e.getMessage() + "\n class: "
+                                 + obj.getClass().getName()
+                                 + " (object=" + obj + ")",
+                                 e);
+    } catch (IOException e) {
+      throw new IOExceptionWrapper(e.getMessage() + "\n class: "
+                                   + obj.getClass().getName()
+                                   + " (object=" + obj + ")",
+                                   e);
+    }
+  }
+
+  /**
+   * Base class of the generated field writers.
+   */
+  public abstract static class FieldWriter {
+    protected static final Unsafe _unsafe = UnsafeSerializer.getUnsafe();
+
+    /**
+     * Writes the object's fields in the serializer's order.
+     */
+    public abstract void writeFields(Object obj, AbstractHessianOutput out)
+      throws IOException;
+
+    protected static void writeString(AbstractHessianOutput out,
+                                      Object value)
+      throws IOException
+    {
+      out.writeString((String) value);
+    }
+
+    protected static void writeDate(AbstractHessianOutput out, Object value)
+      throws IOException
+    {
+      if (value == null)
+        out.writeNull();
+      else
+        out.writeUTCDate(((java.util.Date) value).getTime());
+    }
+  }
+
+  static {
+    boolean isEnabled = false;
+
+    try {
+      String prop = System.getProperty("com.caucho.hessian.generated");
+
+      isEnabled = "true".equals(prop);
+    } catch (Throwable e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+
+    _isEnabled = isEnabled;
+  }
+}
@@ -50,6 +50,7 @@ package com.caucho.hessian.io;
 
 import java.io.*;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -83,6 +84,7 @@ public class Hessian2Input
   private static Field _detailMessageField;
 
   private static final int SIZE = 1024;
+  private static final int SIZE_MIN = 256;
   private static final int GAP = 16;
   
   // standard, unmodified factory for deserializing objects
@@ -101,7 +103,9 @@ public class Hessian2Input
   
   // the underlying input stream
   private InputStream _is;
-  private final byte []_buffer = new byte[SIZE];
+  private final byte []_buffer;
+  // copy buffer for direct NIO buffers
+  private byte []_tempBuffer;
   
   // a peek character
   private int _offset;
@@ -122,6 +126,23 @@ public class Hessian2Input
   
   public Hessian2Input()
   {
+    this(SIZE);
+  }
+
+  /**
+   * Creates a new Hessian input stream with a given buffer size.
+   * Reads of large binary data bypass the buffer.
+   *
+   * @param bufferSize the size of the read buffer
+   */
+  public Hessian2Input(int bufferSize)
+  {
+    if (bufferSize < SIZE_MIN)
+      throw new IllegalArgumentException("buffer size " + bufferSize
+                                         + " must be at least " + SIZE_MIN);
+
+    _buffer = new byte[bufferSize];
+
     if (log.isLoggable(Level.FINEST)) {
       _dIs = new HessianDebugInputStream(log, Level.FINEST);
     }
@@ -140,6 +161,20 @@ public class Hessian2Input
     init(is);
   }
 
+  /**
+   * Creates a new Hessian input stream, initialized with an
+   * underlying input stream and a given buffer size.
+   *
+   * @param is the underlying input stream.
+   * @param bufferSize the size of the read buffer
+   */
+  public Hessian2Input(InputStream is, int bufferSize)
+  {
+    this(bufferSize);
+    
+    init(is);
+  }
+
   /**
    * Sets the serializer factory.
    */
@@ -1424,16 +1459,38 @@ public class Hessian2Input
 
     case BC_BINARY:
     case BC_BINARY_CHUNK:
-      _isLastChunk = tag == BC_BINARY;
-      _chunkLength = (read() << 8) + read();
+      {
+        _isLastChunk = tag == BC_BINARY;
+        _chunkLength = (read() << 8) + read();
 
-      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte []buffer = new byte[_chunkLength];
+        int offset = 0;
 
-      int data;
-      while ((data = parseByte()) >= 0)
-        bos.write(data);
+        while (_chunkLength > 0 || ! _isLastChunk) {
+          if (offset == buffer.length) {
+            byte []newBuffer = new byte[2 * buffer.length + _buffer.length];
+            System.arraycopy(buffer, 0, newBuffer, 0, offset);
+            buffer = newBuffer;
+          }
 
-      return bos.toByteArray();
+          int sublen = read(buffer, offset, buffer.length - offset);
+
+          if (sublen <= 0)
+            break;
+
+          offset += sublen;
+        }
+
+        _chunkLength = 0;
+
+        if (offset < buffer.length) {
+          byte []newBuffer = new byte[offset];
+          System.arraycopy(buffer, 0, newBuffer, 0, offset);
+          buffer = newBuffer;
+        }
+
+        return buffer;
+      }
 
     case 0x20: case 0x21: case 0x22: case 0x23:
     case 0x24: case 0x25: case 0x26: case 0x27:
@@ -1447,7 +1504,7 @@ public class Hessian2Input
 
         int offset = 0;
         while (offset < _chunkLength) {
-          int sublen = read(buffer, 0, _chunkLength - offset);
+          int sublen = read(buffer, offset, _chunkLength - offset);
 
           if (sublen <= 0)
             break;
@@ -1467,7 +1524,7 @@ public class Hessian2Input
 
         int offset = 0;
         while (offset < _chunkLength) {
-          int sublen = read(buffer, 0, _chunkLength - offset);
+          int sublen = read(buffer, offset, _chunkLength - offset);
 
           if (sublen <= 0)
             break;
@@ -1610,10 +1667,20 @@ public class Hessian2Input
 
     while (length > 0) {
       if (_chunkLength > 0) {
-        buffer[offset++] = (byte) read();
-        _chunkLength--;
-        length--;
-        readLength++;
+        int sublen = _chunkLength;
+
+        if (length < sublen)
+          sublen = length;
+
+        sublen = readRaw(buffer, offset, sublen);
+
+        if (sublen <= 0)
+          return readLength > 0 ? readLength : -1;
+
+        offset += sublen;
+        _chunkLength -= sublen;
+        length -= sublen;
+        readLength += sublen;
       }
       else if (_isLastChunk) {
         if (readLength == 0)
@@ -1632,6 +1699,19 @@ public class Hessian2Input
           _isLastChunk = tag == 'B';
           _chunkLength = (read() << 8) + read();
           break;
+
+        case 0x20: case 0x21: case 0x22: case 0x23:
+        case 0x24: case 0x25: case 0x26: case 0x27:
+        case 0x28: case 0x29: case 0x2a: case 0x2b:
+        case 0x2c: case 0x2d: case 0x2e: case 0x2f:
+          _isLastChunk = true;
+          _chunkLength = tag - 0x20;
+          break;
+
+        case 0x34: case 0x35: case 0x36: case 0x37:
+          _isLastChunk = true;
+          _chunkLength = (tag - 0x34) * 256 + read();
+          break;
       
         default:
           throw expect("binary", tag);
@@ -1649,6 +1729,46 @@ public class Hessian2Input
     }
   }
 
+  /**
+   * Reads binary data into a NIO byte buffer, advancing the buffer's
+   * position. Heap buffers are filled directly.
+   *
+   * @return the number of bytes read, or -1 at the end of the data
+   */
+  public int readBytes(ByteBuffer buffer)
+    throws IOException
+  {
+    if (buffer.hasArray()) {
+      int len = readBytes(buffer.array(),
+                          buffer.arrayOffset() + buffer.position(),
+                          buffer.remaining());
+
+      if (len > 0)
+        buffer.position(buffer.position() + len);
+
+      return len;
+    }
+
+    byte []tempBuffer = _tempBuffer;
+
+    if (tempBuffer == null) {
+      tempBuffer = new byte[_buffer.length];
+      _tempBuffer = tempBuffer;
+    }
+
+    int length = buffer.remaining();
+
+    if (tempBuffer.length < length)
+      length = tempBuffer.length;
+
+    int len = readBytes(tempBuffer, 0, length);
+
+    if (len > 0)
+      buffer.put(tempBuffer, 0, len);
+
+    return len;
+  }
+
   /**
    * Reads a fault.
    */
@@ -2794,15 +2914,10 @@ public class Hessian2Input
       if (length < sublen)
         sublen = length;
 
-      if (_length <= _offset && ! readBuffer())
-        return -1;
-      
-      if (_length - _offset < sublen)
-        sublen = _length - _offset;
-
-      System.arraycopy(_buffer, _offset, buffer, offset, sublen);
+      sublen = readRaw(buffer, offset, sublen);
 
-      _offset += sublen;
+      if (sublen <= 0)
+        return -1;
       
       offset += sublen;
       readLength += sublen;
@@ -2813,6 +2928,36 @@ public class Hessian2Input
     return readLength;
   }
 
+  /**
+   * Reads raw bytes from the buffer. When the buffer is empty, large
+   * reads go directly from the underlying stream into the caller's
+   * buffer.
+   */
+  private int readRaw(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    int available = _length - _offset;
+
+    if (available <= 0) {
+      if (_buffer.length <= length)
+        return _is.read(buffer, offset, length);
+
+      if (! readBuffer())
+        return -1;
+
+      available = _length - _offset;
+    }
+
+    if (available < length)
+      length = available;
+
+    System.arraycopy(_buffer, _offset, buffer, offset, length);
+
+    _offset += length;
+
+    return length;
+  }
+
   /**
    * Normally, shouldn't be called externally, but needed for QA, e.g.
    * ejb/3b01.
@@ -2848,7 +2993,7 @@ public class Hessian2Input
     else
       offset = 0;
     
-    int len = _is.read(buffer, offset, SIZE - offset);
+    int len = _is.read(buffer, offset, buffer.length - offset);
 
     if (len <= 0) {
       _length = offset;
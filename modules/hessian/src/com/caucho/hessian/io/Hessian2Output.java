@@ -53,6 +53,7 @@ import com.caucho.hessian.util.IdentityIntMap;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 
 /**
@@ -81,6 +82,10 @@ public class Hessian2Output
   // should match Resin buffer size for perf
   public final static int SIZE = 8 * 1024;
 
+  // chunk lengths are 16-bits, which limits the buffer size
+  public final static int SIZE_MIN = 1024;
+  public final static int SIZE_MAX = 64 * 1024;
+
   // the output stream/
   protected OutputStream _os;
 
@@ -99,7 +104,7 @@ public class Hessian2Output
   // map of types
   private HashMap<String,Integer> _typeRefs;
 
-  private final byte []_buffer = new byte[SIZE];
+  private final byte []_buffer;
   private int _offset;
 
   private boolean _isPacket;
@@ -114,6 +119,22 @@ public class Hessian2Output
    */
   public Hessian2Output()
   {
+    this(SIZE);
+  }
+
+  /**
+   * Creates a new Hessian output stream with a given buffer size.
+   *
+   * @param bufferSize the buffer size, between SIZE_MIN and SIZE_MAX.
+   */
+  public Hessian2Output(int bufferSize)
+  {
+    if (bufferSize < SIZE_MIN || SIZE_MAX < bufferSize)
+      throw new IllegalArgumentException("buffer size " + bufferSize
+                                         + " must be between " + SIZE_MIN
+                                         + " and " + SIZE_MAX);
+
+    _buffer = new byte[bufferSize];
   }
 
   /**
@@ -124,6 +145,22 @@ public class Hessian2Output
    */
   public Hessian2Output(OutputStream os)
   {
+    this();
+
+    init(os);
+  }
+
+  /**
+   * Creates a new Hessian output stream, initialized with an
+   * underlying output stream and a given buffer size.
+   *
+   * @param os the underlying output stream.
+   * @param bufferSize the buffer size, between SIZE_MIN and SIZE_MAX.
+   */
+  public Hessian2Output(OutputStream os, int bufferSize)
+  {
+    this(bufferSize);
+
     init(os);
   }
 
@@ -207,7 +244,7 @@ public class Hessian2Output
   {
     int offset = _offset;
 
-    if (SIZE < offset + 32) {
+    if (_buffer.length < offset + 32) {
       flushBuffer();
       offset = _offset;
     }
@@ -254,7 +291,7 @@ public class Hessian2Output
   {
     int offset = _offset;
 
-    if (SIZE < offset + 32) {
+    if (_buffer.length < offset + 32) {
       flushBuffer();
       offset = _offset;
     }
@@ -542,7 +579,7 @@ public class Hessian2Output
   public void writeMapBegin(String type)
     throws IOException
   {
-    if (SIZE < _offset + 32)
+    if (_buffer.length < _offset + 32)
       flushBuffer();
 
     if (type != null) {
@@ -560,7 +597,7 @@ public class Hessian2Output
   public void writeMapEnd()
     throws IOException
   {
-    if (SIZE < _offset + 32)
+    if (_buffer.length < _offset + 32)
       flushBuffer();
 
     _buffer[_offset++] = (byte) BC_END;
@@ -581,7 +618,7 @@ public class Hessian2Output
     int ref = _classRefs.put(type, newRef, false);
 
     if (newRef != ref) {
-      if (SIZE < _offset + 32)
+      if (_buffer.length < _offset + 32)
         flushBuffer();
 
       if (ref <= OBJECT_DIRECT_MAX) {
@@ -595,7 +632,7 @@ public class Hessian2Output
       return ref;
     }
     else {
-      if (SIZE < _offset + 32)
+      if (_buffer.length < _offset + 32)
         flushBuffer();
 
       _buffer[_offset++] = (byte) 'C';
@@ -673,7 +710,7 @@ public class Hessian2Output
   public void writeBoolean(boolean value)
     throws IOException
   {
-    if (SIZE < _offset + 16)
+    if (_buffer.length < _offset + 16)
       flushBuffer();
 
     if (value)
@@ -699,7 +736,7 @@ public class Hessian2Output
     int offset = _offset;
     byte []buffer = _buffer;
 
-    if (SIZE <= offset + 16) {
+    if (_buffer.length <= offset + 16) {
       flushBuffer();
       offset = _offset;
     }
@@ -742,7 +779,7 @@ public class Hessian2Output
     int offset = _offset;
     byte []buffer = _buffer;
 
-    if (SIZE <= offset + 16) {
+    if (_buffer.length <= offset + 16) {
       flushBuffer();
       offset = _offset;
     }
@@ -801,7 +838,7 @@ public class Hessian2Output
     int offset = _offset;
     byte []buffer = _buffer;
 
-    if (SIZE <= offset + 16) {
+    if (_buffer.length <= offset + 16) {
       flushBuffer();
       offset = _offset;
     }
@@ -884,7 +921,7 @@ public class Hessian2Output
   public void writeUTCDate(long time)
     throws IOException
   {
-    if (SIZE < _offset + 32)
+    if (_buffer.length < _offset + 32)
       flushBuffer();
 
     int offset = _offset;
@@ -936,7 +973,7 @@ public class Hessian2Output
     int offset = _offset;
     byte []buffer = _buffer;
 
-    if (SIZE <= offset + 16) {
+    if (_buffer.length <= offset + 16) {
       flushBuffer();
       offset = _offset;
     }
@@ -968,7 +1005,7 @@ public class Hessian2Output
     int offset = _offset;
     byte []buffer = _buffer;
 
-    if (SIZE <= offset + 16) {
+    if (_buffer.length <= offset + 16) {
       flushBuffer();
       offset = _offset;
     }
@@ -987,7 +1024,7 @@ public class Hessian2Output
 
         offset = _offset;
 
-        if (SIZE <= offset + 16) {
+        if (_buffer.length <= offset + 16) {
           flushBuffer();
           offset = _offset;
         }
@@ -1012,7 +1049,7 @@ public class Hessian2Output
 
       offset = _offset;
 
-      if (SIZE <= offset + 16) {
+      if (_buffer.length <= offset + 16) {
         flushBuffer();
         offset = _offset;
       }
@@ -1056,7 +1093,7 @@ public class Hessian2Output
     throws IOException
   {
     if (buffer == null) {
-      if (SIZE < _offset + 16)
+      if (_buffer.length < _offset + 16)
         flushBuffer();
 
       _buffer[_offset++] = (byte) ('N');
@@ -1065,7 +1102,7 @@ public class Hessian2Output
       while (length > 0x8000) {
         int sublen = 0x8000;
 
-        if (SIZE < _offset + 16)
+        if (_buffer.length < _offset + 16)
           flushBuffer();
 
         // chunk can't end in high surrogate
@@ -1084,7 +1121,7 @@ public class Hessian2Output
         offset += sublen;
       }
 
-      if (SIZE < _offset + 16)
+      if (_buffer.length < _offset + 16)
         flushBuffer();
 
       if (length <= STRING_DIRECT_MAX) {
@@ -1124,7 +1161,7 @@ public class Hessian2Output
     throws IOException
   {
     if (buffer == null) {
-      if (SIZE < _offset + 16)
+      if (_buffer.length < _offset + 16)
         flushBuffer();
 
       _buffer[_offset++] = 'N';
@@ -1153,19 +1190,22 @@ public class Hessian2Output
     throws IOException
   {
     if (buffer == null) {
-      if (SIZE < _offset + 16)
+      if (_buffer.length < _offset + 16)
         flushBuffer();
 
       _buffer[_offset++] = (byte) 'N';
     }
+    else if (_buffer.length <= length && ! _isPacket && _os != null) {
+      writeBytesDirect(buffer, offset, length, true);
+    }
     else {
-      while (SIZE - _offset - 3 < length) {
-        int sublen = SIZE - _offset - 3;
+      while (_buffer.length - _offset - 3 < length) {
+        int sublen = _buffer.length - _offset - 3;
 
         if (sublen < 16) {
           flushBuffer();
 
-          sublen = SIZE - _offset - 3;
+          sublen = _buffer.length - _offset - 3;
 
           if (length < sublen)
             sublen = length;
@@ -1184,7 +1224,7 @@ public class Hessian2Output
         flushBuffer();
       }
 
-      if (SIZE < _offset + 16)
+      if (_buffer.length < _offset + 16)
         flushBuffer();
 
       if (length <= BINARY_DIRECT_MAX) {
@@ -1206,6 +1246,87 @@ public class Hessian2Output
     }
   }
 
+  /**
+   * Writes the contents of a NIO byte buffer as a binary value,
+   * advancing the buffer's position. Large heap buffers are written
+   * directly to the underlying stream.
+   */
+  public void writeBytes(ByteBuffer buffer)
+    throws IOException
+  {
+    if (buffer == null) {
+      writeBytes(null, 0, 0);
+      return;
+    }
+
+    int length = buffer.remaining();
+
+    if (buffer.hasArray()) {
+      writeBytes(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                 length);
+
+      buffer.position(buffer.limit());
+      return;
+    }
+
+    do {
+      if (_buffer.length < _offset + 16)
+        flushBuffer();
+
+      int sublen = _buffer.length - _offset - 3;
+
+      if (length <= sublen) {
+        sublen = length;
+
+        _buffer[_offset++] = (byte) 'B';
+      }
+      else
+        _buffer[_offset++] = (byte) BC_BINARY_CHUNK;
+
+      _buffer[_offset++] = (byte) (sublen >> 8);
+      _buffer[_offset++] = (byte) sublen;
+
+      buffer.get(_buffer, _offset, sublen);
+
+      _offset += sublen;
+      length -= sublen;
+    } while (length > 0);
+  }
+
+  /**
+   * Writes large binary data as chunks whose data bypasses the
+   * buffer. Only the chunk headers are copied into the buffer.
+   */
+  private void writeBytesDirect(byte []buffer, int offset, int length,
+                                boolean isFinal)
+    throws IOException
+  {
+    do {
+      int sublen = length;
+
+      if (0xffff < sublen)
+        sublen = 0xffff;
+
+      if (_buffer.length < _offset + 16)
+        flushBuffer();
+
+      if (isFinal && sublen == length)
+        _buffer[_offset++] = (byte) 'B';
+      else
+        _buffer[_offset++] = (byte) BC_BINARY_CHUNK;
+
+      _buffer[_offset++] = (byte) (sublen >> 8);
+      _buffer[_offset++] = (byte) sublen;
+
+      flushBuffer();
+
+      _os.write(buffer, offset, sublen);
+
+      offset += sublen;
+      length -= sublen;
+    } while (length > 0);
+  }
+
   /**
    * Writes a byte buffer to the stream.
    *
@@ -1227,10 +1348,15 @@ public class Hessian2Output
   public void writeByteBufferPart(byte []buffer, int offset, int length)
     throws IOException
   {
+    if (_buffer.length <= length && ! _isPacket && _os != null) {
+      writeBytesDirect(buffer, offset, length, false);
+      return;
+    }
+
     while (length > 0) {
       flushIfFull();
 
-      int sublen = _buffer.length - _offset;
+      int sublen = _buffer.length - _offset - 3;
 
       if (length < sublen)
         sublen = length;
@@ -1277,11 +1403,11 @@ public class Hessian2Output
     throws IOException
   {
     while (true) {
-      int len = SIZE - _offset - 3;
+      int len = _buffer.length - _offset - 3;
 
       if (len < 16) {
         flushBuffer();
-        len = SIZE - _offset - 3;
+        len = _buffer.length - _offset - 3;
       }
 
       len = is.read(_buffer, _offset + 3, len);
@@ -1312,7 +1438,7 @@ public class Hessian2Output
   protected void writeRef(int value)
     throws IOException
   {
-    if (SIZE < _offset + 16)
+    if (_buffer.length < _offset + 16)
       flushBuffer();
 
     _buffer[_offset++] = (byte) BC_REF;
@@ -1497,7 +1623,7 @@ public class Hessian2Output
   public void printLenString(String v)
     throws IOException
   {
-    if (SIZE < _offset + 16)
+    if (_buffer.length < _offset + 16)
       flushBuffer();
 
     if (v == null) {
@@ -1536,7 +1662,7 @@ public class Hessian2Output
     byte []buffer = _buffer;
 
     for (int i = 0; i < length; i++) {
-      if (SIZE <= offset + 16) {
+      if (_buffer.length <= offset + 16) {
         _offset = offset;
         flushBuffer();
         offset = _offset;
@@ -1572,7 +1698,7 @@ public class Hessian2Output
     byte []buffer = _buffer;
 
     for (int i = 0; i < length; i++) {
-      if (SIZE <= offset + 16) {
+      if (_buffer.length <= offset + 16) {
         _offset = offset;
         flushBuffer();
         offset = _offset;
@@ -1601,7 +1727,7 @@ public class Hessian2Output
   {
     int offset = _offset;
 
-    if (SIZE < offset + 32) {
+    if (_buffer.length < offset + 32) {
       flushBuffer();
     }
   }
@@ -1705,7 +1831,7 @@ public class Hessian2Output
     BytesOutputStream()
       throws IOException
     {
-      if (SIZE < _offset + 16) {
+      if (_buffer.length < _offset + 16) {
         Hessian2Output.this.flushBuffer();
       }
 
@@ -1717,7 +1843,7 @@ public class Hessian2Output
     public void write(int ch)
       throws IOException
     {
-      if (SIZE <= _offset) {
+      if (_buffer.length <= _offset) {
         int length = (_offset - _startOffset) - 3;
 
         _buffer[_startOffset] = (byte) BC_BINARY_CHUNK;
@@ -1738,7 +1864,7 @@ public class Hessian2Output
       throws IOException
     {
       while (length > 0) {
-        int sublen = SIZE - _offset;
+        int sublen = _buffer.length - _offset;
 
         if (length < sublen)
           sublen = length;
@@ -1751,7 +1877,7 @@ public class Hessian2Output
         length -= sublen;
         offset += sublen;
 
-        if (SIZE <= _offset) {
+        if (_buffer.length <= _offset) {
           int chunkLength = (_offset - _startOffset) - 3;
 
           _buffer[_startOffset] = (byte) BC_BINARY_CHUNK;
@@ -110,6 +110,8 @@ public class SerializerFactory extends AbstractSerializerFactory
   private boolean _isEnableUnsafeSerializer
     = (UnsafeSerializer.isEnabled()
         && UnsafeDeserializer.isEnabled());
+  private boolean _isEnableGeneratedSerializer
+    = GeneratedSerializer.isEnabled();
   
   private ClassFactory _classFactory;
 
@@ -195,6 +197,24 @@ public class SerializerFactory extends AbstractSerializerFactory
     return _isAllowNonSerializable;
   }
 
+  /**
+   * If true, generates a field writer and reader class for each
+   * serialized type instead of the field serializer arrays.
+   */
+  public void setEnableGeneratedSerializer(boolean isEnable)
+  {
+    _isEnableGeneratedSerializer = isEnable;
+  }
+
+  /**
+   * If true, generates a field writer and reader class for each
+   * serialized type instead of the field serializer arrays.
+   */
+  public boolean isEnableGeneratedSerializer()
+  {
+    return _isEnableGeneratedSerializer;
+  }
+
   /**
    * Returns the serializer for a class.
    *
@@ -375,6 +395,13 @@ public class SerializerFactory extends AbstractSerializerFactory
     
     if (_isEnableUnsafeSerializer
         && JavaSerializer.getWriteReplace(cl) == null) {
+      if (_isEnableGeneratedSerializer) {
+        Serializer serializer = GeneratedSerializer.create(cl);
+
+        if (serializer != null)
+          return serializer;
+      }
+
       return UnsafeSerializer.create(cl);
     }
     else
@@ -525,6 +552,13 @@ public class SerializerFactory extends AbstractSerializerFactory
       return InputStreamDeserializer.DESER;
     
     if (_isEnableUnsafeSerializer) {
+      if (_isEnableGeneratedSerializer) {
+        Deserializer deserializer = GeneratedDeserializer.create(cl);
+
+        if (deserializer != null)
+          return deserializer;
+      }
+
       return new UnsafeDeserializer(cl);
     }
     else
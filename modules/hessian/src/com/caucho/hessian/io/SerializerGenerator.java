@@ -0,0 +1,579 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import sun.misc.Unsafe;
+
+/**
+ * Generates the straight-line field writers and readers used by
+ * GeneratedSerializer and GeneratedDeserializer.
+ *
+ * The generated class has the Unsafe field offsets as constants, so
+ * each field is a direct Unsafe get or put and a Hessian call, without
+ * the per-field dispatch through a FieldSerializer array. The target
+ * class is only referenced as Object, so the generated class can live
+ * in its own class loader below the Hessian classes.
+ */
+final class SerializerGenerator
+{
+  static final int FIELD_MAX = 1024;
+
+  private static final String GEN_PACKAGE = "com.caucho.hessian.io.gen.";
+
+  private static final String UNSAFE = "sun/misc/Unsafe";
+  private static final String OBJECT = "java/lang/Object";
+  private static final String STRING = "java/lang/String";
+  private static final String OUTPUT
+    = "com/caucho/hessian/io/AbstractHessianOutput";
+  private static final String INPUT
+    = "com/caucho/hessian/io/AbstractHessianInput";
+  private static final String WRITER
+    = "com/caucho/hessian/io/GeneratedSerializer$FieldWriter";
+  private static final String READER
+    = "com/caucho/hessian/io/GeneratedDeserializer$FieldReader";
+
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+
+  private static final int CP_UTF8 = 1;
+  private static final int CP_LONG = 5;
+  private static final int CP_CLASS = 7;
+  private static final int CP_FIELD_REF = 9;
+  private static final int CP_METHOD_REF = 10;
+  private static final int CP_NAME_AND_TYPE = 12;
+
+  private static final int ALOAD_0 = 0x2a;
+  private static final int ALOAD_1 = 0x2b;
+  private static final int ALOAD_2 = 0x2c;
+  private static final int LDC2_W = 0x14;
+  private static final int SIPUSH = 0x11;
+  private static final int F2D = 0x8d;
+  private static final int D2F = 0x90;
+  private static final int I2B = 0x91;
+  private static final int I2S = 0x93;
+  private static final int RETURN = 0xb1;
+  private static final int GETSTATIC = 0xb2;
+  private static final int INVOKEVIRTUAL = 0xb6;
+  private static final int INVOKESPECIAL = 0xb7;
+  private static final int INVOKESTATIC = 0xb8;
+
+  private static final AtomicInteger _sequence = new AtomicInteger();
+
+  private final ByteArrayOutputStream _poolBuffer
+    = new ByteArrayOutputStream();
+  private final DataOutputStream _pool = new DataOutputStream(_poolBuffer);
+  private final HashMap<String,Integer> _poolMap
+    = new HashMap<String,Integer>();
+  private int _poolCount = 1;
+
+  private final ByteArrayOutputStream _codeBuffer
+    = new ByteArrayOutputStream();
+  private final DataOutputStream _code = new DataOutputStream(_codeBuffer);
+
+  private SerializerGenerator()
+  {
+  }
+
+  /**
+   * Generates a writer for the fields, in the serializer's order.
+   */
+  static GeneratedSerializer.FieldWriter generateWriter(Class<?> cl,
+                                                        Field []fields)
+    throws Exception
+  {
+    Unsafe unsafe = UnsafeSerializer.getUnsafe();
+    SerializerGenerator gen = new SerializerGenerator();
+
+    for (Field field : fields) {
+      long offset = unsafe.objectFieldOffset(field);
+
+      if (offset == Unsafe.INVALID_FIELD_OFFSET)
+        throw new IllegalStateException(field.toString());
+
+      gen.writeField(field.getType(), offset);
+    }
+
+    gen.op(RETURN);
+
+    String name = GEN_PACKAGE + getName(cl) + "__Writer" + _sequence.incrementAndGet();
+
+    byte []bytes = gen.toClass(name, WRITER, "writeFields",
+                               "(L" + OBJECT + ";L" + OUTPUT + ";)V",
+                               5, 3);
+
+    Class<?> genClass = new GeneratorClassLoader().define(name, bytes);
+
+    return (GeneratedSerializer.FieldWriter) genClass.newInstance();
+  }
+
+  /**
+   * Generates a reader for the fields, in the serializer's order.
+   */
+  static GeneratedDeserializer.FieldReader generateReader(Class<?> cl,
+                                                          Field []fields)
+    throws Exception
+  {
+    Unsafe unsafe = UnsafeSerializer.getUnsafe();
+    SerializerGenerator gen = new SerializerGenerator();
+
+    Class<?> []types = new Class<?>[fields.length];
+
+    for (int i = 0; i < fields.length; i++) {
+      Field field = fields[i];
+      long offset = unsafe.objectFieldOffset(field);
+
+      if (offset == Unsafe.INVALID_FIELD_OFFSET)
+        throw new IllegalStateException(field.toString());
+
+      types[i] = field.getType();
+
+      gen.readField(field.getType(), offset, i);
+    }
+
+    gen.op(RETURN);
+
+    String name = GEN_PACKAGE + getName(cl) + "__Reader" + _sequence.incrementAndGet();
+
+    byte []bytes = gen.toClass(name, READER, "readFields",
+                               "(L" + INPUT + ";L" + OBJECT + ";)V",
+                               7, 3);
+
+    Class<?> genClass = new GeneratorClassLoader().define(name, bytes);
+
+    GeneratedDeserializer.FieldReader reader
+      = (GeneratedDeserializer.FieldReader) genClass.newInstance();
+
+    reader.init(types);
+
+    return reader;
+  }
+
+  private static String getName(Class<?> cl)
+  {
+    StringBuilder sb = new StringBuilder();
+    String name = cl.getName();
+
+    for (int i = 0; i < name.length(); i++) {
+      char ch = name.charAt(i);
+
+      if (Character.isJavaIdentifierPart(ch))
+        sb.append(ch);
+      else
+        sb.append('_');
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Writes a single field: locals are (this, obj, out).
+   */
+  private void writeField(Class<?> type, long offset)
+    throws IOException
+  {
+    op(ALOAD_2);
+    op(GETSTATIC);
+    _code.writeShort(addFieldRef(WRITER, "_unsafe", "L" + UNSAFE + ";"));
+    op(ALOAD_1);
+    op(LDC2_W);
+    _code.writeShort(addLong(offset));
+
+    if (boolean.class.equals(type)) {
+      invoke(INVOKEVIRTUAL, UNSAFE, "getBoolean", "(L" + OBJECT + ";J)Z");
+      invoke(INVOKEVIRTUAL, OUTPUT, "writeBoolean", "(Z)V");
+    }
+    else if (byte.class.equals(type)) {
+      invoke(INVOKEVIRTUAL, UNSAFE, "getByte", "(L" + OBJECT + ";J)B");
+      invoke(INVOKEVIRTUAL, OUTPUT, "writeInt", "(I)V");
+    }
+    else if (short.class.equals(type)) {
+      invoke(INVOKEVIRTUAL, UNSAFE, "getShort", "(L" + OBJECT + ";J)S");
+      invoke(INVOKEVIRTUAL, OUTPUT, "writeInt", "(I)V");
+    }
+    else if (int.class.equals(type)) {
+      invoke(INVOKEVIRTUAL, UNSAFE, "getInt", "(L" + OBJECT + ";J)I");
+      invoke(INVOKEVIRTUAL, OUTPUT, "writeInt", "(I)V");
+    }
+    else if (long.class.equals(type)) {
+      invoke(INVOKEVIRTUAL, UNSAFE, "getLong", "(L" + OBJECT + ";J)J");
+      invoke(INVOKEVIRTUAL, OUTPUT, "writeLong", "(J)V");
+    }
+    else if (float.class.equals(type)) {
+      invoke(INVOKEVIRTUAL, UNSAFE, "getFloat", "(L" + OBJECT + ";J)F");
+      op(F2D);
+      invoke(INVOKEVIRTUAL, OUTPUT, "writeDouble", "(D)V");
+    }
+    else if (double.class.equals(type)) {
+      invoke(INVOKEVIRTUAL, UNSAFE, "getDouble", "(L" + OBJECT + ";J)D");
+      invoke(INVOKEVIRTUAL, OUTPUT, "writeDouble", "(D)V");
+    }
+    else if (char.class.equals(type)) {
+      invoke(INVOKEVIRTUAL, UNSAFE, "getChar", "(L" + OBJECT + ";J)C");
+      invoke(INVOKESTATIC, STRING, "valueOf", "(C)L" + STRING + ";");
+      invoke(INVOKEVIRTUAL, OUTPUT, "writeString", "(L" + STRING + ";)V");
+    }
+    else if (String.class.equals(type)) {
+      invoke(INVOKEVIRTUAL, UNSAFE, "getObject",
+             "(L" + OBJECT + ";J)L" + OBJECT + ";");
+      invoke(INVOKESTATIC, WRITER, "writeString",
+             "(L" + OUTPUT + ";L" + OBJECT + ";)V");
+    }
+    else if (java.util.Date.class.equals(type)
+             || java.sql.Date.class.equals(type)
+             || java.sql.Timestamp.class.equals(type)
+             || java.sql.Time.class.equals(type)) {
+      invoke(INVOKEVIRTUAL, UNSAFE, "getObject",
+             "(L" + OBJECT + ";J)L" + OBJECT + ";");
+      invoke(INVOKESTATIC, WRITER, "writeDate",
+             "(L" + OUTPUT + ";L" + OBJECT + ";)V");
+    }
+    else {
+      invoke(INVOKEVIRTUAL, UNSAFE, "getObject",
+             "(L" + OBJECT + ";J)L" + OBJECT + ";");
+      invoke(INVOKEVIRTUAL, OUTPUT, "writeObject", "(L" + OBJECT + ";)V");
+    }
+  }
+
+  /**
+   * Reads a single field: locals are (this, in, obj).
+   */
+  private void readField(Class<?> type, long offset, int index)
+    throws IOException
+  {
+    op(GETSTATIC);
+    _code.writeShort(addFieldRef(READER, "_unsafe", "L" + UNSAFE + ";"));
+    op(ALOAD_2);
+    op(LDC2_W);
+    _code.writeShort(addLong(offset));
+
+    if (boolean.class.equals(type)) {
+      op(ALOAD_1);
+      invoke(INVOKEVIRTUAL, INPUT, "readBoolean", "()Z");
+      invoke(INVOKEVIRTUAL, UNSAFE, "putBoolean", "(L" + OBJECT + ";JZ)V");
+    }
+    else if (byte.class.equals(type)) {
+      op(ALOAD_1);
+      invoke(INVOKEVIRTUAL, INPUT, "readInt", "()I");
+      op(I2B);
+      invoke(INVOKEVIRTUAL, UNSAFE, "putByte", "(L" + OBJECT + ";JB)V");
+    }
+    else if (short.class.equals(type)) {
+      op(ALOAD_1);
+      invoke(INVOKEVIRTUAL, INPUT, "readInt", "()I");
+      op(I2S);
+      invoke(INVOKEVIRTUAL, UNSAFE, "putShort", "(L" + OBJECT + ";JS)V");
+    }
+    else if (int.class.equals(type)) {
+      op(ALOAD_1);
+      invoke(INVOKEVIRTUAL, INPUT, "readInt", "()I");
+      invoke(INVOKEVIRTUAL, UNSAFE, "putInt", "(L" + OBJECT + ";JI)V");
+    }
+    else if (long.class.equals(type)) {
+      op(ALOAD_1);
+      invoke(INVOKEVIRTUAL, INPUT, "readLong", "()J");
+      invoke(INVOKEVIRTUAL, UNSAFE, "putLong", "(L" + OBJECT + ";JJ)V");
+    }
+    else if (float.class.equals(type)) {
+      op(ALOAD_1);
+      invoke(INVOKEVIRTUAL, INPUT, "readDouble", "()D");
+      op(D2F);
+      invoke(INVOKEVIRTUAL, UNSAFE, "putFloat", "(L" + OBJECT + ";JF)V");
+    }
+    else if (double.class.equals(type)) {
+      op(ALOAD_1);
+      invoke(INVOKEVIRTUAL, INPUT, "readDouble", "()D");
+      invoke(INVOKEVIRTUAL, UNSAFE, "putDouble", "(L" + OBJECT + ";JD)V");
+    }
+    else if (char.class.equals(type)) {
+      op(ALOAD_1);
+      invoke(INVOKESTATIC, READER, "readChar", "(L" + INPUT + ";)C");
+      invoke(INVOKEVIRTUAL, UNSAFE, "putChar", "(L" + OBJECT + ";JC)V");
+    }
+    else if (String.class.equals(type)) {
+      op(ALOAD_1);
+      invoke(INVOKEVIRTUAL, INPUT, "readString", "()L" + STRING + ";");
+      invoke(INVOKEVIRTUAL, UNSAFE, "putObject",
+             "(L" + OBJECT + ";JL" + OBJECT + ";)V");
+    }
+    else {
+      op(ALOAD_0);
+      op(ALOAD_1);
+      op(SIPUSH);
+      _code.writeShort(index);
+      invoke(INVOKEVIRTUAL, READER, "readField",
+             "(L" + INPUT + ";I)L" + OBJECT + ";");
+      invoke(INVOKEVIRTUAL, UNSAFE, "putObject",
+             "(L" + OBJECT + ";JL" + OBJECT + ";)V");
+    }
+  }
+
+  private void op(int op)
+    throws IOException
+  {
+    _code.writeByte(op);
+  }
+
+  private void invoke(int op, String className, String name, String type)
+    throws IOException
+  {
+    _code.writeByte(op);
+    _code.writeShort(addMethodRef(className, name, type));
+  }
+
+  /**
+   * Builds the class file with a constructor and the single generated
+   * method. The code is straight-line, so the old class file version
+   * avoids the need for a StackMapTable.
+   */
+  private byte []toClass(String name, String superName,
+                         String methodName, String methodType,
+                         int maxStack, int maxLocals)
+    throws IOException
+  {
+    byte []code = _codeBuffer.toByteArray();
+
+    int thisClass = addClass(name.replace('.', '/'));
+    int superClass = addClass(superName);
+    int codeName = addUtf8("Code");
+    int initName = addUtf8("<init>");
+    int initType = addUtf8("()V");
+    int superInit = addMethodRef(superName, "<init>", "()V");
+    int methodNameIndex = addUtf8(methodName);
+    int methodTypeIndex = addUtf8(methodType);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+
+    out.writeInt(0xcafebabe);
+    out.writeShort(0);
+    out.writeShort(49);
+
+    out.writeShort(_poolCount);
+    _pool.flush();
+    _poolBuffer.writeTo(out);
+
+    out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+    out.writeShort(thisClass);
+    out.writeShort(superClass);
+    out.writeShort(0); // interfaces
+    out.writeShort(0); // fields
+
+    out.writeShort(2); // methods
+
+    // constructor
+    out.writeShort(ACC_PUBLIC);
+    out.writeShort(initName);
+    out.writeShort(initType);
+    out.writeShort(1);
+    out.writeShort(codeName);
+    out.writeInt(2 + 2 + 4 + 5 + 2 + 2);
+    out.writeShort(1);
+    out.writeShort(1);
+    out.writeInt(5);
+    out.writeByte(ALOAD_0);
+    out.writeByte(INVOKESPECIAL);
+    out.writeShort(superInit);
+    out.writeByte(RETURN);
+    out.writeShort(0);
+    out.writeShort(0);
+
+    // generated method
+    out.writeShort(ACC_PUBLIC | ACC_FINAL);
+    out.writeShort(methodNameIndex);
+    out.writeShort(methodTypeIndex);
+    out.writeShort(1);
+    out.writeShort(codeName);
+    out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+    out.writeShort(maxStack);
+    out.writeShort(maxLocals);
+    out.writeInt(code.length);
+    out.write(code);
+    out.writeShort(0);
+    out.writeShort(0);
+
+    out.writeShort(0); // attributes
+
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private int addUtf8(String value)
+    throws IOException
+  {
+    String key = "u:" + value;
+    Integer index = _poolMap.get(key);
+
+    if (index == null) {
+      _pool.writeByte(CP_UTF8);
+      _pool.writeUTF(value);
+
+      index = addEntry(key, 1);
+    }
+
+    return index;
+  }
+
+  private int addLong(long value)
+    throws IOException
+  {
+    String key = "j:" + value;
+    Integer index = _poolMap.get(key);
+
+    if (index == null) {
+      _pool.writeByte(CP_LONG);
+      _pool.writeLong(value);
+
+      // long constants take two pool slots
+      index = addEntry(key, 2);
+    }
+
+    return index;
+  }
+
+  private int addClass(String name)
+    throws IOException
+  {
+    String key = "c:" + name;
+    Integer index = _poolMap.get(key);
+
+    if (index == null) {
+      int nameIndex = addUtf8(name);
+
+      _pool.writeByte(CP_CLASS);
+      _pool.writeShort(nameIndex);
+
+      index = addEntry(key, 1);
+    }
+
+    return index;
+  }
+
+  private int addNameAndType(String name, String type)
+    throws IOException
+  {
+    String key = "n:" + name + ":" + type;
+    Integer index = _poolMap.get(key);
+
+    if (index == null) {
+      int nameIndex = addUtf8(name);
+      int typeIndex = addUtf8(type);
+
+      _pool.writeByte(CP_NAME_AND_TYPE);
+      _pool.writeShort(nameIndex);
+      _pool.writeShort(typeIndex);
+
+      index = addEntry(key, 1);
+    }
+
+    return index;
+  }
+
+  private int addFieldRef(String className, String name, String type)
+    throws IOException
+  {
+    return addRef(CP_FIELD_REF, className, name, type);
+  }
+
+  private int addMethodRef(String className, String name, String type)
+    throws IOException
+  {
+    return addRef(CP_METHOD_REF, className, name, type);
+  }
+
+  private int addRef(int tag, String className, String name, String type)
+    throws IOException
+  {
+    String key = tag + ":" + className + "." + name + ":" + type;
+    Integer index = _poolMap.get(key);
+
+    if (index == null) {
+      int classIndex = addClass(className);
+      int nameAndType = addNameAndType(name, type);
+
+      _pool.writeByte(tag);
+      _pool.writeShort(classIndex);
+      _pool.writeShort(nameAndType);
+
+      index = addEntry(key, 1);
+    }
+
+    return index;
+  }
+
+  private Integer addEntry(String key, int slots)
+  {
+    Integer index = _poolCount;
+
+    _poolCount += slots;
+    _poolMap.put(key, index);
+
+    return index;
+  }
+
+  static class GeneratorClassLoader extends ClassLoader {
+    GeneratorClassLoader()
+    {
+      super(SerializerGenerator.class.getClassLoader());
+    }
+
+    Class<?> define(String name, byte []bytes)
+    {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+}
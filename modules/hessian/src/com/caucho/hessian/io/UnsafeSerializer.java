@@ -111,6 +111,21 @@ public class UnsafeSerializer extends AbstractSerializer
   }
 
   protected void introspect(Class<?> cl)
+  {
+    _fields = getFieldList(cl);
+
+    _fieldSerializers = new FieldSerializer[_fields.length];
+
+    for (int i = 0; i < _fields.length; i++) {
+      _fieldSerializers[i] = getFieldSerializer(_fields[i]);
+    }
+  }
+
+  /**
+   * Returns the serialized fields in order: primitive and java.lang
+   * fields first, followed by the compound fields.
+   */
+  static Field []getFieldList(Class<?> cl)
   {
     ArrayList<Field> primitiveFields = new ArrayList<Field>();
     ArrayList<Field> compoundFields = new ArrayList<Field>();
@@ -144,14 +159,23 @@ public class UnsafeSerializer extends AbstractSerializer
     fields.addAll(primitiveFields);
     fields.addAll(compoundFields);
 
-    _fields = new Field[fields.size()];
-    fields.toArray(_fields);
+    Field []fieldArray = new Field[fields.size()];
+    fields.toArray(fieldArray);
 
-    _fieldSerializers = new FieldSerializer[_fields.length];
+    return fieldArray;
+  }
 
-    for (int i = 0; i < _fields.length; i++) {
-      _fieldSerializers[i] = getFieldSerializer(_fields[i]);
-    }
+  /**
+   * Returns the serialized fields.
+   */
+  Field []getFields()
+  {
+    return _fields;
+  }
+
+  static Unsafe getUnsafe()
+  {
+    return _unsafe;
   }
 
   @Override
@@ -205,7 +229,7 @@ public class UnsafeSerializer extends AbstractSerializer
     }
   }
 
-  final public void writeInstance(Object obj, AbstractHessianOutput out)
+  public void writeInstance(Object obj, AbstractHessianOutput out)
     throws IOException
   {
     try {
@@ -30,6 +30,7 @@
 package com.caucho.bytecode;
 
 import java.io.*;
+import java.util.ArrayList;
 
 /**
  * Code generator attribute.
@@ -37,6 +38,7 @@ import java.io.*;
 public class CodeWriterAttribute extends CodeAttribute {
   private int _stack;
   private ByteArrayOutputStream _bos;
+  private ArrayList<int[]> _jumps;
 
   public CodeWriterAttribute(JavaClass jClass)
   {
@@ -183,6 +185,83 @@ public class CodeWriterAttribute extends CodeAttribute {
     write(value);
   }
 
+  public void pushLong(long value)
+  {
+    _stack += 2;
+
+    int index = getConstantPool().addLong(value).getIndex();
+
+    write(CodeVisitor.LDC2_W);
+    write(index >> 8);
+    write(index);
+  }
+
+  public void pop()
+  {
+    _stack -= 1;
+
+    write(CodeVisitor.POP);
+  }
+
+  /**
+   * Writes a tableswitch on the top int for the keys 0 to count - 1.
+   * The jump targets are set later with setSwitchTarget and
+   * setSwitchDefault.
+   *
+   * @return the offset of the switch
+   */
+  public int tableSwitch(int count)
+  {
+    _stack -= 1;
+
+    int offset = _bos.size();
+
+    write(CodeVisitor.TABLESWITCH);
+
+    while (_bos.size() % 4 != 0) {
+      write(0);
+    }
+
+    writeInt(0);
+    writeInt(0);
+    writeInt(count - 1);
+
+    for (int i = 0; i < count; i++) {
+      writeInt(0);
+    }
+
+    return offset;
+  }
+
+  /**
+   * Sets the switch's default target to the current offset.
+   */
+  public void setSwitchDefault(int switchOffset)
+  {
+    addJump(getSwitchTable(switchOffset), switchOffset);
+  }
+
+  /**
+   * Sets the switch's target for the key to the current offset.
+   */
+  public void setSwitchTarget(int switchOffset, int key)
+  {
+    addJump(getSwitchTable(switchOffset) + 12 + 4 * key, switchOffset);
+  }
+
+  private int getSwitchTable(int switchOffset)
+  {
+    return (switchOffset + 4) & ~3;
+  }
+
+  private void addJump(int offset, int switchOffset)
+  {
+    if (_jumps == null)
+      _jumps = new ArrayList<int[]>();
+
+    _jumps.add(new int[] { offset, _bos.size() - switchOffset });
+  }
+
   public void invoke(String className,
                      String methodName,
                      String signature,
@@ -357,10 +436,32 @@ public class CodeWriterAttribute extends CodeAttribute {
     _bos.write(v);
   }
 
+  private void writeInt(int v)
+  {
+    write(v >> 24);
+    write(v >> 16);
+    write(v >> 8);
+    write(v);
+  }
+
   public void close()
   {
     if (_bos != null) {
-      setCode(_bos.toByteArray());
+      byte []code = _bos.toByteArray();
+
+      if (_jumps != null) {
+        for (int []jump : _jumps) {
+          int offset = jump[0];
+          int value = jump[1];
+
+          code[offset] = (byte) (value >> 24);
+          code[offset + 1] = (byte) (value >> 16);
+          code[offset + 2] = (byte) (value >> 8);
+          code[offset + 3] = (byte) value;
+        }
+      }
+
+      setCode(code);
       _bos = null;
     }
   }
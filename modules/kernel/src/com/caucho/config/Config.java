@@ -217,7 +217,7 @@ public class Config {
     throws ConfigException, IOException
   {
     try {
-      QDocument doc = parseDocument(path, null);
+      QDocument doc = loadDocument(path, null);
 
       return configure(obj, doc.getDocumentElement());
     } catch (RuntimeException e) {
@@ -247,9 +247,7 @@ public class Config {
     throws ConfigException
   {
     try {
-      Schema schema = findCompactSchema(schemaLocation);
-
-      QDocument doc = parseDocument(path, schema);
+      QDocument doc = loadDocument(path, schemaLocation);
 
       return configure(obj, doc.getDocumentElement());
     } catch (RuntimeException e) {
@@ -284,9 +282,7 @@ public class Config {
                           String schemaLocation)
     throws Exception
   {
-    Schema schema = findCompactSchema(schemaLocation);
-
-    QDocument doc = parseDocument(is, schema);
+    QDocument doc = loadDocument(is, schemaLocation);
 
     return configure(obj, doc.getDocumentElement());
   }
@@ -335,9 +331,7 @@ public class Config {
                             String schemaLocation)
     throws Exception
   {
-    Schema schema = findCompactSchema(schemaLocation);
-
-    QDocument doc = parseDocument(path, schema);
+    QDocument doc = loadDocument(path, schemaLocation);
 
     configureBean(obj, doc.getDocumentElement());
   }
@@ -348,7 +342,7 @@ public class Config {
   public void configureBean(Object obj, Path path)
     throws Exception
   {
-    QDocument doc = parseDocument(path, null);
+    QDocument doc = loadDocument(path, null);
 
     configureBean(obj, doc.getDocumentElement());
   }
@@ -397,6 +391,55 @@ public class Config {
     configureBean(obj, doc.getDocumentElement());
   }
 
+  /**
+   * Loads the document from its config snapshot, or parses and validates
+   * it when the snapshot is missing or stale.
+   */
+  private QDocument loadDocument(Path path, String schemaLocation)
+    throws LineConfigException, IOException, org.xml.sax.SAXException
+  {
+    ReadStream is = path.openRead();
+
+    try {
+      return loadDocument(is, schemaLocation);
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Loads the document from its config snapshot, or parses and validates
+   * it when the snapshot is missing or stale.
+   */
+  private QDocument loadDocument(InputStream is, String schemaLocation)
+    throws LineConfigException, IOException, org.xml.sax.SAXException
+  {
+    Path path = null;
+
+    if (is instanceof ReadStream && ((ReadStream) is).getPosition() == 0)
+      path = ((ReadStream) is).getPath();
+
+    QDocument doc = ConfigDocumentCache.load(path, schemaLocation,
+                                             _allowResinInclude);
+
+    if (doc != null) {
+      ConfigAdmin.registerPath(path);
+
+      return doc;
+    }
+
+    long start = System.nanoTime();
+
+    Schema schema = findCompactSchema(schemaLocation);
+
+    doc = parseDocument(is, schema);
+
+    ConfigDocumentCache.save(path, schemaLocation, _allowResinInclude,
+                             doc, System.nanoTime() - start);
+
+    return doc;
+  }
+
   /**
    * Configures the bean from a path
    */
@@ -0,0 +1,467 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.config;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.VersionFactory;
+import com.caucho.loader.EnvironmentLocal;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.Hex;
+import com.caucho.util.L10N;
+import com.caucho.util.RandomUtil;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.Vfs;
+import com.caucho.vfs.WriteStream;
+import com.caucho.xml.QDocument;
+import com.caucho.xml.QDocumentSnapshot;
+
+/**
+ * Saves parsed and validated configuration documents as binary snapshots,
+ * so a restart can skip the XML parse and the RELAX NG validation.
+ *
+ * A snapshot is keyed by the file URL, the schema and the Resin version,
+ * and holds a digest of the file, its includes and the schema. The
+ * snapshot is only used when every digest still matches; otherwise
+ * the file is parsed normally and the snapshot is replaced.
+ *
+ * Loading a snapshot touches it, and the directory is pruned when it is
+ * set, removing unused snapshots, abandoned temp files, and the least
+ * recently used snapshots beyond a maximum count.
+ */
+public class ConfigDocumentCache {
+  private static final L10N L = new L10N(ConfigDocumentCache.class);
+  private static final Logger log
+    = Logger.getLogger(ConfigDocumentCache.class.getName());
+
+  private static final int MAGIC = 0x52435331; // RCS1
+
+  private static final String SNAPSHOT_SUFFIX = ".snapshot";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private static final int SNAPSHOT_COUNT_MAX = 1024;
+  private static final long SNAPSHOT_IDLE_MAX = 30 * 24 * 3600 * 1000L;
+  private static final long TEMP_IDLE_MAX = 3600 * 1000L;
+
+  private static final EnvironmentLocal<AtomicLong> _timeSavedLocal
+    = new EnvironmentLocal<AtomicLong>();
+
+  private static volatile Path _directory;
+
+  private ConfigDocumentCache()
+  {
+  }
+
+  /**
+   * Sets the snapshot directory. A null directory disables snapshots.
+   */
+  public static void setDirectory(Path directory)
+  {
+    _directory = directory;
+
+    if (directory != null)
+      prune(directory);
+  }
+
+  /**
+   * Returns the snapshot directory.
+   */
+  public static Path getDirectory()
+  {
+    return _directory;
+  }
+
+  /**
+   * Returns the parse time in milliseconds saved by snapshots in the
+   * current environment.
+   */
+  public static long getTimeSaved()
+  {
+    AtomicLong timeSaved = _timeSavedLocal.getLevel();
+
+    if (timeSaved != null)
+      return timeSaved.get() / 1000000L;
+    else
+      return 0;
+  }
+
+  /**
+   * Loads the snapshot for the path, returning null if there is no
+   * valid snapshot.
+   */
+  static QDocument load(Path path,
+                        String schemaLocation,
+                        boolean isResinInclude)
+  {
+    Path directory = _directory;
+
+    if (directory == null || ! isCacheable(path))
+      return null;
+
+    long start = System.nanoTime();
+
+    String key = getKey(path, schemaLocation, isResinInclude);
+    Path snapshotPath = getSnapshotPath(directory, key);
+
+    if (! snapshotPath.canRead())
+      return null;
+
+    try {
+      ReadStream rs = snapshotPath.openRead();
+
+      try {
+        DataInputStream is = new DataInputStream(rs);
+
+        if (is.readInt() != MAGIC || ! key.equals(is.readUTF()))
+          return null;
+
+        long parseTime = is.readLong();
+
+        int count = is.readInt();
+        ArrayList<Path> depends = new ArrayList<Path>();
+
+        for (int i = 0; i < count; i++) {
+          boolean isDocumentDepend = is.readBoolean();
+          Path depend = Vfs.lookup(is.readUTF());
+          byte []digest = new byte[is.readUnsignedByte()];
+          is.readFully(digest);
+
+          if (! Arrays.equals(digest, digest(depend))) {
+            if (log.isLoggable(Level.FINE))
+              log.fine(L.l("{0} changed, config snapshot for {1} is stale",
+                           depend.getNativePath(), path.getNativePath()));
+
+            return null;
+          }
+
+          if (isDocumentDepend)
+            depends.add(depend);
+        }
+
+        QDocument doc = QDocumentSnapshot.read(is);
+
+        for (Path depend : depends) {
+          doc.addDepend(depend);
+        }
+
+        // the modified time tracks use for pruning
+        snapshotPath.setLastModified(CurrentTime.getCurrentTime());
+
+        long loadTime = System.nanoTime() - start;
+
+        addTimeSaved(path, parseTime, loadTime);
+
+        return doc;
+      } finally {
+        rs.close();
+      }
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return null;
+    }
+  }
+
+  /**
+   * Saves a snapshot of a freshly parsed document.
+   *
+   * @param parseTime the parse and validation time in nanoseconds
+   */
+  static void save(Path path,
+                   String schemaLocation,
+                   boolean isResinInclude,
+                   QDocument doc,
+                   long parseTime)
+  {
+    Path directory = _directory;
+
+    if (directory == null || ! isCacheable(path)
+        || ! QDocumentSnapshot.isSupported(doc)) {
+      return;
+    }
+
+    String key = getKey(path, schemaLocation, isResinInclude);
+    Path snapshotPath = getSnapshotPath(directory, key);
+    // a unique temp name, since several loaders may save the same file
+    String tempTail = (snapshotPath.getTail()
+                       + "." + Long.toHexString(RandomUtil.getRandomLong())
+                       + TEMP_SUFFIX);
+    Path tempPath = snapshotPath.getParent().lookup(tempTail);
+
+    try {
+      ArrayList<Path> docDepends = doc.getDependList();
+      ArrayList<Path> inputs = new ArrayList<Path>();
+
+      inputs.add(path);
+
+      if (docDepends != null) {
+        for (Path depend : docDepends) {
+          if (! isCacheable(depend))
+            return;
+          else if (! inputs.contains(depend))
+            inputs.add(depend);
+        }
+      }
+
+      Path schemaPath = findSchemaPath(schemaLocation);
+
+      if (schemaPath != null)
+        inputs.add(schemaPath);
+
+      directory.mkdirs();
+
+      WriteStream ws = tempPath.openWrite();
+
+      try {
+        DataOutputStream os = new DataOutputStream(ws);
+
+        os.writeInt(MAGIC);
+        os.writeUTF(key);
+        os.writeLong(parseTime);
+
+        os.writeInt(inputs.size());
+
+        for (Path input : inputs) {
+          byte []digest = digest(input);
+
+          os.writeBoolean(docDepends != null && docDepends.contains(input));
+          os.writeUTF(input.getURL());
+          os.writeByte(digest.length);
+          os.write(digest);
+        }
+
+        QDocumentSnapshot.write(doc, os);
+
+        os.flush();
+      } finally {
+        ws.close();
+      }
+
+      if (! tempPath.renameTo(snapshotPath)) {
+        snapshotPath.remove();
+        tempPath.renameTo(snapshotPath);
+      }
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      try {
+        tempPath.remove();
+      } catch (IOException e1) {
+        log.log(Level.FINEST, e1.toString(), e1);
+      }
+    }
+  }
+
+  /**
+   * Only local files and jar entries are cached, since their digests
+   * are cheap to check.
+   */
+  private static boolean isCacheable(Path path)
+  {
+    if (path == null)
+      return false;
+
+    String scheme = path.getScheme();
+
+    return "file".equals(scheme) || "jar".equals(scheme);
+  }
+
+  private static void addTimeSaved(Path path, long parseTime, long loadTime)
+  {
+    long timeSaved = Math.max(0, parseTime - loadTime);
+
+    AtomicLong total;
+
+    synchronized (_timeSavedLocal) {
+      total = _timeSavedLocal.getLevel();
+
+      if (total == null) {
+        total = new AtomicLong();
+        _timeSavedLocal.set(total);
+      }
+    }
+
+    total.addAndGet(timeSaved);
+
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(L.l("{0} loaded from config snapshot in {1}ms (parse {2}ms)",
+                   path.getNativePath(),
+                   loadTime / 1000000L,
+                   parseTime / 1000000L));
+    }
+  }
+
+  private static String getKey(Path path,
+                               String schemaLocation,
+                               boolean isResinInclude)
+  {
+    String version;
+
+    try {
+      version = VersionFactory.getFullVersion();
+    } catch (Exception e) {
+      version = "";
+    }
+
+    return (path.getURL()
+            + "|" + schemaLocation
+            + "|" + isResinInclude
+            + "|" + version);
+  }
+
+  private static Path getSnapshotPath(Path directory, String key)
+  {
+    try {
+      MessageDigest md = MessageDigest.getInstance("MD5");
+
+      byte []hash = md.digest(key.getBytes("UTF-8"));
+
+      return directory.lookup(Hex.toHex(hash) + SNAPSHOT_SUFFIX);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw ConfigException.create(e);
+    }
+  }
+
+  /**
+   * Removes abandoned temp files, snapshots unused for the idle maximum,
+   * and the least recently used snapshots beyond the count maximum.
+   */
+  private static void prune(Path directory)
+  {
+    try {
+      String []names = directory.list();
+
+      if (names == null)
+        return;
+
+      long now = CurrentTime.getCurrentTime();
+
+      ArrayList<Path> snapshots = new ArrayList<Path>();
+
+      for (String name : names) {
+        Path path = directory.lookup(name);
+
+        long idleTime = now - path.getLastModified();
+
+        if (name.endsWith(TEMP_SUFFIX)) {
+          if (TEMP_IDLE_MAX < idleTime)
+            path.remove();
+        }
+        else if (name.endsWith(SNAPSHOT_SUFFIX)) {
+          if (SNAPSHOT_IDLE_MAX < idleTime)
+            path.remove();
+          else
+            snapshots.add(path);
+        }
+      }
+
+      if (snapshots.size() <= SNAPSHOT_COUNT_MAX)
+        return;
+
+      Collections.sort(snapshots, new Comparator<Path>() {
+          public int compare(Path a, Path b)
+          {
+            long aTime = a.getLastModified();
+            long bTime = b.getLastModified();
+
+            return aTime < bTime ? -1 : (aTime == bTime ? 0 : 1);
+          }
+        });
+
+      int removeCount = snapshots.size() - SNAPSHOT_COUNT_MAX;
+
+      for (int i = 0; i < removeCount; i++) {
+        snapshots.get(i).remove();
+      }
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+  }
+
+  private static Path findSchemaPath(String location)
+  {
+    if (location == null)
+      return null;
+
+    Thread thread = Thread.currentThread();
+    ClassLoader loader = thread.getContextClassLoader();
+
+    if (loader == null)
+      loader = ClassLoader.getSystemClassLoader();
+
+    URL url = loader.getResource(location);
+
+    if (url == null)
+      return null;
+
+    return Vfs.lookup(URLDecoder.decode(url.toString()));
+  }
+
+  private static byte []digest(Path path)
+    throws IOException
+  {
+    try {
+      MessageDigest md = MessageDigest.getInstance("MD5");
+
+      InputStream is = path.openRead();
+
+      try {
+        byte []buffer = new byte[8192];
+        int len;
+
+        while ((len = is.read(buffer, 0, buffer.length)) > 0) {
+          md.update(buffer, 0, len);
+        }
+      } finally {
+        is.close();
+      }
+
+      return md.digest();
+    } catch (java.security.NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+}
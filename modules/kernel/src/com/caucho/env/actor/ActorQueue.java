@@ -445,6 +445,8 @@ public final class ActorQueue<T extends RingItem>
       // final AtomicBoolean isWait = _isWaitRef;
 
       try {
+        processor.onProcessStart();
+        
         while (true) {
           while (tail != nextTailEnd) {
             T item = itemRing[(int) (tail & mask)];
@@ -174,6 +174,12 @@ public class ValueActorQueue<T> implements ActorQueueApi<T>
       return _processor.getThreadName();
     }
     
+    @Override
+    public void onProcessStart() throws Exception
+    {
+      _processor.onProcessStart();
+    }
+    
     @Override
     public void process(ValueItem<T> item)
       throws Exception
@@ -35,7 +35,7 @@ public final class ActiveMeter extends AbstractMeter implements ActiveSensor {
   // sample data
   private final AtomicLong _activeCount = new AtomicLong();
   private final AtomicLong _activeCountMax = new AtomicLong();
-  private final AtomicLong _totalCount = new AtomicLong();
+  private final StripedLong _totalCount = new StripedLong();
 
   private long _lastTotal;
   private long _delta;
@@ -49,7 +49,7 @@ public final class ActiveMeter extends AbstractMeter implements ActiveSensor {
   public final void start()
   {
     long activeCount = _activeCount.incrementAndGet();
-    _totalCount.incrementAndGet();
+    _totalCount.increment();
 
     long max;
 
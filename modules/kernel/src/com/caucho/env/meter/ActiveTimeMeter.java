@@ -40,13 +40,14 @@ public final class ActiveTimeMeter extends AbstractMeter implements ActiveTimeSe
 
   private final Object _lock = new Object();
 
-  // sample data
+  // sample data. The active counts stay atomic because the probes need
+  // their instantaneous value, not just a sum.
   private final AtomicLong _activeCount = new AtomicLong();
   private final AtomicLong _activeCountMax = new AtomicLong();
-  private final AtomicLong _totalCount = new AtomicLong();
-  private final AtomicLong _sum = new AtomicLong();
-  private final AtomicLong _max = new AtomicLong();
-  private double _sumSquare;
+  private final StripedLong _totalCount = new StripedLong();
+  private final StripedLong _sum = new StripedLong();
+  private final StripedLong _max = new StripedLong();
+  private final StripedDouble _sumSquare = new StripedDouble();
 
   private long _lastTotalCount;
 
@@ -85,21 +86,16 @@ public final class ActiveTimeMeter extends AbstractMeter implements ActiveTimeSe
   @Override
   public final long end(long startTime)
   {
-    _totalCount.incrementAndGet();
+    _totalCount.increment();
     _activeCount.decrementAndGet();
 
     long endTime = CurrentTime.getCurrentTime();
 
     long value = endTime - startTime;
 
-    double sqValue = value * value;
-    _sum.addAndGet(value);
-    _sumSquare += sqValue;
-
-    long max;
-    while ((max = _max.get()) < value
-           && ! _max.compareAndSet(max, value)) {
-    }
+    _sum.add(value);
+    _sumSquare.add((double) value * value);
+    _max.max(value);
     
     return value;
   }
@@ -200,8 +196,7 @@ public final class ActiveTimeMeter extends AbstractMeter implements ActiveTimeSe
       double lastSum = _lastStdSum;
       _lastStdSum = sum;
 
-      double sumSquare = _sumSquare;
-      _sumSquare = 0;
+      double sumSquare = _sumSquare.getAndReset();
 
       if (count == lastCount)
         return 0;
@@ -223,7 +218,7 @@ public final class ActiveTimeMeter extends AbstractMeter implements ActiveTimeSe
    */
   public final double sampleMax()
   {
-    long max = _max.getAndSet(0);
+    long max = _max.getMaxAndReset();
 
     return _scale * max;
   }
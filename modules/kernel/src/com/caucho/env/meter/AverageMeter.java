@@ -28,8 +28,6 @@
 
 package com.caucho.env.meter;
 
-import java.util.concurrent.atomic.AtomicLong;
-
 
 public final class AverageMeter extends TotalMeter implements AverageSensor {
   private final double _scale;
@@ -37,10 +35,10 @@ public final class AverageMeter extends TotalMeter implements AverageSensor {
   private final Object _lock = new Object();
 
   // sample data
-  private final AtomicLong _count = new AtomicLong();
-  private final AtomicLong _sum = new AtomicLong();
-  private final AtomicLong _max = new AtomicLong();
-  private double _sumSquare;
+  private final StripedLong _count = new StripedLong();
+  private final StripedLong _sum = new StripedLong();
+  private final StripedLong _max = new StripedLong();
+  private final StripedDouble _sumSquare = new StripedDouble();
 
   private long _lastCount;
 
@@ -78,16 +76,10 @@ public final class AverageMeter extends TotalMeter implements AverageSensor {
   @Override
   public final void add(long value)
   {
-    double sqValue = value * value;
-
-    _count.incrementAndGet();
-    _sum.addAndGet(value);
-    _sumSquare += sqValue;
-
-    long max;
-    while ((max = _max.get()) < value
-           && ! _max.compareAndSet(max, value)) {
-    }
+    _count.increment();
+    _sum.add(value);
+    _sumSquare.add((double) value * value);
+    _max.max(value);
   }
 
   /**
@@ -152,8 +144,7 @@ public final class AverageMeter extends TotalMeter implements AverageSensor {
       double lastSum = _lastStdSum;
       _lastStdSum = sum;
 
-      double sumSquare = _sumSquare;
-      _sumSquare = 0;
+      double sumSquare = _sumSquare.getAndReset();
 
       if (count == lastCount)
         return 0;
@@ -176,7 +167,7 @@ public final class AverageMeter extends TotalMeter implements AverageSensor {
   public final double sampleMax()
   {
     synchronized (_lock) {
-      long max = _max.getAndSet(0);
+      long max = _max.getMaxAndReset();
 
       return _scale * max;
     }
@@ -28,13 +28,9 @@
 
 package com.caucho.env.meter;
 
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicInteger;
-
-
 public final class AverageTimeMeter extends AbstractMeter {
-  private final AtomicLong _sum = new AtomicLong();
-  private final AtomicInteger _count = new AtomicInteger();
+  private final StripedLong _sum = new StripedLong();
+  private final StripedLong _count = new StripedLong();
   
   private double _value;
 
@@ -45,13 +41,8 @@ public final class AverageTimeMeter extends AbstractMeter {
 
   public final void addData(long time)
   {
-    long oldValue;
-
-    do {
-      oldValue = _sum.get();
-    } while (! _sum.compareAndSet(oldValue, oldValue + time));
-
-    _count.incrementAndGet();
+    _sum.add(time);
+    _count.increment();
   }
   
   /**
@@ -59,8 +50,8 @@ public final class AverageTimeMeter extends AbstractMeter {
    */
   public final void sample()
   {
-    long sum = _sum.getAndSet(0);
-    int count = _count.getAndSet(0);
+    long sum = _sum.getAndReset();
+    long count = _count.getAndReset();
 
     if (count != 0)
       _value =sum / (double) count;
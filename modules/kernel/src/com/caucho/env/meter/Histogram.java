@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * as published by the Free Software Foundation.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.env.meter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory log-linear histogram in the style of HdrHistogram. Each
+ * power of two is split into eight linear sub-buckets, so a recorded
+ * value is accurate to within 12.5% for the full long range.
+ */
+public final class Histogram {
+  private static final int SUB_BITS = 3;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+
+  public static final int BUCKET_COUNT = (64 - SUB_BITS) * SUB_COUNT;
+
+  private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_COUNT);
+
+  /**
+   * Adds a value to the histogram. Negative values are counted as zero.
+   */
+  public final void add(long value)
+  {
+    _buckets.incrementAndGet(getBucket(value));
+  }
+
+  /**
+   * Copies the bucket counts into the array.
+   */
+  public final void copy(long []buckets)
+  {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets[i] = _buckets.get(i);
+    }
+  }
+
+  /**
+   * Returns the percentile value of the recorded data.
+   */
+  public final double getPercentile(double percentile)
+  {
+    long []buckets = new long[BUCKET_COUNT];
+
+    copy(buckets);
+
+    return getPercentile(buckets, percentile);
+  }
+
+  /**
+   * Clears the histogram.
+   */
+  public final void clear()
+  {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      _buckets.set(i, 0);
+    }
+  }
+
+  /**
+   * Returns the percentile of a histogram copy. The value is the top of
+   * the matching bucket.
+   *
+   * @param buckets the bucket counts
+   * @param percentile the percentile, e.g. 0.99
+   */
+  public static double getPercentile(long []buckets, double percentile)
+  {
+    long total = 0;
+
+    for (long count : buckets) {
+      total += count;
+    }
+
+    if (total == 0)
+      return 0;
+
+    long target = (long) Math.ceil(percentile * total);
+
+    if (target < 1)
+      target = 1;
+
+    long sum = 0;
+
+    for (int i = 0; i < buckets.length; i++) {
+      sum += buckets[i];
+
+      if (target <= sum)
+        return getBucketMax(i);
+    }
+
+    return getBucketMax(buckets.length - 1);
+  }
+
+  /**
+   * Returns the bucket index for a value.
+   */
+  public static int getBucket(long value)
+  {
+    if (value < SUB_COUNT)
+      return value < 0 ? 0 : (int) value;
+
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+
+    return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+  }
+
+  /**
+   * Returns the largest value of a bucket.
+   */
+  public static long getBucketMax(int bucket)
+  {
+    if (bucket < SUB_COUNT)
+      return bucket;
+
+    int exp = bucket / SUB_COUNT + SUB_BITS - 1;
+    int sub = bucket % SUB_COUNT;
+
+    long min = (long) (SUB_COUNT + sub) << (exp - SUB_BITS);
+
+    return min + (1L << (exp - SUB_BITS)) - 1;
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * as published by the Free Software Foundation.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.env.meter;
+
+/**
+ * Latency meter backed by a bounded log-linear histogram. Each sample
+ * reports a percentile of the values added since the previous sample,
+ * e.g. p50 or p99, instead of an average.
+ */
+public final class HistogramMeter extends AbstractMeter
+  implements AverageSensor
+{
+  private final Histogram _histogram = new Histogram();
+  private final double _scale;
+  private final double _percentile;
+
+  private final long []_last = new long[Histogram.BUCKET_COUNT];
+
+  private double _value;
+
+  public HistogramMeter(String name)
+  {
+    this(name, 0.5, 1.0);
+  }
+
+  /**
+   * @param name the meter name
+   * @param percentile the sampled percentile, e.g. 0.5
+   * @param scale the factor converting the added values to the
+   *   reported unit
+   */
+  public HistogramMeter(String name, double percentile, double scale)
+  {
+    super(name);
+
+    _percentile = percentile;
+    _scale = scale;
+  }
+
+  /**
+   * Adds a data sample to the histogram.
+   */
+  @Override
+  public final void add(long value)
+  {
+    _histogram.add(value);
+  }
+
+  /**
+   * Returns the underlying histogram.
+   */
+  public final Histogram getHistogram()
+  {
+    return _histogram;
+  }
+
+  /**
+   * Creates a probe for another percentile of the same data.
+   */
+  public AbstractMeter createPercentile(String name, double percentile)
+  {
+    return new PercentileProbe(name, percentile);
+  }
+
+  @Override
+  public final void sample()
+  {
+    _value = samplePercentile(_last, _percentile);
+  }
+
+  @Override
+  public final double calculate()
+  {
+    return _value;
+  }
+
+  /**
+   * Returns the percentile of the values added since the last call
+   * with the same last array, and updates the array.
+   */
+  private double samplePercentile(long []last, double percentile)
+  {
+    long []delta = new long[Histogram.BUCKET_COUNT];
+
+    _histogram.copy(delta);
+
+    for (int i = 0; i < delta.length; i++) {
+      long value = delta[i];
+
+      delta[i] = value - last[i];
+      last[i] = value;
+    }
+
+    return _scale * Histogram.getPercentile(delta, percentile);
+  }
+
+  class PercentileProbe extends AbstractMeter {
+    private final double _percentile;
+    private final long []_last = new long[Histogram.BUCKET_COUNT];
+
+    private double _value;
+
+    PercentileProbe(String name, double percentile)
+    {
+      super(name);
+
+      _percentile = percentile;
+    }
+
+    @Override
+    public void sample()
+    {
+      _value = samplePercentile(_last, _percentile);
+    }
+
+    @Override
+    public double calculate()
+    {
+      return _value;
+    }
+  }
+}
@@ -28,6 +28,7 @@
 
 package com.caucho.env.meter;
 
+import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.caucho.env.service.AbstractResinSubSystem;
@@ -74,6 +75,19 @@ public class MeterService extends AbstractResinSubSystem {
     return _meterMap.get(name);
   }
 
+  /**
+   * Returns the registered meters.
+   */
+  public static ArrayList<AbstractMeter> getMeters()
+  {
+    return create().getMetersImpl();
+  }
+
+  private ArrayList<AbstractMeter> getMetersImpl()
+  {
+    return new ArrayList<AbstractMeter>(_meterMap.values());
+  }
+
   public static AverageTimeMeter createAverageTimeMeter(String name)
   {
     return create().createAverageTimeMeterImpl(name);
@@ -279,6 +293,57 @@ public class MeterService extends AbstractResinSubSystem {
     return (AverageMeter) meter;
   }
 
+  /**
+   * A HistogramMeter reports the 50%, 90%, 99% and 99.9% percentiles
+   * of the values added in each sample period.
+   */
+  public static HistogramMeter createHistogramMeter(String baseName)
+  {
+    return create().createHistogramMeterImpl(baseName, null, 1.0);
+  }
+
+  /**
+   * @param scale the factor converting the added values to the reported
+   *   unit, e.g. 0.001 for microseconds reported as milliseconds
+   */
+  public static HistogramMeter createHistogramMeter(String baseName,
+                                                    String subName,
+                                                    double scale)
+  {
+    return create().createHistogramMeterImpl(baseName, subName, scale);
+  }
+
+  private HistogramMeter createHistogramMeterImpl(String baseName,
+                                                  String subName,
+                                                  double scale)
+  {
+    if (subName == null || subName.equals(""))
+      subName = "";
+    else if (! subName.startsWith("|"))
+      subName = "|" + subName;
+
+    String name = baseName + " 50%" + subName;
+
+    AbstractMeter meter = _meterMap.get(name);
+
+    if (meter == null) {
+      meter = createMeter(new HistogramMeter(name, 0.5, scale));
+
+      HistogramMeter histogramMeter = (HistogramMeter) meter;
+
+      String p90Name = baseName + " 90%" + subName;
+      createMeter(histogramMeter.createPercentile(p90Name, 0.9));
+
+      String p99Name = baseName + " 99%" + subName;
+      createMeter(histogramMeter.createPercentile(p99Name, 0.99));
+
+      String p999Name = baseName + " 99.9%" + subName;
+      createMeter(histogramMeter.createPercentile(p999Name, 0.999));
+    }
+
+    return (HistogramMeter) meter;
+  }
+
   public static ActiveTimeMeter createActiveTimeMeter(String name)
   {
     return create().createActiveTimeMeterImpl(name, "Time", null);
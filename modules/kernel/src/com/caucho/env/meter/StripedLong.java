@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2
+ * as published by the Free Software Foundation.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.env.meter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spread over cache-line padded cells, so concurrent updates
+ * from different threads don't contend on a single atomic. Reading the
+ * value sums the cells.
+ */
+public final class StripedLong {
+  // longs per cell, padding each cell to its own 64-byte cache line
+  private static final int PAD = 8;
+
+  private static final int CELL_BITS;
+
+  private final AtomicLongArray _cells
+    = new AtomicLongArray(PAD << CELL_BITS);
+
+  /**
+   * Adds to the counter.
+   */
+  public final void add(long value)
+  {
+    _cells.addAndGet(getIndex(), value);
+  }
+
+  public final void increment()
+  {
+    _cells.incrementAndGet(getIndex());
+  }
+
+  public final void decrement()
+  {
+    _cells.decrementAndGet(getIndex());
+  }
+
+  /**
+   * Updates the thread's cell with a new maximum value. Used with
+   * getMaxAndReset() for a max meter.
+   */
+  public final void max(long value)
+  {
+    int index = getIndex();
+
+    long max;
+    while ((max = _cells.get(index)) < value
+           && ! _cells.compareAndSet(index, max, value)) {
+    }
+  }
+
+  /**
+   * Returns the sum of the cells.
+   */
+  public final long get()
+  {
+    long sum = 0;
+
+    for (int i = 0; i < _cells.length(); i += PAD) {
+      sum += _cells.get(i);
+    }
+
+    return sum;
+  }
+
+  /**
+   * Returns the sum of the cells, resetting them to zero.
+   */
+  public final long getAndReset()
+  {
+    long sum = 0;
+
+    for (int i = 0; i < _cells.length(); i += PAD) {
+      sum += _cells.getAndSet(i, 0);
+    }
+
+    return sum;
+  }
+
+  /**
+   * Returns the maximum of the cells, resetting them to zero.
+   */
+  public final long getMaxAndReset()
+  {
+    long max = 0;
+
+    for (int i = 0; i < _cells.length(); i += PAD) {
+      max = Math.max(max, _cells.getAndSet(i, 0));
+    }
+
+    return max;
+  }
+
+  private static int getIndex()
+  {
+    long id = Thread.currentThread().getId();
+
+    // fibonacci hash of the thread id, using the high bits
+    return (int) ((id * 0x9e3779b97f4a7c15L) >>> (64 - CELL_BITS)) * PAD;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + get() + "]";
+  }
+
+  static {
+    int cpuCount = Runtime.getRuntime().availableProcessors();
+
+    int bits = 1;
+
+    while ((1 << bits) < 2 * cpuCount && bits < 6) {
+      bits++;
+    }
+
+    CELL_BITS = bits;
+  }
+}
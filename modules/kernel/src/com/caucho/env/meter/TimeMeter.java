@@ -28,12 +28,9 @@
 
 package com.caucho.env.meter;
 
-import java.util.concurrent.atomic.AtomicLong;
-
-
 public final class TimeMeter extends AbstractMeter implements TimeSensor {
-  private final AtomicLong _count = new AtomicLong();
-  private final AtomicLong _time = new AtomicLong();
+  private final StripedLong _count = new StripedLong();
+  private final StripedLong _time = new StripedLong();
   
   private double _value;
 
@@ -45,8 +42,8 @@ public final class TimeMeter extends AbstractMeter implements TimeSensor {
   @Override
   public final void add(long time)
   {
-    _count.incrementAndGet();
-    _time.addAndGet(time);
+    _count.increment();
+    _time.add(time);
   }
   
   /**
@@ -55,8 +52,8 @@ public final class TimeMeter extends AbstractMeter implements TimeSensor {
   @Override
   public final void sample()
   {
-    long count = _count.getAndSet(0);
-    long time = _time.getAndSet(0);
+    long count = _count.getAndReset();
+    long time = _time.getAndReset();
 
     if (count == 0)
       _value = 0;
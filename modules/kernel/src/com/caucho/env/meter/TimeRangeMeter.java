@@ -36,9 +36,9 @@ public final class TimeRangeMeter extends AbstractMeter implements TimeSensor {
   private final double _scale;
 
   private final AtomicLong _activeCount = new AtomicLong();
-  private final AtomicLong _count = new AtomicLong();
-  private final AtomicLong _time = new AtomicLong();
-  private final AtomicLong _timeMax = new AtomicLong();
+  private final StripedLong _count = new StripedLong();
+  private final StripedLong _time = new StripedLong();
+  private final StripedLong _timeMax = new StripedLong();
   
   private final AtomicLong _lastAvgCount = new AtomicLong();
   private final AtomicLong _lastAvgTime = new AtomicLong();
@@ -83,14 +83,9 @@ public final class TimeRangeMeter extends AbstractMeter implements TimeSensor {
     
     long time = CurrentTime.getCurrentTime() - startTime;
     
-    _count.incrementAndGet();
-    _time.addAndGet(time);
-
-    long max = _timeMax.get();
-    while (max < time) {
-      _timeMax.compareAndSet(max, time);
-      max = _timeMax.get();
-    }
+    _count.increment();
+    _time.add(time);
+    _timeMax.max(time);
   }
   
   /**
@@ -130,7 +125,7 @@ public final class TimeRangeMeter extends AbstractMeter implements TimeSensor {
    */
   public final double sampleMax()
   {
-    long max = _timeMax.getAndSet(0);
+    long max = _timeMax.getMaxAndReset();
 
     return _scale * max;
   }
@@ -30,6 +30,8 @@
 package com.caucho.env.thread;
 
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.caucho.config.ConfigException;
 import com.caucho.env.thread2.ThreadPool2;
@@ -40,6 +42,8 @@ import com.caucho.util.L10N;
  */
 public final class ThreadPool extends ThreadPool2 {
   private static final L10N L = new L10N(ThreadPool.class);
+  private static final Logger log
+    = Logger.getLogger(ThreadPool.class.getName());
   
   private static final AtomicReference<ThreadPool> _globalThreadPool
     = new AtomicReference<ThreadPool>();
@@ -58,6 +62,11 @@ public final class ThreadPool extends ThreadPool2 {
   // queue for waiting executor tasks
   private ExecutorQueueItem _executorQueueHead;
   private ExecutorQueueItem _executorQueueTail;
+
+  //
+  // virtual threads for request tasks
+  //
+  private volatile VirtualThreadExecutor _virtualExecutor;
   
   public ThreadPool()
   {
@@ -131,6 +140,71 @@ public final class ThreadPool extends ThreadPool2 {
     return _executorTaskMax;
   }
 
+  /**
+   * Enables virtual threads for request tasks, when the JVM supports them.
+   * Ports use the virtual executor for their connection threads.
+   */
+  public void setVirtualThreadEnable(boolean isEnable)
+  {
+    if (! isEnable) {
+      _virtualExecutor = null;
+      return;
+    }
+
+    if (_virtualExecutor != null)
+      return;
+
+    if (! VirtualThreadExecutor.isAvailable()) {
+      log.warning(L.l("<thread-virtual-enable> requires a JVM with virtual threads. Platform threads will be used."));
+      return;
+    }
+
+    try {
+      _virtualExecutor = new VirtualThreadExecutor("resin-virtual-");
+    } catch (Exception e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      log.warning(L.l("<thread-virtual-enable> failed to create virtual threads. Platform threads will be used.\n  {0}",
+                      e.toString()));
+    }
+  }
+
+  /**
+   * True if request tasks run on virtual threads.
+   */
+  public boolean isVirtualThreadEnable()
+  {
+    return _virtualExecutor != null;
+  }
+
+  /**
+   * Returns the virtual thread executor, or null for platform threads.
+   */
+  public VirtualThreadExecutor getVirtualThreadExecutor()
+  {
+    return _virtualExecutor;
+  }
+
+  /**
+   * Returns the number of running virtual threads.
+   */
+  public int getVirtualThreadActiveCount()
+  {
+    VirtualThreadExecutor executor = _virtualExecutor;
+
+    return executor != null ? executor.getActiveCount() : 0;
+  }
+
+  /**
+   * Returns the total number of started virtual threads.
+   */
+  public long getVirtualThreadCreateCountTotal()
+  {
+    VirtualThreadExecutor executor = _virtualExecutor;
+
+    return executor != null ? executor.getCreateCountTotal() : 0;
+  }
+
   /**
    * Schedules an executor task.
    */
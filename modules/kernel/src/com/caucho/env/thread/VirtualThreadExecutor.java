@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.env.thread;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs each task on its own JDK virtual thread, for JVMs that support
+ * them. The JDK methods are found by reflection, so the class loads on
+ * older JVMs and isAvailable() returns false.
+ */
+public final class VirtualThreadExecutor implements Executor {
+  private static final Logger log
+    = Logger.getLogger(VirtualThreadExecutor.class.getName());
+
+  private static final Method _ofVirtual;
+  private static final Method _builderName;
+  private static final Method _builderFactory;
+
+  private final ThreadFactory _factory;
+
+  private final AtomicInteger _activeCount = new AtomicInteger();
+  private final AtomicLong _createCountTotal = new AtomicLong();
+
+  public VirtualThreadExecutor(String name)
+  {
+    if (! isAvailable())
+      throw new UnsupportedOperationException(getClass().getSimpleName()
+                                              + " requires a JVM with virtual threads");
+
+    try {
+      Object builder = _ofVirtual.invoke(null);
+
+      builder = _builderName.invoke(builder, name, 0L);
+
+      _factory = (ThreadFactory) _builderFactory.invoke(builder);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns true if the JVM supports virtual threads.
+   */
+  public static boolean isAvailable()
+  {
+    return _builderFactory != null;
+  }
+
+  /**
+   * Starts the task on a new virtual thread with the caller's context
+   * class loader.
+   */
+  @Override
+  public void execute(Runnable task)
+  {
+    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+
+    Thread thread = _factory.newThread(new VirtualTask(task, loader));
+
+    _createCountTotal.incrementAndGet();
+
+    thread.start();
+  }
+
+  /**
+   * Returns the number of running virtual threads.
+   */
+  public int getActiveCount()
+  {
+    return _activeCount.get();
+  }
+
+  /**
+   * Returns the total number of started virtual threads.
+   */
+  public long getCreateCountTotal()
+  {
+    return _createCountTotal.get();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[active=" + getActiveCount() + "]";
+  }
+
+  private final class VirtualTask implements Runnable {
+    private final Runnable _task;
+    private final ClassLoader _loader;
+
+    VirtualTask(Runnable task, ClassLoader loader)
+    {
+      _task = task;
+      _loader = loader;
+    }
+
+    @Override
+    public void run()
+    {
+      _activeCount.incrementAndGet();
+
+      try {
+        Thread.currentThread().setContextClassLoader(_loader);
+
+        _task.run();
+      } catch (Throwable e) {
+        log.log(Level.WARNING, e.toString(), e);
+      } finally {
+        _activeCount.decrementAndGet();
+      }
+    }
+  }
+
+  static {
+    Method ofVirtual = null;
+    Method builderName = null;
+    Method builderFactory = null;
+
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      builderName = builderClass.getMethod("name", String.class, long.class);
+      builderFactory = builderClass.getMethod("factory");
+    } catch (ClassNotFoundException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      builderFactory = null;
+    }
+
+    _ofVirtual = ofVirtual;
+    _builderName = builderName;
+    _builderFactory = builderFactory;
+  }
+}
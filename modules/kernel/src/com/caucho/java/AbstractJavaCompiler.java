@@ -74,6 +74,14 @@ abstract public class AbstractJavaCompiler implements Runnable {
     _path = path;
   }
 
+  /**
+   * Returns the path of files to compile.
+   */
+  public String []getPath()
+  {
+    return _path;
+  }
+
   /**
    * Sets the LineMap for the file
    */
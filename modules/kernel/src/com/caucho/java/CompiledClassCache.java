@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.java;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.util.CurrentTime;
+import com.caucho.util.RandomUtil;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Persistent cache from a source content hash to the compiled class
+ * bytes, so unchanged generated sources are not recompiled after a
+ * redeploy or a cleared work directory.
+ *
+ * Loading an entry touches it, and the directory is pruned at most once
+ * an hour when saving, removing unused entries, abandoned temp files, and
+ * the least recently used entries beyond a maximum count.
+ */
+public class CompiledClassCache {
+  private static final Logger log
+    = Logger.getLogger(CompiledClassCache.class.getName());
+
+  private static final int MAGIC = 0x52434331; // RCC1
+
+  private static final String CLASSES_SUFFIX = ".classes";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private static final int CLASSES_COUNT_MAX = 4096;
+  private static final long CLASSES_IDLE_MAX = 30 * 24 * 3600 * 1000L;
+  private static final long TEMP_IDLE_MAX = 3600 * 1000L;
+  private static final long PRUNE_INTERVAL = 3600 * 1000L;
+
+  // last prune time by cache directory
+  private static final ConcurrentHashMap<String,Long> _pruneTimeMap
+    = new ConcurrentHashMap<String,Long>();
+
+  private final Path _dir;
+
+  public CompiledClassCache(Path dir)
+  {
+    _dir = dir;
+  }
+
+  /**
+   * Returns the cache directory.
+   */
+  public Path getDirectory()
+  {
+    return _dir;
+  }
+
+  /**
+   * Writes the cached classes for the key into the class directory.
+   *
+   * @return true if the key was found and the classes written
+   */
+  public boolean load(String key, Path classDir)
+  {
+    Path path = _dir.lookup(key + CLASSES_SUFFIX);
+
+    if (! path.canRead())
+      return false;
+
+    ArrayList<String> names = new ArrayList<String>();
+    ArrayList<byte[]> classes = new ArrayList<byte[]>();
+
+    try {
+      ReadStream rs = path.openRead();
+
+      try {
+        DataInputStream is = new DataInputStream(rs);
+
+        if (is.readInt() != MAGIC)
+          return false;
+
+        int count = is.readInt();
+
+        for (int i = 0; i < count; i++) {
+          names.add(is.readUTF());
+
+          byte []buffer = new byte[is.readInt()];
+          is.readFully(buffer);
+
+          classes.add(buffer);
+        }
+      } finally {
+        rs.close();
+      }
+
+      for (int i = 0; i < names.size(); i++) {
+        writeClass(classDir, names.get(i), classes.get(i));
+      }
+
+      // the modified time tracks use for pruning
+      path.setLastModified(CurrentTime.getCurrentTime());
+
+      return true;
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return false;
+    }
+  }
+
+  /**
+   * Saves the compiled classes for a source key.
+   *
+   * @param names the binary class names, e.g. _jsp._foo__jsp$1
+   * @param classes the matching class bytes
+   */
+  public void save(String key, ArrayList<String> names,
+                   ArrayList<byte[]> classes)
+  {
+    Path path = _dir.lookup(key + CLASSES_SUFFIX);
+    // a unique temp name, since parallel batches may save the same key
+    String tempTail = (key + "." + Long.toHexString(RandomUtil.getRandomLong())
+                       + TEMP_SUFFIX);
+    Path tempPath = _dir.lookup(tempTail);
+
+    try {
+      _dir.mkdirs();
+
+      WriteStream ws = tempPath.openWrite();
+
+      try {
+        DataOutputStream os = new DataOutputStream(ws);
+
+        os.writeInt(MAGIC);
+        os.writeInt(names.size());
+
+        for (int i = 0; i < names.size(); i++) {
+          byte []buffer = classes.get(i);
+
+          os.writeUTF(names.get(i));
+          os.writeInt(buffer.length);
+          os.write(buffer);
+        }
+
+        os.flush();
+      } finally {
+        ws.close();
+      }
+
+      if (! tempPath.renameTo(path)) {
+        path.remove();
+
+        if (! tempPath.renameTo(path))
+          tempPath.remove();
+      }
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+
+    if (isPruneTime())
+      prune();
+  }
+
+  /**
+   * True if the directory hasn't been pruned within the prune interval,
+   * claiming the prune for the caller.
+   */
+  private boolean isPruneTime()
+  {
+    String name = _dir.getNativePath();
+    long now = CurrentTime.getCurrentTime();
+
+    Long lastTime = _pruneTimeMap.putIfAbsent(name, now);
+
+    if (lastTime == null)
+      return true;
+    else if (now - lastTime < PRUNE_INTERVAL)
+      return false;
+    else
+      return _pruneTimeMap.replace(name, lastTime, now);
+  }
+
+  /**
+   * Removes abandoned temp files, entries unused for the idle maximum,
+   * and the least recently used entries beyond the count maximum.
+   */
+  private void prune()
+  {
+    try {
+      String []names = _dir.list();
+
+      if (names == null)
+        return;
+
+      long now = CurrentTime.getCurrentTime();
+
+      ArrayList<Path> entries = new ArrayList<Path>();
+
+      for (String name : names) {
+        Path path = _dir.lookup(name);
+
+        long idleTime = now - path.getLastModified();
+
+        if (name.endsWith(TEMP_SUFFIX)) {
+          if (TEMP_IDLE_MAX < idleTime)
+            path.remove();
+        }
+        else if (name.endsWith(CLASSES_SUFFIX)) {
+          if (CLASSES_IDLE_MAX < idleTime)
+            path.remove();
+          else
+            entries.add(path);
+        }
+      }
+
+      if (entries.size() <= CLASSES_COUNT_MAX)
+        return;
+
+      Collections.sort(entries, new Comparator<Path>() {
+          public int compare(Path a, Path b)
+          {
+            long aTime = a.getLastModified();
+            long bTime = b.getLastModified();
+
+            return aTime < bTime ? -1 : (aTime == bTime ? 0 : 1);
+          }
+        });
+
+      int removeCount = entries.size() - CLASSES_COUNT_MAX;
+
+      for (int i = 0; i < removeCount; i++) {
+        entries.get(i).remove();
+      }
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+  }
+
+  /**
+   * Writes a class file to the class directory.
+   */
+  static void writeClass(Path classDir, String name, byte []buffer)
+    throws IOException
+  {
+    Path classPath = classDir.lookup(name.replace('.', '/') + ".class");
+
+    classPath.getParent().mkdirs();
+
+    WriteStream os = classPath.openWrite();
+
+    try {
+      os.write(buffer, 0, buffer.length);
+    } finally {
+      os.close();
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _dir + "]";
+  }
+}
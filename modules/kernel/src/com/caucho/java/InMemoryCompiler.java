@@ -0,0 +1,652 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.caucho.config.ConfigException;
+import com.caucho.loader.DynamicClassLoader;
+import com.caucho.loader.Environment;
+import com.caucho.loader.NonScanDynamicClassLoader;
+import com.caucho.util.CharBuffer;
+import com.caucho.util.Hex;
+import com.caucho.vfs.Encoding;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.TempBuffer;
+import com.caucho.vfs.Vfs;
+
+/**
+ * Compiles Java source in-process with javax.tools. Sources are read
+ * through Vfs, class files are captured in memory and written to the
+ * class directory, and compiled classes are saved in the
+ * CompiledClassCache by source hash.
+ *
+ * The javac file managers, which hold the opened classpath jars and
+ * their package indexes, are pooled by classpath and reused across
+ * batches, so parallel batches don't each reopen the classpath. A pooled
+ * manager is dropped when a classpath jar changes, and closed when the
+ * class loader it was created for is destroyed.
+ */
+public class InMemoryCompiler extends AbstractJavaCompiler {
+  private static final int FILE_MANAGER_IDLE_MAX = 16;
+
+  private static final ConcurrentLinkedQueue<FileManagerItem> _fileManagers
+    = new ConcurrentLinkedQueue<FileManagerItem>();
+
+  private static JavaCompiler _javac;
+  private static ClassLoader _javacLoader;
+
+  public InMemoryCompiler(JavaCompilerUtil compiler)
+  {
+    super(compiler);
+  }
+
+  @Override
+  protected void compileInt(String []path, LineMap lineMap)
+    throws IOException, JavaCompileException
+  {
+    Path classDir = _compiler.getClassDir();
+    CompiledClassCache cache = _compiler.getClassCache();
+
+    String encoding = getEncoding();
+    ArrayList<String> options = getOptions();
+
+    String classPath = _compiler.getClassPath();
+    String classPathStamp = getClassPathStamp(classPath);
+
+    String keyPrefix = getKeyPrefix(options, classPathStamp);
+
+    ArrayList<SourceFile> sources = new ArrayList<SourceFile>();
+
+    for (int i = 0; i < path.length; i++) {
+      Path javaPath = _compiler.getSourceDir().lookup(path[i]);
+      byte []source = readSource(javaPath);
+      String key = getKey(keyPrefix, source);
+
+      if (cache != null && cache.load(key, classDir)) {
+        if (log.isLoggable(Level.FINER))
+          log.finer(L.l("{0} loaded from {1}", path[i], cache));
+
+        continue;
+      }
+
+      String text = encoding != null ? new String(source, encoding)
+                                     : new String(source);
+
+      sources.add(new SourceFile(javaPath, text, key));
+    }
+
+    if (sources.size() == 0)
+      return;
+
+    options.add("-classpath");
+    options.add(classPath);
+
+    if (log.isLoggable(Level.FINER)) {
+      CharBuffer msg = new CharBuffer();
+      msg.append("javac(memory)");
+
+      for (SourceFile source : sources) {
+        msg.append(" ");
+        msg.append(source.getName());
+      }
+
+      log.finer(msg.toString());
+    }
+
+    JavaCompiler javac = getJavaCompiler();
+
+    FileManagerItem item = allocateFileManager(javac, classPath,
+                                               classPathStamp,
+                                               _compiler.getClassLoader());
+    MemoryFileManager fileManager = new MemoryFileManager(item.getManager());
+
+    StringWriter error = new StringWriter();
+    boolean isSuccess = false;
+
+    Thread thread = Thread.currentThread();
+    ClassLoader oldLoader = thread.getContextClassLoader();
+
+    try {
+      thread.setContextClassLoader(_javacLoader);
+
+      JavaCompiler.CompilationTask task
+        = javac.getTask(error, fileManager, null, options, null, sources);
+
+      isSuccess = Boolean.TRUE.equals(task.call());
+    } finally {
+      thread.setContextClassLoader(oldLoader);
+
+      freeFileManager(item);
+    }
+
+    for (ClassFile classFile : fileManager.getClassFiles()) {
+      CompiledClassCache.writeClass(classDir,
+                                    classFile.getClassName(),
+                                    classFile.getBytes());
+    }
+
+    if (isSuccess && cache != null)
+      saveCache(cache, sources, fileManager.getClassFiles());
+
+    String errors = null;
+
+    if (error.getBuffer().length() > 0) {
+      byte []errorBytes = error.toString().getBytes("UTF-8");
+      InputStream is = new ByteArrayInputStream(errorBytes);
+      JavacErrorParser parser = new JavacErrorParser(this, path[0], "UTF-8");
+
+      errors = parser.parseErrors(is, lineMap);
+
+      if (errors != null)
+        errors = errors.trim();
+
+      if (log.isLoggable(Level.FINE))
+        log.fine(error.toString());
+      else if (isSuccess && errors != null && ! errors.equals(""))
+        log.warning(errors);
+    }
+
+    if (! isSuccess)
+      throw new JavaCompileException(errors);
+  }
+
+  private void saveCache(CompiledClassCache cache,
+                         ArrayList<SourceFile> sources,
+                         ArrayList<ClassFile> classFiles)
+  {
+    for (SourceFile source : sources) {
+      ArrayList<String> names = new ArrayList<String>();
+      ArrayList<byte[]> classes = new ArrayList<byte[]>();
+
+      for (ClassFile classFile : classFiles) {
+        if (classFile.getSource() == source) {
+          names.add(classFile.getClassName());
+          classes.add(classFile.getBytes());
+        }
+      }
+
+      if (names.size() > 0)
+        cache.save(source.getKey(), names, classes);
+    }
+  }
+
+  private String getEncoding()
+  {
+    String encoding = _compiler.getEncoding();
+
+    if (encoding == null)
+      return null;
+
+    String javaEncoding = Encoding.getJavaName(encoding);
+
+    if (javaEncoding == null || javaEncoding.equals("ISO8859_1"))
+      return null;
+    else
+      return encoding;
+  }
+
+  private ArrayList<String> getOptions()
+  {
+    ArrayList<String> options = new ArrayList<String>();
+
+    String encoding = getEncoding();
+
+    if (encoding != null) {
+      options.add("-encoding");
+      options.add(encoding);
+    }
+
+    ArrayList<String> args = _compiler.getArgs();
+
+    if (args != null)
+      options.addAll(args);
+
+    return options;
+  }
+
+  /**
+   * The cache key covers the source, the compiler options, the JDK and
+   * the classpath stamp.
+   */
+  private String getKeyPrefix(ArrayList<String> options,
+                              String classPathStamp)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append(System.getProperty("java.version"));
+
+    for (String option : options) {
+      sb.append(' ').append(option);
+    }
+
+    sb.append(' ').append(classPathStamp);
+
+    return sb.toString();
+  }
+
+  /**
+   * Returns the path, size and modified time of each classpath jar, so
+   * a replaced jar changes the stamp.
+   *
+   * Directories aren't stamped. The class and source directories change
+   * with every compile, and a directory's modified time misses changes
+   * to nested classes, so a class changed in a classpath directory
+   * needs a cleared class-cache-dir.
+   */
+  private static String getClassPathStamp(String classPath)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    for (String entry : classPath.split(File.pathSeparator)) {
+      if (entry.length() == 0)
+        continue;
+
+      File file = new File(entry);
+
+      if (file.isDirectory())
+        continue;
+
+      sb.append(entry);
+      sb.append('|').append(file.length());
+      sb.append('|').append(file.lastModified());
+      sb.append(File.pathSeparatorChar);
+    }
+
+    return sb.toString();
+  }
+
+  private String getKey(String prefix, byte []source)
+    throws IOException
+  {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-1");
+
+      md.update(prefix.getBytes("UTF-8"));
+      md.update(source);
+
+      return Hex.toHex(md.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static byte []readSource(Path path)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    TempBuffer tBuf = TempBuffer.allocate();
+    byte []buffer = tBuf.getBuffer();
+
+    ReadStream is = path.openRead();
+
+    try {
+      int len;
+
+      while ((len = is.read(buffer, 0, buffer.length)) > 0) {
+        bos.write(buffer, 0, len);
+      }
+    } finally {
+      is.close();
+
+      TempBuffer.free(tBuf);
+    }
+
+    return bos.toByteArray();
+  }
+
+  private static synchronized JavaCompiler getJavaCompiler()
+  {
+    if (_javac != null)
+      return _javac;
+
+    DynamicClassLoader env;
+
+    env = new NonScanDynamicClassLoader(ClassLoader.getSystemClassLoader());
+
+    Path javaHome = Vfs.lookup(System.getProperty("java.home"));
+    Path jar = javaHome.lookup("./lib/tools.jar");
+    if (jar.canRead())
+      env.addJar(jar);
+    jar = javaHome.lookup("../lib/tools.jar");
+    if (jar.canRead())
+      env.addJar(jar);
+
+    Thread thread = Thread.currentThread();
+    ClassLoader oldLoader = thread.getContextClassLoader();
+
+    JavaCompiler javac;
+
+    try {
+      thread.setContextClassLoader(env);
+
+      javac = ToolProvider.getSystemJavaCompiler();
+
+      if (javac == null) {
+        Iterator<JavaCompiler> iter
+          = ServiceLoader.load(JavaCompiler.class).iterator();
+
+        if (iter.hasNext())
+          javac = iter.next();
+      }
+    } finally {
+      thread.setContextClassLoader(oldLoader);
+    }
+
+    if (javac == null)
+      throw new ConfigException(L.l("javac compiler is not available in {0}. Check that you are using the JDK, not the JRE.",
+                                    System.getProperty("java.runtime.name")
+                                    + " " + System.getProperty("java.runtime.version")));
+
+    _javacLoader = env;
+    _javac = javac;
+
+    return javac;
+  }
+
+  /**
+   * Returns an idle file manager for the classpath, or a new one.
+   * Idle managers with an outdated classpath stamp are closed.
+   */
+  private static FileManagerItem allocateFileManager(JavaCompiler javac,
+                                                     String classPath,
+                                                     String classPathStamp,
+                                                     ClassLoader loader)
+  {
+    Iterator<FileManagerItem> iter = _fileManagers.iterator();
+
+    while (iter.hasNext()) {
+      FileManagerItem item = iter.next();
+
+      if (! item.getClassPath().equals(classPath)
+          || ! _fileManagers.remove(item)) {
+        continue;
+      }
+
+      if (item.getClassPathStamp().equals(classPathStamp))
+        return item;
+
+      // a jar changed, and the manager caches the old jar's contents
+      item.closeManager();
+    }
+
+    StandardJavaFileManager manager
+      = javac.getStandardFileManager(null, null, null);
+
+    FileManagerItem item
+      = new FileManagerItem(classPath, classPathStamp, manager);
+
+    if (loader != null)
+      Environment.addWeakCloseListener(item, loader);
+
+    return item;
+  }
+
+  /**
+   * Returns the file manager to the idle pool, closing the oldest idle
+   * manager when the pool is full.
+   */
+  private static void freeFileManager(FileManagerItem item)
+  {
+    if (item.isClosed()) {
+      item.closeManager();
+      return;
+    }
+
+    _fileManagers.add(item);
+
+    // the loader may have been destroyed during the compile
+    if (item.isClosed() && _fileManagers.remove(item))
+      item.closeManager();
+
+    while (FILE_MANAGER_IDLE_MAX < _fileManagers.size()) {
+      FileManagerItem oldItem = _fileManagers.poll();
+
+      if (oldItem == null)
+        break;
+
+      oldItem.closeManager();
+    }
+  }
+
+  static class FileManagerItem implements Closeable {
+    private final String _classPath;
+    private final String _classPathStamp;
+    private final StandardJavaFileManager _manager;
+
+    private volatile boolean _isClosed;
+    private final AtomicBoolean _isManagerClosed = new AtomicBoolean();
+
+    FileManagerItem(String classPath,
+                    String classPathStamp,
+                    StandardJavaFileManager manager)
+    {
+      _classPath = classPath;
+      _classPathStamp = classPathStamp;
+      _manager = manager;
+    }
+
+    String getClassPath()
+    {
+      return _classPath;
+    }
+
+    String getClassPathStamp()
+    {
+      return _classPathStamp;
+    }
+
+    StandardJavaFileManager getManager()
+    {
+      return _manager;
+    }
+
+    boolean isClosed()
+    {
+      return _isClosed;
+    }
+
+    /**
+     * Closes the item when its class loader is destroyed. An item in use
+     * is closed when the compile frees it.
+     */
+    @Override
+    public void close()
+    {
+      _isClosed = true;
+
+      if (_fileManagers.remove(this))
+        closeManager();
+    }
+
+    void closeManager()
+    {
+      if (! _isManagerClosed.compareAndSet(false, true))
+        return;
+
+      try {
+        _manager.close();
+      } catch (IOException e) {
+        log.log(Level.FINEST, e.toString(), e);
+      }
+    }
+  }
+
+  /**
+   * Source read through Vfs. The name is the native path, so javac's
+   * messages match the external compiler for the error parser.
+   */
+  static class SourceFile extends SimpleJavaFileObject {
+    private final String _name;
+    private final String _text;
+    private final String _key;
+
+    SourceFile(Path path, String text, String key)
+    {
+      super(toURI(path), Kind.SOURCE);
+
+      _name = path.getNativePath();
+      _text = text;
+      _key = key;
+    }
+
+    String getKey()
+    {
+      return _key;
+    }
+
+    @Override
+    public String getName()
+    {
+      return _name;
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors)
+    {
+      return _text;
+    }
+
+    private static URI toURI(Path path)
+    {
+      return new File(path.getNativePath()).toURI();
+    }
+  }
+
+  /**
+   * Compiled class captured in memory.
+   */
+  static class ClassFile extends SimpleJavaFileObject {
+    private final String _className;
+    private final FileObject _source;
+    private final ByteArrayOutputStream _os = new ByteArrayOutputStream();
+
+    ClassFile(String className, FileObject source)
+    {
+      super(URI.create("memory:///" + className.replace('.', '/') + ".class"),
+            Kind.CLASS);
+
+      _className = className;
+      _source = source;
+    }
+
+    String getClassName()
+    {
+      return _className;
+    }
+
+    FileObject getSource()
+    {
+      return _source;
+    }
+
+    byte []getBytes()
+    {
+      return _os.toByteArray();
+    }
+
+    @Override
+    public OutputStream openOutputStream()
+    {
+      _os.reset();
+
+      return _os;
+    }
+  }
+
+  /**
+   * File manager capturing the class output in memory.
+   */
+  static class MemoryFileManager
+    extends ForwardingJavaFileManager<StandardJavaFileManager>
+  {
+    private final ArrayList<ClassFile> _classFiles
+      = new ArrayList<ClassFile>();
+
+    MemoryFileManager(StandardJavaFileManager manager)
+    {
+      super(manager);
+    }
+
+    ArrayList<ClassFile> getClassFiles()
+    {
+      return _classFiles;
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location,
+                                               String className,
+                                               JavaFileObject.Kind kind,
+                                               FileObject sibling)
+      throws IOException
+    {
+      if (kind != JavaFileObject.Kind.CLASS)
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+
+      ClassFile classFile = new ClassFile(className, sibling);
+
+      _classFiles.add(classFile);
+
+      return classFile;
+    }
+
+    @Override
+    public void close()
+    {
+      // the underlying manager is pooled
+    }
+  }
+}
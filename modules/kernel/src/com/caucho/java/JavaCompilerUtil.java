@@ -83,6 +83,8 @@ public class JavaCompilerUtil {
   protected ArrayList<String> _args;
 
   private int _maxBatch = 64;
+  private int _threadMax = Runtime.getRuntime().availableProcessors();
+  private CompiledClassCache _classCache;
   private long _startTimeout = 10 * 1000L;
   private long _maxCompileTime = 120 * 1000L;
 
@@ -128,6 +130,10 @@ public class JavaCompilerUtil {
     javaCompiler.setMaxBatch(config.getMaxBatch());
     javaCompiler.setStartTimeout(config.getStartTimeout());
     javaCompiler.setMaxCompileTime(config.getMaxCompileTime());
+    javaCompiler.setThreadMax(config.getThreadMax());
+
+    if (config.getClassCacheDir() != null)
+      javaCompiler.setClassCacheDir(config.getClassCacheDir());
 
     return javaCompiler;
   }
@@ -474,6 +480,54 @@ public class JavaCompilerUtil {
     _maxBatch = maxBatch;
   }
 
+  /**
+   * Sets the maximum number of batches compiled in parallel, used by
+   * the in-process "memory" compiler.
+   */
+  public void setThreadMax(int threadMax)
+  {
+    _threadMax = threadMax;
+  }
+
+  /**
+   * Returns the maximum number of batches compiled in parallel.
+   */
+  public int getThreadMax()
+  {
+    return _threadMax;
+  }
+
+  /**
+   * Sets the directory of the compiled class cache, used by the
+   * "memory" compiler.
+   */
+  public void setClassCacheDir(Path dir)
+  {
+    _classCache = new CompiledClassCache(dir);
+  }
+
+  /**
+   * Returns the compiled class cache.
+   */
+  CompiledClassCache getClassCache()
+  {
+    if (_classCache == null && "memory".equals(getCompiler())) {
+      Path dir = getClassDir().lookup(".class-cache");
+
+      _classCache = new CompiledClassCache(dir);
+    }
+
+    return _classCache;
+  }
+
+  /**
+   * True if batches are compiled in parallel.
+   */
+  private boolean isParallel()
+  {
+    return "memory".equals(getCompiler()) && _threadMax > 1;
+  }
+
   /**
    * Mangles the path into a valid Java class name.
    */
@@ -666,6 +720,12 @@ public class JavaCompilerUtil {
     uniqueFiles.toArray(files);
 
     synchronized (LOCK) {
+      if (isParallel()) {
+        compileParallel(files, batchCount);
+
+        return;
+      }
+
       for (int i = 0; i < files.length; i += batchCount) {
         int len = files.length - i;
 
@@ -693,8 +753,80 @@ public class JavaCompilerUtil {
       throw exn;
   }
 
+  /**
+   * Compiles the batches in parallel, spreading the files over the
+   * threads when there are fewer than a full batch per thread.
+   */
+  private void compileParallel(String []files, int batchCount)
+    throws IOException
+  {
+    int threadMax = _threadMax;
+    int perThread = (files.length + threadMax - 1) / threadMax;
+
+    if (perThread < batchCount)
+      batchCount = Math.max(perThread, 1);
+
+    ArrayList<AbstractJavaCompiler> activeList
+      = new ArrayList<AbstractJavaCompiler>();
+
+    IOException exn = null;
+    RuntimeException runtimeExn = null;
+
+    int i = 0;
+
+    while (i < files.length || activeList.size() > 0) {
+      if (i < files.length && runtimeExn == null
+          && activeList.size() < threadMax) {
+        int len = Math.min(batchCount, files.length - i);
+
+        String []batchFiles = new String[len];
+
+        System.arraycopy(files, i, batchFiles, 0, len);
+        i += len;
+
+        Arrays.sort(batchFiles);
+
+        activeList.add(startCompile(batchFiles, null));
+        continue;
+      }
+
+      if (activeList.size() == 0)
+        break;
+
+      // like the serial batches, a runtime error stops new batches
+      AbstractJavaCompiler compiler = activeList.remove(0);
+
+      try {
+        completeCompile(compiler);
+      } catch (IOException e) {
+        if (exn == null)
+          exn = e;
+        else
+          log.log(Level.WARNING, e.toString(), e);
+      } catch (RuntimeException e) {
+        if (runtimeExn == null)
+          runtimeExn = e;
+        else
+          log.log(Level.FINER, e.toString(), e);
+      }
+    }
+
+    if (runtimeExn != null)
+      throw runtimeExn;
+    else if (exn != null)
+      throw exn;
+  }
+
   protected void compileInt(String []path, LineMap lineMap)
     throws IOException, JavaCompileException
+  {
+    completeCompile(startCompile(path, lineMap));
+  }
+
+  /**
+   * Starts compiling the files in a new thread.
+   */
+  private AbstractJavaCompiler startCompile(String []path, LineMap lineMap)
   {
     AbstractJavaCompiler compiler;
 
@@ -707,6 +839,8 @@ public class JavaCompilerUtil {
       compiler = new InternalCompiler2(this);
     else if (_compiler.equals("tools"))
       compiler = new InternalCompilerTools(this);
+    else if (_compiler.equals("memory"))
+      compiler = new InMemoryCompiler(this);
     else if (_compiler.equals("eclipse"))
       compiler = new EclipseCompiler(this);
     else if (_compiler.equals("groovyc"))
@@ -719,7 +853,18 @@ public class JavaCompilerUtil {
 
     // the compiler may not be well-behaved enough to use the ThreadPool
     ThreadPool.getCurrent().start(compiler, _startTimeout);
-    
+
+    return compiler;
+  }
+
+  /**
+   * Waits for the compilation to complete and merges the .smap files.
+   */
+  private void completeCompile(AbstractJavaCompiler compiler)
+    throws IOException, JavaCompileException
+  {
+    String []path = compiler.getPath();
+
     compiler.waitForComplete(getMaxCompileTime());
 
     if (! compiler.isDone()) {
@@ -30,6 +30,7 @@ package com.caucho.java;
 
 import com.caucho.config.types.Period;
 import com.caucho.loader.EnvironmentLocal;
+import com.caucho.vfs.Path;
 
 import javax.annotation.PostConstruct;
 
@@ -42,6 +43,8 @@ public class JavacConfig {
   private String _args;
   private String _encoding;
   private int _maxBatch = 64;
+  private int _threadMax = Runtime.getRuntime().availableProcessors();
+  private Path _classCacheDir;
 
   private long _startTimeout = 10 * 1000L;
   private long _maxCompileTime = 120 * 1000L;
@@ -125,6 +128,39 @@ public class JavacConfig {
     return _maxBatch;
   }
 
+  /**
+   * Sets the number of batches the "memory" compiler runs in parallel.
+   */
+  public void setThreadMax(int threadMax)
+  {
+    _threadMax = threadMax;
+  }
+
+  /**
+   * Returns the number of parallel batches.
+   */
+  public int getThreadMax()
+  {
+    return _threadMax;
+  }
+
+  /**
+   * Sets the directory for the compiled class cache of the "memory"
+   * compiler. Defaults to .class-cache in the class directory.
+   */
+  public void setClassCacheDir(Path dir)
+  {
+    _classCacheDir = dir;
+  }
+
+  /**
+   * Returns the compiled class cache directory.
+   */
+  public Path getClassCacheDir()
+  {
+    return _classCacheDir;
+  }
+
   /**
    * Sets the compiler args (backwards compat)
    */
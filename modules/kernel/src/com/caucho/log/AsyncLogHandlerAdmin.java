@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.log;
+
+import com.caucho.management.server.AbstractManagedObject;
+import com.caucho.management.server.AsyncLogHandlerMXBean;
+import com.caucho.vfs.Path;
+
+/**
+ * Administration for an asynchronous log handler.
+ */
+public class AsyncLogHandlerAdmin extends AbstractManagedObject
+  implements AsyncLogHandlerMXBean
+{
+  private final AsyncPathHandler _handler;
+
+  AsyncLogHandlerAdmin(AsyncPathHandler handler)
+  {
+    _handler = handler;
+  }
+  
+  @Override
+  public String getName()
+  {
+    Path path = _handler.getPath();
+    
+    return path != null ? path.getTail() : null;
+  }
+  
+  @Override
+  public int getCapacity()
+  {
+    return _handler.getCapacity();
+  }
+  
+  @Override
+  public boolean isDropOnFull()
+  {
+    return _handler.isDropOnFull();
+  }
+  
+  @Override
+  public int getQueueSize()
+  {
+    return _handler.getQueueSize();
+  }
+  
+  @Override
+  public long getDropCountTotal()
+  {
+    return _handler.getDropCountTotal();
+  }
+  
+  @Override
+  public long getWriteCountTotal()
+  {
+    return _handler.getWriteCountTotal();
+  }
+  
+  void register()
+  {
+    registerSelf();
+  }
+  
+  void unregister()
+  {
+    unregisterSelf();
+  }
+}
@@ -0,0 +1,506 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.log;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import javax.annotation.PostConstruct;
+
+import com.caucho.config.ConfigException;
+import com.caucho.config.Configurable;
+import com.caucho.config.types.Bytes;
+import com.caucho.config.types.Period;
+import com.caucho.env.actor.AbstractActorProcessor;
+import com.caucho.env.actor.ActorQueue;
+import com.caucho.server.util.CauchoSystem;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.L10N;
+import com.caucho.util.RingItem;
+import com.caucho.util.RingItemFactory;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Asynchronous log handler writing to a rollover log.
+ *
+ * Publishing threads only capture the record into a preallocated ring.
+ * A single writer thread formats the records and writes them in batches,
+ * flushing once per batch, so request threads do not contend on the
+ * log stream.
+ */
+@Configurable
+public class AsyncPathHandler extends Handler {
+  private static final L10N L = new L10N(AsyncPathHandler.class);
+  
+  private final RotateLog _pathLog = new RotateLog();
+
+  private Formatter _formatter;
+  private TimestampFormatter _timestampFormatter;
+  
+  private int _capacity = 4 * 1024;
+  private boolean _isDropOnFull;
+  
+  private ActorQueue<LogItem> _queue;
+  private WriteStream _os;
+  
+  private volatile Thread _writerThread;
+  
+  private final AtomicLong _dropCount = new AtomicLong();
+  private final AtomicLong _writeCount = new AtomicLong();
+  
+  private AsyncLogHandlerAdmin _admin;
+
+  public AsyncPathHandler()
+  {
+    setTimestamp("[%Y/%m/%d %H:%M:%S.%s] ");
+  }
+
+  /**
+   * Sets the path
+   */
+  public void setPath(Path path)
+  {
+    _pathLog.setPath(path);
+  }
+
+  /**
+   * Sets the path-format
+   */
+  public void setPathFormat(String pathFormat)
+  {
+    _pathLog.setPathFormat(pathFormat);
+  }
+
+  /**
+   * Sets the archive-format
+   */
+  public void setArchiveFormat(String archiveFormat)
+  {
+    _pathLog.setArchiveFormat(archiveFormat);
+  }
+
+  /**
+   * Sets the rollover-period
+   */
+  public void setRolloverPeriod(Period rolloverPeriod)
+  {
+    _pathLog.setRolloverPeriod(rolloverPeriod);
+  }
+
+  /**
+   * Sets the rollover-size
+   */
+  public void setRolloverSize(Bytes size)
+  {
+    _pathLog.setRolloverSize(size);
+  }
+
+  /**
+   * Sets the rollover-count
+   */
+  public void setRolloverCount(int count)
+  {
+    _pathLog.setRolloverCount(count);
+  }
+
+  /**
+   * Sets the timestamp prefix used when no formatter is configured.
+   */
+  public void setTimestamp(String timestamp)
+  {
+    if (timestamp != null) {
+      _timestampFormatter = new TimestampFormatter();
+      _timestampFormatter.setTimestamp(timestamp);
+    }
+    else
+      _timestampFormatter = null;
+  }
+
+  /**
+   * Sets the formatter, e.g. a TimestampFormatter or ELFormatter.
+   */
+  @Override
+  public void setFormatter(Formatter formatter)
+  {
+    _formatter = formatter;
+  }
+  
+  /**
+   * Sets the capacity of the record ring.
+   */
+  @Configurable
+  public void setCapacity(int capacity)
+  {
+    if (capacity <= 0)
+      throw new ConfigException(L.l("capacity '{0}' must be positive",
+                                    capacity));
+    
+    _capacity = capacity;
+  }
+  
+  public int getCapacity()
+  {
+    return _capacity;
+  }
+  
+  /**
+   * If true, records are dropped when the ring is full. Otherwise the
+   * publishing thread blocks until the writer catches up.
+   */
+  @Configurable
+  public void setDropOnFull(boolean isDrop)
+  {
+    _isDropOnFull = isDrop;
+  }
+  
+  public boolean isDropOnFull()
+  {
+    return _isDropOnFull;
+  }
+  
+  public int getQueueSize()
+  {
+    ActorQueue<LogItem> queue = _queue;
+    
+    return queue != null ? queue.getSize() : 0;
+  }
+  
+  public long getDropCountTotal()
+  {
+    return _dropCount.get();
+  }
+  
+  public long getWriteCountTotal()
+  {
+    return _writeCount.get();
+  }
+  
+  Path getPath()
+  {
+    return _os != null ? _os.getPath() : null;
+  }
+
+  /**
+   * Initialize the log.
+   */
+  @PostConstruct
+  public void init()
+    throws ConfigException
+  {
+    try {
+      _pathLog.init();
+
+      WriteStream os = _pathLog.getRotateStream().getStream();
+
+      String encoding = System.getProperty("file.encoding");
+
+      if (encoding != null)
+        os.setEncoding(encoding);
+
+      os.setDisableClose(true);
+
+      _os = os;
+    } catch (IOException e) {
+      throw ConfigException.create(e);
+    }
+    
+    _queue = new ActorQueue<LogItem>(_capacity,
+                                     new LogItemFactory(),
+                                     new LogWriter());
+    
+    _admin = new AsyncLogHandlerAdmin(this);
+    _admin.register();
+  }
+  
+  /**
+   * Captures the record for the writer thread.
+   */
+  @Override
+  public void publish(LogRecord record)
+  {
+    if (record == null || ! isLoggable(record))
+      return;
+    
+    ActorQueue<LogItem> queue = _queue;
+    
+    if (queue == null)
+      return;
+    
+    Thread thread = Thread.currentThread();
+    
+    if (thread == _writerThread) {
+      // logging from the writer itself would wait on its own ring
+      write(record, getTime(), thread.getName(),
+            thread.getContextClassLoader());
+      return;
+    }
+    
+    LogItem item;
+    
+    if (_isDropOnFull) {
+      item = queue.startOffer(false);
+      
+      if (item == null) {
+        _dropCount.incrementAndGet();
+        return;
+      }
+    }
+    else {
+      while ((item = queue.startOffer(true)) == null) {
+      }
+    }
+    
+    item.init(record, getTime(), thread.getName(),
+              thread.getContextClassLoader());
+    
+    queue.finishOffer(item);
+  }
+  
+  private long getTime()
+  {
+    if (CauchoSystem.isTesting())
+      return CurrentTime.getCurrentTime();
+    else
+      return System.currentTimeMillis();
+  }
+  
+  private void write(LogRecord record,
+                     long time,
+                     String threadName,
+                     ClassLoader loader)
+  {
+    WriteStream os = _os;
+    
+    try {
+      Formatter formatter = _formatter;
+      
+      if (formatter instanceof TimestampFormatter) {
+        TimestampFormatter tsFormatter = (TimestampFormatter) formatter;
+        
+        os.println(tsFormatter.format(record, time, threadName, loader));
+      }
+      else if (formatter != null) {
+        os.println(formatter.format(record));
+      }
+      else {
+        if (_timestampFormatter != null) {
+          StringBuilder sb = new StringBuilder();
+          
+          _timestampFormatter.formatTimestamp(sb, record, time,
+                                              threadName, loader);
+          
+          os.print(sb.toString());
+        }
+        
+        printRecord(os, record);
+      }
+      
+      _writeCount.incrementAndGet();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+  
+  private void printRecord(WriteStream os, LogRecord record)
+    throws IOException
+  {
+    String message = record.getMessage();
+    Object []parameters = record.getParameters();
+    Throwable thrown = record.getThrown();
+    
+    if (thrown != null) {
+      if (message != null
+          && ! message.equals(thrown.toString())
+          && ! message.equals(thrown.getMessage())) {
+        printMessage(os, message, parameters);
+      }
+
+      thrown.printStackTrace(os.getPrintWriter());
+    }
+    else {
+      printMessage(os, message, parameters);
+    }
+  }
+  
+  private void printMessage(WriteStream os,
+                            String message,
+                            Object []parameters)
+    throws IOException
+  {
+    if (parameters == null || parameters.length == 0) {
+      os.println(message);
+    }
+    else {
+      os.println(L10N.fillMessage(message, parameters));
+    }
+  }
+
+  /**
+   * Wakes the writer to drain the queued records.
+   */
+  @Override
+  public void flush()
+  {
+    ActorQueue<LogItem> queue = _queue;
+    
+    if (queue != null)
+      queue.wake();
+  }
+
+  /**
+   * Closes the handler, waiting briefly for queued records.
+   */
+  @Override
+  public void close()
+  {
+    ActorQueue<LogItem> queue = _queue;
+    
+    if (queue == null)
+      return;
+    
+    queue.wake();
+    
+    for (int i = 0; i < 100 && ! queue.isEmpty(); i++) {
+      try {
+        Thread.sleep(10);
+      } catch (Exception e) {
+      }
+    }
+    
+    AsyncLogHandlerAdmin admin = _admin;
+    _admin = null;
+    
+    if (admin != null)
+      admin.unregister();
+  }
+
+  @Override
+  public String toString()
+  {
+    if (_os == null)
+      return getClass().getSimpleName() + "[" + _pathLog + "]";
+    else
+      return getClass().getSimpleName() + "[" + _os.getPath() + "]";
+  }
+  
+  private class LogWriter extends AbstractActorProcessor<LogItem>
+  {
+    @Override
+    public void onProcessStart()
+    {
+      _writerThread = Thread.currentThread();
+    }
+    
+    @Override
+    public void process(LogItem item)
+    {
+      LogRecord record = item.getRecord();
+      
+      write(record, item.getTime(), item.getThreadName(), item.getLoader());
+      
+      item.clear();
+    }
+
+    @Override
+    public void onProcessComplete()
+    {
+      try {
+        _os.flush();
+      } catch (Exception e) {
+        e.printStackTrace();
+      } finally {
+        _writerThread = null;
+      }
+    }
+  }
+  
+  static final class LogItem extends RingItem {
+    private LogRecord _record;
+    private long _time;
+    private String _threadName;
+    private ClassLoader _loader;
+    
+    LogItem(int index)
+    {
+      super(index);
+    }
+    
+    void init(LogRecord record,
+              long time,
+              String threadName,
+              ClassLoader loader)
+    {
+      _record = record;
+      _time = time;
+      _threadName = threadName;
+      _loader = loader;
+    }
+    
+    LogRecord getRecord()
+    {
+      return _record;
+    }
+    
+    long getTime()
+    {
+      return _time;
+    }
+    
+    String getThreadName()
+    {
+      return _threadName;
+    }
+    
+    ClassLoader getLoader()
+    {
+      return _loader;
+    }
+    
+    void clear()
+    {
+      _record = null;
+      _threadName = null;
+      _loader = null;
+    }
+  }
+  
+  static final class LogItemFactory implements RingItemFactory<LogItem>
+  {
+    @Override
+    public LogItem createItem(int index)
+    {
+      return new LogItem(index);
+    }
+  }
+}
@@ -165,26 +165,59 @@ public class TimestampFormatter extends Formatter {
     else
       now = System.currentTimeMillis();
 
+    return format(log, now, null, null);
+  }
+
+  /**
+   * Formats a record captured on another thread, using the captured
+   * time, thread name and context class loader.
+   */
+  String format(LogRecord log,
+                long now,
+                String threadName,
+                ClassLoader envLoader)
+  {
+    if (_timestamp == null) {
+      return log.getMessage();
+    }
+    
     StringBuilder sb = new StringBuilder();
 
+    formatTimestamp(sb, log, now, threadName, envLoader);
+
+    sb.append(log.getMessage());
+
+    return sb.toString();
+  }
+
+  /**
+   * Formats only the timestamp prefix. A null thread name or loader
+   * uses the current thread's values.
+   */
+  void formatTimestamp(StringBuilder sb,
+                       LogRecord log,
+                       long now,
+                       String threadName,
+                       ClassLoader envLoader)
+  {
+    if (_timestamp == null)
+      return;
+    
     QDate localDate = QDate.allocateLocalDate();
 
     localDate.setGMTTime(now);
 
     int len = _timestamp.length;
     for (int j = 0; j < len; j++) {
-      _timestamp[j].format(sb, localDate, log);
+      _timestamp[j].format(sb, localDate, log, threadName, envLoader);
     }
     
     QDate.freeLocalDate(localDate);
-
-    sb.append(log.getMessage());
-
-    return sb.toString();
   }
 
   static class TimestampBase {
-    public void format(StringBuilder sb, QDate cal, LogRecord log)
+    public void format(StringBuilder sb, QDate cal, LogRecord log,
+                       String threadName, ClassLoader envLoader)
     {
     }
   }
@@ -198,7 +231,8 @@ public class TimestampFormatter extends Formatter {
     }
     
     @Override
-    public void format(StringBuilder sb, QDate cal, LogRecord log)
+    public void format(StringBuilder sb, QDate cal, LogRecord log,
+                       String threadName, ClassLoader envLoader)
     {
       sb.append(_text, 0, _text.length);
     }
@@ -213,7 +247,8 @@ public class TimestampFormatter extends Formatter {
     }
     
     @Override
-    public void format(StringBuilder sb, QDate cal, LogRecord log)
+    public void format(StringBuilder sb, QDate cal, LogRecord log,
+                       String threadName, ClassLoader envLoader)
     {
       switch (_code) {
       case 'a':
@@ -354,15 +389,20 @@ public class TimestampFormatter extends Formatter {
 
   static class ThreadTimestamp extends TimestampBase {
     @Override
-    public void format(StringBuilder sb, QDate cal, LogRecord log)
+    public void format(StringBuilder sb, QDate cal, LogRecord log,
+                       String threadName, ClassLoader envLoader)
     {
-      sb.append(Thread.currentThread().getName());
+      if (threadName != null)
+        sb.append(threadName);
+      else
+        sb.append(Thread.currentThread().getName());
     }
   }
 
   static class LevelTimestamp extends TimestampBase {
     @Override
-    public void format(StringBuilder sb, QDate cal, LogRecord log)
+    public void format(StringBuilder sb, QDate cal, LogRecord log,
+                       String threadName, ClassLoader envLoader)
     {
       sb.append(log.getLevel());
     }
@@ -370,9 +410,13 @@ public class TimestampFormatter extends Formatter {
 
   static class EnvTimestamp extends TimestampBase {
     @Override
-    public void format(StringBuilder sb, QDate cal, LogRecord log)
+    public void format(StringBuilder sb, QDate cal, LogRecord log,
+                       String threadName, ClassLoader envLoader)
     {
-      sb.append(Environment.getEnvironmentName());
+      if (envLoader != null)
+        sb.append(Environment.getEnvironmentName(envLoader));
+      else
+        sb.append(Environment.getEnvironmentName());
     }
   }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.management.server;
+
+import com.caucho.jmx.Description;
+
+/**
+ * Interface for an asynchronous log handler.
+ *
+ * <pre>
+ * resin:type=AsyncLogHandler,name=log/fine.log
+ * </pre>
+ */
+@Description("An asynchronous log handler writing to a rollover log")
+public interface AsyncLogHandlerMXBean extends ManagedObjectMXBean {
+  /**
+   * Returns the configured ring capacity.
+   */
+  @Description("The configured capacity of the record ring")
+  public int getCapacity();
+  
+  /**
+   * Returns true if records are dropped when the ring is full.
+   */
+  @Description("True if records are dropped when the ring is full, false if publishers block")
+  public boolean isDropOnFull();
+  
+  /**
+   * Returns the current number of queued records.
+   */
+  @Description("The current number of records waiting to be written")
+  public int getQueueSize();
+  
+  /**
+   * Returns the total number of dropped records.
+   */
+  @Description("The total number of records dropped because the ring was full")
+  public long getDropCountTotal();
+  
+  /**
+   * Returns the total number of written records.
+   */
+  @Description("The total number of records written")
+  public long getWriteCountTotal();
+}
@@ -67,6 +67,22 @@ public class InetNetwork {
     _subnetMask = ~((1 << (8 - subnetBits % 8)) - 1) & 0xff;
   }
 
+  /**
+   * Returns the network's address bytes, 4 for IPv4 and 16 for IPv6.
+   */
+  public byte []getAddress()
+  {
+    return _address.clone();
+  }
+
+  /**
+   * Returns the number of bits in the network prefix.
+   */
+  public int getSubnetBits()
+  {
+    return _subnetBits;
+  }
+
   public static InetNetwork valueOf(String network)
     throws UnknownHostException
   {
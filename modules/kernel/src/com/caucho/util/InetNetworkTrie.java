@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.util;
+
+import java.net.InetAddress;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Set of internet networks stored as a compressed binary radix trie, so
+ * a match costs at most one node per address bit instead of a scan over
+ * every network.
+ *
+ * The trie is built at configuration time with <code>add</code> and is
+ * read-only afterwards. Matching a textual address parses it in place and
+ * does not allocate.
+ */
+public final class InetNetworkTrie {
+  private static final Logger log
+    = Logger.getLogger(InetNetworkTrie.class.getName());
+
+  private Node _ipv4Root;
+  private Node _ipv6Root;
+
+  private int _size;
+
+  public InetNetworkTrie()
+  {
+  }
+
+  /**
+   * Adds a network to the set.
+   */
+  public void add(InetNetwork network)
+  {
+    byte []address = network.getAddress();
+    int subnetBits = network.getSubnetBits();
+
+    long hi = 0;
+    long lo = 0;
+
+    for (int i = 0; i < address.length && i < 8; i++) {
+      hi = (hi << 8) | (address[i] & 0xff);
+    }
+
+    for (int i = 8; i < address.length; i++) {
+      lo = (lo << 8) | (address[i] & 0xff);
+    }
+
+    int bits = 8 * address.length;
+
+    if (subnetBits < 0 || bits < subnetBits)
+      subnetBits = bits;
+
+    if (address.length == 4) {
+      hi <<= 32;
+      _ipv4Root = add(_ipv4Root, hi & mask(subnetBits), 0, subnetBits);
+    }
+    else if (address.length == 16) {
+      _ipv6Root = add(_ipv6Root,
+                      hi & mask(subnetBits),
+                      lo & mask(subnetBits - 64),
+                      subnetBits);
+    }
+    else
+      throw new IllegalArgumentException(String.valueOf(network));
+
+    _size++;
+  }
+
+  /**
+   * Returns the number of networks added.
+   */
+  public int getSize()
+  {
+    return _size;
+  }
+
+  /**
+   * Returns true if no networks have been added.
+   */
+  public boolean isEmpty()
+  {
+    return _size == 0;
+  }
+
+  /**
+   * Returns true if the address is in one of the networks.
+   */
+  public boolean isMatch(InetAddress address)
+  {
+    if (address == null)
+      return false;
+
+    byte []bytes = address.getAddress();
+
+    return isMatch(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Returns true if the raw address, 4 bytes for IPv4 and 16 for IPv6,
+   * is in one of the networks.
+   */
+  public boolean isMatch(byte []buffer, int offset, int length)
+  {
+    long hi = 0;
+    long lo = 0;
+
+    if (length == 4) {
+      for (int i = 0; i < 4; i++) {
+        hi = (hi << 8) | (buffer[offset + i] & 0xff);
+      }
+
+      return isMatch(_ipv4Root, hi << 32, 0);
+    }
+    else if (length == 16) {
+      for (int i = 0; i < 8; i++) {
+        hi = (hi << 8) | (buffer[offset + i] & 0xff);
+      }
+
+      for (int i = 8; i < 16; i++) {
+        lo = (lo << 8) | (buffer[offset + i] & 0xff);
+      }
+
+      return isMatchIpv6(hi, lo);
+    }
+    else
+      return false;
+  }
+
+  /**
+   * Returns true if the textual address is in one of the networks.
+   * Numeric IPv4 and IPv6 addresses are parsed without allocation,
+   * anything else falls back to <code>InetAddress</code>.
+   */
+  public boolean isMatch(CharSequence address)
+  {
+    if (address == null)
+      return false;
+
+    int length = address.length();
+
+    for (int i = 0; i < length; i++) {
+      char ch = address.charAt(i);
+
+      if (ch == ':') {
+        int result = matchIpv6(address, length);
+
+        if (result >= 0)
+          return result == 1;
+        else
+          return isMatchByName(address);
+      }
+    }
+
+    long ipv4 = parseIpv4(address, 0, length);
+
+    if (ipv4 >= 0)
+      return isMatch(_ipv4Root, ipv4 << 32, 0);
+    else
+      return isMatchByName(address);
+  }
+
+  private boolean isMatchByName(CharSequence address)
+  {
+    try {
+      return isMatch(InetAddress.getByName(address.toString()));
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return false;
+    }
+  }
+
+  private boolean isMatchIpv6(long hi, long lo)
+  {
+    // IPv4-mapped addresses are IPv4, matching InetAddress
+    if (hi == 0 && (lo >>> 32) == 0xffffL)
+      return isMatch(_ipv4Root, lo << 32, 0);
+    else
+      return isMatch(_ipv6Root, hi, lo);
+  }
+
+  /**
+   * Parses and matches an IPv6 address.
+   *
+   * @return 1 for a match, 0 for no match, -1 for an unparseable address
+   */
+  private int matchIpv6(CharSequence s, int length)
+  {
+    int end = length;
+
+    for (int i = 0; i < length; i++) {
+      if (s.charAt(i) == '%') {
+        end = i;
+        break;
+      }
+    }
+
+    long headHi = 0;
+    long headLo = 0;
+    int headCount = 0;
+
+    long tailHi = 0;
+    long tailLo = 0;
+    int tailCount = 0;
+
+    boolean isCompressed = false;
+
+    int i = 0;
+
+    if (end >= 2 && s.charAt(0) == ':' && s.charAt(1) == ':') {
+      isCompressed = true;
+      i = 2;
+    }
+
+    while (i < end) {
+      int start = i;
+      int group = 0;
+      int digit;
+
+      while (i < end && (digit = hexDigit(s.charAt(i))) >= 0) {
+        group = (group << 4) + digit;
+        i++;
+      }
+
+      if (i < end && s.charAt(i) == '.') {
+        long ipv4 = parseIpv4(s, start, end);
+
+        if (ipv4 < 0)
+          return -1;
+
+        // the dotted tail fills the last two groups
+        if (isCompressed) {
+          tailHi = (tailHi << 32) | (tailLo >>> 32);
+          tailLo = (tailLo << 32) | ipv4;
+          tailCount += 2;
+        }
+        else {
+          headHi = (headHi << 32) | (headLo >>> 32);
+          headLo = (headLo << 32) | ipv4;
+          headCount += 2;
+        }
+
+        i = end;
+        break;
+      }
+
+      if (i == start || i - start > 4)
+        return -1;
+
+      if (isCompressed) {
+        tailHi = (tailHi << 16) | (tailLo >>> 48);
+        tailLo = (tailLo << 16) | group;
+        tailCount++;
+      }
+      else {
+        headHi = (headHi << 16) | (headLo >>> 48);
+        headLo = (headLo << 16) | group;
+        headCount++;
+      }
+
+      if (i == end)
+        break;
+      else if (s.charAt(i) != ':')
+        return -1;
+
+      i++;
+
+      if (i < end && s.charAt(i) == ':') {
+        if (isCompressed)
+          return -1;
+
+        isCompressed = true;
+        i++;
+      }
+      else if (i == end)
+        return -1;
+    }
+
+    int count = headCount + tailCount;
+    long hi;
+    long lo;
+
+    if (isCompressed) {
+      if (8 <= count)
+        return -1;
+
+      // shift the head groups to the top of the 128-bit address
+      int shift = 16 * (8 - headCount);
+
+      if (shift >= 128) {
+        hi = 0;
+        lo = 0;
+      }
+      else if (shift >= 64) {
+        hi = headLo << (shift - 64);
+        lo = 0;
+      }
+      else {
+        hi = (headHi << shift) | (headLo >>> (64 - shift));
+        lo = headLo << shift;
+      }
+
+      hi |= tailHi;
+      lo |= tailLo;
+    }
+    else if (count == 8) {
+      hi = headHi;
+      lo = headLo;
+    }
+    else
+      return -1;
+
+    return isMatchIpv6(hi, lo) ? 1 : 0;
+  }
+
+  /**
+   * Parses a dotted-quad IPv4 address.
+   *
+   * @return the address, or -1 if unparseable
+   */
+  private static long parseIpv4(CharSequence s, int offset, int end)
+  {
+    long address = 0;
+    int parts = 0;
+    int i = offset;
+
+    while (i < end) {
+      int start = i;
+      int value = 0;
+      char ch;
+
+      while (i < end && '0' <= (ch = s.charAt(i)) && ch <= '9') {
+        value = 10 * value + ch - '0';
+        i++;
+      }
+
+      if (i == start || i - start > 3 || 255 < value)
+        return -1;
+
+      address = (address << 8) | value;
+      parts++;
+
+      if (i == end)
+        break;
+      else if (s.charAt(i) != '.' || parts == 4)
+        return -1;
+
+      i++;
+
+      if (i == end)
+        return -1;
+    }
+
+    return parts == 4 ? address : -1;
+  }
+
+  private static int hexDigit(char ch)
+  {
+    if ('0' <= ch && ch <= '9')
+      return ch - '0';
+    else if ('a' <= ch && ch <= 'f')
+      return ch - 'a' + 10;
+    else if ('A' <= ch && ch <= 'F')
+      return ch - 'A' + 10;
+    else
+      return -1;
+  }
+
+  /**
+   * Walks the trie, returning true at the first network containing
+   * the address.
+   */
+  private static boolean isMatch(Node node, long hi, long lo)
+  {
+    while (node != null) {
+      if (! node.isPrefix(hi, lo))
+        return false;
+      else if (node._isNetwork)
+        return true;
+
+      if (getBit(hi, lo, node._bits) == 0)
+        node = node._zero;
+      else
+        node = node._one;
+    }
+
+    return false;
+  }
+
+  /**
+   * Adds a masked prefix below the node, returning the new subtree.
+   * A network already covered by a shorter one is dropped, and a new
+   * network drops the longer networks it covers.
+   */
+  private static Node add(Node node, long hi, long lo, int bits)
+  {
+    if (node == null)
+      return new Node(hi, lo, bits, true);
+
+    int common = getCommonBits(node._hi, node._lo, hi, lo,
+                               Math.min(bits, node._bits));
+
+    if (common == node._bits) {
+      if (node._isNetwork)
+        return node;
+      else if (bits == node._bits)
+        return new Node(hi, lo, bits, true);
+
+      if (getBit(hi, lo, node._bits) == 0)
+        node._zero = add(node._zero, hi, lo, bits);
+      else
+        node._one = add(node._one, hi, lo, bits);
+
+      return node;
+    }
+    else if (common == bits) {
+      return new Node(hi, lo, bits, true);
+    }
+
+    Node split = new Node(hi & mask(common), lo & mask(common - 64),
+                          common, false);
+    Node leaf = new Node(hi, lo, bits, true);
+
+    if (getBit(hi, lo, common) == 0) {
+      split._zero = leaf;
+      split._one = node;
+    }
+    else {
+      split._zero = node;
+      split._one = leaf;
+    }
+
+    return split;
+  }
+
+  /**
+   * Returns the number of leading bits shared by the two addresses,
+   * up to max.
+   */
+  private static int getCommonBits(long hiA, long loA,
+                                   long hiB, long loB,
+                                   int max)
+  {
+    int common;
+
+    if (hiA != hiB)
+      common = Long.numberOfLeadingZeros(hiA ^ hiB);
+    else
+      common = 64 + Long.numberOfLeadingZeros(loA ^ loB);
+
+    return Math.min(common, max);
+  }
+
+  private static int getBit(long hi, long lo, int bit)
+  {
+    if (bit < 64)
+      return (int) (hi >>> (63 - bit)) & 1;
+    else
+      return (int) (lo >>> (127 - bit)) & 1;
+  }
+
+  /**
+   * Returns a mask of the leading bits of a 64-bit word.
+   */
+  private static long mask(int bits)
+  {
+    if (bits <= 0)
+      return 0;
+    else if (bits >= 64)
+      return -1L;
+    else
+      return -1L << (64 - bits);
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _size + "]";
+  }
+
+  private static final class Node {
+    private final long _hi;
+    private final long _lo;
+    private final int _bits;
+    private final boolean _isNetwork;
+
+    private Node _zero;
+    private Node _one;
+
+    Node(long hi, long lo, int bits, boolean isNetwork)
+    {
+      _hi = hi;
+      _lo = lo;
+      _bits = bits;
+      _isNetwork = isNetwork;
+    }
+
+    final boolean isPrefix(long hi, long lo)
+    {
+      int bits = _bits;
+
+      if (bits <= 64)
+        return ((hi ^ _hi) & mask(bits)) == 0;
+      else
+        return hi == _hi && ((lo ^ _lo) & mask(bits - 64)) == 0;
+    }
+  }
+}
@@ -42,6 +42,9 @@ import com.caucho.inject.Module;
  */
 @Module
 abstract public class QSocket {
+  // the throttle's client state for the current connection
+  private Object _throttleEntry;
+  
   abstract public int acceptInitialRead(byte []buffer, int offset, int length)
     throws IOException;
   
@@ -199,6 +202,19 @@ abstract public class QSocket {
   {
     return true;
   }
+
+  /**
+   * Returns true if a read would not block, including at end of file.
+   * The default reports the stream's available count, where a negative
+   * count is the end of file.
+   */
+  public boolean isReadAvailable()
+    throws IOException
+  {
+    StreamImpl s = getStream();
+
+    return s == null || s.getAvailable() != 0;
+  }
   /**
    * Returns a stream impl for the socket encapsulating the
    * input and output stream.
@@ -235,6 +251,20 @@ abstract public class QSocket {
   abstract public void close()
     throws IOException;
   
+  /**
+   * Sets the throttle's client state for the current connection, so the
+   * close releases the state the accept allocated.
+   */
+  public void setThrottleEntry(Object entry)
+  {
+    _throttleEntry = entry;
+  }
+  
+  public Object getThrottleEntry()
+  {
+    return _throttleEntry;
+  }
+  
   @Override
   public String toString()
   {
@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.xml;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.caucho.util.L10N;
+
+/**
+ * Compact binary form of a parsed QDocument. The snapshot keeps the
+ * element names, attributes, text and source locations, so a document
+ * read back is indistinguishable from the parsed original for
+ * configuration. Documents with a DOCTYPE declaration are not supported,
+ * because the DTD defaults and entities are not saved.
+ */
+public final class QDocumentSnapshot {
+  private static final L10N L = new L10N(QDocumentSnapshot.class);
+
+  private static final int MAGIC = 0x52585331; // RXS1
+
+  private static final int END = 0;
+  private static final int ELEMENT = 1;
+  private static final int TEXT = 2;
+  private static final int UNESCAPED_TEXT = 3;
+  private static final int CDATA = 4;
+  private static final int COMMENT = 5;
+  private static final int PI = 6;
+
+  private static final int STRING_NULL = 0;
+  private static final int STRING_NEW = 1;
+  private static final int STRING_REF = 2;
+
+  private QDocumentSnapshot()
+  {
+  }
+
+  /**
+   * Returns true if the document can be saved as a snapshot.
+   */
+  public static boolean isSupported(QDocument doc)
+  {
+    QDocumentType dtd = (QDocumentType) doc.getDoctype();
+
+    // DOMBuilder adds an anonymous doctype to hold the system id
+    return ((dtd == null || dtd.getName() == null)
+            && doc.getDocumentElement() != null);
+  }
+
+  /**
+   * Writes the document to the stream.
+   */
+  public static void write(QDocument doc, DataOutputStream os)
+    throws IOException
+  {
+    if (! isSupported(doc))
+      throw new IOException(L.l("{0} cannot be saved as a snapshot",
+                                doc.getSystemId()));
+
+    Writer out = new Writer(os);
+
+    os.writeInt(MAGIC);
+
+    out.writeString(doc.getSystemId());
+    out.writeString(doc._rootFilename);
+    out.writeString(doc._encoding);
+    out.writeString(doc._version);
+    out.writeLocation(doc);
+
+    QDocumentType dtd = (QDocumentType) doc.getDoctype();
+
+    if (dtd != null) {
+      os.writeBoolean(true);
+      out.writeString(dtd.getSystemId());
+    }
+    else
+      os.writeBoolean(false);
+
+    HashMap<String,String> namespaces = doc.getNamespaces();
+
+    if (namespaces != null) {
+      os.writeInt(namespaces.size());
+
+      for (Map.Entry<String,String> entry : namespaces.entrySet()) {
+        out.writeString(entry.getKey());
+        out.writeString(entry.getValue());
+      }
+    }
+    else
+      os.writeInt(0);
+
+    out.writeChildren(doc);
+  }
+
+  /**
+   * Reads a document written by <code>write</code>.
+   */
+  public static QDocument read(DataInputStream is)
+    throws IOException
+  {
+    if (is.readInt() != MAGIC)
+      throw new IOException(L.l("invalid document snapshot"));
+
+    Reader in = new Reader(is);
+
+    QDocument doc = new QDocument();
+
+    doc.setSystemId(in.readString());
+    doc._rootFilename = in.readString();
+    doc._encoding = in.readString();
+    doc._version = in.readString();
+    in.readLocation(doc);
+
+    if (is.readBoolean()) {
+      QDocumentType dtd = new QDocumentType(null);
+      dtd.setSystemId(in.readString());
+
+      doc.setDoctype(dtd);
+    }
+
+    int count = is.readInt();
+
+    for (int i = 0; i < count; i++) {
+      String prefix = in.readString();
+      String url = in.readString();
+
+      doc.addNamespace(prefix, url);
+    }
+
+    in.readChildren(doc, doc);
+
+    if (doc.getDocumentElement() == null)
+      throw new IOException(L.l("invalid document snapshot"));
+
+    return doc;
+  }
+
+  static class Writer {
+    private final DataOutputStream _os;
+    private final HashMap<String,Integer> _strings
+      = new HashMap<String,Integer>();
+
+    Writer(DataOutputStream os)
+    {
+      _os = os;
+    }
+
+    void writeChildren(QNode parent)
+      throws IOException
+    {
+      for (QAbstractNode node = parent._firstChild;
+           node != null;
+           node = node._next) {
+        writeNode(node);
+      }
+
+      _os.writeByte(END);
+    }
+
+    private void writeNode(QAbstractNode node)
+      throws IOException
+    {
+      if (node instanceof QElement) {
+        QElement elt = (QElement) node;
+
+        _os.writeByte(ELEMENT);
+        writeName(elt.getQName());
+        writeLocation(elt);
+
+        for (QAbstractNode attr = elt._firstAttribute;
+             attr != null;
+             attr = attr._next) {
+          _os.writeByte(1);
+          writeName(attr.getQName());
+          writeString(attr.getNodeValue());
+        }
+        _os.writeByte(0);
+
+        writeChildren(elt);
+      }
+      else if (node instanceof QCdata) {
+        _os.writeByte(CDATA);
+        writeLocation(node);
+        writeString(((QCdata) node).getData());
+      }
+      else if (node instanceof QUnescapedText) {
+        _os.writeByte(UNESCAPED_TEXT);
+        writeLocation(node);
+        writeString(((QText) node).getData());
+      }
+      else if (node instanceof QText) {
+        _os.writeByte(TEXT);
+        writeLocation(node);
+        writeString(((QText) node).getData());
+      }
+      else if (node instanceof QComment) {
+        _os.writeByte(COMMENT);
+        writeLocation(node);
+        writeString(((QComment) node).getData());
+      }
+      else if (node instanceof QProcessingInstruction) {
+        QProcessingInstruction pi = (QProcessingInstruction) node;
+
+        _os.writeByte(PI);
+        writeLocation(node);
+        writeString(pi.getNodeName());
+        writeString(pi.getData());
+      }
+      else
+        throw new IOException(L.l("{0} cannot be saved as a snapshot",
+                                  node.getClass().getName()));
+    }
+
+    private void writeName(QName name)
+      throws IOException
+    {
+      writeString(name.getName());
+      writeString(name.getPrefix());
+      writeString(name.getLocalName());
+      writeString(name.getNamespaceURI());
+    }
+
+    void writeLocation(QAbstractNode node)
+      throws IOException
+    {
+      writeString(node._systemId);
+      writeString(node._filename);
+      _os.writeInt(node._line);
+    }
+
+    void writeString(String value)
+      throws IOException
+    {
+      if (value == null) {
+        _os.writeByte(STRING_NULL);
+        return;
+      }
+
+      Integer index = _strings.get(value);
+
+      if (index != null) {
+        _os.writeByte(STRING_REF);
+        _os.writeInt(index);
+        return;
+      }
+
+      _strings.put(value, _strings.size());
+
+      byte []bytes = value.getBytes("UTF-8");
+
+      _os.writeByte(STRING_NEW);
+      _os.writeInt(bytes.length);
+      _os.write(bytes);
+    }
+  }
+
+  static class Reader {
+    private final DataInputStream _is;
+    private final ArrayList<String> _strings = new ArrayList<String>();
+
+    Reader(DataInputStream is)
+    {
+      _is = is;
+    }
+
+    void readChildren(QDocument doc, QNode parent)
+      throws IOException
+    {
+      int code;
+
+      while ((code = _is.readByte()) != END) {
+        QAbstractNode node;
+
+        switch (code) {
+        case ELEMENT:
+          {
+            QElement elt = (QElement) doc.createElementByName(readName());
+            readLocation(elt);
+
+            while (_is.readByte() != 0) {
+              QName name = readName();
+
+              elt.setAttribute(name, readString());
+            }
+
+            parent.appendChild(elt);
+
+            readChildren(doc, elt);
+            continue;
+          }
+
+        case TEXT:
+        case UNESCAPED_TEXT:
+        case CDATA:
+        case COMMENT:
+        case PI:
+          break;
+
+        default:
+          throw new IOException(L.l("invalid document snapshot code {0}",
+                                    code));
+        }
+
+        String systemId = readString();
+        String filename = readString();
+        int line = _is.readInt();
+
+        if (code == PI) {
+          String name = readString();
+
+          node = new QProcessingInstruction(name, readString());
+        }
+        else {
+          String data = readString();
+
+          if (code == TEXT)
+            node = new QText(data);
+          else if (code == UNESCAPED_TEXT)
+            node = new QUnescapedText(data);
+          else if (code == CDATA)
+            node = new QCdata(data);
+          else
+            node = new QComment(data);
+        }
+
+        node._owner = doc;
+        node._systemId = systemId;
+        node._filename = filename;
+        node._line = line;
+
+        parent.appendChild(node);
+      }
+    }
+
+    private QName readName()
+      throws IOException
+    {
+      String qName = intern(readString());
+      String prefix = intern(readString());
+      String localName = intern(readString());
+      String namespace = intern(readString());
+
+      return new QName(qName, prefix, localName, namespace);
+    }
+
+    void readLocation(QAbstractNode node)
+      throws IOException
+    {
+      node._systemId = readString();
+      node._filename = readString();
+      node._line = _is.readInt();
+    }
+
+    String readString()
+      throws IOException
+    {
+      int code = _is.readByte();
+
+      switch (code) {
+      case STRING_NULL:
+        return null;
+
+      case STRING_REF:
+        return _strings.get(_is.readInt());
+
+      case STRING_NEW:
+        {
+          byte []bytes = new byte[_is.readInt()];
+          _is.readFully(bytes);
+
+          String value = new String(bytes, "UTF-8");
+          _strings.add(value);
+
+          return value;
+        }
+
+      default:
+        throw new IOException(L.l("invalid document snapshot code {0}",
+                                  code));
+      }
+    }
+
+    private String intern(String value)
+    {
+      return value != null ? value.intern() : null;
+    }
+  }
+}
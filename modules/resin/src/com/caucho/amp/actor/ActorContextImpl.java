@@ -117,6 +117,22 @@ public final class ActorContextImpl extends AmpActorContext
     _timeout = timeout;
   }
   
+  @Override
+  public void beforeBatch()
+  {
+    if (_actor instanceof AmpBatchListener) {
+      ((AmpBatchListener) _actor).beforeBatch();
+    }
+  }
+  
+  @Override
+  public void afterBatch()
+  {
+    if (_actor instanceof AmpBatchListener) {
+      ((AmpBatchListener) _actor).afterBatch();
+    }
+  }
+  
   //
   // message filters
   //
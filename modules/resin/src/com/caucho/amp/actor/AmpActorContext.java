@@ -81,6 +81,20 @@ abstract public class AmpActorContext
     _currentContext.set(prev);
   }
 
+  /**
+   * Called by a batching mailbox before a batch of messages.
+   */
+  public void beforeBatch()
+  {
+  }
+
+  /**
+   * Called by a batching mailbox after a batch of messages.
+   */
+  public void afterBatch()
+  {
+  }
+
   abstract public void query(AmpMethodRef methodRef,
                              Object[] args,
                              AmpQueryCallback cb, 
@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.amp.impl;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.amp.AmpException;
+import com.caucho.amp.actor.AmpActorContext;
+import com.caucho.amp.actor.AmpActorRef;
+import com.caucho.amp.mailbox.AbstractAmpMailbox;
+import com.caucho.amp.stream.AmpEncoder;
+import com.caucho.amp.stream.AmpError;
+import com.caucho.amp.stream.AmpStream;
+import com.caucho.env.actor.AbstractActorProcessor;
+import com.caucho.env.actor.ActorQueue;
+import com.caucho.util.L10N;
+import com.caucho.util.RingItem;
+import com.caucho.util.RingItemFactory;
+
+/**
+ * Mailbox for an actor backed by a preallocated ring.
+ *
+ * Messages are copied into reused ring slots, so a send or query does
+ * not allocate. The actor drains the ring in batches, bracketed by
+ * the context's beforeBatch/afterBatch callbacks. When the ring is full,
+ * senders wait for the actor to catch up.
+ */
+public class RingMailbox extends AbstractAmpMailbox
+{
+  private static final L10N L = new L10N(RingMailbox.class);
+  private static final Logger log
+    = Logger.getLogger(RingMailbox.class.getName());
+  
+  private static final int SEND = 1;
+  private static final int QUERY = 2;
+  private static final int QUERY_RESULT = 3;
+  private static final int QUERY_ERROR = 4;
+  private static final int ERROR = 5;
+  
+  private final AmpActorContext _actor;
+  private final ActorQueue<MessageItem> _queue;
+  
+  private volatile boolean _isClosed;
+  
+  public RingMailbox(AmpActorContext actor,
+                     int capacity)
+  {
+    _actor = actor;
+    
+    _queue = new ActorQueue<MessageItem>(capacity,
+                                         new MessageItemFactory(),
+                                         new MailboxProcessor());
+  }
+  
+  /**
+   * Returns the delegated actor stream for the actor itself.
+   */
+  @Override
+  public AmpStream getActorStream()
+  {
+    return _actor.getStream();
+  }
+  
+  @Override
+  public AmpActorContext getActorContext()
+  {
+    return _actor;
+  }
+  
+  /**
+   * Returns the number of queued messages.
+   */
+  public int getSize()
+  {
+    return _queue.getSize();
+  }
+  
+  /**
+   * Returns the number of free message slots.
+   */
+  public int getAvailable()
+  {
+    return _queue.getAvailable();
+  }
+
+  @Override
+  public void send(AmpActorRef to, 
+                   AmpActorRef from,
+                   AmpEncoder encoder, 
+                   String methodName, 
+                   Object... args)
+  {
+    MessageItem item = startOffer();
+    
+    item.init(SEND, 0, to, from, encoder);
+    item.initMethod(methodName, args);
+    
+    _queue.finishOffer(item);
+  }
+
+  @Override
+  public void query(long id, 
+                    AmpActorRef to, 
+                    AmpActorRef from,
+                    AmpEncoder encoder, 
+                    String methodName, 
+                    Object... args)
+  {
+    MessageItem item = startOffer();
+    
+    item.init(QUERY, id, to, from, encoder);
+    item.initMethod(methodName, args);
+    
+    _queue.finishOffer(item);
+  }
+
+  @Override
+  public void queryResult(long id, 
+                          AmpActorRef to, 
+                          AmpActorRef from,
+                          AmpEncoder encoder, 
+                          Object result)
+  {
+    MessageItem item = startOffer();
+    
+    item.init(QUERY_RESULT, id, to, from, encoder);
+    item.initResult(result);
+    
+    _queue.finishOffer(item);
+  }
+
+  @Override
+  public void queryError(long id, 
+                         AmpActorRef to, 
+                         AmpActorRef from, 
+                         AmpEncoder encoder, 
+                         AmpError error)
+  {
+    MessageItem item = startOffer();
+    
+    item.init(QUERY_ERROR, id, to, from, encoder);
+    item.initError(error);
+    
+    _queue.finishOffer(item);
+  }
+
+  @Override
+  public void error(AmpActorRef to, 
+                    AmpActorRef from,
+                    AmpEncoder encoder, 
+                    AmpError error)
+  {
+    MessageItem item = startOffer();
+    
+    item.init(ERROR, 0, to, from, encoder);
+    item.initError(error);
+    
+    _queue.finishOffer(item);
+  }
+  
+  /**
+   * Allocates a ring slot, waiting for the actor when the ring is full.
+   * The actor's own thread cannot wait on itself, so a full ring is an
+   * error in that case.
+   */
+  private MessageItem startOffer()
+  {
+    final ActorQueue<MessageItem> queue = _queue;
+    
+    MessageItem item = queue.startOffer(false);
+    
+    if (item != null) {
+      return item;
+    }
+    
+    if (AmpActorContext.getCurrent() == _actor) {
+      throw new AmpException(L.l("{0} is full and cannot accept a message from its own actor",
+                                 this));
+    }
+    
+    while ((item = queue.startOffer(true)) == null) {
+      if (_isClosed) {
+        throw new AmpException(L.l("{0} is closed", this));
+      }
+    }
+    
+    return item;
+  }
+
+  /**
+   * Closes the mailbox
+   */
+  @Override
+  public void close()
+  {
+    _isClosed = true;
+  }
+  
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _actor + "]";
+  }
+  
+  private final class MailboxProcessor
+    extends AbstractActorProcessor<MessageItem>
+  {
+    private AmpActorContext _prev;
+    
+    @Override
+    public String getThreadName()
+    {
+      return _actor.getAddress();
+    }
+    
+    @Override
+    public void onProcessStart()
+    {
+      _prev = _actor.beginCurrentActor();
+      
+      _actor.beforeBatch();
+    }
+    
+    @Override
+    public void process(MessageItem item)
+    {
+      try {
+        item.invoke(getActorStream());
+      } catch (Throwable e) {
+        log.log(Level.WARNING, e.toString(), e);
+      }
+    }
+    
+    @Override
+    public void onProcessComplete()
+    {
+      try {
+        _actor.afterBatch();
+      } finally {
+        AmpActorContext prev = _prev;
+        _prev = null;
+        
+        _actor.endCurrentActor(prev);
+      }
+    }
+  }
+  
+  static final class MessageItem extends RingItem {
+    private int _type;
+    private long _id;
+    private AmpActorRef _to;
+    private AmpActorRef _from;
+    private AmpEncoder _encoder;
+    private String _methodName;
+    private Object []_args;
+    private Object _result;
+    private AmpError _error;
+    
+    MessageItem(int index)
+    {
+      super(index);
+    }
+    
+    void init(int type,
+              long id,
+              AmpActorRef to,
+              AmpActorRef from,
+              AmpEncoder encoder)
+    {
+      _type = type;
+      _id = id;
+      _to = to;
+      _from = from;
+      _encoder = encoder;
+    }
+    
+    void initMethod(String methodName, Object []args)
+    {
+      _methodName = methodName;
+      _args = args;
+    }
+    
+    void initResult(Object result)
+    {
+      _result = result;
+    }
+    
+    void initError(AmpError error)
+    {
+      _error = error;
+    }
+    
+    void invoke(AmpStream stream)
+    {
+      int type = _type;
+      long id = _id;
+      AmpActorRef to = _to;
+      AmpActorRef from = _from;
+      AmpEncoder encoder = _encoder;
+      String methodName = _methodName;
+      Object []args = _args;
+      Object result = _result;
+      AmpError error = _error;
+      
+      // clear before the call so the slot doesn't pin the message
+      _type = 0;
+      _to = null;
+      _from = null;
+      _encoder = null;
+      _methodName = null;
+      _args = null;
+      _result = null;
+      _error = null;
+      
+      switch (type) {
+      case SEND:
+        stream.send(to, from, encoder, methodName, args);
+        break;
+        
+      case QUERY:
+        stream.query(id, to, from, encoder, methodName, args);
+        break;
+        
+      case QUERY_RESULT:
+        stream.queryResult(id, to, from, encoder, result);
+        break;
+        
+      case QUERY_ERROR:
+        stream.queryError(id, to, from, encoder, error);
+        break;
+        
+      case ERROR:
+        stream.error(to, from, encoder, error);
+        break;
+      }
+    }
+  }
+  
+  static final class MessageItemFactory
+    implements RingItemFactory<MessageItem>
+  {
+    @Override
+    public MessageItem createItem(int index)
+    {
+      return new MessageItem(index);
+    }
+  }
+}
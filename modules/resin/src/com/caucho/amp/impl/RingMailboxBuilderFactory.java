@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.amp.impl;
+
+import com.caucho.amp.mailbox.AbstractAmpMailboxBuilderFactory;
+import com.caucho.amp.mailbox.AmpMailboxBuilder;
+
+/**
+ * Creates ring mailbox builders for actors.
+ */
+public class RingMailboxBuilderFactory extends AbstractAmpMailboxBuilderFactory
+{
+  private int _capacity = 256;
+  
+  /**
+   * Sets the number of preallocated message slots for each mailbox.
+   */
+  public void setCapacity(int capacity)
+  {
+    if (capacity <= 0)
+      throw new IllegalArgumentException(String.valueOf(capacity));
+    
+    _capacity = capacity;
+  }
+  
+  public int getCapacity()
+  {
+    return _capacity;
+  }
+  
+  @Override
+  public AmpMailboxBuilder createMailboxBuilder()
+  {
+    return new RingMailboxBuilder(_capacity);
+  }
+}
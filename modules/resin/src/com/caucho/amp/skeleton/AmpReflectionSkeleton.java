@@ -38,6 +38,7 @@ import java.util.logging.Logger;
 import com.caucho.amp.AmpException;
 import com.caucho.amp.actor.AbstractAmpActor;
 import com.caucho.amp.actor.AmpActorRef;
+import com.caucho.amp.actor.AmpBatchListener;
 import com.caucho.amp.actor.AmpMethodRef;
 import com.caucho.amp.broker.AmpBroker;
 import com.caucho.amp.stream.AmpEncoder;
@@ -49,6 +50,7 @@ import com.caucho.amp.stream.NullEncoder;
  * Creates MPC skeletons and stubs.
  */
 class AmpReflectionSkeleton extends AbstractAmpActor
+  implements AmpBatchListener
 {
   private static final Logger log
     = Logger.getLogger(AmpReflectionSkeleton.class.getName());
@@ -83,6 +85,22 @@ class AmpReflectionSkeleton extends AbstractAmpActor
     return new SkeletonMethodRef(to, _bean, method);
   }
   
+  @Override
+  public void beforeBatch()
+  {
+    if (_bean instanceof AmpBatchListener) {
+      ((AmpBatchListener) _bean).beforeBatch();
+    }
+  }
+  
+  @Override
+  public void afterBatch()
+  {
+    if (_bean instanceof AmpBatchListener) {
+      ((AmpBatchListener) _bean).afterBatch();
+    }
+  }
+  
   @Override
   public void send(AmpActorRef to,
                    AmpActorRef from,
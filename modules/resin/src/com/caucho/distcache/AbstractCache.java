@@ -559,6 +559,15 @@ public class AbstractCache
     return _delegate.getLiveCacheEntry(key);
   }
 
+  /**
+   * Returns the live entries for a batch of keys, loading stale entries
+   * concurrently.
+   */
+  public ExtCacheEntry []getLiveCacheEntries(Object []keys)
+  {
+    return _delegate.getLiveCacheEntries(keys);
+  }
+
   /**
    * Puts a new item in the cache.
    *
@@ -769,6 +778,28 @@ public class AbstractCache
     return _delegate.putIfNew(key, update, is);
   }
 
+  /**
+   * Updates the cache if the old value hash matches the current value.
+   *
+   * @param key          the key of the item to put
+   * @param oldValueHash the hash of the old value, returned by getEntry
+   * @param is           the value of the item to put
+   */
+  @Override
+  public boolean compareAndPut(Object key,
+                               long oldValueHash,
+                               InputStream is,
+                               long accessedExpireTimeout,
+                               long modifiedExpireTimeout,
+                               int userFlags)
+    throws IOException
+  {
+    return _delegate.compareAndPut(key, oldValueHash, is,
+                                   accessedExpireTimeout,
+                                   modifiedExpireTimeout,
+                                   userFlags);
+  }
+
   /**
    * Puts a new item in the cache.
    *
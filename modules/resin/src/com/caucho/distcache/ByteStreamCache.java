@@ -128,6 +128,23 @@ public interface ByteStreamCache
                           InputStream is)
     throws IOException;
 
+  /**
+   * Updates the cache if the old value hash matches the current value.
+   * The test and the update are atomic.
+   *
+   * @param key the key to compare
+   * @param oldValueHash the hash of the old value, returned by getEntry
+   *
+   * @return true if the update succeeds, false if it fails
+   */
+  public boolean compareAndPut(Object key,
+                               long oldValueHash,
+                               InputStream is,
+                               long accessedExpireTimeout,
+                               long modifiedExpireTimeout,
+                               int flags)
+    throws IOException;
+
   /**
    * Removes the entry from the cache
    */
@@ -30,8 +30,11 @@
 package com.caucho.env.dbpool;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -128,7 +131,25 @@ public class ConnectionPool extends AbstractManagedObject
   private final ArrayList<ManagedPoolItem> _connectionPool
     = new ArrayList<ManagedPoolItem>();
 
-  private IdlePoolSet _idlePool;
+  // copy-on-write snapshot of _connectionPool for the lock-free idle scan
+  private volatile ManagedPoolItem []_poolItems = new ManagedPoolItem[0];
+
+  // thread affinity: the last connection returned to idle by the thread
+  private final ThreadLocal<IdleSlot> _threadIdleItem
+    = new ThreadLocal<IdleSlot>() {
+        @Override
+        protected IdleSlot initialValue()
+        {
+          return new IdleSlot();
+        }
+      };
+
+  // reused candidate set for matchManagedConnections
+  private final Object _matchLock = new Object();
+  private IdlePoolSet _matchIdlePool;
+
+  // number of idle connections
+  private final AtomicInteger _idleCount = new AtomicInteger();
 
   // temporary connection list for the alarm callback
   private final ArrayList<ManagedPoolItem> _alarmConnections
@@ -144,8 +165,10 @@ public class ConnectionPool extends AbstractManagedObject
   private final AtomicInteger _idCount = new AtomicInteger();
 
   // connections available for reuse or creation, i.e. the idle count
-  // plus the available createCount
-  private final Object _availableLock = new Object();
+  // plus the available createCount. A lock instead of a monitor, so a
+  // waiting virtual thread doesn't pin its carrier.
+  private final ReentrantLock _availableLock = new ReentrantLock();
+  private final Condition _availableCondition = _availableLock.newCondition();
   private final AtomicInteger _availableWaitCount = new AtomicInteger();
   
   private final AtomicInteger _createCount = new AtomicInteger();
@@ -554,7 +577,8 @@ public class ConnectionPool extends AbstractManagedObject
   @Override
   public int getConnectionIdleCount()
   {
-    return _idlePool.size();
+    // a claim can briefly run ahead of the returning thread's increment
+    return Math.max(0, _idleCount.get());
   }
   
   /**
@@ -572,7 +596,7 @@ public class ConnectionPool extends AbstractManagedObject
   @Override
   public int getConnectionActiveCount()
   {
-    return _connectionPool.size() - _idlePool.size();
+    return _connectionPool.size() - getConnectionIdleCount();
   }
 
   /**
@@ -631,8 +655,6 @@ public class ConnectionPool extends AbstractManagedObject
     if (_tm == null)
       throw new ConfigException(L.l("the connection manager needs a transaction manager."));
 
-    _idlePool = new IdlePoolSet(_maxIdleCount);
-
     _connectionTime = MeterService.createActiveTimeMeter("Resin|Database|Connection");
     _idleTime = MeterService.createActiveTimeMeter("Resin|Database|Idle");
     _queryTime = MeterService.createActiveTimeMeter("Resin|Database|Query");
@@ -901,8 +923,6 @@ public class ConnectionPool extends AbstractManagedObject
     throws ResourceException
   {
     while (_lifecycle.isActive()) {
-      ManagedConnection mConn;
-
       long now = CurrentTime.getCurrentTime();
 
       if (_lastValidCheckTime + 15000L < now) {
@@ -916,43 +936,11 @@ public class ConnectionPool extends AbstractManagedObject
         }
       }
 
-      ManagedPoolItem poolItem = null;
-
-      while (true) {
-        // asks the Driver's ManagedConnectionFactory to match an
-        // idle connection
-        synchronized (_connectionPool) {
-          mConn = mcf.matchManagedConnections(_idlePool, subject, info);
-
-          // If there are no more idle connections, return null
-          if (mConn == null)
-            return null;
+      ManagedPoolItem poolItem = allocateIdleItem(mcf, subject, info);
 
-          // remove can fail for threading reasons, so only succeed if it works.
-          if (! _idlePool.remove(mConn)) {
-            mConn = null;
-          }
-        }
-        
-        if (mConn != null) {
-          poolItem = findPoolItem(mConn);
-            
-          if (poolItem != null) {
-            break;
-          }
-          
-          log.warning(L.l("Unexpected non-matching PoolItem found for {0}",
-                          mConn));
-
-          try {
-            mConn.destroy();
-          } catch (Exception e) {
-            log.log(Level.FINE, e.toString(), e);
-          }
-
-          break;
-        }
-      }
+      // If there are no more idle connections, return null
+      if (poolItem == null)
+        return null;
 
       try {
         // Ensure the connection is still valid
@@ -972,19 +960,156 @@ public class ConnectionPool extends AbstractManagedObject
     return null;
   }
 
-  private ManagedPoolItem findPoolItem(ManagedConnection mConn)
+  /**
+   * Claims an idle pool item matching the request. The thread's last
+   * returned connection is tried first, then the idle items are scanned
+   * without locking. The driver's matchManagedConnections is only
+   * consulted when no idle item was allocated with the same credentials.
+   */
+  private ManagedPoolItem allocateIdleItem(ManagedConnectionFactory mcf,
+                                           Subject subject,
+                                           ConnectionRequestInfo info)
+    throws ResourceException
   {
-    synchronized (_connectionPool) {
-      for (int i = _connectionPool.size() - 1; i >= 0; i--) {
-        ManagedPoolItem testPoolItem = _connectionPool.get(i);
+    if (_idleCount.get() <= 0)
+      return null;
+
+    ManagedPoolItem poolItem = _threadIdleItem.get().getItem();
+
+    if (poolItem != null
+        && isIdleMatch(poolItem, subject, info)
+        && claimIdle(poolItem)) {
+      return poolItem;
+    }
+
+    ManagedPoolItem []poolItems = _poolItems;
+    int length = poolItems.length;
+
+    if (length == 0)
+      return null;
+
+    // spread the scan start so threads don't contend on the same items
+    int offset = (int) (Thread.currentThread().getId() % length);
+
+    for (int i = 0; i < length; i++) {
+      poolItem = poolItems[(offset + i) % length];
 
-        if (testPoolItem.getManagedConnection() == mConn) {
-          return testPoolItem;
+      if (isIdleMatch(poolItem, subject, info) && claimIdle(poolItem))
+        return poolItem;
+    }
+
+    return matchIdleItem(mcf, subject, info, poolItems);
+  }
+
+  /**
+   * Asks the driver's ManagedConnectionFactory to match an idle
+   * connection allocated with different credentials.
+   */
+  private ManagedPoolItem matchIdleItem(ManagedConnectionFactory mcf,
+                                        Subject subject,
+                                        ConnectionRequestInfo info,
+                                        ManagedPoolItem []poolItems)
+    throws ResourceException
+  {
+    synchronized (_matchLock) {
+      IdlePoolSet idlePool = _matchIdlePool;
+
+      if (idlePool == null || idlePool.capacity() < poolItems.length) {
+        idlePool = new IdlePoolSet(Math.max(16, poolItems.length));
+        _matchIdlePool = idlePool;
+      }
+
+      try {
+        for (ManagedPoolItem poolItem : poolItems) {
+          ManagedConnection mConn = poolItem.getManagedConnection();
+
+          if (mConn != null && poolItem.isIdle())
+            idlePool.add(mConn);
+        }
+
+        while (! idlePool.isEmpty()) {
+          ManagedConnection mConn
+            = mcf.matchManagedConnections(idlePool, subject, info);
+
+          if (mConn == null)
+            return null;
+
+          idlePool.remove(mConn);
+
+          ManagedPoolItem poolItem = findPoolItem(mConn);
+
+          if (poolItem == null) {
+            log.warning(L.l("Unexpected non-matching PoolItem found for {0}",
+                            mConn));
+          }
+          else if (claimIdle(poolItem)) {
+            return poolItem;
+          }
         }
+
+        return null;
+      } finally {
+        idlePool.clear();
       }
+    }
+  }
 
-      return null;
+  /**
+   * True if the item is idle and was last allocated with the same
+   * credentials.
+   */
+  private boolean isIdleMatch(ManagedPoolItem poolItem,
+                              Subject subject,
+                              ConnectionRequestInfo info)
+  {
+    if (! poolItem.isIdle())
+      return false;
+    else if (poolItem.getSubject() != subject)
+      return false;
+
+    ConnectionRequestInfo itemInfo = poolItem.getRequestInfo();
+
+    return itemInfo == info || info != null && info.equals(itemInfo);
+  }
+
+  /**
+   * Claims an idle item, updating the idle count.
+   */
+  private boolean claimIdle(ManagedPoolItem poolItem)
+  {
+    if (poolItem.allocateIdle()) {
+      _idleCount.decrementAndGet();
+
+      return true;
+    }
+    else
+      return false;
+  }
+
+  private ManagedPoolItem findPoolItem(ManagedConnection mConn)
+  {
+    ManagedPoolItem []poolItems = _poolItems;
+
+    for (int i = poolItems.length - 1; i >= 0; i--) {
+      ManagedPoolItem testPoolItem = poolItems[i];
+
+      if (testPoolItem.getManagedConnection() == mConn) {
+        return testPoolItem;
+      }
     }
+
+    return null;
+  }
+
+  /**
+   * Publishes the pool snapshot. Must be called with the
+   * _connectionPool lock held.
+   */
+  private void updatePoolItems()
+  {
+    ManagedPoolItem []poolItems = new ManagedPoolItem[_connectionPool.size()];
+
+    _poolItems = _connectionPool.toArray(poolItems);
   }
 
   /**
@@ -1034,6 +1159,7 @@ public class ConnectionPool extends AbstractManagedObject
 
       synchronized (_connectionPool) {
         _connectionPool.add(poolItem);
+        updatePoolItems();
       }
 
       poolItem = null;
@@ -1115,32 +1241,34 @@ public class ConnectionPool extends AbstractManagedObject
   {
     _availableWaitCount.incrementAndGet();
     
+    _availableLock.lock();
+    
     try {
-      synchronized (_availableLock) {
-        // return false only if the timeout occurs before the wait
-        boolean isAfterWait = false;
+      // return false only if the timeout occurs before the wait
+      boolean isAfterWait = false;
         
-        while (! isIdleAvailable() && ! isCreateAvailable()) {
-          try {
-            long now = CurrentTime.getCurrentTimeActual();
+      while (! isIdleAvailable() && ! isCreateAvailable()) {
+        try {
+          long now = CurrentTime.getCurrentTimeActual();
             
-            long delta = expireTime - now;
+          long delta = expireTime - now;
 
-            if (delta <= 0)
-              return isAfterWait;
+          if (delta <= 0)
+            return isAfterWait;
             
-            Thread.interrupted();
-            _availableLock.wait(delta);
+          Thread.interrupted();
+          _availableCondition.await(delta, TimeUnit.MILLISECONDS);
             
-            isAfterWait = true;
-          } catch (InterruptedException e) {
-            log.log(Level.FINER, e.toString(), e);
-          }
+          isAfterWait = true;
+        } catch (InterruptedException e) {
+          log.log(Level.FINER, e.toString(), e);
         }
-        
-        return true;
       }
+        
+      return true;
     } finally {
+      _availableLock.unlock();
+      
       _availableWaitCount.decrementAndGet();
     }
   }
@@ -1151,8 +1279,12 @@ public class ConnectionPool extends AbstractManagedObject
   private void notifyConnectionAvailable()
   {
     if (_availableWaitCount.get() > 0) {
-      synchronized (_availableLock) {
-        _availableLock.notifyAll();
+      _availableLock.lock();
+      
+      try {
+        _availableCondition.signalAll();
+      } finally {
+        _availableLock.unlock();
       }
     }
   }
@@ -1162,7 +1294,7 @@ public class ConnectionPool extends AbstractManagedObject
    */
   private boolean isIdleAvailable()
   {
-    return _idlePool.size() > 0;
+    return _idleCount.get() > 0;
   }
 
   /**
@@ -1217,18 +1349,21 @@ public class ConnectionPool extends AbstractManagedObject
 
       long now = CurrentTime.getCurrentTime();
 
-      if (_idlePool.size() == 0)
+      if (_idleCount.get() == 0)
         _idlePoolExpire = now + _idleTimeout;
 
-      synchronized (_connectionPool) {
-        if (_idlePoolExpire < now) {
-          // shrink the idle pool when non-empty for idleTimeout
-          _idlePoolExpire = now + _idleTimeout;
-        }
-        else if (_idlePool.add(mConn)) {
-          item = null;
-          return;
-        }
+      if (_idlePoolExpire < now) {
+        // shrink the idle pool when non-empty for idleTimeout
+        _idlePoolExpire = now + _idleTimeout;
+      }
+      else if (_idleCount.get() < _maxIdleCount) {
+        // the item is idle before it's counted, so a positive count
+        // always has a claimable item behind it
+        setThreadIdleItem(item);
+        item.setIdle();
+        _idleCount.incrementAndGet();
+        item = null;
+        return;
       }
     } catch (Exception e) {
       log.log(Level.FINE, e.toString(), e);
@@ -1240,15 +1375,40 @@ public class ConnectionPool extends AbstractManagedObject
     }
   }
 
+  /**
+   * Makes the item the current thread's preferred idle connection.
+   */
+  private void setThreadIdleItem(ManagedPoolItem item)
+  {
+    IdleSlot slot = _threadIdleItem.get();
+    IdleSlot oldSlot = item.getIdleSlot();
+
+    if (oldSlot != null && oldSlot != slot)
+      oldSlot.clear(item);
+
+    slot.setItem(item);
+    item.setIdleSlot(slot);
+  }
+
   /**
    * Removes a connection
    */
   void removeItem(ManagedPoolItem item, ManagedConnection mConn)
   {
+    claimIdle(item);
+
+    // don't keep the destroyed item reachable from the pool threads
+    IdleSlot slot = item.getIdleSlot();
+
+    if (slot != null) {
+      item.setIdleSlot(null);
+      slot.clear(item);
+    }
+
     synchronized (_connectionPool) {
-      _idlePool.remove(mConn);
+      if (_connectionPool.remove(item))
+        updatePoolItems();
 
-      _connectionPool.remove(item);
       _connectionPool.notifyAll();
     }
 
@@ -1273,11 +1433,10 @@ public class ConnectionPool extends AbstractManagedObject
     ArrayList<ManagedPoolItem> clearItems = new ArrayList<ManagedPoolItem>();
 
     synchronized (_connectionPool) {
-      _idlePool.clear();
-
       clearItems.addAll(pool);
 
       pool.clear();
+      updatePoolItems();
     }
 
     for (int i = 0; i < clearItems.size(); i++) {
@@ -1388,9 +1547,7 @@ public class ConnectionPool extends AbstractManagedObject
     synchronized (_connectionPool) {
       pool = new ArrayList<ManagedPoolItem>(_connectionPool);
       _connectionPool.clear();
-
-      if (_idlePool != null)
-        _idlePool.clear();
+      updatePoolItems();
     }
 
     for (int i = 0; i < pool.size(); i++) {
@@ -1408,4 +1565,28 @@ public class ConnectionPool extends AbstractManagedObject
   {
     return "ConnectionPool[" + getName() + "]";
   }
+
+  /**
+   * A thread's preferred idle item. The item points back to its slot, so
+   * the slot can be cleared from any thread when the item is destroyed.
+   */
+  static final class IdleSlot {
+    private volatile ManagedPoolItem _item;
+
+    ManagedPoolItem getItem()
+    {
+      return _item;
+    }
+
+    void setItem(ManagedPoolItem item)
+    {
+      _item = item;
+    }
+
+    void clear(ManagedPoolItem item)
+    {
+      if (_item == item)
+        _item = null;
+    }
+  }
 }
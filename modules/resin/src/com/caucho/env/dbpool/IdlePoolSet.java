@@ -55,6 +55,14 @@ public class IdlePoolSet extends AbstractSet<ManagedConnection> {
     _entriesLength = _entries.length;
   }
 
+  /**
+   * Returns the maximum number of elements in the set.
+   */
+  int capacity()
+  {
+    return _capacity;
+  }
+
   /**
    * Returns the number of elements in the set.
    */
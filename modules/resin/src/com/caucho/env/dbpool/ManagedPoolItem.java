@@ -29,6 +29,8 @@
 
 package com.caucho.env.dbpool;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -83,6 +85,10 @@ class ManagedPoolItem implements ConnectionEventListener, ManagedXAResource {
 
   final Object _shareLock = new Object();
 
+  // guards activation and validation. toActive can call the driver, so
+  // this is a lock instead of a monitor to avoid pinning virtual threads
+  private final ReentrantLock _activeLock = new ReentrantLock();
+
   // The head shared connection for transaction
   // The UserPoolItem code is responsible for this field
   UserPoolItem _shareHead;
@@ -108,6 +114,12 @@ class ManagedPoolItem implements ConnectionEventListener, ManagedXAResource {
 
   private IllegalStateException _allocationStackTrace;
 
+  // true while the item is idle and may be claimed by an allocation
+  private final AtomicBoolean _isIdle = new AtomicBoolean();
+
+  // the thread affinity slot holding this item, cleared on destroy
+  private volatile ConnectionPool.IdleSlot _idleSlot;
+
   //
   // statistics
   //
@@ -188,6 +200,65 @@ class ManagedPoolItem implements ConnectionEventListener, ManagedXAResource {
     _requestInfo = info;
   }
 
+  /**
+   * Returns the subject of the last allocation.
+   */
+  Subject getSubject()
+  {
+    return _subject;
+  }
+
+  /**
+   * Returns the request info of the last allocation.
+   */
+  ConnectionRequestInfo getRequestInfo()
+  {
+    return _requestInfo;
+  }
+
+  /**
+   * Returns true if the connection is idle in the pool.
+   */
+  boolean isIdle()
+  {
+    return _isIdle.get();
+  }
+
+  /**
+   * Marks the connection as idle, making it available for allocation.
+   */
+  void setIdle()
+  {
+    _isIdle.set(true);
+  }
+
+  /**
+   * Returns the thread affinity slot holding the item.
+   */
+  ConnectionPool.IdleSlot getIdleSlot()
+  {
+    return _idleSlot;
+  }
+
+  /**
+   * Sets the thread affinity slot holding the item.
+   */
+  void setIdleSlot(ConnectionPool.IdleSlot slot)
+  {
+    _idleSlot = slot;
+  }
+
+  /**
+   * Claims an idle connection. Only one thread can claim the connection
+   * for each idle period.
+   *
+   * @return true if the caller owns the connection
+   */
+  boolean allocateIdle()
+  {
+    return _isIdle.compareAndSet(true, false);
+  }
+
   /**
    * Returns true if the connection is active.
    */
@@ -234,63 +305,69 @@ class ManagedPoolItem implements ConnectionEventListener, ManagedXAResource {
    *
    * @return true if the pool item is valid, false if it should be removed.
    */
-  synchronized UserPoolItem toActive(Subject subject,
-                                     ConnectionRequestInfo info,
-                                     UserPoolItem oldPoolItem)
+  UserPoolItem toActive(Subject subject,
+                      ConnectionRequestInfo info,
+                      UserPoolItem oldPoolItem)
     throws ResourceException
   {
-    long now = CurrentTime.getCurrentTime();
+    _activeLock.lock();
 
-    long maxIdleTime = _cm.getMaxIdleTime();
-    long maxPoolTime = _cm.getMaxPoolTime();
+    try {
+      long now = CurrentTime.getCurrentTime();
 
-    if (_hasConnectionError) {
-      return null;
-    }
-    else if (0 < maxIdleTime && _poolEventTime + maxIdleTime < now) {
-      return null;
-    }
-    else if (0 < maxPoolTime && _poolStartTime + maxPoolTime < now) {
-      return null;
-    }
-    else if (_shareHead != null)
-      throw new IllegalStateException(L.l("trying to activate active pool item."));
+      long maxIdleTime = _cm.getMaxIdleTime();
+      long maxPoolTime = _cm.getMaxPoolTime();
 
-    _poolEventTime = now;
-    _isXATransaction = _xaResource != null; // disable LT-optim by default
+      if (_hasConnectionError) {
+        return null;
+      }
+      else if (0 < maxIdleTime && _poolEventTime + maxIdleTime < now) {
+        return null;
+      }
+      else if (0 < maxPoolTime && _poolStartTime + maxPoolTime < now) {
+        return null;
+      }
+      else if (_shareHead != null)
+        throw new IllegalStateException(L.l("trying to activate active pool item."));
 
-    UserPoolItem userPoolItem = null;
+      _poolEventTime = now;
+      _isXATransaction = _xaResource != null; // disable LT-optim by default
 
-    if (oldPoolItem != null) {
-      Object uConn = oldPoolItem.getUserConnection();
+      UserPoolItem userPoolItem = null;
 
-      if (uConn != null)
-        _mConn.associateConnection(uConn);
+      if (oldPoolItem != null) {
+        Object uConn = oldPoolItem.getUserConnection();
 
-      oldPoolItem.associatePoolItem(this);
+        if (uConn != null)
+          _mConn.associateConnection(uConn);
 
-      userPoolItem = oldPoolItem;
-    }
-    else
-      userPoolItem = new UserPoolItem(_cm, this);
+        oldPoolItem.associatePoolItem(this);
 
-    if (! isValid(subject, info, userPoolItem)) {
-      return null;
-    }
+        userPoolItem = oldPoolItem;
+      }
+      else
+        userPoolItem = new UserPoolItem(_cm, this);
 
-    _subject = subject;
-    _requestInfo = info;
-    userPoolItem.associate(this, _mcf, subject, info);
+      if (! isValid(subject, info, userPoolItem)) {
+        return null;
+      }
 
-    if (log.isLoggable(Level.FINE))
-      log.fine("allocate " + this);
+      _subject = subject;
+      _requestInfo = info;
+      userPoolItem.associate(this, _mcf, subject, info);
 
-    if (_cm.getSaveAllocationStackTrace()) {
-      _allocationStackTrace = new IllegalStateException(L.l("Connection {0} allocation stack trace", this));
-      _allocationStackTrace.fillInStackTrace();
-    }
+      if (log.isLoggable(Level.FINE))
+        log.fine("allocate " + this);
 
-    return userPoolItem;
+      if (_cm.getSaveAllocationStackTrace()) {
+        _allocationStackTrace = new IllegalStateException(L.l("Connection {0} allocation stack trace", this));
+        _allocationStackTrace.fillInStackTrace();
+      }
+
+      return userPoolItem;
+    } finally {
+      _activeLock.unlock();
+    }
   }
 
   /**
@@ -300,7 +377,9 @@ class ManagedPoolItem implements ConnectionEventListener, ManagedXAResource {
    */
   boolean isValid()
   {
-    synchronized (this) {
+    _activeLock.lock();
+
+    try {
       long now = CurrentTime.getCurrentTime();
 
       long maxIdleTime = _cm.getMaxIdleTime();
@@ -337,6 +416,8 @@ class ManagedPoolItem implements ConnectionEventListener, ManagedXAResource {
       }
       else
         return true;
+    } finally {
+      _activeLock.unlock();
     }
   }
 
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.env.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.caucho.util.L10N;
+
+/**
+ * Git pack delta encoding. A delta is the source and target lengths
+ * followed by copy instructions from the base and literal inserts.
+ */
+public class GitDelta {
+  private static final L10N L = new L10N(GitDelta.class);
+
+  private static final int BLOCK = 16;
+  private static final int COPY_MAX = 0x10000;
+  private static final int INSERT_MAX = 0x7f;
+
+  // multiplier for the rolling block hash
+  private static final int PRIME = 0x01000193;
+  private static final int PRIME_TOP;
+
+  private GitDelta()
+  {
+  }
+
+  /**
+   * Applies a delta to a base object.
+   */
+  public static byte []apply(byte []base, byte []delta)
+    throws IOException
+  {
+    int []offsetRef = new int[1];
+
+    long baseLength = readLength(delta, offsetRef);
+    long targetLength = readLength(delta, offsetRef);
+
+    if (baseLength != base.length)
+      throw new IOException(L.l("git delta base length {0} does not match {1}",
+                                baseLength, (long) base.length));
+
+    byte []target = new byte[(int) targetLength];
+    int targetOffset = 0;
+    int offset = offsetRef[0];
+
+    while (offset < delta.length) {
+      int op = delta[offset++] & 0xff;
+
+      if ((op & 0x80) != 0) {
+        int copyOffset = 0;
+        int copyLength = 0;
+
+        for (int i = 0; i < 4; i++) {
+          if ((op & (1 << i)) != 0)
+            copyOffset |= (delta[offset++] & 0xff) << (8 * i);
+        }
+
+        for (int i = 0; i < 3; i++) {
+          if ((op & (0x10 << i)) != 0)
+            copyLength |= (delta[offset++] & 0xff) << (8 * i);
+        }
+
+        if (copyLength == 0)
+          copyLength = COPY_MAX;
+
+        if (copyOffset < 0 || base.length < copyOffset + copyLength
+            || target.length < targetOffset + copyLength)
+          throw new IOException(L.l("git delta copy is out of bounds"));
+
+        System.arraycopy(base, copyOffset, target, targetOffset, copyLength);
+        targetOffset += copyLength;
+      }
+      else if (op != 0) {
+        if (delta.length < offset + op || target.length < targetOffset + op)
+          throw new IOException(L.l("git delta insert is out of bounds"));
+
+        System.arraycopy(delta, offset, target, targetOffset, op);
+        offset += op;
+        targetOffset += op;
+      }
+      else
+        throw new IOException(L.l("git delta has an invalid opcode"));
+    }
+
+    if (targetOffset != target.length)
+      throw new IOException(L.l("git delta length {0} does not match {1}",
+                                targetOffset, target.length));
+
+    return target;
+  }
+
+  /**
+   * Creates a delta from the base to the target, or returns null if
+   * the delta would not be smaller than half the target.
+   */
+  public static byte []create(byte []base, byte []target)
+  {
+    int limit = target.length / 2;
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+    writeLength(os, base.length);
+    writeLength(os, target.length);
+
+    int []index = createIndex(base);
+    int mask = index.length - 1;
+
+    int insertStart = 0;
+    int offset = 0;
+    int hash = 0;
+
+    if (BLOCK <= target.length)
+      hash = hash(target, 0);
+
+    while (offset + BLOCK <= target.length) {
+      int basePos = index[hash & mask] - 1;
+      int length = 0;
+
+      if (basePos >= 0)
+        length = matchLength(base, basePos, target, offset);
+
+      if (length < BLOCK) {
+        if (offset + BLOCK < target.length)
+          hash = roll(hash, target[offset], target[offset + BLOCK]);
+
+        offset++;
+        continue;
+      }
+
+      // extend the match backward into the pending insert
+      while (insertStart < offset && basePos > 0
+             && base[basePos - 1] == target[offset - 1]) {
+        basePos--;
+        offset--;
+        length++;
+      }
+
+      writeInsert(os, target, insertStart, offset - insertStart);
+
+      offset += writeCopy(os, basePos, length);
+
+      insertStart = offset;
+
+      if (limit < os.size())
+        return null;
+
+      if (offset + BLOCK <= target.length)
+        hash = hash(target, offset);
+    }
+
+    writeInsert(os, target, insertStart, target.length - insertStart);
+
+    if (limit < os.size())
+      return null;
+
+    return os.toByteArray();
+  }
+
+  /**
+   * Indexes the base by the hash of each non-overlapping block.
+   */
+  private static int []createIndex(byte []base)
+  {
+    int count = base.length / BLOCK;
+    int size = 16;
+
+    while (size < 2 * count)
+      size *= 2;
+
+    int []index = new int[size];
+    int mask = size - 1;
+
+    // later blocks overwrite earlier ones, favoring nearby copies
+    for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+      index[hash(base, i) & mask] = i + 1;
+    }
+
+    return index;
+  }
+
+  private static int hash(byte []buffer, int offset)
+  {
+    int hash = 0;
+
+    for (int i = 0; i < BLOCK; i++) {
+      hash = hash * PRIME + (buffer[offset + i] & 0xff);
+    }
+
+    return hash;
+  }
+
+  private static int roll(int hash, byte oldByte, byte newByte)
+  {
+    hash -= (oldByte & 0xff) * PRIME_TOP;
+
+    return hash * PRIME + (newByte & 0xff);
+  }
+
+  private static int matchLength(byte []base, int basePos,
+                                 byte []target, int offset)
+  {
+    int max = Math.min(base.length - basePos, target.length - offset);
+    int length = 0;
+
+    while (length < max && base[basePos + length] == target[offset + length])
+      length++;
+
+    return length;
+  }
+
+  private static void writeInsert(ByteArrayOutputStream os,
+                                  byte []buffer, int offset, int length)
+  {
+    while (length > 0) {
+      int sublen = Math.min(length, INSERT_MAX);
+
+      os.write(sublen);
+      os.write(buffer, offset, sublen);
+
+      offset += sublen;
+      length -= sublen;
+    }
+  }
+
+  /**
+   * Writes copy instructions, returning the copied length.
+   */
+  private static int writeCopy(ByteArrayOutputStream os,
+                               int basePos, int length)
+  {
+    int total = length;
+    byte []op = new byte[8];
+
+    while (length > 0) {
+      int sublen = Math.min(length, COPY_MAX);
+
+      int code = 0x80;
+      int opLength = 1;
+
+      for (int i = 0; i < 4; i++) {
+        int value = (basePos >> (8 * i)) & 0xff;
+
+        if (value != 0) {
+          code |= 1 << i;
+          op[opLength++] = (byte) value;
+        }
+      }
+
+      // a zero length encodes COPY_MAX
+      int size = sublen == COPY_MAX ? 0 : sublen;
+
+      for (int i = 0; i < 3; i++) {
+        int value = (size >> (8 * i)) & 0xff;
+
+        if (value != 0) {
+          code |= 0x10 << i;
+          op[opLength++] = (byte) value;
+        }
+      }
+
+      op[0] = (byte) code;
+      os.write(op, 0, opLength);
+
+      basePos += sublen;
+      length -= sublen;
+    }
+
+    return total;
+  }
+
+  static long readLength(byte []buffer, int []offsetRef)
+  {
+    int offset = offsetRef[0];
+    long length = 0;
+    int shift = 0;
+    int ch;
+
+    do {
+      ch = buffer[offset++] & 0xff;
+
+      length |= (long) (ch & 0x7f) << shift;
+      shift += 7;
+    } while ((ch & 0x80) != 0);
+
+    offsetRef[0] = offset;
+
+    return length;
+  }
+
+  private static void writeLength(ByteArrayOutputStream os, long length)
+  {
+    while (length >= 0x80) {
+      os.write((int) (length & 0x7f) | 0x80);
+      length >>>= 7;
+    }
+
+    os.write((int) length);
+  }
+
+  static {
+    int top = 1;
+
+    for (int i = 0; i < BLOCK - 1; i++) {
+      top *= PRIME;
+    }
+
+    PRIME_TOP = top;
+  }
+}
@@ -44,7 +44,7 @@ public class GitObjectStream extends InputStream {
     = new HashMap<String,GitType>();
   
   private InputStream _rawStream;
-  private InflaterInputStream _is;
+  private InputStream _is;
 
   private GitType _type;
   private long _length;
@@ -84,6 +84,18 @@ public class GitObjectStream extends InputStream {
     }
   }
 
+  /**
+   * Creates a stream for already inflated object data, e.g. from a pack.
+   */
+  public GitObjectStream(GitType type, long length, InputStream is)
+  {
+    _rawStream = is;
+    _is = is;
+
+    _type = type;
+    _length = length;
+  }
+
   public GitType getType()
   {
     return _type;
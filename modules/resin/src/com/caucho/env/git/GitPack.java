@@ -0,0 +1,538 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.env.git;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.caucho.util.Hex;
+import com.caucho.util.L10N;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.RandomAccessStream;
+import com.caucho.vfs.ReadStream;
+
+/**
+ * A git pack file with its version 2 index. Delta bases outside the
+ * pack are resolved through the GitSystem.
+ */
+public class GitPack {
+  private static final L10N L = new L10N(GitPack.class);
+
+  static final int OBJ_COMMIT = 1;
+  static final int OBJ_TREE = 2;
+  static final int OBJ_BLOB = 3;
+  static final int OBJ_TAG = 4;
+  static final int OBJ_OFS_DELTA = 6;
+  static final int OBJ_REF_DELTA = 7;
+
+  static final int IDX_MAGIC = 0xff744f63;
+
+  private final GitSystem _git;
+  private final Path _packPath;
+
+  private RandomAccessStream _file;
+
+  private int []_fanout = new int[256];
+  private byte []_sha1List;
+  private long []_offsets;
+  private int _count;
+
+  GitPack(GitSystem git, Path packPath)
+    throws IOException
+  {
+    _git = git;
+    _packPath = packPath;
+
+    String tail = packPath.getTail();
+    Path idxPath = packPath.getParent().lookup(tail.substring(0, tail.length() - 5) + ".idx");
+
+    readIndex(idxPath);
+
+    _file = packPath.openRandomAccess();
+  }
+
+  public Path getPath()
+  {
+    return _packPath;
+  }
+
+  /**
+   * Returns the number of objects in the pack.
+   */
+  public int getCount()
+  {
+    return _count;
+  }
+
+  /**
+   * Returns true if the pack contains the object.
+   */
+  public boolean contains(String sha1)
+  {
+    return find(Hex.toBytes(sha1)) >= 0;
+  }
+
+  /**
+   * Opens the object, or returns null if the pack doesn't contain it.
+   */
+  public GitObjectStream open(String sha1)
+    throws IOException
+  {
+    int index = find(Hex.toBytes(sha1));
+
+    if (index < 0)
+      return null;
+
+    long offset = _offsets[index];
+
+    PackInputStream is = new PackInputStream(offset);
+    long []sizeRef = new long[1];
+
+    int type = readHeader(is, sizeRef);
+
+    if (type == OBJ_OFS_DELTA || type == OBJ_REF_DELTA) {
+      is.close();
+
+      Entry entry = readEntry(offset);
+
+      return new GitObjectStream(entry.getType(), entry.getData().length,
+                                 new ByteArrayInputStream(entry.getData()));
+    }
+
+    return new GitObjectStream(toGitType(type), sizeRef[0],
+                               new InflaterInputStream(is));
+  }
+
+  /**
+   * Reads the object at the pack offset, applying any deltas.
+   */
+  Entry readEntry(long offset)
+    throws IOException
+  {
+    PackInputStream is = new PackInputStream(offset);
+
+    try {
+      long []sizeRef = new long[1];
+      int type = readHeader(is, sizeRef);
+
+      Entry base;
+
+      switch (type) {
+      case OBJ_OFS_DELTA:
+        {
+          base = readEntry(offset - readBaseOffset(is));
+          break;
+        }
+
+      case OBJ_REF_DELTA:
+        {
+          byte []baseSha1 = new byte[20];
+          readFully(is, baseSha1, baseSha1.length);
+
+          int index = find(baseSha1);
+
+          if (index >= 0)
+            base = readEntry(_offsets[index]);
+          else
+            base = _git.readEntry(Hex.toHex(baseSha1));
+          break;
+        }
+
+      default:
+        {
+          byte []data = inflate(is, sizeRef[0]);
+
+          return new Entry(toGitType(type), data);
+        }
+      }
+
+      byte []delta = inflate(is, sizeRef[0]);
+
+      return new Entry(base.getType(), GitDelta.apply(base.getData(), delta));
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Returns the length of the object's delta chain, 0 for a full object,
+   * or -1 if the pack doesn't contain it.
+   */
+  int getDeltaDepth(String sha1)
+    throws IOException
+  {
+    int index = find(Hex.toBytes(sha1));
+
+    if (index < 0)
+      return -1;
+
+    return getDeltaDepth(_offsets[index]);
+  }
+
+  private int getDeltaDepth(long offset)
+    throws IOException
+  {
+    PackInputStream is = new PackInputStream(offset);
+
+    try {
+      long []sizeRef = new long[1];
+      int type = readHeader(is, sizeRef);
+
+      switch (type) {
+      case OBJ_OFS_DELTA:
+        return getDeltaDepth(offset - readBaseOffset(is)) + 1;
+
+      case OBJ_REF_DELTA:
+        {
+          byte []baseSha1 = new byte[20];
+          readFully(is, baseSha1, baseSha1.length);
+
+          int index = find(baseSha1);
+
+          if (index >= 0)
+            return getDeltaDepth(_offsets[index]) + 1;
+          else
+            return _git.getDeltaDepth(Hex.toHex(baseSha1)) + 1;
+        }
+
+      default:
+        return 0;
+      }
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Reads the negative base offset of an OFS_DELTA entry.
+   */
+  private long readBaseOffset(InputStream is)
+    throws IOException
+  {
+    int ch = is.read();
+    long baseOffset = ch & 0x7f;
+
+    while ((ch & 0x80) != 0) {
+      ch = is.read();
+      baseOffset = ((baseOffset + 1) << 7) + (ch & 0x7f);
+    }
+
+    return baseOffset;
+  }
+
+  private byte []inflate(InputStream is, long size)
+    throws IOException
+  {
+    if (Integer.MAX_VALUE < size)
+      throw new IOException(L.l("{0}: object is too large to unpack", this));
+
+    byte []data = new byte[(int) size];
+
+    InflaterInputStream zIs = new InflaterInputStream(is);
+
+    try {
+      readFully(zIs, data, data.length);
+    } finally {
+      zIs.close();
+    }
+
+    return data;
+  }
+
+  /**
+   * Reads the pack entry header, returning the type.
+   */
+  private int readHeader(InputStream is, long []sizeRef)
+    throws IOException
+  {
+    int ch = is.read();
+
+    if (ch < 0)
+      throw new IOException(L.l("{0}: unexpected end of file", this));
+
+    int type = (ch >> 4) & 0x7;
+    long size = ch & 0xf;
+    int shift = 4;
+
+    while ((ch & 0x80) != 0) {
+      ch = is.read();
+
+      if (ch < 0)
+        throw new IOException(L.l("{0}: unexpected end of file", this));
+
+      size |= (long) (ch & 0x7f) << shift;
+      shift += 7;
+    }
+
+    sizeRef[0] = size;
+
+    return type;
+  }
+
+  private GitType toGitType(int type)
+    throws IOException
+  {
+    switch (type) {
+    case OBJ_COMMIT:
+      return GitType.COMMIT;
+    case OBJ_TREE:
+      return GitType.TREE;
+    case OBJ_BLOB:
+      return GitType.BLOB;
+    default:
+      throw new IOException(L.l("{0}: unsupported pack object type {1}",
+                                this, type));
+    }
+  }
+
+  /**
+   * Returns the index of the sha1, or -1.
+   */
+  private int find(byte []sha1)
+  {
+    int first = sha1[0] & 0xff;
+
+    int min = first > 0 ? _fanout[first - 1] : 0;
+    int max = _fanout[first] - 1;
+
+    byte []sha1List = _sha1List;
+
+    while (min <= max) {
+      int mid = (min + max) >>> 1;
+
+      int cmp = compare(sha1List, 20 * mid, sha1);
+
+      if (cmp < 0)
+        min = mid + 1;
+      else if (cmp > 0)
+        max = mid - 1;
+      else
+        return mid;
+    }
+
+    return -1;
+  }
+
+  private static int compare(byte []list, int offset, byte []sha1)
+  {
+    for (int i = 0; i < 20; i++) {
+      int delta = (list[offset + i] & 0xff) - (sha1[i] & 0xff);
+
+      if (delta != 0)
+        return delta;
+    }
+
+    return 0;
+  }
+
+  private void readIndex(Path idxPath)
+    throws IOException
+  {
+    long length = idxPath.getLength();
+
+    if (length < 8 + 4 * 256 || Integer.MAX_VALUE < length)
+      throw new IOException(L.l("{0}: invalid pack index", idxPath));
+
+    byte []idx = new byte[(int) length];
+
+    ReadStream is = idxPath.openRead();
+
+    try {
+      readFully(is, idx, idx.length);
+    } finally {
+      is.close();
+    }
+
+    if (getInt(idx, 0) != IDX_MAGIC || getInt(idx, 4) != 2)
+      throw new IOException(L.l("{0}: pack index must be version 2", idxPath));
+
+    int offset = 8;
+
+    for (int i = 0; i < 256; i++) {
+      _fanout[i] = getInt(idx, offset);
+      offset += 4;
+    }
+
+    _count = _fanout[255];
+
+    _sha1List = new byte[20 * _count];
+    System.arraycopy(idx, offset, _sha1List, 0, _sha1List.length);
+    offset += _sha1List.length;
+
+    // skip crc32 values
+    offset += 4 * _count;
+
+    int largeOffset = offset + 4 * _count;
+
+    _offsets = new long[_count];
+
+    for (int i = 0; i < _count; i++) {
+      int value = getInt(idx, offset + 4 * i);
+
+      if (value < 0) {
+        int index = largeOffset + 8 * (value & 0x7fffffff);
+
+        _offsets[i] = ((getInt(idx, index) & 0xffffffffL) << 32)
+                      | (getInt(idx, index + 4) & 0xffffffffL);
+      }
+      else
+        _offsets[i] = value;
+    }
+  }
+
+  private static int getInt(byte []buffer, int offset)
+  {
+    return (((buffer[offset] & 0xff) << 24)
+            | ((buffer[offset + 1] & 0xff) << 16)
+            | ((buffer[offset + 2] & 0xff) << 8)
+            | (buffer[offset + 3] & 0xff));
+  }
+
+  private static void readFully(InputStream is, byte []buffer, int length)
+    throws IOException
+  {
+    int offset = 0;
+
+    while (offset < length) {
+      int sublen = is.read(buffer, offset, length - offset);
+
+      if (sublen <= 0)
+        throw new IOException(L.l("unexpected end of file"));
+
+      offset += sublen;
+    }
+  }
+
+  public void close()
+  {
+    RandomAccessStream file = _file;
+    _file = null;
+
+    if (file != null)
+      file.close();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _packPath.getTail() + "]";
+  }
+
+  /**
+   * An unpacked object.
+   */
+  static class Entry {
+    private final GitType _type;
+    private final byte []_data;
+
+    Entry(GitType type, byte []data)
+    {
+      _type = type;
+      _data = data;
+    }
+
+    GitType getType()
+    {
+      return _type;
+    }
+
+    byte []getData()
+    {
+      return _data;
+    }
+  }
+
+  /**
+   * Buffered stream from a pack offset. Reads are positional, so
+   * several streams can share the pack file.
+   */
+  class PackInputStream extends InputStream {
+    private final byte []_buffer = new byte[8192];
+    private long _position;
+    private int _offset;
+    private int _length;
+
+    PackInputStream(long position)
+    {
+      _position = position;
+    }
+
+    @Override
+    public int read()
+      throws IOException
+    {
+      if (_length <= _offset && ! fill())
+        return -1;
+
+      return _buffer[_offset++] & 0xff;
+    }
+
+    @Override
+    public int read(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      if (_length <= _offset && ! fill())
+        return -1;
+
+      int sublen = Math.min(length, _length - _offset);
+
+      System.arraycopy(_buffer, _offset, buffer, offset, sublen);
+      _offset += sublen;
+
+      return sublen;
+    }
+
+    private boolean fill()
+      throws IOException
+    {
+      RandomAccessStream file = _file;
+
+      if (file == null)
+        throw new IOException(L.l("{0} is closed", GitPack.this));
+
+      int len;
+
+      synchronized (file) {
+        len = file.read(_position, _buffer, 0, _buffer.length);
+      }
+
+      if (len <= 0)
+        return false;
+
+      _position += len;
+      _offset = 0;
+      _length = len;
+
+      return true;
+    }
+  }
+}
@@ -0,0 +1,640 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.env.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import com.caucho.util.Hex;
+import com.caucho.util.IoUtil;
+import com.caucho.util.L10N;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.TempBuffer;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Writes a version 2 git pack and its index. The number of objects
+ * is fixed when the writer is created.
+ *
+ * Objects may be stored as REF_DELTA against a base object elsewhere
+ * in the repository. Like a git thin pack, such a pack is only
+ * complete relative to the repository's other objects.
+ */
+public class GitPackWriter {
+  private static final L10N L = new L10N(GitPackWriter.class);
+
+  // longest delta chain before an object is stored whole, as in git
+  private static final int DELTA_DEPTH_MAX = 50;
+
+  private final GitSystem _git;
+  private final Path _packPath;
+  private final int _count;
+  private final long _deltaMax;
+
+  private WriteStream _os;
+  private MessageDigest _packDigest;
+  private MessageDigest _objectDigest;
+  private final CRC32 _crc = new CRC32();
+  private final Deflater _deflater = new Deflater();
+  private final byte []_deflateBuffer = new byte[8192];
+  private long _offset;
+
+  private final ArrayList<IndexEntry> _entries = new ArrayList<IndexEntry>();
+
+  private int _deltaCount;
+
+  GitPackWriter(GitSystem git, Path packPath, int count, long deltaMax)
+    throws IOException
+  {
+    _git = git;
+    _packPath = packPath;
+    _count = count;
+    _deltaMax = deltaMax;
+
+    try {
+      _packDigest = MessageDigest.getInstance("SHA-1");
+      _objectDigest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+
+    _os = packPath.openWrite();
+
+    byte []header = new byte[12];
+    header[0] = 'P';
+    header[1] = 'A';
+    header[2] = 'C';
+    header[3] = 'K';
+    setInt(header, 4, 2);
+    setInt(header, 8, count);
+
+    write(header, 0, header.length);
+  }
+
+  Path getPackPath()
+  {
+    return _packPath;
+  }
+
+  Path getIndexPath()
+  {
+    String tail = _packPath.getTail();
+
+    return _packPath.getParent().lookup(tail.substring(0, tail.length() - 5) + ".idx");
+  }
+
+  /**
+   * Returns the number of objects written to the pack.
+   */
+  public int getObjectCount()
+  {
+    return _entries.size();
+  }
+
+  /**
+   * Returns the number of objects stored as deltas.
+   */
+  public int getDeltaCount()
+  {
+    return _deltaCount;
+  }
+
+  /**
+   * Adds an object from its raw (deflated) loose format, validating
+   * the sha1. If a base is given and both objects fit within the
+   * delta limit, the object is stored as a delta against the base.
+   *
+   * @param sha1 the expected sha1 of the object
+   * @param rawIs the deflated loose object
+   * @param baseSha1 an optional delta base in the repository
+   */
+  public void writeLoose(String sha1, InputStream rawIs, String baseSha1)
+    throws IOException
+  {
+    InflaterInputStream is = new InflaterInputStream(rawIs);
+
+    try {
+      StringBuilder sb = new StringBuilder();
+      int ch;
+
+      while ((ch = is.read()) > 0 && ch != ' ') {
+        sb.append((char) ch);
+      }
+
+      String typeName = sb.toString();
+      GitType type = toType(typeName);
+
+      long length = 0;
+      while ((ch = is.read()) >= '0' && ch <= '9') {
+        length = 10 * length + ch - '0';
+      }
+
+      if (ch != 0)
+        throw new IOException(L.l("{0}: invalid git object header", sha1));
+
+      if (baseSha1 != null && length <= _deltaMax) {
+        byte []data = new byte[(int) length];
+        readFully(is, data);
+
+        if (is.read() >= 0)
+          throw new IOException(L.l("{0}: git object is longer than its header", sha1));
+
+        validate(sha1, typeName, data, 0, data.length);
+
+        writeObject(sha1, type, data, baseSha1);
+      }
+      else {
+        writeStream(sha1, type, typeName, is, length);
+      }
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Adds an object, optionally as a delta against a base.
+   */
+  public void writeObject(String sha1, GitType type, byte []data,
+                          String baseSha1)
+    throws IOException
+  {
+    if (baseSha1 != null && ! baseSha1.equals(sha1)) {
+      byte []delta = createDelta(type, data, baseSha1);
+
+      if (delta != null) {
+        writeDelta(sha1, baseSha1, delta);
+        return;
+      }
+    }
+
+    startEntry(sha1);
+
+    writeHeader(toPackType(type), data.length);
+
+    deflate(data, 0, data.length);
+    finishDeflate();
+
+    finishEntry();
+  }
+
+  private byte []createDelta(GitType type, byte []data, String baseSha1)
+    throws IOException
+  {
+    if (! _git.contains(baseSha1))
+      return null;
+
+    // reading an object applies every delta in its chain, so long
+    // chains are cut by storing a full object
+    if (DELTA_DEPTH_MAX <= _git.getDeltaDepth(baseSha1))
+      return null;
+
+    GitObjectStream baseIs = _git.open(baseSha1);
+    byte []base;
+
+    try {
+      if (baseIs.getType() != type || _deltaMax < baseIs.getLength())
+        return null;
+
+      base = new byte[(int) baseIs.getLength()];
+      readFully(baseIs, base);
+    } finally {
+      baseIs.close();
+    }
+
+    return GitDelta.create(base, data);
+  }
+
+  private void writeDelta(String sha1, String baseSha1, byte []delta)
+    throws IOException
+  {
+    startEntry(sha1);
+
+    writeHeader(GitPack.OBJ_REF_DELTA, delta.length);
+
+    byte []baseBytes = Hex.toBytes(baseSha1);
+    write(baseBytes, 0, baseBytes.length);
+
+    deflate(delta, 0, delta.length);
+    finishDeflate();
+
+    finishEntry();
+
+    _deltaCount++;
+  }
+
+  private void writeStream(String sha1, GitType type, String typeName,
+                           InputStream is, long length)
+    throws IOException
+  {
+    startEntry(sha1);
+
+    writeHeader(toPackType(type), length);
+
+    MessageDigest md = _objectDigest;
+    md.reset();
+    updateHeader(md, typeName, length);
+
+    TempBuffer tBuf = TempBuffer.allocate();
+
+    try {
+      byte []buffer = tBuf.getBuffer();
+      long readLength = 0;
+      int len;
+
+      while ((len = is.read(buffer, 0, buffer.length)) > 0) {
+        md.update(buffer, 0, len);
+        deflate(buffer, 0, len);
+
+        readLength += len;
+      }
+
+      if (readLength != length)
+        throw new IOException(L.l("{0}: git object length {1} does not match header {2}",
+                                  sha1, readLength, length));
+    } finally {
+      TempBuffer.free(tBuf);
+    }
+
+    finishDeflate();
+
+    String digest = Hex.toHex(md.digest());
+
+    if (! sha1.equals(digest))
+      throw new IOException(L.l("{0}: sha-1 hash '{1}' does not match the expected hash",
+                                sha1, digest));
+
+    finishEntry();
+  }
+
+  private void validate(String sha1, String typeName,
+                        byte []data, int offset, int length)
+    throws IOException
+  {
+    MessageDigest md = _objectDigest;
+    md.reset();
+
+    updateHeader(md, typeName, length);
+    md.update(data, offset, length);
+
+    String digest = Hex.toHex(md.digest());
+
+    if (! sha1.equals(digest))
+      throw new IOException(L.l("{0}: sha-1 hash '{1}' does not match the expected hash",
+                                sha1, digest));
+  }
+
+  private static void updateHeader(MessageDigest md,
+                                   String typeName, long length)
+  {
+    for (int i = 0; i < typeName.length(); i++) {
+      md.update((byte) typeName.charAt(i));
+    }
+
+    md.update((byte) ' ');
+
+    String lengthString = String.valueOf(length);
+
+    for (int i = 0; i < lengthString.length(); i++) {
+      md.update((byte) lengthString.charAt(i));
+    }
+
+    md.update((byte) 0);
+  }
+
+  private void startEntry(String sha1)
+    throws IOException
+  {
+    if (_count <= _entries.size())
+      throw new IOException(L.l("{0}: pack already has {1} objects",
+                                _packPath, _count));
+
+    _entries.add(new IndexEntry(Hex.toBytes(sha1), _offset));
+
+    _crc.reset();
+    _deflater.reset();
+  }
+
+  private void finishEntry()
+  {
+    IndexEntry entry = _entries.get(_entries.size() - 1);
+
+    entry.setCrc((int) _crc.getValue());
+  }
+
+  private void writeHeader(int type, long size)
+    throws IOException
+  {
+    byte []header = new byte[16];
+    int length = 0;
+
+    int ch = (type << 4) | (int) (size & 0xf);
+    size >>>= 4;
+
+    while (size != 0) {
+      header[length++] = (byte) (ch | 0x80);
+      ch = (int) (size & 0x7f);
+      size >>>= 7;
+    }
+
+    header[length++] = (byte) ch;
+
+    write(header, 0, length);
+  }
+
+  private void deflate(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    Deflater deflater = _deflater;
+
+    deflater.setInput(buffer, offset, length);
+
+    while (! deflater.needsInput()) {
+      int len = deflater.deflate(_deflateBuffer, 0, _deflateBuffer.length);
+
+      if (len > 0)
+        write(_deflateBuffer, 0, len);
+    }
+  }
+
+  private void finishDeflate()
+    throws IOException
+  {
+    Deflater deflater = _deflater;
+
+    deflater.finish();
+
+    while (! deflater.finished()) {
+      int len = deflater.deflate(_deflateBuffer, 0, _deflateBuffer.length);
+
+      if (len > 0)
+        write(_deflateBuffer, 0, len);
+    }
+  }
+
+  private void write(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    _os.write(buffer, offset, length);
+    _packDigest.update(buffer, offset, length);
+    _crc.update(buffer, offset, length);
+
+    _offset += length;
+  }
+
+  /**
+   * Finishes the pack and writes the index, returning the pack's
+   * sha1 hash.
+   */
+  String close()
+    throws IOException
+  {
+    if (_entries.size() != _count)
+      throw new IOException(L.l("{0}: pack has {1} objects but expected {2}",
+                                _packPath, _entries.size(), _count));
+
+    byte []packSha1 = _packDigest.digest();
+
+    _os.write(packSha1, 0, packSha1.length);
+    _os.close();
+    _os = null;
+
+    _deflater.end();
+
+    writeIndex(packSha1);
+
+    return Hex.toHex(packSha1);
+  }
+
+  private void writeIndex(byte []packSha1)
+    throws IOException
+  {
+    ArrayList<IndexEntry> entries = new ArrayList<IndexEntry>(_entries);
+
+    Collections.sort(entries, new Comparator<IndexEntry>() {
+      public int compare(IndexEntry a, IndexEntry b)
+      {
+        return a.compareTo(b);
+      }
+    });
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    byte []buffer = new byte[8];
+
+    setInt(buffer, 0, GitPack.IDX_MAGIC);
+    setInt(buffer, 4, 2);
+    bos.write(buffer, 0, 8);
+
+    int []fanout = new int[256];
+
+    for (IndexEntry entry : entries) {
+      fanout[entry.getSha1()[0] & 0xff]++;
+    }
+
+    int sum = 0;
+    for (int i = 0; i < 256; i++) {
+      sum += fanout[i];
+
+      setInt(buffer, 0, sum);
+      bos.write(buffer, 0, 4);
+    }
+
+    for (IndexEntry entry : entries) {
+      bos.write(entry.getSha1(), 0, 20);
+    }
+
+    for (IndexEntry entry : entries) {
+      setInt(buffer, 0, entry.getCrc());
+      bos.write(buffer, 0, 4);
+    }
+
+    ArrayList<Long> largeOffsets = new ArrayList<Long>();
+
+    for (IndexEntry entry : entries) {
+      long offset = entry.getOffset();
+
+      if (offset < 0x80000000L)
+        setInt(buffer, 0, (int) offset);
+      else {
+        setInt(buffer, 0, 0x80000000 | largeOffsets.size());
+        largeOffsets.add(offset);
+      }
+
+      bos.write(buffer, 0, 4);
+    }
+
+    for (long offset : largeOffsets) {
+      setInt(buffer, 0, (int) (offset >> 32));
+      setInt(buffer, 4, (int) offset);
+      bos.write(buffer, 0, 8);
+    }
+
+    bos.write(packSha1, 0, packSha1.length);
+
+    byte []idx = bos.toByteArray();
+
+    MessageDigest md = _packDigest;
+    md.reset();
+    md.update(idx);
+    byte []idxSha1 = md.digest();
+
+    WriteStream os = getIndexPath().openWrite();
+
+    try {
+      os.write(idx, 0, idx.length);
+      os.write(idxSha1, 0, idxSha1.length);
+    } finally {
+      os.close();
+    }
+  }
+
+  /**
+   * Discards a partial pack.
+   */
+  void abort()
+  {
+    IoUtil.close(_os);
+    _os = null;
+
+    _deflater.end();
+
+    try {
+      _packPath.remove();
+      getIndexPath().remove();
+    } catch (IOException e) {
+    }
+  }
+
+  private static GitType toType(String typeName)
+    throws IOException
+  {
+    if ("blob".equals(typeName))
+      return GitType.BLOB;
+    else if ("tree".equals(typeName))
+      return GitType.TREE;
+    else if ("commit".equals(typeName))
+      return GitType.COMMIT;
+    else
+      throw new IOException(L.l("'{0}' is an unknown git type", typeName));
+  }
+
+  private static int toPackType(GitType type)
+  {
+    switch (type) {
+    case COMMIT:
+      return GitPack.OBJ_COMMIT;
+    case TREE:
+      return GitPack.OBJ_TREE;
+    default:
+      return GitPack.OBJ_BLOB;
+    }
+  }
+
+  private static void readFully(InputStream is, byte []buffer)
+    throws IOException
+  {
+    int offset = 0;
+
+    while (offset < buffer.length) {
+      int sublen = is.read(buffer, offset, buffer.length - offset);
+
+      if (sublen <= 0)
+        throw new IOException(L.l("unexpected end of file"));
+
+      offset += sublen;
+    }
+  }
+
+  private static void setInt(byte []buffer, int offset, int value)
+  {
+    buffer[offset] = (byte) (value >> 24);
+    buffer[offset + 1] = (byte) (value >> 16);
+    buffer[offset + 2] = (byte) (value >> 8);
+    buffer[offset + 3] = (byte) value;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _packPath + "]";
+  }
+
+  static class IndexEntry {
+    private final byte []_sha1;
+    private final long _offset;
+    private int _crc;
+
+    IndexEntry(byte []sha1, long offset)
+    {
+      _sha1 = sha1;
+      _offset = offset;
+    }
+
+    byte []getSha1()
+    {
+      return _sha1;
+    }
+
+    long getOffset()
+    {
+      return _offset;
+    }
+
+    int getCrc()
+    {
+      return _crc;
+    }
+
+    void setCrc(int crc)
+    {
+      _crc = crc;
+    }
+
+    int compareTo(IndexEntry entry)
+    {
+      for (int i = 0; i < 20; i++) {
+        int delta = (_sha1[i] & 0xff) - (entry._sha1[i] & 0xff);
+
+        if (delta != 0)
+          return delta;
+      }
+
+      return 0;
+    }
+  }
+}
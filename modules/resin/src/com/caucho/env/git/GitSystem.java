@@ -32,10 +32,12 @@ package com.caucho.env.git;
 import java.io.*;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.logging.*;
 import java.util.zip.*;
 
 import com.caucho.env.service.*;
+import com.caucho.env.thread.ThreadPool;
 import com.caucho.util.*;
 import com.caucho.vfs.*;
 
@@ -50,8 +52,18 @@ public class GitSystem extends AbstractResinSubSystem
   private static final L10N L = new L10N(GitSystem.class);
   private static final Logger log = 
     Logger.getLogger(GitSystem.class.getName());
+
+  // zip entries larger than this are expanded inline
+  private static final int EXPAND_BUFFER_MAX = 256 * 1024;
+  private static final int EXPAND_PARALLEL_MAX = 4;
   
   private Path _root;
+
+  private final CopyOnWriteArrayList<GitPack> _packs
+    = new CopyOnWriteArrayList<GitPack>();
+
+  // objects and their bases are held in memory while delta encoding
+  private long _deltaMax = 256L * 1024 * 1024;
   
   public GitSystem(Path root)
   {
@@ -84,6 +96,21 @@ public class GitSystem extends AbstractResinSubSystem
     return START_PRIORITY;
   }
 
+  /**
+   * Sets the maximum object size for delta compression in packs. Larger
+   * objects are stored whole. Encoding a delta holds the object and its
+   * base in memory, so the heap needs about three times this size.
+   */
+  public void setDeltaMax(long deltaMax)
+  {
+    _deltaMax = deltaMax;
+  }
+
+  public long getDeltaMax()
+  {
+    return _deltaMax;
+  }
+
   @Override
   public void start()
     throws IOException
@@ -91,8 +118,10 @@ public class GitSystem extends AbstractResinSubSystem
     if (_root == null)
       _root = RootDirectorySystem.getCurrentDataDirectory().lookup(".git");
 
-    if (_root.lookup("HEAD").canRead())
+    if (_root.lookup("HEAD").canRead()) {
+      loadPacks();
       return;
+    }
 
     _root.mkdirs();
 
@@ -115,6 +144,31 @@ public class GitSystem extends AbstractResinSubSystem
     }
   }
 
+  private void loadPacks()
+  {
+    Path packDir = _root.lookup("objects").lookup("pack");
+
+    if (! packDir.isDirectory())
+      return;
+
+    try {
+      for (String name : packDir.list()) {
+        if (! name.startsWith("pack-") || ! name.endsWith(".pack"))
+          continue;
+
+        try {
+          _packs.add(new GitPack(this, packDir.lookup(name)));
+        } catch (IOException e) {
+          log.warning(L.l("{0}: cannot open git pack {1}\n  {2}",
+                          this, name, e.toString()));
+          log.log(Level.FINER, e.toString(), e);
+        }
+      }
+    } catch (IOException e) {
+      log.log(Level.FINE, e.toString(), e);
+    }
+  }
+
   public String getMaster()
   {
     return getTag("heads/master");
@@ -340,32 +394,56 @@ public class GitSystem extends AbstractResinSubSystem
     }
   }
   
+  /**
+   * Expands a zip archive. Inflating is sequential, but small entries
+   * are buffered and written to disk by the thread pool.
+   */
   private void expandZipToPath(ZipInputStream is, Path path)
     throws IOException
   {
+    ZipExpander expander = new ZipExpander();
     ZipEntry entry;
     
-    while ((entry = is.getNextEntry()) != null) {
-      String name = entry.getName();
-      
-      while (name.startsWith("/")) {
-        name = name.substring(1);
-      }
-      
-      if (entry.isDirectory()) {
-        path.lookup(name).mkdirs();
-      }
-      else {
-        Path subPath = path.lookup(name);
-        subPath.getParent().mkdirs();
-        
-        WriteStream os = subPath.openWrite();
-        try {
-          os.writeStream(is);
-        } finally {
-          os.close();
+    try {
+      while ((entry = is.getNextEntry()) != null) {
+        String name = entry.getName();
+
+        while (name.startsWith("/")) {
+          name = name.substring(1);
+        }
+
+        if (entry.isDirectory()) {
+          path.lookup(name).mkdirs();
+        }
+        else {
+          Path subPath = path.lookup(name);
+          subPath.getParent().mkdirs();
+
+          long size = entry.getSize();
+
+          if (size < 0 || EXPAND_BUFFER_MAX < size) {
+            WriteStream os = subPath.openWrite();
+            try {
+              os.writeStream(is);
+            } finally {
+              os.close();
+            }
+          }
+          else {
+            TempStream tempStream = new TempStream();
+            WriteStream out = new WriteStream(tempStream);
+            try {
+              out.writeStream(is);
+            } finally {
+              out.close();
+            }
+
+            expander.write(subPath, tempStream);
+          }
         }
       }
+    } finally {
+      expander.waitForComplete();
     }
   }
 
@@ -410,7 +488,40 @@ public class GitSystem extends AbstractResinSubSystem
 
     Path path = _root.lookup("objects").lookup(prefix).lookup(suffix);
 
-    return path.exists();
+    if (path.exists())
+      return true;
+
+    for (GitPack pack : _packs) {
+      if (pack.contains(hash))
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the sha1 of the object at a path in a tree, or null if
+   * the path does not exist.
+   *
+   * @param treeSha1 the sha1 of the root tree
+   * @param path the '/' separated path
+   */
+  public String findPath(String treeSha1, String path)
+    throws IOException
+  {
+    String sha1 = treeSha1;
+
+    for (String name : path.split("/")) {
+      if (name.length() == 0)
+        continue;
+
+      if (sha1 == null || ! contains(sha1) || objectType(sha1) != GitType.TREE)
+        return null;
+
+      sha1 = parseTree(sha1).getHash(name);
+    }
+
+    return sha1;
   }
 
   /**
@@ -428,9 +539,137 @@ public class GitSystem extends AbstractResinSubSystem
 
     Path path = _root.lookup("objects").lookup(prefix).lookup(suffix);
 
+    if (! path.exists()) {
+      for (GitPack pack : _packs) {
+        GitObjectStream is = pack.open(sha1);
+
+        if (is != null)
+          return is;
+      }
+    }
+
     return new GitObjectStream(path);
   }
 
+  /**
+   * Returns the delta chain length of an object, 0 for a loose or full
+   * object.
+   */
+  int getDeltaDepth(String sha1)
+    throws IOException
+  {
+    String prefix = sha1.substring(0, 2);
+    String suffix = sha1.substring(2);
+
+    Path path = _root.lookup("objects").lookup(prefix).lookup(suffix);
+
+    if (path.exists())
+      return 0;
+
+    for (GitPack pack : _packs) {
+      int depth = pack.getDeltaDepth(sha1);
+
+      if (depth >= 0)
+        return depth;
+    }
+
+    return 0;
+  }
+
+  /**
+   * Reads an object's data, used to resolve pack delta bases.
+   */
+  GitPack.Entry readEntry(String sha1)
+    throws IOException
+  {
+    GitObjectStream is = open(sha1);
+
+    try {
+      byte []data = new byte[(int) is.getLength()];
+      int offset = 0;
+
+      while (offset < data.length) {
+        int sublen = is.read(data, offset, data.length - offset);
+
+        if (sublen <= 0)
+          throw new IOException(L.l("{0}: unexpected end of git object", sha1));
+
+        offset += sublen;
+      }
+
+      return new GitPack.Entry(is.getType(), data);
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Creates a writer for a new pack with a fixed number of objects.
+   * The pack is added to the repository with addPack.
+   */
+  public GitPackWriter createPackWriter(int count)
+    throws IOException
+  {
+    Path tmpDir = _root.lookup("tmp");
+    tmpDir.mkdirs();
+
+    Path tmp = tmpDir.lookup("tmp-" + Long.toHexString(RandomUtil.getRandomLong())
+                             + ".pack");
+
+    return new GitPackWriter(this, tmp, count, _deltaMax);
+  }
+
+  /**
+   * Discards an incomplete pack.
+   */
+  public void abortPack(GitPackWriter writer)
+  {
+    writer.abort();
+  }
+
+  /**
+   * Completes a pack and adds it to the repository.
+   */
+  public String addPack(GitPackWriter writer)
+    throws IOException
+  {
+    boolean isValid = false;
+
+    try {
+      String hash = writer.close();
+
+      Path packDir = _root.lookup("objects").lookup("pack");
+      packDir.mkdirs();
+
+      Path packPath = packDir.lookup("pack-" + hash + ".pack");
+      Path idxPath = packDir.lookup("pack-" + hash + ".idx");
+
+      if (packPath.exists()) {
+        writer.abort();
+        isValid = true;
+
+        return hash;
+      }
+
+      writer.getIndexPath().renameTo(idxPath);
+      writer.getPackPath().renameTo(packPath);
+
+      _packs.add(new GitPack(this, packPath));
+
+      isValid = true;
+
+      if (log.isLoggable(Level.FINER))
+        log.finer(this + " addPack " + packPath
+                  + " objects:" + writer.getObjectCount()
+                  + " deltas:" + writer.getDeltaCount());
+
+      return hash;
+    } finally {
+      if (! isValid)
+        writer.abort();
+    }
+  }
+
   /**
    * Writes a file to the repository
    */
@@ -597,7 +836,7 @@ public class GitSystem extends AbstractResinSubSystem
   {
     Path objectPath = lookupPath(hex);
 
-    if (objectPath.exists())
+    if (contains(hex))
       return hex;
 
     objectPath.getParent().mkdirs();
@@ -627,7 +866,22 @@ public class GitSystem extends AbstractResinSubSystem
   {
     Path objectPath = lookupPath(sha1);
 
-    return objectPath.openRead();
+    if (objectPath.exists())
+      return objectPath.openRead();
+
+    // packed objects are rebuilt in loose format
+    GitObjectStream is = open(sha1);
+
+    try {
+      TempOutputStream os = new TempOutputStream();
+      String type = is.getType().name().toLowerCase(Locale.ENGLISH);
+
+      writeData(os, type, is, is.getLength());
+
+      return os.openRead();
+    } finally {
+      is.close();
+    }
   }
 
   /**
@@ -640,7 +894,7 @@ public class GitSystem extends AbstractResinSubSystem
   {
     Path objectPath = lookupPath(sha1);
 
-    if (objectPath.exists())
+    if (contains(sha1))
       return sha1;
 
     objectPath.getParent().mkdirs();
@@ -857,4 +1111,76 @@ public class GitSystem extends AbstractResinSubSystem
   {
     return getClass().getSimpleName() + "[" + _root + "]";
   }
+
+  /**
+   * Writes buffered zip entries on the thread pool.
+   */
+  private class ZipExpander {
+    private final Semaphore _semaphore = new Semaphore(EXPAND_PARALLEL_MAX);
+    private volatile IOException _exn;
+
+    void write(final Path path, final TempStream tempStream)
+      throws IOException
+    {
+      checkException();
+
+      try {
+        _semaphore.acquire();
+      } catch (InterruptedException e) {
+        tempStream.destroy();
+
+        throw new InterruptedIOException(e.toString());
+      }
+
+      Runnable task = new Runnable() {
+        public void run()
+        {
+          try {
+            writeEntry(path, tempStream);
+          } finally {
+            _semaphore.release();
+          }
+        }
+      };
+
+      if (! ThreadPool.getCurrent().schedule(task))
+        task.run();
+    }
+
+    private void writeEntry(Path path, TempStream tempStream)
+    {
+      try {
+        WriteStream os = path.openWrite();
+
+        try {
+          tempStream.writeToStream(os);
+        } finally {
+          os.close();
+        }
+      } catch (IOException e) {
+        if (_exn == null)
+          _exn = e;
+      } finally {
+        tempStream.destroy();
+      }
+    }
+
+    void waitForComplete()
+      throws IOException
+    {
+      _semaphore.acquireUninterruptibly(EXPAND_PARALLEL_MAX);
+      _semaphore.release(EXPAND_PARALLEL_MAX);
+
+      checkException();
+    }
+
+    private void checkException()
+      throws IOException
+    {
+      IOException exn = _exn;
+
+      if (exn != null)
+        throw exn;
+    }
+  }
 }
@@ -233,10 +233,12 @@ abstract public class AbstractRepository implements Repository, RepositorySpi
   {
     commit.validate();
     
-    String contentHash = addArchive(archivePath);
-    
     RepositoryTagEntry oldEntry = getTagMap().get(commit.getId());
     
+    String baseHash = oldEntry != null ? oldEntry.getRoot() : null;
+    
+    String contentHash = addArchive(archivePath, baseHash);
+    
     if (oldEntry != null && oldEntry.getRoot().equals(contentHash))
       return contentHash;
     
@@ -712,13 +714,25 @@ abstract public class AbstractRepository implements Repository, RepositorySpi
    */
   @Override
   public String addArchive(Path path)
+  {
+    return addArchive(path, null);
+  }
+
+  /**
+   * Adds an archive to the repository, using the previous content
+   * as a delta base where the repository supports it.
+   *
+   * @param path the archive path
+   * @param baseHash the previous content hash, or null
+   */
+  protected String addArchive(Path path, String baseHash)
   {
     GitCommitJar commit = null;
 
     try {
       commit = new GitCommitJar(path);
       
-      return addArchive(commit);
+      return addArchive(commit, baseHash);
     } catch (IOException e) {
       throw new RepositoryException(e);
     } finally {
@@ -738,7 +752,7 @@ abstract public class AbstractRepository implements Repository, RepositorySpi
     try {
       commit = new GitCommitJar(is);
       
-      return addArchive(commit);
+      return addArchive(commit, null);
     } catch (IOException e) {
       throw new RepositoryException(e);
     } finally {
@@ -771,6 +785,16 @@ abstract public class AbstractRepository implements Repository, RepositorySpi
     return commit.getDigest();
   }
 
+  /**
+   * Adds the archive's objects. The base hash is the previous content
+   * for the tag, which a repository may use for delta compression.
+   */
+  protected String addArchive(GitCommitJar commit, String baseHash)
+    throws IOException
+  {
+    return addArchive(commit);
+  }
+
   /**
    * Adds a stream to the repository.
    */
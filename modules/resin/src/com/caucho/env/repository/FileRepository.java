@@ -32,15 +32,21 @@ package com.caucho.env.repository;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.caucho.env.git.GitCommit;
+import com.caucho.env.git.GitCommitJar;
 import com.caucho.env.git.GitObjectStream;
+import com.caucho.env.git.GitPackWriter;
 import com.caucho.env.git.GitSystem;
 import com.caucho.env.git.GitTree;
 import com.caucho.env.git.GitType;
 import com.caucho.lifecycle.Lifecycle;
+import com.caucho.server.admin.GitJarStreamSource;
 import com.caucho.util.L10N;
 import com.caucho.vfs.Path;
 import com.caucho.vfs.Vfs;
@@ -49,6 +55,8 @@ import com.caucho.vfs.WriteStream;
 public class FileRepository extends AbstractRepository
 {
   private static final L10N L = new L10N(FileRepository.class);
+  private static final Logger log
+    = Logger.getLogger(FileRepository.class.getName());
 
   private GitSystem _git;
   
@@ -276,6 +284,71 @@ public class FileRepository extends AbstractRepository
     return _git.writeCommit(commit);
   }
 
+  /**
+   * Writes the archive's missing objects as a single pack. Objects with
+   * a file at the same path in the previous content are stored as
+   * deltas against it.
+   */
+  @Override
+  protected String addArchive(GitCommitJar commit, String baseHash)
+    throws IOException
+  {
+    LinkedHashSet<String> missing = new LinkedHashSet<String>();
+
+    for (String hash : commit.getCommitList()) {
+      if (! _git.contains(hash))
+        missing.add(hash);
+    }
+
+    if (missing.size() == 0)
+      return commit.getDigest();
+
+    synchronized (_git) {
+      GitPackWriter writer = _git.createPackWriter(missing.size());
+      boolean isValid = false;
+
+      try {
+        for (String hash : missing) {
+          String path = commit.findPath(hash);
+          String baseSha1 = findBase(baseHash, path);
+
+          InputStream is = new GitJarStreamSource(hash, commit).openInputStream();
+
+          try {
+            writer.writeLoose(hash, is, baseSha1);
+          } catch (IOException e) {
+            throw new IOException(path + ":" + hash + ": " + e.getMessage(), e);
+          } finally {
+            is.close();
+          }
+        }
+
+        isValid = true;
+      } finally {
+        if (! isValid)
+          _git.abortPack(writer);
+      }
+
+      _git.addPack(writer);
+    }
+
+    return commit.getDigest();
+  }
+
+  private String findBase(String baseHash, String path)
+  {
+    if (baseHash == null || path == null || path.endsWith("/"))
+      return null;
+
+    try {
+      return _git.findPath(baseHash, path);
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return null;
+    }
+  }
+
   /**
    * Writes the git file from the StreamInput
    *
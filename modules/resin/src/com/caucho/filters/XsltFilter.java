@@ -31,6 +31,7 @@ package com.caucho.filters;
 import com.caucho.loader.DynamicClassLoader;
 import com.caucho.server.http.CauchoRequest;
 import com.caucho.server.http.RequestAdapter;
+import com.caucho.util.CharBuffer;
 import com.caucho.util.CompileException;
 import com.caucho.util.L10N;
 import com.caucho.vfs.MergePath;
@@ -45,8 +46,10 @@ import com.caucho.xpath.XPath;
 import com.caucho.xpath.XPathException;
 import com.caucho.xsl.AbstractStylesheetFactory;
 import com.caucho.xsl.CauchoStylesheet;
+import com.caucho.xsl.StreamingStylesheet;
 import com.caucho.xsl.StyleScript;
 import com.caucho.xsl.TransformerImpl;
+import com.caucho.xsl.Xsl;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.ProcessingInstruction;
@@ -67,6 +70,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -83,6 +87,10 @@ public class XsltFilter implements Filter {
   private MergePath _stylePath;
   private ServletContext _application;
   private boolean _isConditional = true;
+  private boolean _isStreaming;
+
+  private final ConcurrentHashMap<Path,StreamingEntry> _streamingMap
+    = new ConcurrentHashMap<Path,StreamingEntry>();
 
   public void setMimeType(String mimeType)
   {
@@ -92,6 +100,16 @@ public class XsltFilter implements Filter {
   {
     _isConditional = ! isUnconditional;
   }
+
+  /**
+   * If true, stylesheets which only read forward are applied to each
+   * record as the response is parsed, instead of building a DOM for the
+   * entire response.
+   */
+  public void setStreaming(boolean isStreaming)
+  {
+    _isStreaming = isStreaming;
+  }
   
   public void init(FilterConfig config)
     throws ServletException
@@ -107,6 +125,9 @@ public class XsltFilter implements Filter {
 
     if ("true".equals(config.getInitParameter("unconditional")))
       _isConditional = false;
+
+    if ("true".equals(config.getInitParameter("streaming")))
+      _isStreaming = true;
   }
   
   /**
@@ -132,6 +153,39 @@ public class XsltFilter implements Filter {
   {
   }
 
+  /**
+   * Returns the path to the stylesheet.
+   */
+  private Path lookupStylesheet(HttpServletRequest req, String href)
+  {
+    Path path = null;
+
+    if (href.startsWith("/"))
+      path = Vfs.getPwd().lookup(_application.getRealPath(href));
+    else {
+      String servletPath = RequestAdapter.getPageServletPath(req);
+
+      Path pwd = Vfs.getPwd();
+      pwd = pwd.lookup(_application.getRealPath(servletPath));
+      path = pwd.getParent().lookup(href);
+    }
+
+    if (! path.canRead()) {
+      Thread thread = Thread.currentThread();
+      ClassLoader loader = thread.getContextClassLoader();
+
+      URL url = loader.getResource(href);
+
+      if (url != null) {
+        Path newPath = Vfs.getPwd().lookup(url.toString());
+        if (newPath.canRead())
+          path = newPath;
+      }
+    }
+
+    return path;
+  }
+
   class XsltResponse extends CauchoResponseWrapper {
     private HttpServletRequest _request;
     private XsltTempStream _xsltStream;
@@ -221,12 +275,19 @@ public class XsltFilter implements Filter {
 
         Document doc = null;
         
-        ReadStream is = ts.openRead();
         Path userPath = Vfs.lookup();
         if (req instanceof CauchoRequest)
           userPath.setUserPath(((CauchoRequest) req).getPageURI());
         else
           userPath.setUserPath(req.getRequestURI());
+
+        if (_isStreaming
+            && ! _chainingType.equals("x-application/stylescript")
+            && finishStreaming(req, res, ts, userPath)) {
+          return;
+        }
+
+        ReadStream is = ts.openRead();
         is.setPath(userPath);
 
         try {
@@ -260,30 +321,7 @@ public class XsltFilter implements Filter {
           if (factory instanceof AbstractStylesheetFactory)
             ((AbstractStylesheetFactory) factory).setStylePath(_stylePath);
 
-          Path path = null;
-
-          if (href.startsWith("/"))
-            path = Vfs.getPwd().lookup(_application.getRealPath(href));
-          else {
-            String servletPath = RequestAdapter.getPageServletPath(req);
-
-            Path pwd = Vfs.getPwd();
-            pwd = pwd.lookup(_application.getRealPath(servletPath));
-            path = pwd.getParent().lookup(href);
-          }
-
-          if (! path.canRead()) {
-            Thread thread = Thread.currentThread();
-            ClassLoader loader = thread.getContextClassLoader();
-
-            URL url = loader.getResource(href);
-
-            if (url != null) {
-              Path newPath = Vfs.getPwd().lookup(url.toString());
-              if (newPath.canRead())
-                path = newPath;
-            }
-          }
+          Path path = lookupStylesheet(req, href);
 
           Source source;
           if (path.canRead())
@@ -304,45 +342,7 @@ public class XsltFilter implements Filter {
 
         transformer = (Transformer) stylesheet.newTransformer();
 
-        TransformerImpl cauchoTransformer = null;
-        if (transformer instanceof TransformerImpl)
-          cauchoTransformer = (TransformerImpl) transformer;
-
-        String mediaType = (String) transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
-        String encoding = (String) transformer.getOutputProperty(OutputKeys.ENCODING);
-        String method = (String) transformer.getOutputProperty(OutputKeys.METHOD);
-
-        if (encoding != null) {
-        }
-        else if (method == null) {
-        }
-        else if (method.equals("xml"))
-          encoding = "UTF-8";
-
-        if (encoding != null) {
-          if (mediaType == null)
-            mediaType = "text/html";
-          res.setContentType(mediaType + "; charset=" + encoding);
-        }
-        else if (mediaType != null)
-          res.setContentType(mediaType);
-        else
-          res.setContentType("text/html");
-
-        if (encoding == null)
-          encoding = "ISO-8859-1";
-        transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
-
-        ArrayList<?> params = null;;
-        if (cauchoTransformer != null) {
-          params = (ArrayList<?>) cauchoTransformer.getProperty(CauchoStylesheet.GLOBAL_PARAM);
-        }
-
-        for (int i = 0; params != null && i < params.size(); i++) {
-          String param = (String) params.get(i);
-        
-          transformer.setParameter(param, req.getParameter(param));
-        }
+        initTransformer(req, res, transformer);
 
         DOMSource domSource = new DOMSource(doc);
         domSource.setSystemId(userPath.getUserPath());
@@ -360,6 +360,181 @@ public class XsltFilter implements Filter {
       }
     }
 
+    /**
+     * Sets the content type from the stylesheet's output, and the
+     * stylesheet parameters from the request.
+     */
+    private void initTransformer(HttpServletRequest req,
+                                 HttpServletResponse res,
+                                 Transformer transformer)
+    {
+      String mediaType = (String) transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
+      String encoding = (String) transformer.getOutputProperty(OutputKeys.ENCODING);
+      String method = (String) transformer.getOutputProperty(OutputKeys.METHOD);
+
+      if (encoding != null) {
+      }
+      else if (method == null) {
+      }
+      else if (method.equals("xml"))
+        encoding = "UTF-8";
+
+      if (encoding != null) {
+        if (mediaType == null)
+          mediaType = "text/html";
+        res.setContentType(mediaType + "; charset=" + encoding);
+      }
+      else if (mediaType != null)
+        res.setContentType(mediaType);
+      else
+        res.setContentType("text/html");
+
+      if (encoding == null)
+        encoding = "ISO-8859-1";
+      transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
+
+      ArrayList<?> params = null;;
+      if (transformer instanceof TransformerImpl) {
+        TransformerImpl cauchoTransformer = (TransformerImpl) transformer;
+        
+        params = (ArrayList<?>) cauchoTransformer.getProperty(CauchoStylesheet.GLOBAL_PARAM);
+      }
+
+      for (int i = 0; params != null && i < params.size(); i++) {
+        String param = (String) params.get(i);
+      
+        transformer.setParameter(param, req.getParameter(param));
+      }
+    }
+
+    /**
+     * Transforms the response record by record, if the stylesheet is
+     * streamable.
+     *
+     * @return false if the DOM transform is needed
+     */
+    private boolean finishStreaming(HttpServletRequest req,
+                                    HttpServletResponse res,
+                                    TempStream ts,
+                                    Path userPath)
+      throws Exception
+    {
+      String href = (String) req.getAttribute("caucho.xsl.stylesheet");
+
+      if (href == null)
+        href = getPrologStylesheetHref(ts);
+
+      if (href == null)
+        return false;
+
+      StreamingStylesheet stylesheet = getStreamingStylesheet(req, href);
+
+      if (stylesheet == null)
+        return false;
+
+      if (log.isLoggable(Level.FINE))
+        log.fine(L.l("'{0}' XSLT filter streaming with stylesheet {1}",
+                     req.getRequestURI(), href));
+
+      Transformer shell = stylesheet.newShellTransformer();
+      Transformer record = stylesheet.newRecordTransformer();
+
+      initTransformer(req, res, shell);
+      initTransformer(req, res, record);
+
+      ReadStream is = ts.openRead();
+      is.setPath(userPath);
+
+      try {
+        stylesheet.transform(is, userPath.getUserPath(),
+                             res.getOutputStream(), shell, record);
+      } finally {
+        is.close();
+      }
+
+      return true;
+    }
+
+    private StreamingStylesheet getStreamingStylesheet(HttpServletRequest req,
+                                                       String href)
+      throws Exception
+    {
+      Path path = lookupStylesheet(req, href);
+
+      if (! path.canRead())
+        return null;
+
+      StreamingEntry entry = _streamingMap.get(path);
+
+      if (entry != null && ! entry.isModified())
+        return entry.getStylesheet();
+
+      entry = new StreamingEntry(path);
+
+      Xsl factory = new Xsl();
+      factory.setStylePath(_stylePath);
+
+      ReadStream is = path.openRead();
+      try {
+        Document xsl = new Xml().parseDocument(is);
+
+        entry.setStylesheet(StreamingStylesheet.create(factory, xsl));
+      } finally {
+        is.close();
+      }
+
+      _streamingMap.put(path, entry);
+
+      return entry.getStylesheet();
+    }
+
+    /**
+     * Returns the href of an xml-stylesheet processing-instruction
+     * before the document element.
+     */
+    private String getPrologStylesheetHref(TempStream ts)
+      throws IOException
+    {
+      ReadStream is = ts.openReadAndSaveBuffer();
+
+      try {
+        CharBuffer cb = new CharBuffer();
+        int ch;
+
+        while ((ch = is.read()) >= 0) {
+          if (ch != '<')
+            continue;
+
+          ch = is.read();
+
+          if (ch != '?' && ch != '!')
+            return null;
+
+          cb.clear();
+          cb.append((char) ch);
+
+          while ((ch = is.read()) >= 0 && ch != '>') {
+            cb.append((char) ch);
+          }
+
+          String value = cb.toString();
+
+          if (value.startsWith("?xml-stylesheet")) {
+            value = value.substring("?xml-stylesheet".length());
+
+            if (value.endsWith("?"))
+              value = value.substring(0, value.length() - 1);
+
+            return XmlUtil.getPIAttribute(value, "href");
+          }
+        }
+
+        return null;
+      } finally {
+        is.close();
+      }
+    }
+
     /**
      * Returns the result object.
      */
@@ -467,4 +642,35 @@ public class XsltFilter implements Filter {
       _os.flush();
     }
   }
+
+  static class StreamingEntry {
+    private final Path _path;
+    private final long _lastModified;
+    private final long _length;
+
+    private StreamingStylesheet _stylesheet;
+
+    StreamingEntry(Path path)
+    {
+      _path = path;
+      _lastModified = path.getLastModified();
+      _length = path.getLength();
+    }
+
+    boolean isModified()
+    {
+      return (_path.getLastModified() != _lastModified
+              || _path.getLength() != _length);
+    }
+
+    StreamingStylesheet getStylesheet()
+    {
+      return _stylesheet;
+    }
+
+    void setStylesheet(StreamingStylesheet stylesheet)
+    {
+      _stylesheet = stylesheet;
+    }
+  }
 }
@@ -67,13 +67,13 @@ public class FileQueueImpl<E extends Serializable>
   extends AbstractMemoryQueue<E,FileQueueEntry<E>>
   implements Topic
 {
-  private final FileQueueStore _store;
+  private AbstractFileQueueStore _store;
 
   private byte []_queueIdHash;
+  private boolean _isJournalEnable;
 
   public FileQueueImpl()
   {
-    _store = FileQueueStore.create();
   }
 
   public FileQueueImpl(byte []queueHash)
@@ -140,6 +140,20 @@ public class FileQueueImpl<E extends Serializable>
     
   }
 
+  /**
+   * Stores messages in an append-only journal instead of the
+   * database tables.
+   */
+  public void setJournalEnable(boolean isEnable)
+  {
+    _isJournalEnable = isEnable;
+  }
+
+  public boolean isJournalEnable()
+  {
+    return _isJournalEnable;
+  }
+
   /**
    * Returns the JMS configuration url.
    */
@@ -153,6 +167,13 @@ public class FileQueueImpl<E extends Serializable>
    */
   public void init()
   {
+    if (_store == null) {
+      if (_isJournalEnable)
+        _store = FileQueueJournalStore.create();
+      else
+        _store = FileQueueStore.create();
+    }
+    
     try {
       // calculate a unique hash for the queue
       
@@ -247,7 +268,13 @@ public class FileQueueImpl<E extends Serializable>
    */
   public int getFileStoreMessageCount()
   {
-    return _store.getMessageCount();
+    // the store is selected in init(), after journal-enable is configured
+    AbstractFileQueueStore store = _store;
+
+    if (store != null)
+      return store.getMessageCount();
+    else
+      return 0;
   }
 }
 
@@ -0,0 +1,1067 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.jms.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.config.ConfigException;
+import com.caucho.db.block.BlockStore;
+import com.caucho.env.actor.AbstractActorProcessor;
+import com.caucho.env.actor.ActorQueue;
+import com.caucho.env.service.RootDirectorySystem;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.loader.Environment;
+import com.caucho.loader.EnvironmentLocal;
+import com.caucho.message.journal.JournalFile;
+import com.caucho.message.journal.JournalRecoverListener;
+import com.caucho.message.journal.JournalResult;
+import com.caucho.server.cluster.ServletService;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.L10N;
+import com.caucho.util.RingItem;
+import com.caucho.util.RingItemFactory;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.TempOutputStream;
+
+/**
+ * File queue store backed by an append-only journal.
+ *
+ * Sends and acknowledgements are appended to a {@link JournalFile} by a
+ * single writer actor, which commits the tail block once per batch.
+ * A send returns after the batch holding its message is flushed, so
+ * concurrent producers share one flush (group commit).
+ * On startup the journal is replayed to rebuild the index of
+ * unacknowledged messages.
+ *
+ * When the dead records outgrow the live ones, the writer copies the live
+ * messages forward and checkpoints past the old records, which lets the
+ * journal reuse its space.
+ */
+public class FileQueueJournalStore extends AbstractFileQueueStore
+{
+  private static final L10N L = new L10N(FileQueueJournalStore.class);
+  private static final Logger log
+    = Logger.getLogger(FileQueueJournalStore.class.getName());
+
+  private static final EnvironmentLocal<FileQueueJournalStore> _localStore
+    = new EnvironmentLocal<FileQueueJournalStore>();
+
+  private static final long OP_SEND = 2;
+  private static final long OP_ACK = 3;
+
+  private static final int ITEM_SEND = 1;
+  private static final int ITEM_ACK = 2;
+  private static final int ITEM_CLOSE = 3;
+
+  // length, priority, expire, msg-id length
+  private static final int RECORD_HEADER = 4 + 4 + 8 + 2;
+
+  // each piece fits in at most two journal entries
+  private static final int PIECE_SIZE = JournalFile.BLOCK_SIZE / 2;
+
+  private static final int QUEUE_SIZE = 8192;
+
+  private static final byte []NULL_DATA = new byte[0];
+
+  private final Path _path;
+  private final JournalFile _journal;
+  private final BlockStore _blockStore;
+  private final ActorQueue<JournalItem> _writeQueue;
+
+  private final ConcurrentHashMap<Long,JournalRecord> _recordMap
+    = new ConcurrentHashMap<Long,JournalRecord>();
+
+  private final AtomicLong _midGen = new AtomicLong();
+
+  private long _compactMin = 4L * 1024 * 1024;
+
+  private volatile boolean _isClosed;
+
+  public FileQueueJournalStore(Path path)
+  {
+    if (path == null)
+      throw new NullPointerException();
+
+    _path = path;
+
+    try {
+      path.getParent().mkdirs();
+    } catch (IOException e) {
+      log.log(Level.ALL, e.toString(), e);
+    }
+
+    if (! path.getParent().isDirectory())
+      throw new ConfigException(L.l("FileQueue requires a valid persistent directory {0}.",
+                                    path.getParent().getURL()));
+
+    RecoverListener recover = new RecoverListener();
+
+    _journal = new JournalFile(path, recover);
+    _blockStore = _journal.getBlockStore();
+
+    long mid = Math.max(recover.getMaxMid(),
+                        CurrentTime.getCurrentTime() << 16);
+
+    _midGen.set(mid);
+
+    long liveBytes = 0;
+
+    for (JournalRecord record : _recordMap.values()) {
+      liveBytes += record.getLength();
+    }
+
+    _writeQueue = new ActorQueue<JournalItem>(QUEUE_SIZE,
+                                              new JournalItemFactory(),
+                                              new JournalWriter(liveBytes));
+
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(this + " recovered " + _recordMap.size() + " messages");
+    }
+  }
+
+  public static FileQueueJournalStore create()
+  {
+    ServletService server = ServletService.getCurrent();
+
+    if (server == null)
+      throw new IllegalStateException(L.l("FileQueueJournalStore requires an active Resin instance"));
+
+    ClassLoader loader = server.getClassLoader();
+
+    synchronized (_localStore) {
+      FileQueueJournalStore store = _localStore.getLevel(loader);
+
+      if (store == null) {
+        Path dir = RootDirectorySystem.getCurrentDataDirectory();
+        String serverId = server.getServerId();
+
+        if ("".equals(serverId))
+          serverId = "default";
+
+        Path path = dir.lookup("jms-" + escapeName(serverId) + ".journal");
+
+        store = new FileQueueJournalStore(path);
+
+        Environment.addCloseListener(store, loader);
+
+        _localStore.set(store, loader);
+      }
+
+      return store;
+    }
+  }
+
+  /**
+   * Sets the journal size which must be written since the last checkpoint
+   * before the live messages are compacted.
+   */
+  public void setCompactMin(long size)
+  {
+    _compactMin = size;
+  }
+
+  /**
+   * Adds a new message to the journal. The message is written by the
+   * journal actor, and the call returns once the actor has flushed the
+   * batch holding it, or once the message is acknowledged before its
+   * write.
+   */
+  @Override
+  public long send(byte []queueHash,
+                   String msgId,
+                   Serializable payload,
+                   int priority,
+                   long expireTime)
+  {
+    if (_isClosed)
+      throw new IllegalStateException(L.l("{0} is closed", this));
+
+    long mid = _midGen.incrementAndGet();
+
+    JournalRecord record = encode(mid, toQid(queueHash), msgId,
+                                  payload, priority, expireTime);
+
+    _recordMap.put(mid, record);
+
+    offer(ITEM_SEND, record);
+
+    if (! record.waitForFlush()) {
+      _recordMap.remove(mid);
+
+      throw new IllegalStateException(L.l("{0} failed to write message {1}",
+                                          this, msgId));
+    }
+
+    if (log.isLoggable(Level.FINE))
+      log.fine(this + " send " + payload);
+
+    return mid;
+  }
+
+  /**
+   * Loads the recovered messages for a queue in send order.
+   */
+  @Override
+  boolean receiveStart(byte []queueHash, FileQueueImpl<?> fileQueue)
+  {
+    long qid = toQid(queueHash);
+
+    ArrayList<JournalRecord> records = new ArrayList<JournalRecord>();
+
+    for (JournalRecord record : _recordMap.values()) {
+      if (record.getQid() == qid)
+        records.add(record);
+    }
+
+    Collections.sort(records, new RecordComparator());
+
+    for (JournalRecord record : records) {
+      fileQueue.addEntry(record.getId(), record.getMsgId(), -1,
+                         record.getPriority(), record.getExpireTime(), null);
+    }
+
+    return true;
+  }
+
+  /**
+   * Reads a message payload from the journal.
+   */
+  @Override
+  public Serializable readMessage(long id)
+  {
+    JournalRecord record = _recordMap.get(id);
+
+    if (record == null)
+      return null;
+
+    try {
+      byte []data = readData(record);
+
+      if (data == null)
+        return null;
+
+      int offset = record.getPayloadOffset();
+
+      ByteArrayInputStream is
+        = new ByteArrayInputStream(data, offset, data.length - offset);
+
+      Hessian2Input in = new Hessian2Input(is);
+
+      Serializable payload = (Serializable) in.readObject();
+
+      in.close();
+
+      return payload;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Appends an acknowledgement for the message.
+   */
+  @Override
+  void delete(long id)
+  {
+    JournalRecord record = _recordMap.remove(id);
+
+    if (record == null)
+      return;
+
+    record.setRemoved();
+
+    offer(ITEM_ACK, record);
+  }
+
+  @Override
+  public int getMessageCount()
+  {
+    return _recordMap.size();
+  }
+
+  @Override
+  public void close()
+  {
+    if (_isClosed)
+      return;
+
+    _isClosed = true;
+
+    offer(ITEM_CLOSE, null);
+  }
+
+  private void offer(int type, JournalRecord record)
+  {
+    ActorQueue<JournalItem> queue = _writeQueue;
+
+    JournalItem item;
+
+    while ((item = queue.startOffer(true)) == null) {
+    }
+
+    item.init(type, record);
+
+    queue.finishOffer(item);
+  }
+
+  private JournalRecord encode(long mid,
+                               long qid,
+                               String msgId,
+                               Serializable payload,
+                               int priority,
+                               long expireTime)
+  {
+    TempOutputStream os = new TempOutputStream();
+
+    try {
+      Hessian2Output out = new Hessian2Output(os);
+      out.writeObject(payload);
+      out.close();
+
+      byte []msgIdBytes = NULL_DATA;
+
+      if (msgId != null)
+        msgIdBytes = msgId.getBytes("UTF-8");
+
+      int payloadOffset = RECORD_HEADER + msgIdBytes.length;
+      int length = payloadOffset + os.getLength();
+
+      byte []data = new byte[length];
+
+      writeInt(data, 0, length);
+      writeInt(data, 4, priority);
+      writeLong(data, 8, expireTime);
+      data[16] = (byte) (msgIdBytes.length >> 8);
+      data[17] = (byte) (msgIdBytes.length);
+
+      System.arraycopy(msgIdBytes, 0, data, RECORD_HEADER, msgIdBytes.length);
+
+      os.readAll(0, data, payloadOffset, os.getLength());
+
+      return new JournalRecord(mid, qid, msgId, priority, expireTime,
+                               data, payloadOffset);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      os.destroy();
+    }
+  }
+
+  private byte []readData(JournalRecord record)
+    throws IOException
+  {
+    byte []data = record.getData();
+
+    if (data != null)
+      return data;
+
+    JournalLocation location = record.getLocation();
+
+    if (location == null)
+      return record.getData();
+
+    data = new byte[record.getLength()];
+
+    location.read(_blockStore, data);
+
+    return data;
+  }
+
+  private static long toQid(byte []queueHash)
+  {
+    return readLong(queueHash, 0);
+  }
+
+  private static int readInt(byte []buffer, int offset)
+  {
+    return (((buffer[offset + 0] & 0xff) << 24)
+            + ((buffer[offset + 1] & 0xff) << 16)
+            + ((buffer[offset + 2] & 0xff) << 8)
+            + ((buffer[offset + 3] & 0xff)));
+  }
+
+  private static void writeInt(byte []buffer, int offset, int value)
+  {
+    buffer[offset + 0] = (byte) (value >> 24);
+    buffer[offset + 1] = (byte) (value >> 16);
+    buffer[offset + 2] = (byte) (value >> 8);
+    buffer[offset + 3] = (byte) (value);
+  }
+
+  private static long readLong(byte []buffer, int offset)
+  {
+    return (((long) readInt(buffer, offset) << 32)
+            + (readInt(buffer, offset + 4) & 0xffffffffL));
+  }
+
+  private static void writeLong(byte []buffer, int offset, long value)
+  {
+    writeInt(buffer, offset, (int) (value >> 32));
+    writeInt(buffer, offset + 4, (int) value);
+  }
+
+  private static String escapeName(String name)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < name.length(); i++) {
+      char ch = name.charAt(i);
+
+      if ('a' <= ch && ch <= 'z'
+          || 'A' <= ch && ch <= 'Z'
+          || '0' <= ch && ch <= '9'
+          || ch == '_' || ch == '-') {
+        sb.append(ch);
+      }
+      else
+        sb.append('_');
+    }
+
+    return sb.toString();
+  }
+
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _path + "]";
+  }
+
+  /**
+   * Single-threaded writer for the journal.
+   */
+  private final class JournalWriter extends AbstractActorProcessor<JournalItem>
+  {
+    private final JournalResult _result = new JournalResult();
+
+    // sends written in the current batch, released after the flush
+    private final ArrayList<JournalRecord> _flushList
+      = new ArrayList<JournalRecord>();
+
+    private boolean _isJournalClosed;
+
+    // position of the last written entry, used for checkpoints
+    private boolean _isWritten;
+    private long _lastAddress;
+    private int _lastOffset;
+    private int _lastLength;
+
+    private long _liveBytes;
+    private long _writeBytes;
+
+    JournalWriter(long liveBytes)
+    {
+      _liveBytes = liveBytes;
+    }
+
+    @Override
+    public String getThreadName()
+    {
+      return FileQueueJournalStore.this.toString();
+    }
+
+    @Override
+    public void process(JournalItem item)
+    {
+      int type = item.getType();
+      JournalRecord record = item.getRecord();
+
+      item.clear();
+
+      if (_isJournalClosed) {
+        if (type == ITEM_SEND)
+          record.completeFlush(false);
+
+        return;
+      }
+
+      try {
+        switch (type) {
+        case ITEM_SEND:
+          if (! record.isRemoved()) {
+            try {
+              writeRecord(record, record.getData());
+            } catch (IOException e) {
+              record.completeFlush(false);
+              throw e;
+            }
+
+            _flushList.add(record);
+
+            _liveBytes += record.getLength();
+          }
+          break;
+
+        case ITEM_ACK:
+          if (record.isWritten()) {
+            writeEntry(OP_ACK, record, NULL_DATA, 0, 0, null);
+
+            _liveBytes -= record.getLength();
+          }
+          break;
+
+        case ITEM_CLOSE:
+          _isJournalClosed = true;
+
+          try {
+            _journal.flush();
+            completeFlush(true);
+          } finally {
+            completeFlush(false);
+            _journal.close();
+          }
+          break;
+        }
+      } catch (Exception e) {
+        log.log(Level.WARNING, e.toString(), e);
+      }
+    }
+
+    @Override
+    public void onProcessComplete()
+      throws Exception
+    {
+      if (_isJournalClosed)
+        return;
+
+      try {
+        if (_compactMin < _writeBytes && 2 * _liveBytes < _writeBytes) {
+          compact();
+        }
+
+        _journal.flush();
+
+        completeFlush(true);
+      } finally {
+        // a failed compaction or flush fails the batch's senders
+        completeFlush(false);
+      }
+    }
+
+    /**
+     * Releases the senders waiting on the current batch.
+     */
+    private void completeFlush(boolean isSuccess)
+    {
+      ArrayList<JournalRecord> flushList = _flushList;
+
+      for (int i = 0; i < flushList.size(); i++) {
+        flushList.get(i).completeFlush(isSuccess);
+      }
+
+      flushList.clear();
+    }
+
+    private void writeRecord(JournalRecord record, byte []data)
+      throws IOException
+    {
+      JournalLocation location = new JournalLocation();
+
+      for (int offset = 0; offset < data.length; offset += PIECE_SIZE) {
+        int sublen = Math.min(PIECE_SIZE, data.length - offset);
+
+        writeEntry(OP_SEND, record, data, offset, sublen, location);
+      }
+
+      record.setLocation(location);
+    }
+
+    private void writeEntry(long code, JournalRecord record,
+                            byte []data, int offset, int length,
+                            JournalLocation location)
+      throws IOException
+    {
+      JournalResult result = _result;
+
+      _journal.write(code, false, true,
+                     0, record.getQid(), record.getId(),
+                     data, offset, length,
+                     result);
+
+      _isWritten = true;
+
+      if (result.getLength2() > 0) {
+        _lastAddress = result.getBlockAddr2();
+        _lastOffset = result.getOffset2();
+        _lastLength = result.getLength2();
+      }
+      else {
+        _lastAddress = result.getBlockAddr1();
+        _lastOffset = result.getOffset1();
+        _lastLength = result.getLength1();
+      }
+
+      if (location != null) {
+        location.add(result.getBlockAddr1(),
+                     result.getOffset1(),
+                     result.getLength1());
+
+        if (result.getLength2() > 0) {
+          location.add(result.getBlockAddr2(),
+                       result.getOffset2(),
+                       result.getLength2());
+        }
+      }
+
+      _writeBytes += length + JournalFile.HEADER_SIZE;
+    }
+
+    /**
+     * Copies the live messages past the current tail, then checkpoints
+     * at the tail so the older entries are no longer replayed.
+     */
+    private void compact()
+      throws IOException
+    {
+      if (! _isWritten)
+        return;
+
+      long checkpointAddress = _lastAddress;
+      int checkpointOffset = _lastOffset;
+      int checkpointLength = _lastLength;
+
+      _writeBytes = 0;
+
+      int count = 0;
+
+      for (JournalRecord record : _recordMap.values()) {
+        if (! record.isWritten() || record.isRemoved())
+          continue;
+
+        byte []data = readData(record);
+
+        writeRecord(record, data);
+        count++;
+      }
+
+      // the copies must be on disk before the checkpoint drops the originals
+      _journal.flush();
+
+      _journal.checkpoint(checkpointAddress,
+                          checkpointOffset,
+                          checkpointLength);
+
+      if (log.isLoggable(Level.FINER)) {
+        log.finer(FileQueueJournalStore.this + " compacted "
+                  + count + " live messages");
+      }
+    }
+  }
+
+  /**
+   * Rebuilds the live message index from the journal on startup.
+   */
+  private final class RecoverListener implements JournalRecoverListener
+  {
+    private long _maxMid;
+
+    private long _pendingMid;
+    private byte []_pendingData;
+    private int _pendingOffset;
+    private JournalLocation _pendingLocation;
+
+    long getMaxMid()
+    {
+      return _maxMid;
+    }
+
+    @Override
+    public void onEntry(long code,
+                        boolean isInit,
+                        boolean isFin,
+                        long xid,
+                        long qid,
+                        long mid,
+                        BlockStore store,
+                        long blockAddress,
+                        int blockOffset,
+                        int length)
+      throws IOException
+    {
+      if (_maxMid < mid)
+        _maxMid = mid;
+
+      if (code == OP_SEND) {
+        recoverSend(qid, mid, store, blockAddress, blockOffset, length);
+      }
+      else if (code == OP_ACK) {
+        _pendingData = null;
+
+        _recordMap.remove(mid);
+      }
+    }
+
+    private void recoverSend(long qid,
+                             long mid,
+                             BlockStore store,
+                             long blockAddress,
+                             int blockOffset,
+                             int length)
+      throws IOException
+    {
+      if (_pendingData == null || _pendingMid != mid) {
+        // a partial record from a crash is dropped
+        byte []header = new byte[4];
+
+        if (length < header.length)
+          return;
+
+        store.readBlock(blockAddress, blockOffset, header, 0, header.length);
+
+        int recordLength = readInt(header, 0);
+
+        if (recordLength < RECORD_HEADER)
+          return;
+
+        _pendingMid = mid;
+        _pendingData = new byte[recordLength];
+        _pendingOffset = 0;
+        _pendingLocation = new JournalLocation();
+      }
+
+      byte []data = _pendingData;
+
+      if (data.length - _pendingOffset < length) {
+        _pendingData = null;
+        return;
+      }
+
+      store.readBlock(blockAddress, blockOffset, data, _pendingOffset, length);
+
+      _pendingOffset += length;
+      _pendingLocation.add(blockAddress, blockOffset, length);
+
+      if (_pendingOffset < data.length)
+        return;
+
+      _pendingData = null;
+
+      int priority = readInt(data, 4);
+      long expireTime = readLong(data, 8);
+      int msgIdLength = ((data[16] & 0xff) << 8) + (data[17] & 0xff);
+
+      String msgId = new String(data, RECORD_HEADER, msgIdLength, "UTF-8");
+
+      JournalRecord record
+        = new JournalRecord(mid, qid, msgId, priority, expireTime,
+                            null, RECORD_HEADER + msgIdLength,
+                            data.length);
+
+      record.setLocation(_pendingLocation);
+
+      _recordMap.put(mid, record);
+    }
+  }
+
+  /**
+   * Index entry for an unacknowledged message.
+   */
+  static final class JournalRecord {
+    private final long _mid;
+    private final long _qid;
+    private final String _msgId;
+    private final int _priority;
+    private final long _expireTime;
+    private final int _payloadOffset;
+    private final int _length;
+
+    // serialized data until the record is written
+    private volatile byte []_data;
+    private volatile JournalLocation _location;
+    private volatile boolean _isRemoved;
+
+    // group commit state for the sender, guarded by the record
+    private boolean _isFlushDone;
+    private boolean _isFlushFailed;
+
+    JournalRecord(long mid, long qid, String msgId,
+                  int priority, long expireTime,
+                  byte []data, int payloadOffset)
+    {
+      this(mid, qid, msgId, priority, expireTime,
+           data, payloadOffset, data.length);
+    }
+
+    JournalRecord(long mid, long qid, String msgId,
+                  int priority, long expireTime,
+                  byte []data, int payloadOffset, int length)
+    {
+      _mid = mid;
+      _qid = qid;
+      _msgId = msgId;
+      _priority = priority;
+      _expireTime = expireTime;
+      _data = data;
+      _payloadOffset = payloadOffset;
+      _length = length;
+    }
+
+    long getId()
+    {
+      return _mid;
+    }
+
+    long getQid()
+    {
+      return _qid;
+    }
+
+    String getMsgId()
+    {
+      return _msgId;
+    }
+
+    int getPriority()
+    {
+      return _priority;
+    }
+
+    long getExpireTime()
+    {
+      return _expireTime;
+    }
+
+    int getPayloadOffset()
+    {
+      return _payloadOffset;
+    }
+
+    int getLength()
+    {
+      return _length;
+    }
+
+    byte []getData()
+    {
+      return _data;
+    }
+
+    JournalLocation getLocation()
+    {
+      return _location;
+    }
+
+    /**
+     * Sets the journal location and releases the in-memory copy.
+     */
+    void setLocation(JournalLocation location)
+    {
+      _location = location;
+      _data = null;
+    }
+
+    boolean isWritten()
+    {
+      return _location != null;
+    }
+
+    boolean isRemoved()
+    {
+      return _isRemoved;
+    }
+
+    void setRemoved()
+    {
+      synchronized (this) {
+        _isRemoved = true;
+
+        notifyAll();
+      }
+    }
+
+    /**
+     * Waits until the batch holding the record is flushed, or until the
+     * record is acknowledged before its write.
+     *
+     * @return false if the write or flush failed
+     */
+    boolean waitForFlush()
+    {
+      boolean isInterrupted = false;
+
+      try {
+        synchronized (this) {
+          while (! _isFlushDone && ! _isRemoved) {
+            try {
+              wait();
+            } catch (InterruptedException e) {
+              // the message is already queued, so finish the commit
+              isInterrupted = true;
+            }
+          }
+
+          return _isRemoved || ! _isFlushFailed;
+        }
+      } finally {
+        if (isInterrupted)
+          Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * Completes the record's group commit, waking the sender. Only the
+     * first completion counts.
+     */
+    void completeFlush(boolean isSuccess)
+    {
+      synchronized (this) {
+        if (_isFlushDone)
+          return;
+
+        _isFlushDone = true;
+        _isFlushFailed = ! isSuccess;
+
+        notifyAll();
+      }
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _mid + "," + _msgId + "]";
+    }
+  }
+
+  /**
+   * Journal entries holding a record's data.
+   */
+  static final class JournalLocation {
+    private long []_blockAddress = new long[2];
+    private int []_offset = new int[2];
+    private int []_length = new int[2];
+    private int _size;
+
+    void add(long blockAddress, int offset, int length)
+    {
+      if (_size == _blockAddress.length) {
+        int newSize = 2 * _size;
+
+        long []blockAddressNew = new long[newSize];
+        System.arraycopy(_blockAddress, 0, blockAddressNew, 0, _size);
+        _blockAddress = blockAddressNew;
+
+        int []offsetNew = new int[newSize];
+        System.arraycopy(_offset, 0, offsetNew, 0, _size);
+        _offset = offsetNew;
+
+        int []lengthNew = new int[newSize];
+        System.arraycopy(_length, 0, lengthNew, 0, _size);
+        _length = lengthNew;
+      }
+
+      _blockAddress[_size] = blockAddress;
+      _offset[_size] = offset;
+      _length[_size] = length;
+      _size++;
+    }
+
+    void read(BlockStore store, byte []data)
+      throws IOException
+    {
+      int pos = 0;
+
+      for (int i = 0; i < _size; i++) {
+        store.readBlock(_blockAddress[i], _offset[i],
+                        data, pos, _length[i]);
+
+        pos += _length[i];
+      }
+    }
+  }
+
+  static final class JournalItem extends RingItem {
+    private int _type;
+    private JournalRecord _record;
+
+    JournalItem(int index)
+    {
+      super(index);
+    }
+
+    void init(int type, JournalRecord record)
+    {
+      _type = type;
+      _record = record;
+    }
+
+    int getType()
+    {
+      return _type;
+    }
+
+    JournalRecord getRecord()
+    {
+      return _record;
+    }
+
+    void clear()
+    {
+      _type = 0;
+      _record = null;
+    }
+  }
+
+  static final class JournalItemFactory
+    implements RingItemFactory<JournalItem>
+  {
+    @Override
+    public JournalItem createItem(int index)
+    {
+      return new JournalItem(index);
+    }
+  }
+
+  static final class RecordComparator implements Comparator<JournalRecord>
+  {
+    @Override
+    public int compare(JournalRecord a, JournalRecord b)
+    {
+      long aId = a.getId();
+      long bId = b.getId();
+
+      if (aId < bId)
+        return -1;
+      else if (bId < aId)
+        return 1;
+      else
+        return 0;
+    }
+  }
+}
@@ -62,7 +62,7 @@ import com.caucho.vfs.TempOutputStream;
 /**
  * Implements a file queue.
  */
-public class FileQueueStore
+public class FileQueueStore extends AbstractFileQueueStore
 {
   private static final L10N L = new L10N(FileQueueStore.class);
   private static final Logger log
@@ -176,6 +176,7 @@ public class FileQueueStore
   /**
    * Adds a new message to the persistent store.
    */
+  @Override
   public long send(byte []queueHash,
                    String msgId,
                    Serializable payload,
@@ -228,6 +229,7 @@ public class FileQueueStore
   /**
    * Retrieves a message from the persistent store.
    */
+  @Override
   boolean receiveStart(byte []queueHash, FileQueueImpl<?> fileQueue)
   {
     StoreConnection conn = null;
@@ -270,6 +272,7 @@ public class FileQueueStore
   /**
    * Retrieves a message from the persistent store.
    */
+  @Override
   public Serializable readMessage(long id)
   {
     StoreConnection conn = null;
@@ -354,6 +357,7 @@ public class FileQueueStore
   /**
    * Retrieves a message from the persistent store.
    */
+  @Override
   void delete(long id)
   {
     StoreConnection conn = null;
@@ -428,6 +432,7 @@ public class FileQueueStore
     stmt.executeUpdate(sql);
   }
 
+  @Override
   public int getMessageCount()
   {
     Connection conn = null;
@@ -454,6 +459,7 @@ public class FileQueueStore
     }
   }
   
+  @Override
   public void close()
   {
     if (_admin != null)
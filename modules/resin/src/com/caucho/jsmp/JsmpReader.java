@@ -187,14 +187,15 @@ public class JsmpReader {
   public String readString()
     throws IOException
   {
-    InputStream is = _is;
+    // the JSON input buffers ahead, so the header is read through it
+    JsonInput in = _in;
 
-    if (is == null)
+    if (in == null)
       return null;
 
     int ch;
 
-    while ((ch = is.read()) >= 0 && Character.isWhitespace(ch)) {
+    while ((ch = in.read()) >= 0 && Character.isWhitespace(ch)) {
     }
 
     if (ch < 0 || ch == 0xff)
@@ -203,7 +204,7 @@ public class JsmpReader {
     StringBuilder sb = new StringBuilder();
     sb.append((char) ch);
 
-    while ((ch = is.read()) >= 0
+    while ((ch = in.read()) >= 0
            && ! Character.isWhitespace(ch)) {
       sb.append((char) ch);
     }
@@ -214,20 +215,12 @@ public class JsmpReader {
   public boolean startPacket()
     throws IOException
   {
-    if (_is == null)
-      return false;
-
-    int ch;
-
-    while ((ch = _is.read()) >= 0 && Character.isWhitespace((char) ch)) {
-    }
+    JsonInput in = _in;
 
-    if (ch < 0)
+    if (in == null)
       return false;
-    else if (ch == 0)
-      return true;
-    else
-      throw new IOException("0x" + Integer.toHexString(ch) + " is an illegal JmtpPacket start");
+
+    return in.startPacket();
   }
 
   public void close()
@@ -34,14 +34,45 @@ import java.util.*;
 
 import com.caucho.json.ser.JsonDeserializer;
 import com.caucho.json.ser.JsonSerializerFactory;
-import com.caucho.util.Utf8;
 
 /**
  * Input stream for JSON requests.
+ *
+ * The input is read through an internal buffer, so the underlying
+ * stream may be read past the end of the current value. Besides
+ * readObject, JsonInput has a pull API using next() and the
+ * getString/getLong/getDouble accessors.
  */
 public class JsonInput {
+  private static final int BUFFER_SIZE = 8192;
+
+  // integral values with more digits use Long.parseLong
+  private static final int LONG_DIGITS_MAX = 18;
+  // doubles with more digits use Double.parseDouble
+  private static final int DOUBLE_DIGITS_MAX = 15;
+
+  private static final double []POW10 = new double[23];
+
+  public static final int KEY_UNKNOWN = -1;
+  public static final int KEY_END = -2;
+
   private InputStream _is;
-  private int _peek = -1;
+
+  private final byte []_buffer = new byte[BUFFER_SIZE];
+  private int _offset;
+  private int _length;
+
+  private char []_chars = new char[256];
+
+  // pull parser state
+  private boolean []_objectStack = new boolean[16];
+  private int _depth;
+  private boolean _isKeyNext;
+
+  private String _string;
+  private long _longValue;
+  private double _doubleValue;
+  private boolean _isIntegral;
 
   private JsonSerializerFactory _factory = new JsonSerializerFactory();
 
@@ -60,14 +91,18 @@ public class JsonInput {
   public void init(InputStream is)
   {
     _is = is;
+
+    _offset = 0;
+    _length = 0;
+
+    _depth = 0;
+    _isKeyNext = false;
   }
 
   public Object readObject()
     throws IOException
   {
-    InputStream is = _is;
-
-    if (is == null)
+    if (_is == null)
       return null;
 
     int ch;
@@ -86,19 +121,19 @@ public class JsonInput {
         return parseString();
 
       case 'n':
-        return parseNull(is);
+        return parseNull();
 
       case 't':
-        return parseTrue(is);
+        return parseTrue();
 
       case 'f':
-        return parseFalse(is);
+        return parseFalse();
 
       case '[':
-        return parseArray(is);
+        return parseArray();
 
       case '{':
-        return parseMap(is);
+        return parseMap();
       }
     }
 
@@ -128,6 +163,16 @@ public class JsonInput {
   public long readLong()
     throws IOException
   {
+    int ch = skipWhitespace();
+
+    if (isNumberStart(ch)) {
+      scanNumber(ch);
+
+      return _isIntegral ? _longValue : (long) _doubleValue;
+    }
+
+    unread(ch);
+
     Object value = readObject();
 
     if (value instanceof Number)
@@ -139,6 +184,16 @@ public class JsonInput {
   public double readDouble()
     throws IOException
   {
+    int ch = skipWhitespace();
+
+    if (isNumberStart(ch)) {
+      scanNumber(ch);
+
+      return _isIntegral ? _longValue : _doubleValue;
+    }
+
+    unread(ch);
+
     Object value = readObject();
 
     if (value instanceof Number)
@@ -150,6 +205,13 @@ public class JsonInput {
   public String readString()
     throws IOException
   {
+    int ch = skipWhitespace();
+
+    if (ch == '"')
+      return parseString();
+
+    unread(ch);
+
     Object value = readObject();
 
     return (String) value;
@@ -180,129 +242,605 @@ public class JsonInput {
     }
   }
 
+  //
+  // pull api
+  //
+
+  /**
+   * Returns the next parse event, or null at the end of the input.
+   * Commas and colons are treated as separators.
+   */
+  public JsonEvent next()
+    throws IOException
+  {
+    int ch;
+
+    while ((ch = read()) >= 0) {
+      switch (ch) {
+      case ' ': case '\n': case '\r': case '\t':
+      case ',': case ':':
+        break;
+
+      case '{':
+        push(true);
+        _isKeyNext = true;
+        return JsonEvent.START_OBJECT;
+
+      case '}':
+        pop();
+        completeValue();
+        return JsonEvent.END_OBJECT;
+
+      case '[':
+        push(false);
+        _isKeyNext = false;
+        return JsonEvent.START_ARRAY;
+
+      case ']':
+        pop();
+        completeValue();
+        return JsonEvent.END_ARRAY;
+
+      case '"':
+        _string = parseString();
+
+        if (_isKeyNext) {
+          _isKeyNext = false;
+          return JsonEvent.KEY_NAME;
+        }
+
+        completeValue();
+        return JsonEvent.VALUE_STRING;
+
+      case '0': case '1': case '2': case '3': case '4':
+      case '5': case '6': case '7': case '8': case '9':
+      case '.': case '+': case '-':
+        scanNumber(ch);
+        completeValue();
+        return JsonEvent.VALUE_NUMBER;
+
+      case 'n':
+        parseNull();
+        completeValue();
+        return JsonEvent.VALUE_NULL;
+
+      case 't':
+        parseTrue();
+        completeValue();
+        return JsonEvent.VALUE_TRUE;
+
+      case 'f':
+        parseFalse();
+        completeValue();
+        return JsonEvent.VALUE_FALSE;
+
+      default:
+        throw error(ch, "a JSON value");
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the string of the last KEY_NAME or VALUE_STRING.
+   */
+  public String getString()
+  {
+    return _string;
+  }
+
+  /**
+   * Returns true if the last VALUE_NUMBER is an integer.
+   */
+  public boolean isIntegral()
+  {
+    return _isIntegral;
+  }
+
+  /**
+   * Returns the last VALUE_NUMBER as a long.
+   */
+  public long getLong()
+  {
+    return _isIntegral ? _longValue : (long) _doubleValue;
+  }
+
+  /**
+   * Returns the last VALUE_NUMBER as a double.
+   */
+  public double getDouble()
+  {
+    return _isIntegral ? _longValue : _doubleValue;
+  }
+
+  /**
+   * Returns the object/array nesting depth of the pull parser.
+   */
+  public int getDepth()
+  {
+    return _depth;
+  }
+
+  /**
+   * Skips the next value, including any nested objects and arrays,
+   * without creating it.
+   */
+  public void skipValue()
+    throws IOException
+  {
+    int depth = 0;
+    int ch;
+
+    while ((ch = read()) >= 0) {
+      switch (ch) {
+      case ' ': case '\n': case '\r': case '\t':
+      case ',': case ':':
+        break;
+
+      case '{': case '[':
+        depth++;
+        break;
+
+      case '}': case ']':
+        if (depth == 0) {
+          unread(ch);
+          return;
+        }
+
+        if (--depth == 0)
+          return;
+        break;
+
+      case '"':
+        skipString();
+
+        if (depth == 0)
+          return;
+        break;
+
+      default:
+        while ((ch = read()) >= 0 && isLiteralChar(ch)) {
+        }
+
+        unread(ch);
+
+        if (depth == 0)
+          return;
+        break;
+      }
+    }
+  }
+
+  /**
+   * Reads the start of a map, returning false for null or the end
+   * of file.
+   */
+  public boolean readMapBegin()
+    throws IOException
+  {
+    int ch = skipWhitespace();
+
+    switch (ch) {
+    case '{':
+      return true;
+
+    case 'n':
+      parseNull();
+      return false;
+
+    case -1:
+      return false;
+
+    default:
+      throw error(ch, "'{'");
+    }
+  }
+
+  /**
+   * Reads the next map key and its ':'.
+   *
+   * @return the key's index in the table, KEY_UNKNOWN for a key not
+   * in the table, or KEY_END at the end of the map.
+   */
+  public int readMapKey(JsonKeyTable keys)
+    throws IOException
+  {
+    int ch;
+
+    while ((ch = read()) >= 0) {
+      switch (ch) {
+      case ',':
+      case ' ': case '\t': case '\r': case '\n':
+        break;
+
+      case '}':
+        return KEY_END;
+
+      case '"':
+        int index = parseKey(keys);
+
+        ch = skipWhitespace();
+
+        if (ch == ':')
+          return index;
+
+        unread(ch);
+
+        return KEY_END;
+
+      default:
+        unread(ch);
+        return KEY_END;
+      }
+    }
+
+    return KEY_END;
+  }
+
   //
   // utility
   //
 
-  private Object parseNull(InputStream is)
+  private Object parseNull()
     throws IOException
   {
     int ch;
 
-    if ((ch = is.read()) == 'u'
-        && (ch = is.read()) == 'l'
-        && (ch = is.read()) == 'l')
+    if ((ch = read()) == 'u'
+        && (ch = read()) == 'l'
+        && (ch = read()) == 'l')
       return null;
 
     throw new IOException(this + " parsing of null failed at " + (char) ch);
   }
 
-  private Boolean parseTrue(InputStream is)
+  private Boolean parseTrue()
     throws IOException
   {
     int ch;
 
-    if ((ch = is.read()) == 'r'
-        && (ch = is.read()) == 'u'
-        && (ch = is.read()) == 'e')
+    if ((ch = read()) == 'r'
+        && (ch = read()) == 'u'
+        && (ch = read()) == 'e')
       return Boolean.TRUE;
 
     throw new IOException(this + " parsing of true failed at " + (char) ch);
   }
 
-  private Boolean parseFalse(InputStream is)
+  private Boolean parseFalse()
     throws IOException
   {
     int ch;
 
-    if ((ch = is.read()) == 'a'
-        && (ch = is.read()) == 'l'
-        && (ch = is.read()) == 's'
-        && (ch = is.read()) == 'e')
+    if ((ch = read()) == 'a'
+        && (ch = read()) == 'l'
+        && (ch = read()) == 's'
+        && (ch = read()) == 'e')
       return Boolean.FALSE;
 
     throw new IOException(this + " parsing of false failed at " + (char) ch);
   }
 
+  /**
+   * Parses a string after its opening quote. Returns null on end of
+   * file.
+   */
   private String parseString()
     throws IOException
   {
-    int ch;
+    byte []buffer = _buffer;
+    int offset = _offset;
+    int length = _length;
 
-    InputStream is = _is;
+    // fast path: ASCII string without escapes in the buffer
+    for (int i = offset; i < length; i++) {
+      int ch = buffer[i];
+
+      if (ch == '"') {
+        int sublen = i - offset;
+        char []chars = getChars(sublen);
+
+        for (int j = 0; j < sublen; j++) {
+          chars[j] = (char) buffer[offset + j];
+        }
+
+        _offset = i + 1;
+
+        return new String(chars, 0, sublen);
+      }
+      else if (ch == '\\' || ch < 0)
+        break;
+    }
+
+    return parseStringSlow();
+  }
+
+  private String parseStringSlow()
+    throws IOException
+  {
+    char []chars = _chars;
+    int sublen = 0;
+    int ch;
 
-    StringBuilder sb = new StringBuilder();
+    while ((ch = read()) >= 0 && ch != '"') {
+      if (chars.length <= sublen + 1) {
+        chars = Arrays.copyOf(chars, 2 * chars.length);
+        _chars = chars;
+      }
 
-    while ((ch = Utf8.read(is)) >= 0 && ch != '"') {
       if (ch == '\\') {
-        ch = Utf8.read(is);
+        ch = read();
 
         switch (ch) {
-        case 'r':
-          sb.append('\r');
+        case 'b':
+          chars[sublen++] = '\b';
+          break;
+        case 'f':
+          chars[sublen++] = '\f';
           break;
         case 'n':
-          sb.append('\n');
+          chars[sublen++] = '\n';
+          break;
+        case 'r':
+          chars[sublen++] = '\r';
           break;
         case 't':
-          sb.append('\t');
+          chars[sublen++] = '\t';
           break;
-        case 'f':
-          sb.append('\f');
+        case 'u':
+          chars[sublen++] = (char) parseHex();
           break;
+        case -1:
+          return null;
         default:
-          sb.append((char) ch);
+          chars[sublen++] = (char) ch;
         }
       }
+      else if (ch < 0x80) {
+        chars[sublen++] = (char) ch;
+      }
+      else if ((ch & 0xe0) == 0xc0) {
+        chars[sublen++] = (char) (((ch & 0x1f) << 6) + (read() & 0x3f));
+      }
+      else if ((ch & 0xf0) == 0xe0) {
+        int ch1 = read() & 0x3f;
+        int ch2 = read() & 0x3f;
+
+        chars[sublen++] = (char) (((ch & 0x0f) << 12) + (ch1 << 6) + ch2);
+      }
+      else if ((ch & 0xf8) == 0xf0) {
+        int ch1 = read() & 0x3f;
+        int ch2 = read() & 0x3f;
+        int ch3 = read() & 0x3f;
+
+        int code = ((ch & 0x07) << 18) + (ch1 << 12) + (ch2 << 6) + ch3;
+
+        chars[sublen++] = Character.highSurrogate(code);
+        chars[sublen++] = Character.lowSurrogate(code);
+      }
       else {
-        sb.append((char) ch);
+        chars[sublen++] = (char) ch;
       }
     }
 
     if (ch < 0)
       return null;
 
-    return sb.toString();
+    return new String(chars, 0, sublen);
+  }
+
+  private int parseHex()
+    throws IOException
+  {
+    int value = 0;
+
+    for (int i = 0; i < 4; i++) {
+      int ch = read();
+      int digit = Character.digit(ch, 16);
+
+      if (digit < 0)
+        throw error(ch, "a hex digit");
+
+      value = 16 * value + digit;
+    }
+
+    return value;
+  }
+
+  private void skipString()
+    throws IOException
+  {
+    int ch;
+
+    while ((ch = read()) >= 0 && ch != '"') {
+      if (ch == '\\')
+        read();
+    }
+  }
+
+  /**
+   * Parses a map key after its opening quote, matching the raw bytes
+   * against the table when the key is in the buffer.
+   */
+  private int parseKey(JsonKeyTable keys)
+    throws IOException
+  {
+    byte []buffer = _buffer;
+    int offset = _offset;
+    int length = _length;
+
+    for (int i = offset; i < length; i++) {
+      int ch = buffer[i];
+
+      if (ch == '"') {
+        int sublen = i - offset;
+
+        _offset = i + 1;
+
+        return keys.find(buffer, offset, sublen,
+                         JsonKeyTable.hash(buffer, offset, sublen));
+      }
+      else if (ch == '\\')
+        break;
+    }
+
+    String key = parseStringSlow();
+
+    if (key == null)
+      return KEY_END;
+
+    return keys.find(key);
   }
 
   private Number parseNumber(int ch)
     throws IOException
   {
-    InputStream is = _is;
+    scanNumber(ch);
+
+    if (_isIntegral)
+      return _longValue;
+    else
+      return _doubleValue;
+  }
+
+  /**
+   * Scans a number into _longValue or _doubleValue without creating
+   * a String for the common cases.
+   */
+  private void scanNumber(int ch)
+    throws IOException
+  {
+    char []chars = _chars;
+    int sublen = 0;
+
+    boolean isNegative = false;
+    boolean isIntegral = true;
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    int exp = 0;
+    boolean isExpNegative = false;
 
-    StringBuilder sb = new StringBuilder();
-    boolean isDouble = false;
+    int state = 0; // 0=integer, 1=fraction, 2=exponent
 
     loop:
-    for (; ch >= 0; ch = is.read()) {
+    for (; ch >= 0; ch = read()) {
       switch (ch) {
       case '+':
         break;
 
       case '-':
+        if (state == 2)
+          isExpNegative = true;
+        else
+          isNegative = true;
+        break;
+
       case '0': case '1': case '2': case '3': case '4':
       case '5': case '6': case '7': case '8': case '9':
-        sb.append((char) ch);
+        if (state == 2) {
+          if (exp < 10000)
+            exp = 10 * exp + ch - '0';
+        }
+        else {
+          if (digits < LONG_DIGITS_MAX + 1)
+            mantissa = 10 * mantissa + ch - '0';
+
+          if (mantissa != 0 || state == 1)
+            digits++;
+
+          if (state == 1)
+            scale++;
+        }
+        break;
+
+      case '.':
+        isIntegral = false;
+        state = 1;
         break;
 
-      case '.': case 'e': case 'E':
-        sb.append((char) ch);
-        isDouble = true;
+      case 'e': case 'E':
+        isIntegral = false;
+        state = 2;
         break;
 
       default:
-        _peek = ch;
+        unread(ch);
         break loop;
       }
+
+      if (chars.length <= sublen) {
+        chars = Arrays.copyOf(chars, 2 * chars.length);
+        _chars = chars;
+      }
+
+      chars[sublen++] = (char) ch;
     }
 
-    if (isDouble)
-      return Double.parseDouble(sb.toString());
+    _isIntegral = isIntegral;
+
+    if (isIntegral) {
+      if (digits <= LONG_DIGITS_MAX)
+        _longValue = isNegative ? -mantissa : mantissa;
+      else
+        _longValue = Long.parseLong(toNumberString(chars, sublen));
+
+      return;
+    }
+
+    int exp10 = (isExpNegative ? -exp : exp) - scale;
+
+    if (digits <= DOUBLE_DIGITS_MAX
+        && -POW10.length < exp10 && exp10 < POW10.length) {
+      // exact for mantissa < 2^53 and |exp10| <= 22
+      double value = mantissa;
+
+      if (exp10 < 0)
+        value /= POW10[-exp10];
+      else
+        value *= POW10[exp10];
+
+      _doubleValue = isNegative ? -value : value;
+    }
     else
-      return Long.parseLong(sb.toString());
+      _doubleValue = Double.parseDouble(toNumberString(chars, sublen));
+  }
+
+  private static String toNumberString(char []chars, int length)
+  {
+    // '+' is dropped like the mantissa sign
+    StringBuilder sb = new StringBuilder(length);
+
+    for (int i = 0; i < length; i++) {
+      if (chars[i] != '+')
+        sb.append(chars[i]);
+    }
+
+    return sb.toString();
   }
 
-  private ArrayList parseArray(InputStream is)
+  private static boolean isNumberStart(int ch)
+  {
+    switch (ch) {
+    case '0': case '1': case '2': case '3': case '4':
+    case '5': case '6': case '7': case '8': case '9':
+    case '.': case '+': case '-':
+      return true;
+
+    default:
+      return false;
+    }
+  }
+
+  private static boolean isLiteralChar(int ch)
+  {
+    return ('a' <= ch && ch <= 'z' || 'A' <= ch && ch <= 'Z'
+            || '0' <= ch && ch <= '9'
+            || ch == '.' || ch == '+' || ch == '-');
+  }
+
+  private ArrayList parseArray()
     throws IOException
   {
     ArrayList list = new ArrayList();
@@ -319,7 +857,7 @@ public class JsonInput {
         return list;
 
       default:
-        _peek = ch;
+        unread(ch);
         list.add(readObject());
       }
     }
@@ -327,7 +865,7 @@ public class JsonInput {
     return list;
   }
 
-  private LinkedHashMap parseMap(InputStream is)
+  private LinkedHashMap parseMap()
     throws IOException
   {
     LinkedHashMap map = new LinkedHashMap();
@@ -345,7 +883,7 @@ public class JsonInput {
 
       case '"':
         String key = parseString();
-        for (ch = read(); ch >= 0 && ch != ':' && ch != '}'; ch = is.read()) {
+        for (ch = read(); ch >= 0 && ch != ':' && ch != '}'; ch = read()) {
         }
         if (ch == ':') {
           Object value = readObject();
@@ -356,7 +894,7 @@ public class JsonInput {
         break;
 
       default:
-        _peek = ch;
+        unread(ch);
         return map;
       }
     }
@@ -368,8 +906,6 @@ public class JsonInput {
                            JsonDeserializer deser)
     throws IOException
   {
-    InputStream is = _is;
-
     int ch;
 
     while ((ch = read()) >= 0 && ch != '{') {
@@ -378,7 +914,7 @@ public class JsonInput {
         break;
 
       default:
-        throw new IOException("'" + (char) ch + "' (0x" + Integer.toHexString(ch) + ") is an unexpected character, expected '{'");
+        throw error(ch, "'{'");
       }
     }
 
@@ -396,7 +932,7 @@ public class JsonInput {
 
       case '"':
         String key = parseString();
-        for (ch = read(); ch >= 0 && ch != ':' && ch != '}'; ch = is.read()) {
+        for (ch = read(); ch >= 0 && ch != ':' && ch != '}'; ch = read()) {
         }
 
         if (ch == ':') {
@@ -407,28 +943,112 @@ public class JsonInput {
         break;
 
       default:
-        _peek = ch;
+        unread(ch);
         return;
       }
     }
   }
 
-  private int read()
+  private void push(boolean isObject)
+  {
+    if (_objectStack.length <= _depth)
+      _objectStack = Arrays.copyOf(_objectStack, 2 * _objectStack.length);
+
+    _objectStack[_depth++] = isObject;
+  }
+
+  private void pop()
+  {
+    if (_depth > 0)
+      _depth--;
+  }
+
+  private void completeValue()
+  {
+    _isKeyNext = _depth > 0 && _objectStack[_depth - 1];
+  }
+
+  private char []getChars(int length)
+  {
+    char []chars = _chars;
+
+    if (chars.length < length) {
+      chars = new char[Math.max(length, 2 * chars.length)];
+      _chars = chars;
+    }
+
+    return chars;
+  }
+
+  private int skipWhitespace()
     throws IOException
   {
-    int peek = _peek;
-    if (peek >= 0) {
-      _peek = -1;
-      return peek;
+    int ch;
+
+    while ((ch = read()) == ' ' || ch == '\n' || ch == '\r' || ch == '\t') {
     }
 
-    return _is.read();
+    return ch;
   }
 
-  public void close()
+  private IOException error(int ch, String expected)
+  {
+    if (ch < 0)
+      return new IOException(this + " unexpected end of file, expected " + expected);
+    else
+      return new IOException("'" + (char) ch + "' (0x" + Integer.toHexString(ch) + ") is an unexpected character, expected " + expected);
+  }
+
+  /**
+   * Reads the next byte from the buffered input.
+   */
+  public int read()
     throws IOException
   {
+    if (_offset < _length)
+      return _buffer[_offset++] & 0xff;
+
     InputStream is = _is;
+
+    if (is == null)
+      return -1;
+
+    int len = is.read(_buffer, 0, _buffer.length);
+
+    if (len <= 0) {
+      _offset = 0;
+      _length = 0;
+
+      return -1;
+    }
+
+    _offset = 1;
+    _length = len;
+
+    return _buffer[0] & 0xff;
+  }
+
+  private void unread(int ch)
+  {
+    if (ch >= 0)
+      _offset--;
+  }
+
+  public void close()
+    throws IOException
+  {
     _is = null;
+
+    _offset = 0;
+    _length = 0;
+  }
+
+  static {
+    double value = 1;
+
+    for (int i = 0; i < POW10.length; i++) {
+      POW10[i] = value;
+      value *= 10;
+    }
   }
 }
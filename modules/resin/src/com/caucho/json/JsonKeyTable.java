@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.json;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Fixed table of map keys, matched against the raw UTF-8 bytes of the
+ * input so known keys are found without creating a String.
+ */
+public final class JsonKeyTable {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final String []_keys;
+  private final byte [][]_keyBytes;
+
+  private final int []_table;
+  private final int _mask;
+
+  public JsonKeyTable(String []keys)
+  {
+    _keys = keys.clone();
+    _keyBytes = new byte[keys.length][];
+
+    int size = 4;
+    while (size < 2 * keys.length) {
+      size *= 2;
+    }
+
+    _table = new int[size];
+    _mask = size - 1;
+
+    for (int i = 0; i < keys.length; i++) {
+      byte []bytes = keys[i].getBytes(UTF_8);
+
+      _keyBytes[i] = bytes;
+
+      int hash = hash(bytes, 0, bytes.length);
+
+      if (find(bytes, 0, bytes.length, hash) >= 0)
+        throw new IllegalArgumentException(keys[i] + " is a duplicate key");
+
+      int bucket = hash & _mask;
+
+      while (_table[bucket] != 0) {
+        bucket = (bucket + 1) & _mask;
+      }
+
+      _table[bucket] = i + 1;
+    }
+  }
+
+  /**
+   * Returns the number of keys.
+   */
+  public int size()
+  {
+    return _keys.length;
+  }
+
+  /**
+   * Returns the key at the index.
+   */
+  public String getKey(int index)
+  {
+    return _keys[index];
+  }
+
+  /**
+   * Returns the index of the key, or -1 if it's unknown.
+   */
+  public int find(String key)
+  {
+    byte []bytes = key.getBytes(UTF_8);
+
+    return find(bytes, 0, bytes.length, hash(bytes, 0, bytes.length));
+  }
+
+  /**
+   * Returns the index of the key's UTF-8 bytes, or -1 if it's unknown.
+   */
+  public int find(byte []buffer, int offset, int length, int hash)
+  {
+    int []table = _table;
+    int bucket = hash & _mask;
+    int index;
+
+    while ((index = table[bucket]) != 0) {
+      byte []key = _keyBytes[index - 1];
+
+      if (key.length == length && regionMatches(key, buffer, offset))
+        return index - 1;
+
+      bucket = (bucket + 1) & _mask;
+    }
+
+    return -1;
+  }
+
+  private static boolean regionMatches(byte []key, byte []buffer, int offset)
+  {
+    for (int i = key.length - 1; i >= 0; i--) {
+      if (key[i] != buffer[offset + i])
+        return false;
+    }
+
+    return true;
+  }
+
+  static int hash(byte []buffer, int offset, int length)
+  {
+    int hash = 0;
+
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + buffer[offset + i];
+    }
+
+    return hash ^ (hash >>> 16);
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + Arrays.asList(_keys);
+  }
+}
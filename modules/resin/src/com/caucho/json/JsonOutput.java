@@ -53,9 +53,21 @@ public class JsonOutput {
   private static final char []TRUE = new char[] { 't', 'r', 'u', 'e' };
   private static final char []FALSE = new char[] { 'f', 'a', 'l', 's', 'e' };
 
+  private static final char []LONG_MIN_VALUE
+    = String.valueOf(Long.MIN_VALUE).toCharArray();
+
+  private static final int BUFFER_SIZE = 8192;
+
+  // escape sequences for the characters below ESCAPE_MAX
+  private static final int ESCAPE_MAX = '\\' + 1;
+  private static final char [][]ESCAPE = new char[ESCAPE_MAX][];
+
   private JsonSerializerFactory _factory = new JsonSerializerFactory();
   
   private PrintWriter _os;
+
+  private final char []_buffer = new char[BUFFER_SIZE];
+  private int _offset;
   
   public JsonOutput()
   {
@@ -77,6 +89,7 @@ public class JsonOutput {
   public void init(PrintWriter os)
   {
     _os = os;
+    _offset = 0;
   }
 
   public void writeObject(Object value) throws IOException
@@ -87,10 +100,8 @@ public class JsonOutput {
   public void writeObject(Object value, boolean annotated)
     throws IOException
   {
-    PrintWriter os = _os;
-
     if (value == null) {
-      os.write(NULL, 0, 4);
+      writeRaw(NULL, 0, 4);
       return;
     }
 
@@ -102,26 +113,48 @@ public class JsonOutput {
   public void writeNull()
     throws IOException
   {
-    PrintWriter os = _os;
-    
-    os.write(NULL, 0, 4);
+    writeRaw(NULL, 0, 4);
   }
     
   public void writeBoolean(boolean value)
     throws IOException
   {
-    PrintWriter os = _os;
-    
     if (value)
-      os.write(TRUE, 0, 4);
+      writeRaw(TRUE, 0, 4);
     else
-      os.write(FALSE, 0, 5);
+      writeRaw(FALSE, 0, 5);
   }
     
   public void writeLong(long value)
     throws IOException
   {
-    writeStringValue(String.valueOf(value));
+    if (value == Long.MIN_VALUE) {
+      writeRaw(LONG_MIN_VALUE, 0, LONG_MIN_VALUE.length);
+      return;
+    }
+
+    if (_buffer.length < _offset + 20)
+      flushBuffer();
+
+    char []buffer = _buffer;
+
+    if (value < 0) {
+      buffer[_offset++] = '-';
+      value = -value;
+    }
+
+    int length = 1;
+    for (long v = value / 10; v != 0; v /= 10) {
+      length++;
+    }
+
+    int offset = _offset + length;
+    _offset = offset;
+
+    do {
+      buffer[--offset] = (char) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
   }
     
   public void writeDouble(double value)
@@ -133,115 +166,119 @@ public class JsonOutput {
   public void writeString(String v)
     throws IOException
   {
-    PrintWriter os = _os;
-    
     if (v == null) {
-      os.write(NULL, 0, 4);
+      writeRaw(NULL, 0, 4);
       return;
     }
     
-    os.write('"');
+    write('"');
 
     int length = v.length();
+    int start = 0;
+
     for (int i = 0; i < length; i++) {
       char ch = v.charAt(i);
 
-      writeChar(os, ch);
+      if (ch < ESCAPE_MAX && ESCAPE[ch] != null) {
+        if (start < i)
+          writeStringValue(v, start, i);
+
+        char []escape = ESCAPE[ch];
+        writeRaw(escape, 0, escape.length);
+
+        start = i + 1;
+      }
     }
 
-    os.write('"');
+    if (start < length)
+      writeStringValue(v, start, length);
+
+    write('"');
   }
 
   public void writeString(char []v, int offset, int length)
     throws IOException
   {
-    PrintWriter os = _os;
-    
-    os.write('"');
+    write('"');
 
-    for (int i = 0; i < length; i++) {
-      char ch = v[offset + i];
+    int start = offset;
+    int end = offset + length;
+
+    for (int i = offset; i < end; i++) {
+      char ch = v[i];
+
+      if (ch < ESCAPE_MAX && ESCAPE[ch] != null) {
+        if (start < i)
+          writeRaw(v, start, i - start);
+
+        char []escape = ESCAPE[ch];
+        writeRaw(escape, 0, escape.length);
 
-      writeChar(os, ch);
+        start = i + 1;
+      }
     }
+
+    if (start < end)
+      writeRaw(v, start, end - start);
     
-    os.write('"');
+    write('"');
   }
 
-  private void writeChar(PrintWriter os, char ch)
+  /**
+   * Writes characters without escaping, e.g. a pre-encoded map key.
+   */
+  public void writeRaw(char []v, int offset, int length)
     throws IOException
   {
-    switch (ch) {
-    case 0:
-      os.write('\\');
-      os.write('u');
-      os.write('0');
-      os.write('0');
-      os.write('0');
-      os.write('0');
-      break;
-    case '\n':
-      os.write('\\');
-      os.write('n');
-      break;
-    case '\r':
-      os.write('\\');
-      os.write('r');
-      break;
-    case '\t':
-      os.write('\\');
-      os.write('t');
-      break;
-    case '\b':
-      os.write('\\');
-      os.write('b');
-      break;
-    case '\f':
-      os.write('\\');
-      os.write('f');
-      break;
-    case '\\':
-      os.write('\\');
-      os.write('\\');
-      break;
-    case '"':
-      os.write('\\');
-      os.write('"');
-      break;
-    default:
-      os.write(ch);
-      break;
+    char []buffer = _buffer;
+
+    while (length > 0) {
+      int sublen = buffer.length - _offset;
+
+      if (sublen == 0) {
+        flushBuffer();
+        sublen = buffer.length;
+      }
+
+      if (length < sublen)
+        sublen = length;
+
+      System.arraycopy(v, offset, buffer, _offset, sublen);
+
+      _offset += sublen;
+      offset += sublen;
+      length -= sublen;
     }
   }
 
   public void writeArrayBegin()
     throws IOException
   {
-    _os.write('[');
+    write('[');
   }
 
   public void writeArrayComma()
     throws IOException
   {
-    _os.write(',');
+    write(',');
   }
 
   public void writeArrayEnd()
     throws IOException
   {
-    _os.write(']');
+    write(']');
   }
 
   public void writeMapBegin()
     throws IOException
   {
-    _os.write('{');
+    write('{');
   }
 
   public void writeMapComma()
     throws IOException
   {
-    _os.write(',');
+    write(',');
   }
 
   public void writeMapEntry(String key, Object value)
@@ -254,42 +291,89 @@ public class JsonOutput {
     throws IOException
   {
     writeString(key);
-    _os.write(':');
+    write(':');
     writeObject((Serializable) value, annotated);
   }
 
   public void writeMapEnd()
     throws IOException
   {
-    _os.write('}');
+    write('}');
+  }
+
+  private void write(char ch)
+    throws IOException
+  {
+    if (_buffer.length <= _offset)
+      flushBuffer();
+
+    _buffer[_offset++] = ch;
   }
 
   private void writeStringValue(String s)
     throws IOException
   {
-    PrintWriter os = _os;
-    
-    int len = s.length();
+    writeStringValue(s, 0, s.length());
+  }
+
+  private void writeStringValue(String s, int start, int end)
+    throws IOException
+  {
+    char []buffer = _buffer;
+
+    while (start < end) {
+      int sublen = buffer.length - _offset;
+
+      if (sublen == 0) {
+        flushBuffer();
+        sublen = buffer.length;
+      }
+
+      if (end - start < sublen)
+        sublen = end - start;
 
-    for (int i = 0; i < len; i++) {
-      char ch = s.charAt(i);
+      s.getChars(start, start + sublen, buffer, _offset);
 
-      os.write(ch);
+      _offset += sublen;
+      start += sublen;
     }
   }
 
+  /**
+   * Writes the buffered characters to the underlying writer.
+   */
   public void flushBuffer()
     throws IOException
   {
+    int offset = _offset;
+
+    if (offset > 0) {
+      _offset = 0;
+
+      _os.write(_buffer, 0, offset);
+    }
   }
 
   public void flush()
     throws IOException
   {
+    flushBuffer();
   }
 
   public void close()
     throws IOException
   {
+    flushBuffer();
+  }
+
+  static {
+    ESCAPE[0] = "\\u0000".toCharArray();
+    ESCAPE['\n'] = "\\n".toCharArray();
+    ESCAPE['\r'] = "\\r".toCharArray();
+    ESCAPE['\t'] = "\\t".toCharArray();
+    ESCAPE['\b'] = "\\b".toCharArray();
+    ESCAPE['\f'] = "\\f".toCharArray();
+    ESCAPE['\\'] = "\\\\".toCharArray();
+    ESCAPE['"'] = "\\\"".toCharArray();
   }
 }
@@ -42,8 +42,12 @@ public class DoubleSerializer extends AbstractJsonSerializer<Number> {
   public void write(JsonOutput out, Number value, boolean annotated)
     throws IOException
   {
-    double dValue = value.doubleValue();
-    
+    writeDouble(out, value.doubleValue());
+  }
+
+  static void writeDouble(JsonOutput out, double dValue)
+    throws IOException
+  {
     if (Double.isNaN(dValue)) {
       // hessian/5070
       out.writeDouble(0.0);
@@ -55,7 +59,7 @@ public class DoubleSerializer extends AbstractJsonSerializer<Number> {
         out.writeDouble(-Double.MAX_VALUE);
     }
     else {
-      out.writeDouble(value.doubleValue());
+      out.writeDouble(dValue);
     }
   }
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.json.ser;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sun.misc.Unsafe;
+
+import com.caucho.json.JsonInput;
+import com.caucho.json.JsonKeyTable;
+import com.caucho.loader.EnvironmentLocal;
+
+/**
+ * Deserializer using a generated field reader. The keys are matched
+ * against the field table without creating key strings.
+ */
+public class GeneratedJsonDeserializer extends JavaDeserializer {
+  private static final Logger log
+    = Logger.getLogger(GeneratedJsonDeserializer.class.getName());
+
+  // the generated reader refers to its class, so the deserializers are
+  // kept in the class's environment, dying with its class loader
+  private static final EnvironmentLocal<DeserializerMap> _deserMapLocal
+    = new EnvironmentLocal<DeserializerMap>();
+
+  private final JsonKeyTable _keys;
+  private final FieldReader _reader;
+
+  private GeneratedJsonDeserializer(Class<?> cl)
+    throws Exception
+  {
+    super(cl);
+
+    LinkedHashMap<String,Field> fieldMap = new LinkedHashMap<String,Field>();
+
+    introspectFields(fieldMap, cl);
+
+    if (JsonSerializerGenerator.FIELD_MAX < fieldMap.size())
+      throw new IllegalStateException(cl.getName() + " has too many fields");
+
+    Field []fields = new Field[fieldMap.size()];
+    fieldMap.values().toArray(fields);
+
+    String []names = new String[fields.length];
+    fieldMap.keySet().toArray(names);
+
+    _keys = new JsonKeyTable(names);
+
+    _reader = JsonSerializerGenerator.generateReader(cl, fields);
+    _reader.setFields(fields);
+  }
+
+  /**
+   * Returns the generated deserializer for the class, or null if the
+   * class can't use a generated deserializer.
+   */
+  public static GeneratedJsonDeserializer create(Class<?> cl)
+  {
+    if (GeneratedJsonSerializer.getUnsafe() == null
+        || cl.isInterface()
+        || Modifier.isAbstract(cl.getModifiers())) {
+      return null;
+    }
+
+    DeserializerMap deserMap = getDeserMap(cl);
+
+    synchronized (deserMap) {
+      SoftReference<GeneratedJsonDeserializer> deserRef = deserMap.get(cl);
+
+      GeneratedJsonDeserializer deser
+        = deserRef != null ? deserRef.get() : null;
+
+      if (deser == null) {
+        try {
+          deser = new GeneratedJsonDeserializer(cl);
+        } catch (Throwable e) {
+          log.log(Level.FINE, cl.getName() + ": " + e, e);
+
+          return null;
+        }
+
+        deserMap.put(cl, new SoftReference<GeneratedJsonDeserializer>(deser));
+      }
+
+      return deser;
+    }
+  }
+
+  private static DeserializerMap getDeserMap(Class<?> cl)
+  {
+    ClassLoader loader = cl.getClassLoader();
+
+    synchronized (_deserMapLocal) {
+      DeserializerMap deserMap = _deserMapLocal.getLevel(loader);
+
+      if (deserMap == null) {
+        deserMap = new DeserializerMap();
+        _deserMapLocal.set(deserMap, loader);
+      }
+
+      return deserMap;
+    }
+  }
+
+  private static void introspectFields(LinkedHashMap<String,Field> fieldMap,
+                                       Class<?> type)
+  {
+    if (type == null)
+      return;
+
+    introspectFields(fieldMap, type.getSuperclass());
+
+    for (Field field : type.getDeclaredFields()) {
+      if (Modifier.isTransient(field.getModifiers()))
+        continue;
+      if (Modifier.isStatic(field.getModifiers()))
+        continue;
+
+      // a subclass field replaces the parent field of the same name
+      fieldMap.remove(field.getName());
+      fieldMap.put(field.getName(), field);
+    }
+  }
+
+  @Override
+  public Object read(JsonInput in)
+    throws IOException
+  {
+    if (! in.readMapBegin())
+      return null;
+
+    Object bean = create();
+
+    FieldReader reader = _reader;
+    JsonKeyTable keys = _keys;
+    int index;
+
+    while ((index = in.readMapKey(keys)) != JsonInput.KEY_END) {
+      reader.readField(in, bean, index);
+    }
+
+    return bean;
+  }
+
+  @Override
+  public void readField(JsonInput in, Object bean, String fieldName)
+    throws IOException
+  {
+    _reader.readField(in, bean, _keys.find(fieldName));
+  }
+
+  /**
+   * Base class of the generated field readers. The generated code
+   * switches on the key index to read and set the matching field.
+   */
+  public abstract static class FieldReader {
+    protected static final Unsafe _unsafe = GeneratedJsonSerializer.getUnsafe();
+
+    private Field []_fields;
+    private long []_offsets;
+
+    final void setFields(Field []fields)
+    {
+      _fields = fields;
+      _offsets = new long[fields.length];
+
+      for (int i = 0; i < fields.length; i++) {
+        _offsets[i] = _unsafe.objectFieldOffset(fields[i]);
+      }
+    }
+
+    /**
+     * Reads the value for the field at the key index, skipping the
+     * value for an unknown key.
+     */
+    public abstract void readField(JsonInput in, Object bean, int index)
+      throws IOException;
+
+    protected static boolean readBoolean(JsonInput in)
+      throws IOException
+    {
+      return Boolean.TRUE.equals(in.readObject());
+    }
+
+    protected static byte readByte(JsonInput in)
+      throws IOException
+    {
+      return (byte) in.readLong();
+    }
+
+    protected static short readShort(JsonInput in)
+      throws IOException
+    {
+      return (short) in.readLong();
+    }
+
+    protected static char readChar(JsonInput in)
+      throws IOException
+    {
+      String value = in.readString();
+
+      if (value != null && value.length() > 0)
+        return value.charAt(0);
+      else
+        return 0;
+    }
+
+    protected static int readInt(JsonInput in)
+      throws IOException
+    {
+      return (int) in.readLong();
+    }
+
+    protected static long readLong(JsonInput in)
+      throws IOException
+    {
+      return in.readLong();
+    }
+
+    protected static float readFloat(JsonInput in)
+      throws IOException
+    {
+      return (float) in.readDouble();
+    }
+
+    protected static double readDouble(JsonInput in)
+      throws IOException
+    {
+      return in.readDouble();
+    }
+
+    /**
+     * Reads an object field, returning the current field value for a
+     * null.
+     */
+    protected Object readObject(JsonInput in, Object bean, int index)
+      throws IOException
+    {
+      Field field = _fields[index];
+      Class<?> type = field.getType();
+
+      Object value;
+
+      if (String.class.equals(type))
+        value = in.readString();
+      else if (Number.class.isAssignableFrom(type)
+               || Boolean.class.equals(type)
+               || Character.class.equals(type))
+        value = toBoxed(type, in.readObject());
+      else if (type.isInterface())
+        value = in.readObject();
+      else
+        value = in.readObject(type);
+
+      if (value == null)
+        return _unsafe.getObject(bean, _offsets[index]);
+
+      if (! type.isAssignableFrom(value.getClass()))
+        throw new IOException(value.getClass() + " is an illegal value for " + field);
+
+      return value;
+    }
+
+    private static Object toBoxed(Class<?> type, Object value)
+    {
+      if (value instanceof Number) {
+        Number number = (Number) value;
+
+        if (Integer.class.equals(type))
+          return number.intValue();
+        else if (Long.class.equals(type))
+          return number.longValue();
+        else if (Double.class.equals(type))
+          return number.doubleValue();
+        else if (Float.class.equals(type))
+          return number.floatValue();
+        else if (Short.class.equals(type))
+          return number.shortValue();
+        else if (Byte.class.equals(type))
+          return number.byteValue();
+      }
+      else if (value instanceof String && Character.class.equals(type)) {
+        String s = (String) value;
+
+        return s.length() > 0 ? s.charAt(0) : null;
+      }
+
+      return value;
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class DeserializerMap
+    extends HashMap<Class<?>,SoftReference<GeneratedJsonDeserializer>> {
+  }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.json.ser;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sun.misc.Unsafe;
+
+import com.caucho.json.JsonOutput;
+import com.caucho.loader.EnvironmentLocal;
+
+/**
+ * Serializer using a generated field writer, avoiding reflection and
+ * boxing for each field. The output matches JavaSerializer.
+ */
+public class GeneratedJsonSerializer extends JavaSerializer {
+  private static final Logger log
+    = Logger.getLogger(GeneratedJsonSerializer.class.getName());
+
+  private static final Unsafe _unsafe;
+  private static final boolean _isEnabled;
+
+  // the generated writer refers to its class, so the serializers are
+  // kept in the class's environment, dying with its class loader
+  private static final EnvironmentLocal<SerializerMap> _serMapLocal
+    = new EnvironmentLocal<SerializerMap>();
+
+  private static final EnvironmentLocal<SerializerMap> _annotatedSerMapLocal
+    = new EnvironmentLocal<SerializerMap>();
+
+  private final FieldWriter _writer;
+
+  private GeneratedJsonSerializer(Class<?> cl, boolean annotated)
+    throws Exception
+  {
+    super(cl, annotated);
+
+    JsonField []jsonFields = getFields();
+
+    if (JsonSerializerGenerator.FIELD_MAX < jsonFields.length)
+      throw new IllegalStateException(cl.getName() + " has too many fields");
+
+    Field []fields = new Field[jsonFields.length];
+    char [][]keys = new char[jsonFields.length][];
+
+    for (int i = 0; i < jsonFields.length; i++) {
+      fields[i] = jsonFields[i].getField();
+      keys[i] = encodeKey(jsonFields[i].getName());
+    }
+
+    _writer = JsonSerializerGenerator.generateWriter(cl, fields, keys);
+  }
+
+  /**
+   * True if generated serializers are enabled by default, using the
+   * com.caucho.json.generated system property.
+   */
+  public static boolean isEnabled()
+  {
+    return _isEnabled;
+  }
+
+  static Unsafe getUnsafe()
+  {
+    return _unsafe;
+  }
+
+  /**
+   * Returns the generated serializer for the class, or null if the
+   * class can't use a generated serializer.
+   */
+  public static GeneratedJsonSerializer create(Class<?> cl, boolean annotated)
+  {
+    if (_unsafe == null || cl.isInterface())
+      return null;
+
+    SerializerMap serMap
+      = getSerMap(annotated ? _annotatedSerMapLocal : _serMapLocal, cl);
+
+    synchronized (serMap) {
+      SoftReference<GeneratedJsonSerializer> serRef = serMap.get(cl);
+
+      GeneratedJsonSerializer ser = serRef != null ? serRef.get() : null;
+
+      if (ser == null) {
+        try {
+          ser = new GeneratedJsonSerializer(cl, annotated);
+        } catch (Throwable e) {
+          log.log(Level.FINE, cl.getName() + ": " + e, e);
+
+          return null;
+        }
+
+        serMap.put(cl, new SoftReference<GeneratedJsonSerializer>(ser));
+      }
+
+      return ser;
+    }
+  }
+
+  private static SerializerMap getSerMap(EnvironmentLocal<SerializerMap> local,
+                                         Class<?> cl)
+  {
+    ClassLoader loader = cl.getClassLoader();
+
+    synchronized (local) {
+      SerializerMap serMap = local.getLevel(loader);
+
+      if (serMap == null) {
+        serMap = new SerializerMap();
+        local.set(serMap, loader);
+      }
+
+      return serMap;
+    }
+  }
+
+  @Override
+  public void write(JsonOutput out, Object value, boolean annotated)
+    throws IOException
+  {
+    out.writeMapBegin();
+    _writer.writeFields(out, value, annotated);
+    out.writeMapEnd();
+  }
+
+  /**
+   * Returns the escaped key with its ':'.
+   */
+  private static char []encodeKey(String name)
+    throws IOException
+  {
+    StringWriter sw = new StringWriter();
+    PrintWriter pw = new PrintWriter(sw);
+
+    JsonOutput out = new JsonOutput(pw);
+    out.writeString(name);
+    out.flush();
+    pw.print(':');
+    pw.flush();
+
+    return sw.toString().toCharArray();
+  }
+
+  /**
+   * Base class of the generated field writers. The helpers write a
+   * field with its key, returning false for the next field's isFirst.
+   */
+  public abstract static class FieldWriter {
+    protected static final Unsafe _unsafe = GeneratedJsonSerializer._unsafe;
+
+    protected char [][]_keys;
+
+    final void setKeys(char [][]keys)
+    {
+      _keys = keys;
+    }
+
+    /**
+     * Writes the object's fields in the serializer's order.
+     */
+    public abstract void writeFields(JsonOutput out, Object value,
+                                     boolean annotated)
+      throws IOException;
+
+    protected static boolean writeBoolean(boolean isFirst, JsonOutput out,
+                                          char []key, boolean value)
+      throws IOException
+    {
+      writeKey(isFirst, out, key);
+      out.writeBoolean(value);
+
+      return false;
+    }
+
+    protected static boolean writeByte(boolean isFirst, JsonOutput out,
+                                       char []key, byte value)
+      throws IOException
+    {
+      writeKey(isFirst, out, key);
+      out.writeLong(value);
+
+      return false;
+    }
+
+    protected static boolean writeShort(boolean isFirst, JsonOutput out,
+                                        char []key, short value)
+      throws IOException
+    {
+      writeKey(isFirst, out, key);
+      out.writeLong(value);
+
+      return false;
+    }
+
+    protected static boolean writeChar(boolean isFirst, JsonOutput out,
+                                       char []key, char value)
+      throws IOException
+    {
+      writeKey(isFirst, out, key);
+      out.writeString(String.valueOf(value));
+
+      return false;
+    }
+
+    protected static boolean writeInt(boolean isFirst, JsonOutput out,
+                                      char []key, int value)
+      throws IOException
+    {
+      writeKey(isFirst, out, key);
+      out.writeLong(value);
+
+      return false;
+    }
+
+    protected static boolean writeLong(boolean isFirst, JsonOutput out,
+                                       char []key, long value)
+      throws IOException
+    {
+      writeKey(isFirst, out, key);
+      out.writeLong(value);
+
+      return false;
+    }
+
+    protected static boolean writeFloat(boolean isFirst, JsonOutput out,
+                                        char []key, float value)
+      throws IOException
+    {
+      writeKey(isFirst, out, key);
+      DoubleSerializer.writeDouble(out, value);
+
+      return false;
+    }
+
+    protected static boolean writeDouble(boolean isFirst, JsonOutput out,
+                                         char []key, double value)
+      throws IOException
+    {
+      writeKey(isFirst, out, key);
+      DoubleSerializer.writeDouble(out, value);
+
+      return false;
+    }
+
+    protected static boolean writeString(boolean isFirst, JsonOutput out,
+                                         char []key, Object value,
+                                         boolean annotated)
+      throws IOException
+    {
+      if (value == null)
+        return isFirst;
+
+      writeKey(isFirst, out, key);
+      out.writeString((String) value);
+
+      return false;
+    }
+
+    protected static boolean writeObject(boolean isFirst, JsonOutput out,
+                                         char []key, Object value,
+                                         boolean annotated)
+      throws IOException
+    {
+      if (value == null)
+        return isFirst;
+
+      writeKey(isFirst, out, key);
+      out.writeObject(value, annotated);
+
+      return false;
+    }
+
+    private static void writeKey(boolean isFirst, JsonOutput out, char []key)
+      throws IOException
+    {
+      if (! isFirst)
+        out.writeMapComma();
+
+      out.writeRaw(key, 0, key.length);
+    }
+  }
+
+  static {
+    Unsafe unsafe = null;
+
+    try {
+      Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+
+      unsafe = (Unsafe) theUnsafe.get(null);
+    } catch (Throwable e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+
+    _unsafe = unsafe;
+
+    boolean isEnabled = unsafe != null;
+
+    try {
+      String prop = System.getProperty("com.caucho.json.generated");
+
+      if ("false".equals(prop))
+        isEnabled = false;
+    } catch (Throwable e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+
+    _isEnabled = isEnabled;
+  }
+
+  @SuppressWarnings("serial")
+  private static class SerializerMap
+    extends HashMap<Class<?>,SoftReference<GeneratedJsonSerializer>> {
+  }
+}
@@ -89,6 +89,14 @@ public class JavaSerializer extends AbstractJsonSerializer {
     }
   }
 
+  /**
+   * Returns the fields in serialization order.
+   */
+  JsonField []getFields()
+  {
+    return _fields;
+  }
+
   public void write(JsonOutput out, Object value, boolean annotated)
     throws IOException
   {
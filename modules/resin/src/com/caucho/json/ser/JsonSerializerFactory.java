@@ -50,6 +50,21 @@ public class JsonSerializerFactory {
   private final ConcurrentHashMap<Class,JsonDeserializer> _deserMap
     = new ConcurrentHashMap<Class,JsonDeserializer>();
 
+  private boolean _isEnableGenerated = GeneratedJsonSerializer.isEnabled();
+
+  /**
+   * Enables generated serializers and deserializers for beans.
+   */
+  public void setEnableGenerated(boolean isEnable)
+  {
+    _isEnableGenerated = isEnable;
+  }
+
+  public boolean isEnableGenerated()
+  {
+    return _isEnableGenerated;
+  }
+
   //
   // serializers
   //
@@ -93,6 +108,13 @@ public class JsonSerializerFactory {
     if(Enum.class.isAssignableFrom(cl))
       return EnumSerializer.SER;
 
+    if (_isEnableGenerated) {
+      ser = GeneratedJsonSerializer.create(cl, annotated);
+
+      if (ser != null)
+        return ser;
+    }
+
     return new JavaSerializer(cl, annotated);
   }
 
@@ -120,6 +142,13 @@ public class JsonSerializerFactory {
     if (deser != null)
       return deser;
 
+    if (_isEnableGenerated) {
+      deser = GeneratedJsonDeserializer.create(cl);
+
+      if (deser != null)
+        return deser;
+    }
+
     return new JavaDeserializer(cl);
   }
 
@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.json.ser;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.caucho.bytecode.CodeWriterAttribute;
+import com.caucho.bytecode.JavaClass;
+import com.caucho.bytecode.JavaClassLoader;
+import com.caucho.bytecode.JavaMethod;
+import com.caucho.loader.ProxyClassLoader;
+import com.caucho.vfs.Vfs;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Generates the bytecode for the field writers and readers of the
+ * generated JSON serializers. The generated code reads and writes the
+ * fields with sun.misc.Unsafe using the field offsets as constants.
+ */
+class JsonSerializerGenerator {
+  static final int FIELD_MAX = 1024;
+
+  private static final String UNSAFE = "sun/misc/Unsafe";
+  private static final String JSON_OUTPUT = "com/caucho/json/JsonOutput";
+  private static final String JSON_INPUT = "com/caucho/json/JsonInput";
+
+  private static final String WRITER
+    = "com/caucho/json/ser/GeneratedJsonSerializer$FieldWriter";
+  private static final String READER
+    = "com/caucho/json/ser/GeneratedJsonDeserializer$FieldReader";
+
+  private static final HashMap<Class<?>,String> _typeMap
+    = new HashMap<Class<?>,String>();
+
+  private static final AtomicInteger _count = new AtomicInteger();
+
+  private JsonSerializerGenerator()
+  {
+  }
+
+  /**
+   * Generates a writer for the fields, in order.
+   */
+  static GeneratedJsonSerializer.FieldWriter
+    generateWriter(Class<?> cl, Field []fields, char [][]keys)
+    throws Exception
+  {
+    String className = "com/caucho/json/ser/gen/JsonWriter"
+                       + _count.incrementAndGet();
+
+    JavaClass jClass = createClass(className, WRITER);
+
+    JavaMethod method
+      = jClass.createMethod("writeFields",
+                            "(L" + JSON_OUTPUT + ";Ljava/lang/Object;Z)V");
+    method.setAccessFlags(Modifier.PUBLIC);
+
+    CodeWriterAttribute code = method.createCodeWriter();
+    code.setMaxLocals(5);
+    code.setMaxStack(10);
+
+    // the isFirst flag stays on the stack between fields
+    code.pushInt(1);
+
+    for (int i = 0; i < fields.length; i++) {
+      Field field = fields[i];
+      Class<?> type = field.getType();
+      String sig = getTypeSig(type);
+      String typeName = getTypeName(type);
+
+      code.pushObjectVar(1);
+
+      code.pushObjectVar(0);
+      code.getField(WRITER, "_keys", "[[C");
+      code.pushInt(i);
+      code.getArrayObject();
+
+      code.getStatic(WRITER, "_unsafe", "L" + UNSAFE + ";");
+      code.pushObjectVar(2);
+      code.pushLong(GeneratedJsonSerializer.getUnsafe().objectFieldOffset(field));
+      code.invoke(UNSAFE, "get" + typeName, "(Ljava/lang/Object;J)" + sig,
+                  4, getStackSize(type));
+
+      String helperSig;
+
+      if (type.isPrimitive()) {
+        helperSig = "(ZL" + JSON_OUTPUT + ";[C" + sig + ")Z";
+      }
+      else {
+        code.pushIntVar(3);
+
+        helperSig = "(ZL" + JSON_OUTPUT + ";[CLjava/lang/Object;Z)Z";
+      }
+
+      String helper;
+
+      if (String.class.equals(type))
+        helper = "writeString";
+      else if (type.isPrimitive())
+        helper = "write" + typeName;
+      else
+        helper = "writeObject";
+
+      code.invokestatic(WRITER, helper, helperSig,
+                        4 + getStackSize(type), 1);
+    }
+
+    code.pop();
+    code.addReturn();
+    code.close();
+
+    Class<?> writerClass = loadClass(jClass, className);
+
+    GeneratedJsonSerializer.FieldWriter writer
+      = (GeneratedJsonSerializer.FieldWriter) writerClass.newInstance();
+
+    writer.setKeys(keys);
+
+    return writer;
+  }
+
+  /**
+   * Generates a reader for the fields, indexed by the field position.
+   */
+  static GeneratedJsonDeserializer.FieldReader
+    generateReader(Class<?> cl, Field []fields)
+    throws Exception
+  {
+    String className = "com/caucho/json/ser/gen/JsonReader"
+                       + _count.incrementAndGet();
+
+    JavaClass jClass = createClass(className, READER);
+
+    JavaMethod method
+      = jClass.createMethod("readField",
+                            "(L" + JSON_INPUT + ";Ljava/lang/Object;I)V");
+    method.setAccessFlags(Modifier.PUBLIC);
+
+    CodeWriterAttribute code = method.createCodeWriter();
+    code.setMaxLocals(5);
+    code.setMaxStack(10);
+
+    int switchOffset = -1;
+
+    if (fields.length > 0) {
+      code.pushIntVar(3);
+      switchOffset = code.tableSwitch(fields.length);
+    }
+
+    for (int i = 0; i < fields.length; i++) {
+      Field field = fields[i];
+      Class<?> type = field.getType();
+      String sig = getTypeSig(type);
+      String typeName = getTypeName(type);
+
+      code.setSwitchTarget(switchOffset, i);
+
+      code.getStatic(READER, "_unsafe", "L" + UNSAFE + ";");
+      code.pushObjectVar(2);
+      code.pushLong(GeneratedJsonSerializer.getUnsafe().objectFieldOffset(field));
+
+      if (type.isPrimitive()) {
+        code.pushObjectVar(1);
+        code.invokestatic(READER, "read" + typeName,
+                          "(L" + JSON_INPUT + ";)" + sig,
+                          1, getStackSize(type));
+      }
+      else {
+        code.pushObjectVar(0);
+        code.pushObjectVar(1);
+        code.pushObjectVar(2);
+        code.pushInt(i);
+        code.invoke(READER, "readObject",
+                    "(L" + JSON_INPUT + ";Ljava/lang/Object;I)Ljava/lang/Object;",
+                    4, 1);
+      }
+
+      code.invoke(UNSAFE, "put" + typeName, "(Ljava/lang/Object;J" + sig + ")V",
+                  4 + getStackSize(type), 0);
+      code.addReturn();
+    }
+
+    if (switchOffset >= 0)
+      code.setSwitchDefault(switchOffset);
+
+    code.pushObjectVar(1);
+    code.invoke(JSON_INPUT, "skipValue", "()V", 1, 0);
+    code.addReturn();
+    code.close();
+
+    Class<?> readerClass = loadClass(jClass, className);
+
+    return (GeneratedJsonDeserializer.FieldReader) readerClass.newInstance();
+  }
+
+  private static JavaClass createClass(String className, String superClassName)
+  {
+    JavaClassLoader jLoader
+      = new JavaClassLoader(JsonSerializerGenerator.class.getClassLoader());
+
+    JavaClass jClass = new JavaClass(jLoader);
+    jClass.setAccessFlags(Modifier.PUBLIC);
+    jClass.setWrite(true);
+
+    jClass.setMajor(49);
+    jClass.setMinor(0);
+
+    jClass.setSuperClass(superClassName);
+    jClass.setThisClass(className);
+
+    JavaMethod ctor = jClass.createMethod("<init>", "()V");
+    ctor.setAccessFlags(Modifier.PUBLIC);
+
+    CodeWriterAttribute code = ctor.createCodeWriter();
+    code.setMaxLocals(1);
+    code.setMaxStack(1);
+
+    code.pushObjectVar(0);
+    code.invokespecial(superClassName, "<init>", "()V", 1, 0);
+    code.addReturn();
+    code.close();
+
+    return jClass;
+  }
+
+  private static Class<?> loadClass(JavaClass jClass, String className)
+    throws Exception
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    WriteStream out = Vfs.openWrite(bos);
+
+    jClass.write(out);
+
+    out.close();
+
+    byte []buffer = bos.toByteArray();
+
+    ClassLoader parent = JsonSerializerGenerator.class.getClassLoader();
+
+    return new ProxyClassLoader(parent).loadClass(className.replace('/', '.'),
+                                                  buffer);
+  }
+
+  private static String getTypeName(Class<?> type)
+  {
+    String name = _typeMap.get(type);
+
+    return name != null ? name : "Object";
+  }
+
+  private static String getTypeSig(Class<?> type)
+  {
+    if (! type.isPrimitive())
+      return "Ljava/lang/Object;";
+    else if (boolean.class.equals(type))
+      return "Z";
+    else if (byte.class.equals(type))
+      return "B";
+    else if (short.class.equals(type))
+      return "S";
+    else if (char.class.equals(type))
+      return "C";
+    else if (int.class.equals(type))
+      return "I";
+    else if (long.class.equals(type))
+      return "J";
+    else if (float.class.equals(type))
+      return "F";
+    else
+      return "D";
+  }
+
+  private static int getStackSize(Class<?> type)
+  {
+    if (long.class.equals(type) || double.class.equals(type))
+      return 2;
+    else
+      return 1;
+  }
+
+  static {
+    _typeMap.put(boolean.class, "Boolean");
+    _typeMap.put(byte.class, "Byte");
+    _typeMap.put(short.class, "Short");
+    _typeMap.put(char.class, "Char");
+    _typeMap.put(int.class, "Int");
+    _typeMap.put(long.class, "Long");
+    _typeMap.put(float.class, "Float");
+    _typeMap.put(double.class, "Double");
+  }
+}
@@ -114,6 +114,17 @@ abstract class AbstractJspWriter extends BodyContent implements FlushBuffer {
     return this.autoFlush;
   }
 
+  /**
+   * Writes static template text.
+   */
+  void writeStatic(JspStaticText text)
+    throws IOException
+  {
+    char []chars = text.getChars();
+
+    write(chars, 0, chars.length);
+  }
+
   /**
    * Pops the enclosing writer.
    */
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.jsp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.servlet.jsp.JspWriter;
+
+import com.caucho.vfs.Encoding;
+import com.caucho.vfs.OutputStreamWithBuffer;
+import com.caucho.vfs.i18n.EncodingWriter;
+
+/**
+ * Static template text of a generated JSP. When the page writes directly
+ * to the response stream, the text is written as bytes encoded once for
+ * each response charset instead of being converted on every request.
+ */
+public final class JspStaticText {
+  private final char []_chars;
+
+  private volatile Encoded _encoded;
+
+  public JspStaticText(String text)
+  {
+    _chars = text.toCharArray();
+  }
+
+  /**
+   * Returns the text characters.
+   */
+  public char []getChars()
+  {
+    return _chars;
+  }
+
+  /**
+   * Returns the length of the text in characters.
+   */
+  public int length()
+  {
+    return _chars.length;
+  }
+
+  /**
+   * Writes the text to the JSP writer.
+   */
+  public void write(JspWriter out)
+    throws IOException
+  {
+    if (out instanceof AbstractJspWriter)
+      ((AbstractJspWriter) out).writeStatic(this);
+    else
+      out.write(_chars, 0, _chars.length);
+  }
+
+  /**
+   * Returns the text encoded with the Java encoding, or null if the
+   * encoding can't be applied to the text in isolation.
+   */
+  public byte []getBytes(String javaEncoding)
+  {
+    for (Encoded ptr = _encoded; ptr != null; ptr = ptr._next) {
+      if (ptr._encoding == javaEncoding || ptr._encoding.equals(javaEncoding))
+        return ptr._bytes;
+    }
+
+    if (! isStateless(javaEncoding))
+      return null;
+
+    byte []bytes = encode(javaEncoding);
+
+    synchronized (this) {
+      _encoded = new Encoded(javaEncoding, bytes, _encoded);
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Only Resin's own stateless writers are used, so the bytes match the
+   * conversion of the response stream's character buffer.
+   */
+  private static boolean isStateless(String javaEncoding)
+  {
+    return "UTF8".equals(javaEncoding) || "ISO8859_1".equals(javaEncoding);
+  }
+
+  private byte []encode(String javaEncoding)
+  {
+    EncodingWriter writer = Encoding.getWriteEncoding(javaEncoding);
+
+    if (writer == null || ! javaEncoding.equals(writer.getJavaEncoding()))
+      return null;
+
+    try {
+      ByteBuilder out = new ByteBuilder(_chars.length);
+
+      int sublen = writer.write(out, _chars, 0, _chars.length);
+
+      // an unpaired trailing surrogate is left for the next characters
+      if (sublen < _chars.length)
+        return null;
+
+      return out.toByteArray();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  static final class Encoded {
+    private final String _encoding;
+    private final byte []_bytes;
+    private final Encoded _next;
+
+    Encoded(String encoding, byte []bytes, Encoded next)
+    {
+      _encoding = encoding;
+      _bytes = bytes;
+      _next = next;
+    }
+  }
+
+  static final class ByteBuilder extends OutputStreamWithBuffer {
+    private final ByteArrayOutputStream _out;
+    private final byte []_buffer = new byte[1024];
+    private int _length;
+
+    ByteBuilder(int capacity)
+    {
+      _out = new ByteArrayOutputStream(capacity);
+    }
+
+    @Override
+    public byte []getBuffer()
+    {
+      return _buffer;
+    }
+
+    @Override
+    public int getBufferOffset()
+    {
+      return _length;
+    }
+
+    @Override
+    public void setBufferOffset(int offset)
+    {
+      _length = offset;
+    }
+
+    @Override
+    public byte []nextBuffer(int offset)
+    {
+      _out.write(_buffer, 0, offset);
+      _length = 0;
+
+      return _buffer;
+    }
+
+    @Override
+    public void write(int value)
+    {
+      if (_buffer.length <= _length)
+        nextBuffer(_length);
+
+      _buffer[_length++] = (byte) value;
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+      return false;
+    }
+
+    byte []toByteArray()
+    {
+      nextBuffer(_length);
+
+      return _out.toByteArray();
+    }
+  }
+}
@@ -105,7 +105,33 @@ public class JspWriterAdapter extends AbstractBodyContent {
 
     _out.print(buf, offset, length);
   }
-  
+
+  /**
+   * Writes static template text, using the pre-encoded bytes when the
+   * response stream allows.
+   */
+  @Override
+  void writeStatic(JspStaticText text)
+    throws IOException
+  {
+    AbstractResponseStream out = _out;
+
+    if (! _isClosed) {
+      String encoding = out.getPrintEncoding();
+
+      if (encoding != null) {
+        byte []bytes = text.getBytes(encoding);
+
+        if (bytes != null && out.printEncoded(bytes, 0, bytes.length))
+          return;
+      }
+    }
+
+    char []chars = text.getChars();
+
+    write(chars, 0, chars.length);
+  }
+
   /**
    * Writes a character to the output.
    *
@@ -34,6 +34,7 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -83,6 +84,9 @@ abstract public class Page implements Servlet, ServletConfig, CauchoPage {
   private boolean _isRecompiling = false;
   private int _useCount;
   private boolean _isDead = true;
+
+  // serializes SingleThreadModel pages across all their filter chains
+  private final ReentrantLock _singleThreadLock = new ReentrantLock();
   
   public Page()
   {
@@ -290,6 +294,14 @@ abstract public class Page implements Servlet, ServletConfig, CauchoPage {
     return _isDead || _depends.isModified();
   }
 
+  /**
+   * Returns the lock serializing requests to a SingleThreadModel page.
+   */
+  public final ReentrantLock _caucho_getSingleThreadLock()
+  {
+    return _singleThreadLock;
+  }
+
   /***
    * Returns true if the underlying source has been modified.
    */
@@ -2306,9 +2306,11 @@ public class JavaJspGenerator extends JspGenerator {
       int j = _strings.get(key);
 
       if (_ideHack)
-        out.println("private final char []_jsp_string" + j + ";");
+        out.print("private final ");
       else
-        out.println("private final static char []_jsp_string" + j + ";");
+        out.print("private final static ");
+
+      out.println("com.caucho.jsp.JspStaticText _jsp_string" + j + ";");
     }
 
     if (_ideHack) {
@@ -2334,7 +2336,8 @@ public class JavaJspGenerator extends JspGenerator {
       String text = (String) iter.next();
       int j = _strings.get(text);
 
-      out.print("_jsp_string" + j + " = \"");
+      out.print("_jsp_string" + j
+                + " = new com.caucho.jsp.JspStaticText(\"");
 
       for (int i = 0; i < text.length(); i++) {
         char ch = text.charAt(i);
@@ -2356,7 +2359,7 @@ public class JavaJspGenerator extends JspGenerator {
         }
       }
 
-      out.println("\".toCharArray();");
+      out.println("\");");
     }
     if (_config.isStaticEncoding() && enc != null) {
       out.popDepth();
@@ -151,8 +151,7 @@ public class JspJavaWriter extends JavaWriter {
     else {
       int index = _gen.addString(new String(text, offset, length));
     
-      print("out.write(_jsp_string" + index + ", 0, ");
-      println("_jsp_string" + index + ".length);");
+      println("_jsp_string" + index + ".write(out);");
     }
   }
 
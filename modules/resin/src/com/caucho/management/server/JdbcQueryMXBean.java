@@ -56,4 +56,10 @@ public interface JdbcQueryMXBean extends ManagedObjectMXBean {
   @Description("lists the columns in a table")
   public JdbcTableColumn []listColumns(String table)
     throws SQLException;
+
+  @Description("statistics for each normalized SQL statement")
+  public JdbcQueryStatistic []getQueryStatistics();
+
+  @Description("clears the SQL statement statistics")
+  public void clearQueryStatistics();
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.management.server;
+
+import java.io.Serializable;
+
+/**
+ * Wrapper bean for the statistics of a normalized SQL statement returned
+ * from a JdbcQueryMXBean. Times are in milliseconds.
+ **/
+@SuppressWarnings("serial")
+public class JdbcQueryStatistic implements Serializable {
+  private String _sql;
+
+  private long _count;
+  private long _errorCount;
+  private long _slowCount;
+  private long _rowCount;
+  private long _cacheMissCount;
+
+  private double _timeTotal;
+  private double _timeMax;
+  private double _time50;
+  private double _time90;
+  private double _time99;
+
+  public JdbcQueryStatistic()
+  {
+  }
+
+  public void setSql(String sql)
+  {
+    _sql = sql;
+  }
+
+  public String getSql()
+  {
+    return _sql;
+  }
+
+  public void setCount(long count)
+  {
+    _count = count;
+  }
+
+  public long getCount()
+  {
+    return _count;
+  }
+
+  public void setErrorCount(long count)
+  {
+    _errorCount = count;
+  }
+
+  public long getErrorCount()
+  {
+    return _errorCount;
+  }
+
+  public void setSlowCount(long count)
+  {
+    _slowCount = count;
+  }
+
+  public long getSlowCount()
+  {
+    return _slowCount;
+  }
+
+  public void setRowCount(long count)
+  {
+    _rowCount = count;
+  }
+
+  public long getRowCount()
+  {
+    return _rowCount;
+  }
+
+  public void setCacheMissCount(long count)
+  {
+    _cacheMissCount = count;
+  }
+
+  public long getCacheMissCount()
+  {
+    return _cacheMissCount;
+  }
+
+  public void setTimeTotal(double time)
+  {
+    _timeTotal = time;
+  }
+
+  public double getTimeTotal()
+  {
+    return _timeTotal;
+  }
+
+  public void setTimeMax(double time)
+  {
+    _timeMax = time;
+  }
+
+  public double getTimeMax()
+  {
+    return _timeMax;
+  }
+
+  public void setTime50(double time)
+  {
+    _time50 = time;
+  }
+
+  public double getTime50()
+  {
+    return _time50;
+  }
+
+  public void setTime90(double time)
+  {
+    _time90 = time;
+  }
+
+  public double getTime90()
+  {
+    return _time90;
+  }
+
+  public void setTime99(double time)
+  {
+    _time99 = time;
+  }
+
+  public double getTime99()
+  {
+    return _time99;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _sql + "]";
+  }
+}
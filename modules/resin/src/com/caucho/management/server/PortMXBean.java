@@ -97,6 +97,12 @@ public interface PortMXBean extends ManagedObjectMXBean {
    */
   @Description("The configured maximum number of current connections")
   public int getConnectionMax();
+
+  /**
+   * Returns the maximum number of concurrent requests for the port.
+   */
+  @Description("The configured maximum number of concurrent requests")
+  public int getRequestConcurrentMax();
   
   /**
    * Returns true if JNI is enabled
@@ -191,6 +197,12 @@ public interface PortMXBean extends ManagedObjectMXBean {
   @Description("The current number of threads that are servicing requests")
   public int getThreadActiveCount();
 
+  /**
+   * Returns the current number of requests being processed.
+   */
+  @Description("The current number of requests being processed")
+  public int getRequestActiveCount();
+
   /**
    * Returns the current number of threads that are idle and
    * waiting to service requests.
@@ -281,6 +293,30 @@ public interface PortMXBean extends ManagedObjectMXBean {
                + " been throttled by disconnectin")
   public long getThrottleDisconnectCountTotal();
 
+  /**
+   * The total number of connections rejected because the client
+   * had too many open connections.
+   */
+  @Description("The total number of connections rejected because"
+               + " the client had too many open connections")
+  public long getThrottleConcurrentRejectCountTotal();
+
+  /**
+   * The total number of connections rejected because the client
+   * exceeded its connection rate.
+   */
+  @Description("The total number of connections rejected because"
+               + " the client exceeded its connection rate")
+  public long getThrottleRateRejectCountTotal();
+
+  /**
+   * The total number of requests rejected because the port was at its
+   * maximum number of concurrent requests.
+   */
+  @Description("The total number of requests rejected because"
+               + " the port was at its maximum concurrent requests")
+  public long getRequestConcurrentRejectCountTotal();
+
   /**
    * Returns the total duration in milliseconds that requests serviced by
    * this port have taken.
@@ -68,6 +68,12 @@ public interface ThreadPoolMXBean extends ManagedObjectMXBean {
   @Description("The configured minimum number of idle threads")
   public int getThreadIdleMin();
   
+  /**
+   * Returns true if port request threads run as virtual threads.
+   */
+  @Description("True if port request threads run as virtual threads")
+  public boolean isThreadVirtualEnable();
+  
   /**
    * Returns the maximum number of idle threads.
    */
@@ -131,4 +137,16 @@ public interface ThreadPoolMXBean extends ManagedObjectMXBean {
    */
   @Description("The task queue size")
   public int getThreadTaskQueueSize();
+  
+  /**
+   * Returns the current number of active virtual threads.
+   */
+  @Description("The current number of active virtual threads")
+  public int getThreadVirtualActiveCount();
+  
+  /**
+   * Returns the total number of created virtual threads.
+   */
+  @Description("The total number of created virtual threads")
+  public long getThreadVirtualCreateCountTotal();
 }
@@ -0,0 +1,769 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.memcached;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import com.caucho.distcache.ClusterCache;
+import com.caucho.distcache.ExtCacheEntry;
+import com.caucho.util.CurrentTime;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.TempStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Memcached binary protocol handler for a connection.
+ *
+ * Consecutive get requests in a pipeline are collected and resolved with
+ * a single batched cache lookup. Responses are written in request order
+ * and flushed once per batch by the socket link.
+ */
+class MemcachedBinaryHandler
+{
+  static final int MAGIC_REQUEST = 0x80;
+  static final int MAGIC_RESPONSE = 0x81;
+  
+  private static final int HEADER_SIZE = 24;
+  
+  private static final int OP_GET = 0x00;
+  private static final int OP_SET = 0x01;
+  private static final int OP_ADD = 0x02;
+  private static final int OP_REPLACE = 0x03;
+  private static final int OP_DELETE = 0x04;
+  private static final int OP_INCREMENT = 0x05;
+  private static final int OP_DECREMENT = 0x06;
+  private static final int OP_QUIT = 0x07;
+  private static final int OP_GETQ = 0x09;
+  private static final int OP_NOOP = 0x0a;
+  private static final int OP_VERSION = 0x0b;
+  private static final int OP_GETK = 0x0c;
+  private static final int OP_GETKQ = 0x0d;
+  private static final int OP_APPEND = 0x0e;
+  private static final int OP_PREPEND = 0x0f;
+  private static final int OP_STAT = 0x10;
+  private static final int OP_SETQ = 0x11;
+  private static final int OP_ADDQ = 0x12;
+  private static final int OP_REPLACEQ = 0x13;
+  private static final int OP_DELETEQ = 0x14;
+  private static final int OP_INCREMENTQ = 0x15;
+  private static final int OP_DECREMENTQ = 0x16;
+  private static final int OP_QUITQ = 0x17;
+  private static final int OP_APPENDQ = 0x19;
+  private static final int OP_PREPENDQ = 0x1a;
+  
+  private static final int STATUS_OK = 0x0000;
+  private static final int STATUS_KEY_NOT_FOUND = 0x0001;
+  private static final int STATUS_KEY_EXISTS = 0x0002;
+  private static final int STATUS_INVALID_ARGUMENTS = 0x0004;
+  private static final int STATUS_NOT_STORED = 0x0005;
+  private static final int STATUS_UNKNOWN_COMMAND = 0x0081;
+  
+  private static final int BATCH_MAX = 256;
+  
+  private static final byte []NOT_FOUND = "Not found".getBytes();
+  private static final byte []VERSION = "1.4.0".getBytes();
+  
+  private final MemcachedConnection _conn;
+  
+  private final byte []_header = new byte[HEADER_SIZE];
+  private byte []_keyBuffer = new byte[256];
+  
+  // pending pipelined gets
+  private String []_batchKeys = new String[16];
+  private int []_batchOpcodes = new int[16];
+  private int []_batchOpaques = new int[16];
+  private int _batchSize;
+  
+  MemcachedBinaryHandler(MemcachedConnection conn)
+  {
+    _conn = conn;
+  }
+  
+  /**
+   * Handles a binary request after its magic byte.
+   *
+   * @return false if the connection should close
+   */
+  boolean handleRequest(ReadStream is)
+    throws IOException
+  {
+    byte []header = _header;
+    
+    header[0] = (byte) MAGIC_REQUEST;
+    
+    if (is.readAll(header, 1, HEADER_SIZE - 1) != HEADER_SIZE - 1) {
+      return false;
+    }
+    
+    int opcode = header[1] & 0xff;
+    int keyLength = readShort(header, 2);
+    int extrasLength = header[4] & 0xff;
+    long bodyLength = readInt(header, 8) & 0xffffffffL;
+    int opaque = readInt(header, 12);
+    long cas = readLong(header, 16);
+    
+    long valueLength = bodyLength - keyLength - extrasLength;
+    
+    if (valueLength < 0) {
+      flushGets();
+      is.skip(bodyLength);
+      writeError(opcode, STATUS_INVALID_ARGUMENTS, opaque);
+      return true;
+    }
+    
+    switch (opcode) {
+    case OP_GET:
+    case OP_GETQ:
+    case OP_GETK:
+    case OP_GETKQ:
+      is.skip(extrasLength);
+      addGet(opcode, readKey(is, keyLength), opaque);
+      is.skip(valueLength);
+      
+      if (! isNextGet(is)) {
+        flushGets();
+      }
+      return true;
+      
+    default:
+      break;
+    }
+    
+    flushGets();
+    
+    switch (opcode) {
+    case OP_SET:
+    case OP_SETQ:
+    case OP_ADD:
+    case OP_ADDQ:
+    case OP_REPLACE:
+    case OP_REPLACEQ:
+    case OP_APPEND:
+    case OP_APPENDQ:
+    case OP_PREPEND:
+    case OP_PREPENDQ:
+      return handleStore(is, opcode, keyLength, extrasLength, valueLength,
+                         opaque, cas);
+      
+    case OP_DELETE:
+    case OP_DELETEQ:
+      is.skip(extrasLength);
+      return handleDelete(opcode, readKey(is, keyLength), opaque,
+                          is, valueLength);
+      
+    case OP_INCREMENT:
+    case OP_INCREMENTQ:
+    case OP_DECREMENT:
+    case OP_DECREMENTQ:
+      return handleIncrement(is, opcode, keyLength, extrasLength, valueLength,
+                             opaque);
+      
+    case OP_NOOP:
+      is.skip(bodyLength);
+      writeResponse(opcode, STATUS_OK, opaque, 0, null, 0, 0);
+      return true;
+      
+    case OP_VERSION:
+      is.skip(bodyLength);
+      writeResponse(opcode, STATUS_OK, opaque, 0, null, 0, VERSION.length);
+      _conn.getWriteStream().write(VERSION, 0, VERSION.length);
+      return true;
+      
+    case OP_STAT:
+      is.skip(bodyLength);
+      // empty stat terminates the stat list
+      writeResponse(opcode, STATUS_OK, opaque, 0, null, 0, 0);
+      return true;
+      
+    case OP_QUIT:
+      is.skip(bodyLength);
+      writeResponse(opcode, STATUS_OK, opaque, 0, null, 0, 0);
+      return false;
+      
+    case OP_QUITQ:
+      return false;
+      
+    default:
+      is.skip(bodyLength);
+      writeError(opcode, STATUS_UNKNOWN_COMMAND, opaque);
+      return true;
+    }
+  }
+  
+  /**
+   * Writes any pending get responses.
+   */
+  void flushGets()
+    throws IOException
+  {
+    int size = _batchSize;
+    
+    if (size == 0)
+      return;
+    
+    _batchSize = 0;
+    
+    ClusterCache cache = _conn.getCache();
+    
+    String []keys = new String[size];
+    System.arraycopy(_batchKeys, 0, keys, 0, size);
+    
+    ExtCacheEntry []entries;
+    
+    if (size == 1)
+      entries = new ExtCacheEntry[] { cache.getLiveCacheEntry(keys[0]) };
+    else
+      entries = cache.getLiveCacheEntries(keys);
+    
+    long now = CurrentTime.getCurrentTime();
+    
+    for (int i = 0; i < size; i++) {
+      writeGet(cache, _batchOpcodes[i], keys[i], _batchOpaques[i],
+               entries[i], now);
+      
+      _batchKeys[i] = null;
+    }
+  }
+  
+  private void addGet(int opcode, String key, int opaque)
+  {
+    int size = _batchSize;
+    
+    if (size == _batchKeys.length) {
+      String []keys = new String[2 * size];
+      System.arraycopy(_batchKeys, 0, keys, 0, size);
+      _batchKeys = keys;
+      
+      int []opcodes = new int[2 * size];
+      System.arraycopy(_batchOpcodes, 0, opcodes, 0, size);
+      _batchOpcodes = opcodes;
+      
+      int []opaques = new int[2 * size];
+      System.arraycopy(_batchOpaques, 0, opaques, 0, size);
+      _batchOpaques = opaques;
+    }
+    
+    _batchKeys[size] = key;
+    _batchOpcodes[size] = opcode;
+    _batchOpaques[size] = opaque;
+    _batchSize = size + 1;
+  }
+  
+  /**
+   * True if a buffered get request follows, so the current batch can grow.
+   */
+  private boolean isNextGet(ReadStream is)
+    throws IOException
+  {
+    if (BATCH_MAX <= _batchSize || is.getBufferAvailable() < 2)
+      return false;
+    
+    int magic = is.read();
+    int opcode = is.read();
+    
+    is.unread();
+    is.unread();
+    
+    return (magic == MAGIC_REQUEST
+            && (opcode == OP_GET || opcode == OP_GETQ
+                || opcode == OP_GETK || opcode == OP_GETKQ));
+  }
+  
+  private void writeGet(ClusterCache cache,
+                        int opcode,
+                        String key,
+                        int opaque,
+                        ExtCacheEntry entry,
+                        long now)
+    throws IOException
+  {
+    boolean isQuiet = (opcode == OP_GETQ || opcode == OP_GETKQ);
+    boolean isKey = (opcode == OP_GETK || opcode == OP_GETKQ);
+    
+    if (entry == null
+        || entry.getValueHash() == 0
+        || entry.isExpired(now)) {
+      if (! isQuiet) {
+        writeError(opcode, STATUS_KEY_NOT_FOUND, opaque,
+                   isKey ? key : null);
+      }
+      
+      return;
+    }
+    
+    long valueLength = entry.getValueLength();
+    
+    writeResponse(opcode, STATUS_OK, opaque, entry.getValueHash(),
+                  isKey ? key : null, 4, valueLength);
+    
+    WriteStream out = _conn.getWriteStream();
+    
+    writeInt(out, entry.getUserFlags());
+    
+    if (isKey)
+      writeKey(out, key);
+    
+    entry.readData(out, cache.getConfig());
+  }
+  
+  private boolean handleStore(ReadStream is,
+                              int opcode,
+                              int keyLength,
+                              int extrasLength,
+                              long valueLength,
+                              int opaque,
+                              long cas)
+    throws IOException
+  {
+    int flags = 0;
+    long expTime = 0;
+    
+    boolean isSetExtras = (opcode == OP_SET || opcode == OP_SETQ
+                           || opcode == OP_ADD || opcode == OP_ADDQ
+                           || opcode == OP_REPLACE || opcode == OP_REPLACEQ);
+    
+    if (isSetExtras && extrasLength >= 8) {
+      byte []extras = _header;
+      
+      is.readAll(extras, 0, 8);
+      
+      flags = readInt(extras, 0);
+      expTime = readInt(extras, 4) & 0xffffffffL;
+      
+      is.skip(extrasLength - 8);
+    }
+    else {
+      is.skip(extrasLength);
+    }
+    
+    String key = readKey(is, keyLength);
+    
+    ClusterCache cache = _conn.getCache();
+    
+    long timeout = MemcachedConnection.toTimeout(expTime);
+    
+    // add only stores a new entry, so it ignores the cas like memcached
+    if (cas != 0 && opcode != OP_ADD && opcode != OP_ADDQ) {
+      return handleCompareAndStore(is, opcode, key, valueLength, opaque,
+                                   timeout, flags, cas);
+    }
+    
+    boolean isStored;
+    int failStatus;
+    boolean isQuiet;
+    
+    switch (opcode) {
+    case OP_SET:
+    case OP_SETQ:
+      isStored = SET.doCommand(_conn, key, valueLength, timeout, flags);
+      failStatus = STATUS_NOT_STORED;
+      isQuiet = opcode == OP_SETQ;
+      break;
+      
+    case OP_ADD:
+    case OP_ADDQ:
+      isStored = ADD.doCommand(_conn, key, valueLength, timeout, flags);
+      failStatus = STATUS_KEY_EXISTS;
+      isQuiet = opcode == OP_ADDQ;
+      break;
+      
+    case OP_REPLACE:
+    case OP_REPLACEQ:
+      isStored = REPLACE.doCommand(_conn, key, valueLength, timeout, flags);
+      failStatus = STATUS_KEY_NOT_FOUND;
+      isQuiet = opcode == OP_REPLACEQ;
+      break;
+      
+    case OP_APPEND:
+    case OP_APPENDQ:
+      isStored = APPEND.doCommand(_conn, key, valueLength, timeout, flags);
+      failStatus = STATUS_NOT_STORED;
+      isQuiet = opcode == OP_APPENDQ;
+      break;
+      
+    default:
+      isStored = PREPEND.doCommand(_conn, key, valueLength, timeout, flags);
+      failStatus = STATUS_NOT_STORED;
+      isQuiet = opcode == OP_PREPENDQ;
+      break;
+    }
+    
+    if (! isStored) {
+      writeError(opcode, failStatus, opaque);
+    }
+    else if (! isQuiet) {
+      ExtCacheEntry entry = cache.getExtCacheEntry(key);
+      long valueHash = entry != null ? entry.getValueHash() : 0;
+      
+      writeResponse(opcode, STATUS_OK, opaque, valueHash, null, 0, 0);
+    }
+    
+    return true;
+  }
+  
+  /**
+   * Stores the value only if the entry is unchanged since the client
+   * read it. The value hash is returned as the cas, and the cache tests
+   * the hash and updates the entry atomically.
+   */
+  private boolean handleCompareAndStore(ReadStream is,
+                                        int opcode,
+                                        String key,
+                                        long valueLength,
+                                        int opaque,
+                                        long timeout,
+                                        int flags,
+                                        long cas)
+    throws IOException
+  {
+    ClusterCache cache = _conn.getCache();
+    
+    boolean isStored;
+    boolean isQuiet;
+    
+    switch (opcode) {
+    case OP_APPEND:
+    case OP_APPENDQ:
+    case OP_PREPEND:
+    case OP_PREPENDQ:
+      isStored = compareAndConcat(is, opcode, key, valueLength, cas);
+      isQuiet = opcode == OP_APPENDQ || opcode == OP_PREPENDQ;
+      break;
+      
+    default:
+      MemcachedConnection.SetInputStream setIs = _conn.getSetInputStream();
+      setIs.init(is, valueLength);
+      
+      isStored = cache.compareAndPut(key, cas, setIs,
+                                     timeout, timeout, flags);
+      isQuiet = opcode == OP_SETQ || opcode == OP_REPLACEQ;
+      break;
+    }
+    
+    ExtCacheEntry entry = cache.getExtCacheEntry(key);
+    
+    if (! isStored) {
+      if (entry == null || entry.isValueNull())
+        writeError(opcode, STATUS_KEY_NOT_FOUND, opaque);
+      else
+        writeError(opcode, STATUS_KEY_EXISTS, opaque);
+    }
+    else if (! isQuiet) {
+      long valueHash = entry != null ? entry.getValueHash() : 0;
+      
+      writeResponse(opcode, STATUS_OK, opaque, valueHash, null, 0, 0);
+    }
+    
+    return true;
+  }
+  
+  private boolean compareAndConcat(ReadStream is,
+                                   int opcode,
+                                   String key,
+                                   long valueLength,
+                                   long cas)
+    throws IOException
+  {
+    ClusterCache cache = _conn.getCache();
+    
+    ExtCacheEntry entry = cache.getExtCacheEntry(key);
+    
+    if (entry == null || entry.isValueNull()
+        || entry.getValueHash() != cas) {
+      is.skip(valueLength);
+      
+      return false;
+    }
+    
+    boolean isAppend = (opcode == OP_APPEND || opcode == OP_APPENDQ);
+    
+    TempStream ts = new TempStream();
+    
+    WriteStream os = new WriteStream(ts);
+    os.setDisableClose(true);
+    
+    MemcachedConnection.SetInputStream setIs = _conn.getSetInputStream();
+    setIs.init(is, valueLength);
+    
+    if (isAppend) {
+      cache.get(key, os);
+      os.writeStream(setIs);
+    }
+    else {
+      os.writeStream(setIs);
+      cache.get(key, os);
+    }
+    
+    os.setDisableClose(false);
+    os.close();
+    
+    // a put between the read and the store changes the hash and fails
+    return cache.compareAndPut(key, cas, ts.openRead(),
+                               entry.getAccessedExpireTimeout(),
+                               entry.getModifiedExpireTimeout(),
+                               entry.getUserFlags());
+  }
+  
+  private boolean handleDelete(int opcode,
+                               String key,
+                               int opaque,
+                               ReadStream is,
+                               long valueLength)
+    throws IOException
+  {
+    is.skip(valueLength);
+    
+    if (! DELETE.deleteCache(_conn.getCache(), 0, key)) {
+      writeError(opcode, STATUS_KEY_NOT_FOUND, opaque);
+    }
+    else if (opcode != OP_DELETEQ) {
+      writeResponse(opcode, STATUS_OK, opaque, 0, null, 0, 0);
+    }
+    
+    return true;
+  }
+  
+  private boolean handleIncrement(ReadStream is,
+                                  int opcode,
+                                  int keyLength,
+                                  int extrasLength,
+                                  long valueLength,
+                                  int opaque)
+    throws IOException
+  {
+    if (extrasLength < 20) {
+      is.skip(extrasLength + keyLength + valueLength);
+      writeError(opcode, STATUS_INVALID_ARGUMENTS, opaque);
+      return true;
+    }
+    
+    byte []extras = _header;
+    
+    is.readAll(extras, 0, 20);
+    is.skip(extrasLength - 20);
+    
+    long delta = readLong(extras, 0);
+    long initial = readLong(extras, 8);
+    long expTime = readInt(extras, 16) & 0xffffffffL;
+    
+    String key = readKey(is, keyLength);
+    
+    is.skip(valueLength);
+    
+    if (opcode == OP_DECREMENT || opcode == OP_DECREMENTQ)
+      delta = -delta;
+    
+    ClusterCache cache = _conn.getCache();
+    
+    long value = INCREMENT.incrementCache(cache, key, delta);
+    
+    if (value == Long.MIN_VALUE) {
+      if (expTime == 0xffffffffL) {
+        writeError(opcode, STATUS_KEY_NOT_FOUND, opaque);
+        return true;
+      }
+      
+      long timeout = MemcachedConnection.toTimeout(expTime);
+      
+      byte []data = String.valueOf(initial).getBytes();
+      
+      cache.put(key, new ByteArrayInputStream(data),
+                timeout, timeout, 0);
+      
+      value = initial;
+    }
+    
+    if (opcode == OP_INCREMENTQ || opcode == OP_DECREMENTQ)
+      return true;
+    
+    writeResponse(opcode, STATUS_OK, opaque, 0, null, 0, 8);
+    
+    WriteStream out = _conn.getWriteStream();
+    
+    writeInt(out, (int) (value >> 32));
+    writeInt(out, (int) value);
+    
+    return true;
+  }
+  
+  private String readKey(ReadStream is, int keyLength)
+    throws IOException
+  {
+    if (_keyBuffer.length < keyLength)
+      _keyBuffer = new byte[keyLength];
+    
+    byte []keyBuffer = _keyBuffer;
+    
+    is.readAll(keyBuffer, 0, keyLength);
+    
+    // keys map bytes to chars to match the text protocol
+    char []chars = new char[keyLength];
+    
+    for (int i = 0; i < keyLength; i++) {
+      chars[i] = (char) (keyBuffer[i] & 0xff);
+    }
+    
+    return new String(chars);
+  }
+  
+  private void writeError(int opcode, int status, int opaque)
+    throws IOException
+  {
+    writeError(opcode, status, opaque, null);
+  }
+  
+  private void writeError(int opcode, int status, int opaque, String key)
+    throws IOException
+  {
+    byte []message = status == STATUS_KEY_NOT_FOUND ? NOT_FOUND : null;
+    int messageLength = message != null ? message.length : 0;
+    
+    writeResponse(opcode, status, opaque, 0, key, 0, messageLength);
+    
+    WriteStream out = _conn.getWriteStream();
+    
+    if (key != null)
+      writeKey(out, key);
+    
+    if (message != null)
+      out.write(message, 0, message.length);
+  }
+  
+  /**
+   * Writes the response header. The caller writes the extras, key,
+   * and value.
+   */
+  private void writeResponse(int opcode,
+                             int status,
+                             int opaque,
+                             long cas,
+                             String key,
+                             int extrasLength,
+                             long valueLength)
+    throws IOException
+  {
+    int keyLength = key != null ? key.length() : 0;
+    long bodyLength = extrasLength + keyLength + valueLength;
+    
+    byte []header = _header;
+    
+    header[0] = (byte) MAGIC_RESPONSE;
+    header[1] = (byte) opcode;
+    writeShort(header, 2, keyLength);
+    header[4] = (byte) extrasLength;
+    header[5] = 0;
+    writeShort(header, 6, status);
+    writeInt(header, 8, (int) bodyLength);
+    writeInt(header, 12, opaque);
+    writeLong(header, 16, cas);
+    
+    _conn.getWriteStream().write(header, 0, HEADER_SIZE);
+  }
+  
+  private static void writeKey(WriteStream out, String key)
+    throws IOException
+  {
+    int len = key.length();
+    
+    for (int i = 0; i < len; i++) {
+      out.write(key.charAt(i));
+    }
+  }
+  
+  private static void writeInt(WriteStream out, int value)
+    throws IOException
+  {
+    out.write(value >> 24);
+    out.write(value >> 16);
+    out.write(value >> 8);
+    out.write(value);
+  }
+  
+  private static int readShort(byte []buffer, int offset)
+  {
+    return ((buffer[offset] & 0xff) << 8) + (buffer[offset + 1] & 0xff);
+  }
+  
+  private static void writeShort(byte []buffer, int offset, int value)
+  {
+    buffer[offset] = (byte) (value >> 8);
+    buffer[offset + 1] = (byte) value;
+  }
+  
+  private static int readInt(byte []buffer, int offset)
+  {
+    return (((buffer[offset] & 0xff) << 24)
+            + ((buffer[offset + 1] & 0xff) << 16)
+            + ((buffer[offset + 2] & 0xff) << 8)
+            + ((buffer[offset + 3] & 0xff)));
+  }
+  
+  private static void writeInt(byte []buffer, int offset, int value)
+  {
+    buffer[offset] = (byte) (value >> 24);
+    buffer[offset + 1] = (byte) (value >> 16);
+    buffer[offset + 2] = (byte) (value >> 8);
+    buffer[offset + 3] = (byte) value;
+  }
+  
+  private static long readLong(byte []buffer, int offset)
+  {
+    return (((long) readInt(buffer, offset) << 32)
+            + (readInt(buffer, offset + 4) & 0xffffffffL));
+  }
+  
+  private static void writeLong(byte []buffer, int offset, long value)
+  {
+    writeInt(buffer, offset, (int) (value >> 32));
+    writeInt(buffer, offset + 4, (int) value);
+  }
+  
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _conn + "]";
+  }
+  
+  private static final MemcachedConnection.SetCommand SET
+    = new MemcachedConnection.SetCommand();
+  private static final MemcachedConnection.AddCommand ADD
+    = new MemcachedConnection.AddCommand();
+  private static final MemcachedConnection.ReplaceCommand REPLACE
+    = new MemcachedConnection.ReplaceCommand();
+  private static final MemcachedConnection.AppendCommand APPEND
+    = new MemcachedConnection.AppendCommand();
+  private static final MemcachedConnection.PrependCommand PREPEND
+    = new MemcachedConnection.PrependCommand();
+  private static final MemcachedConnection.DeleteCommand DELETE
+    = new MemcachedConnection.DeleteCommand();
+  private static final MemcachedConnection.IncrementCommand INCREMENT
+    = new MemcachedConnection.IncrementCommand();
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.memcached;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.network.balance.ClientSocket;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * A persistent connection to a memcached server shared by many threads.
+ *
+ * Requests are written and queued in order under the write lock, so
+ * several requests can be in flight at once. Memcached answers in
+ * request order, so a waiting thread takes the read lock and reads
+ * responses from the head of the queue, completing the other threads'
+ * requests along the way, until its own request is complete.
+ */
+class MemcachedChannel
+{
+  private static final Logger log
+    = Logger.getLogger(MemcachedChannel.class.getName());
+  
+  private final MemcachedServer _server;
+  
+  private final ReentrantLock _writeLock = new ReentrantLock();
+  private final ReentrantLock _readLock = new ReentrantLock();
+  
+  private final ArrayDeque<MemcachedRequest> _pending
+    = new ArrayDeque<MemcachedRequest>();
+  
+  private final Hessian2Input _hIn = new Hessian2Input();
+  
+  private ClientSocket _socket;
+  
+  MemcachedChannel(MemcachedServer server)
+  {
+    _server = server;
+  }
+  
+  MemcachedServer getServer()
+  {
+    return _server;
+  }
+  
+  /**
+   * Returns the deserializer, only used while holding the read lock.
+   */
+  Hessian2Input getHessianInput()
+  {
+    return _hIn;
+  }
+  
+  /**
+   * Writes the request and queues it for its response.
+   */
+  void send(MemcachedRequest request)
+    throws IOException
+  {
+    _writeLock.lock();
+    
+    try {
+      ClientSocket socket = _socket;
+      
+      if (socket == null) {
+        socket = _server.getSocketFactory().open();
+        
+        if (socket == null) {
+          _server.fail();
+          
+          throw new IOException(this + " cannot connect");
+        }
+        
+        _socket = socket;
+      }
+      
+      request.setChannel(this, socket.getInputStream());
+      
+      try {
+        WriteStream out = socket.getOutputStream();
+        
+        request.write(out);
+        out.flush();
+      } catch (IOException e) {
+        failAll(e);
+        
+        throw e;
+      }
+      
+      _pending.add(request);
+    } finally {
+      _writeLock.unlock();
+    }
+  }
+  
+  /**
+   * Waits for the request's response, reading responses for other
+   * requests ahead of it in the queue.
+   */
+  void await(MemcachedRequest request)
+    throws IOException
+  {
+    while (! request.isDone()) {
+      if (_readLock.tryLock()) {
+        try {
+          readUntil(request);
+        } finally {
+          _readLock.unlock();
+        }
+        
+        wakeHead();
+      }
+      else {
+        request.waitForDone(10);
+      }
+    }
+    
+    IOException exn = request.getFailure();
+    
+    if (exn != null)
+      throw exn;
+  }
+  
+  private void readUntil(MemcachedRequest request)
+  {
+    while (! request.isDone()) {
+      MemcachedRequest head;
+      
+      _writeLock.lock();
+      try {
+        head = _pending.peek();
+      } finally {
+        _writeLock.unlock();
+      }
+      
+      if (head == null)
+        return;
+      
+      try {
+        head.read(head.getReadStream());
+        
+        boolean isHead;
+        
+        _writeLock.lock();
+        try {
+          // a close during the read has already failed the head, and
+          // the queue may now hold requests for a new socket
+          isHead = _pending.peek() == head;
+          
+          if (isHead)
+            _pending.poll();
+        } finally {
+          _writeLock.unlock();
+        }
+        
+        if (! isHead)
+          continue;
+        
+        head.complete();
+        
+        _server.addLatency(System.nanoTime() - head.getStartTime());
+      } catch (IOException e) {
+        log.log(Level.FINER, e.toString(), e);
+        
+        failAll(e);
+      }
+    }
+  }
+  
+  /**
+   * Wakes the thread waiting on the oldest request so it can take over
+   * reading.
+   */
+  private void wakeHead()
+  {
+    MemcachedRequest head;
+    
+    _writeLock.lock();
+    try {
+      head = _pending.peek();
+    } finally {
+      _writeLock.unlock();
+    }
+    
+    if (head != null)
+      head.wake();
+  }
+  
+  /**
+   * Closes the connection and fails all queued requests.
+   */
+  private void failAll(IOException e)
+  {
+    ClientSocket socket;
+    MemcachedRequest []pending;
+    
+    _writeLock.lock();
+    try {
+      socket = _socket;
+      _socket = null;
+      
+      pending = new MemcachedRequest[_pending.size()];
+      _pending.toArray(pending);
+      _pending.clear();
+    } finally {
+      _writeLock.unlock();
+    }
+    
+    if (socket != null) {
+      socket.close();
+      
+      _server.fail();
+    }
+    
+    for (MemcachedRequest request : pending) {
+      request.fail(e);
+    }
+  }
+  
+  void close()
+  {
+    failAll(new IOException(this + " closed"));
+  }
+  
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _server.getId() + "]";
+  }
+}
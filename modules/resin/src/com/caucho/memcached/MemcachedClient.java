@@ -31,6 +31,8 @@ package com.caucho.memcached;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -99,6 +101,15 @@ public class MemcachedClient implements Cache
   
   private MemcachedCacheEngine _cacheEngine;
   
+  private final ArrayList<String> _addressList = new ArrayList<String>();
+  
+  private int _connectionMax = 2;
+  private long _failRecoverTime = 15 * 1000L;
+  private long _latencyFailTime = 2 * 1000L;
+  
+  private volatile MemcachedRing _ring;
+  private volatile boolean _isStopped;
+  
   public MemcachedClient()
   {
     _name = "default";
@@ -134,12 +145,13 @@ public class MemcachedClient implements Cache
   
   public void addServer(String address, int port)
   {
-    _loadBalanceBuilder.addAddress(address + ":" + port);
+    addAddress(address + ":" + port);
   }
   
   public void addAddress(String address)
   {
     _loadBalanceBuilder.addAddress(address);
+    _addressList.add(address);
   }
   
   public void setCluster(String cluster)
@@ -157,6 +169,38 @@ public class MemcachedClient implements Cache
   {
     _modifiedExpireTimeout = timeout.getPeriod();
   }
+  
+  /**
+   * Sets the number of persistent connections to each server.
+   */
+  @Configurable
+  public void setConnectionMax(int max)
+  {
+    if (max < 1)
+      throw new IllegalArgumentException(L.l("connection-max '{0}' must be positive",
+                                             max));
+    
+    _connectionMax = max;
+  }
+  
+  /**
+   * Sets the time a failed server stays off the hash ring.
+   */
+  @Configurable
+  public void setFailRecoverTime(Period period)
+  {
+    _failRecoverTime = period.getPeriod();
+  }
+  
+  /**
+   * Sets the average request latency that takes a server off the hash
+   * ring. Zero disables latency failover.
+   */
+  @Configurable
+  public void setLatencyFailTime(Period period)
+  {
+    _latencyFailTime = period.getPeriod();
+  }
 
   @Override
   public boolean containsKey(Object key) throws CacheException
@@ -193,6 +237,11 @@ public class MemcachedClient implements Cache
   Object getImpl(String key) 
     throws CacheException
   {
+    MemcachedRing ring = getRing();
+    
+    if (ring != null)
+      return getAllRing(ring, new String[] { key }).get(key);
+    
     ClientSocket client = _loadBalancer.openSticky(null, key, null);
     
     if (client == null)
@@ -436,6 +485,13 @@ public class MemcachedClient implements Cache
   
   private void putImpl(Object key, Object value) throws CacheException
   {
+    MemcachedRing ring = getRing();
+    
+    if (ring != null) {
+      putRing(ring, String.valueOf(key), value);
+      return;
+    }
+    
     ClientSocket client = null;
     long idleStartTime = CurrentTime.getCurrentTime();
     
@@ -595,6 +651,13 @@ public class MemcachedClient implements Cache
   
   void removeImpl(Object key) throws CacheException
   {
+    MemcachedRing ring = getRing();
+    
+    if (ring != null) {
+      removeRing(ring, String.valueOf(key));
+      return;
+    }
+    
     ClientSocket client = null;
     long idleStartTime = CurrentTime.getCurrentTime();
     
@@ -648,6 +711,144 @@ public class MemcachedClient implements Cache
     }
   }
 
+  /**
+   * Gets the keys from the hash ring. The keys are split by server,
+   * all servers' requests are sent before any response is read, so the
+   * servers work in parallel.
+   */
+  private HashMap<String,Object> getAllRing(MemcachedRing ring,
+                                             String []keys)
+    throws CacheException
+  {
+    HashMap<MemcachedServer,ArrayList<String>> serverKeys
+      = new HashMap<MemcachedServer,ArrayList<String>>();
+    
+    for (String key : keys) {
+      MemcachedServer server = ring.select(key);
+      
+      if (server == null)
+        throw new CacheException(L.l("{0} has no available memcached server",
+                                     this));
+      
+      ArrayList<String> list = serverKeys.get(server);
+      
+      if (list == null) {
+        list = new ArrayList<String>();
+        serverKeys.put(server, list);
+      }
+      
+      list.add(key);
+    }
+    
+    ArrayList<MemcachedRequest.GetRequest> requests
+      = new ArrayList<MemcachedRequest.GetRequest>();
+    
+    for (Map.Entry<MemcachedServer,ArrayList<String>> entry
+           : serverKeys.entrySet()) {
+      ArrayList<String> list = entry.getValue();
+      String []serverKeyArray = new String[list.size()];
+      list.toArray(serverKeyArray);
+      
+      MemcachedRequest.GetRequest request
+        = new MemcachedRequest.GetRequest(serverKeyArray);
+      
+      try {
+        entry.getKey().getChannel().send(request);
+        
+        requests.add(request);
+      } catch (IOException e) {
+        log.log(Level.FINER, e.toString(), e);
+      }
+    }
+    
+    HashMap<String,Object> values = new HashMap<String,Object>();
+    
+    for (MemcachedRequest.GetRequest request : requests) {
+      try {
+        request.getChannel().await(request);
+        
+        values.putAll(request.getValues());
+      } catch (IOException e) {
+        log.log(Level.FINER, e.toString(), e);
+      }
+    }
+    
+    return values;
+  }
+  
+  private void putRing(MemcachedRing ring, String key, Object value)
+    throws CacheException
+  {
+    MemcachedServer server = ring.select(key);
+    
+    if (server == null)
+      throw new CacheException(L.l("{0} has no available memcached server",
+                                   this));
+    
+    try {
+      TempStream ts = serialize(value);
+      
+      MemcachedRequest.SetRequest request
+        = new MemcachedRequest.SetRequest(key, ts,
+                                          _modifiedExpireTimeout / 1000L);
+      
+      MemcachedChannel channel = server.getChannel();
+      
+      try {
+        channel.send(request);
+        channel.await(request);
+      } finally {
+        ts.destroy();
+      }
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+  }
+  
+  private void removeRing(MemcachedRing ring, String key)
+    throws CacheException
+  {
+    MemcachedServer server = ring.select(key);
+    
+    if (server == null)
+      throw new CacheException(L.l("{0} has no available memcached server",
+                                   this));
+    
+    MemcachedRequest.DeleteRequest request
+      = new MemcachedRequest.DeleteRequest(key);
+    
+    MemcachedChannel channel = server.getChannel();
+    
+    try {
+      channel.send(request);
+      channel.await(request);
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+  }
+  
+  /**
+   * Returns the hash ring, or null when the client uses the load
+   * balancer because no server addresses are configured.
+   */
+  private MemcachedRing getRing()
+  {
+    if (_isStopped) {
+      // a stopped ring client must not fall back to the load balancer
+      throw new CacheException(L.l("{0} is stopped", this));
+    }
+    
+    MemcachedRing ring = _ring;
+    
+    if (ring == null && ! _addressList.isEmpty()) {
+      init();
+      
+      ring = _ring;
+    }
+    
+    return ring;
+  }
+  
   private static long getCasKey(HashKey valueKey)
   {
     if (valueKey == null)
@@ -691,9 +892,27 @@ public class MemcachedClient implements Cache
       return;
     
     synchronized (this) {
-      if (_loadBalancer == null)
+      if (_loadBalancer == null) {
+        if (! _addressList.isEmpty())
+          _ring = createRing();
+        
         _loadBalancer = _loadBalanceBuilder.create();
+      }
+    }
+  }
+  
+  private MemcachedRing createRing()
+  {
+    ArrayList<MemcachedServer> servers = new ArrayList<MemcachedServer>();
+    
+    for (String address : _addressList) {
+      servers.add(new MemcachedServer(address,
+                                      _connectionMax,
+                                      _failRecoverTime,
+                                      _latencyFailTime));
     }
+    
+    return new MemcachedRing(servers);
   }
 
   private void initResin()
@@ -1027,8 +1246,16 @@ public class MemcachedClient implements Cache
   @Override
   public void stop() throws CacheException
   {
-    // TODO Auto-generated method stub
+    _isStopped = true;
+    
+    MemcachedRing ring = _ring;
+    _ring = null;
     
+    if (ring != null) {
+      for (MemcachedServer server : ring.getServers()) {
+        server.close();
+      }
+    }
   }
   
   @Override
@@ -1106,8 +1333,29 @@ public class MemcachedClient implements Cache
   @Override
   public Map getAll(Set keys)
   {
-    // TODO Auto-generated method stub
-    return null;
+    MemcachedRing ring = getRing();
+    
+    if (ring != null) {
+      String []keyArray = new String[keys.size()];
+      int i = 0;
+      
+      for (Object key : keys) {
+        keyArray[i++] = String.valueOf(key);
+      }
+      
+      return getAllRing(ring, keyArray);
+    }
+    
+    HashMap<Object,Object> values = new HashMap<Object,Object>();
+    
+    for (Object key : keys) {
+      Object value = get(key);
+      
+      if (value != null)
+        values.put(key, value);
+    }
+    
+    return values;
   }
 
   /* (non-Javadoc)
@@ -33,6 +33,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 import com.caucho.distcache.ClusterCache;
@@ -61,6 +62,7 @@ public class MemcachedConnection extends AbstractProtocolConnection
   private SetInputStream _setInputStream = new SetInputStream();
   private GetOutputStream _getOutputStream = new GetOutputStream();
   private StringBuilder _sb = new StringBuilder();
+  private MemcachedBinaryHandler _binaryHandler;
   
   MemcachedConnection(MemcachedProtocol memcache, SocketLink link)
   {
@@ -138,6 +140,13 @@ public class MemcachedConnection extends AbstractProtocolConnection
     if (ch < 0)
       return false;
     
+    if (ch == MemcachedBinaryHandler.MAGIC_REQUEST) {
+      if (_binaryHandler == null)
+        _binaryHandler = new MemcachedBinaryHandler(this);
+      
+      return _binaryHandler.handleRequest(is);
+    }
+    
     do {
       _method.append((char) ch);
     } while ((ch = is.read()) >= 0 && ! Character.isWhitespace(ch));
@@ -201,6 +210,23 @@ public class MemcachedConnection extends AbstractProtocolConnection
         | ((valueHash[7] & 0xffL)));
   }
   
+  /**
+   * Converts a memcached expiration time to a timeout. Times up to
+   * 30 days are relative seconds, larger times are absolute unix times.
+   */
+  static long toTimeout(long expTime)
+  {
+    if (expTime <= 0) {
+      return 365 * 24 * 60 * 60 * 1000L;
+    }
+    else if (expTime <= 60 * 60 * 24 * 30) {
+      return 1000L * expTime;
+    }
+    else {
+      return expTime * 1000L - CurrentTime.getCurrentTime();
+    }
+  }
+  
   static void addCommand(String name, Command command)
   {
     CharBuffer sb = new CharBuffer();
@@ -293,17 +319,7 @@ public class MemcachedConnection extends AbstractProtocolConnection
         throw new IOException("PROTOCOL: " + ch);
       }
       
-      long timeout = 60 * 1000;
-      
-      if (expTime <= 0) {
-        timeout = 365 * 24 * 60 * 60 * 1000L;
-      }
-      else if (expTime <= 60 * 60 * 24 * 30) {
-        timeout = 1000L * expTime;
-      }
-      else {
-        timeout = expTime * 1000L - CurrentTime.getCurrentTime();
-      }
+      long timeout = toTimeout(expTime);
 
       boolean isStored = doCommand(conn, key, bytes, timeout, flags);
       
@@ -540,8 +556,27 @@ public class MemcachedConnection extends AbstractProtocolConnection
       StringBuilder cb = conn._sb;
       cb.setLength(0);
       
+      ArrayList<String> keys = new ArrayList<String>();
+      
       while (readKey(rs, cb)) {
-        getCache(out, conn.getCache(), cb.toString(), conn, 0);
+        keys.add(cb.toString());
+      }
+      
+      ClusterCache cache = conn.getCache();
+      
+      if (keys.size() == 1) {
+        getCache(out, cache, keys.get(0), conn, 0);
+      }
+      else if (keys.size() > 1) {
+        // multi-get loads the keys together instead of one round trip each
+        String []keyArray = new String[keys.size()];
+        keys.toArray(keyArray);
+        
+        ExtCacheEntry []entries = cache.getLiveCacheEntries(keyArray);
+        
+        for (int i = 0; i < keyArray.length; i++) {
+          writeEntry(out, cache, keyArray[i], entries[i], 0);
+        }
       }
 
       int ch = rs.read();
@@ -597,6 +632,16 @@ public class MemcachedConnection extends AbstractProtocolConnection
     {
       ExtCacheEntry entry = cache.getLiveCacheEntry(key);
 
+      writeEntry(out, cache, key, entry, hash);
+    }
+    
+    protected void writeEntry(WriteStream out,
+                              ClusterCache cache,
+                              String key,
+                              ExtCacheEntry entry,
+                              long hash)
+      throws IOException
+    {
       if (entry == null) {
         return;
       }
@@ -689,7 +734,6 @@ public class MemcachedConnection extends AbstractProtocolConnection
       }
 
       out.print("END\r\n");
-      out.flush();
       
       return true;
     }
@@ -758,8 +802,6 @@ public class MemcachedConnection extends AbstractProtocolConnection
         if (! isNoReply)
           out.print("NOT_FOUND\r\n");
       }
-
-      out.flush();
       
       return true;
     }
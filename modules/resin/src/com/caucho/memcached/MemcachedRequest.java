@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.memcached;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.util.CharBuffer;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.TempStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * A pipelined request on a memcached channel.
+ */
+abstract class MemcachedRequest
+{
+  private MemcachedChannel _channel;
+  private ReadStream _is;
+  
+  private long _startTime;
+  
+  private volatile boolean _isDone;
+  private IOException _failure;
+  
+  final void setChannel(MemcachedChannel channel, ReadStream is)
+  {
+    _channel = channel;
+    _is = is;
+    _startTime = System.nanoTime();
+  }
+  
+  final MemcachedChannel getChannel()
+  {
+    return _channel;
+  }
+  
+  final ReadStream getReadStream()
+  {
+    return _is;
+  }
+  
+  final long getStartTime()
+  {
+    return _startTime;
+  }
+  
+  /**
+   * Writes the request.
+   */
+  abstract void write(WriteStream out)
+    throws IOException;
+  
+  /**
+   * Reads the response.
+   */
+  abstract void read(ReadStream is)
+    throws IOException;
+  
+  final boolean isDone()
+  {
+    return _isDone;
+  }
+  
+  final IOException getFailure()
+  {
+    return _failure;
+  }
+  
+  final void complete()
+  {
+    synchronized (this) {
+      _isDone = true;
+      
+      notifyAll();
+    }
+  }
+  
+  final void fail(IOException e)
+  {
+    _failure = e;
+    
+    complete();
+  }
+  
+  final void wake()
+  {
+    synchronized (this) {
+      notifyAll();
+    }
+  }
+  
+  final void waitForDone(long timeout)
+  {
+    synchronized (this) {
+      if (! _isDone) {
+        try {
+          wait(timeout);
+        } catch (InterruptedException e) {
+        }
+      }
+    }
+  }
+  
+  static void readToken(ReadStream is, CharBuffer cb)
+    throws IOException
+  {
+    cb.clear();
+    
+    int ch;
+    
+    for (ch = is.read(); ch == ' '; ch = is.read()) {
+    }
+    
+    for (; ch >= 0 && ! Character.isWhitespace(ch); ch = is.read()) {
+      cb.append((char) ch);
+    }
+    
+    if (ch >= 0)
+      is.unread();
+  }
+  
+  static long readLong(ReadStream is)
+    throws IOException
+  {
+    int ch;
+    
+    for (ch = is.read(); ch == ' '; ch = is.read()) {
+    }
+    
+    long value = 0;
+    
+    for (; '0' <= ch && ch <= '9'; ch = is.read()) {
+      value = 10 * value + ch - '0';
+    }
+    
+    if (ch >= 0)
+      is.unread();
+    
+    return value;
+  }
+  
+  static void skipToEndOfLine(ReadStream is)
+    throws IOException
+  {
+    int ch;
+    
+    while ((ch = is.read()) >= 0 && ch != '\n') {
+    }
+    
+    if (ch < 0)
+      throw new IOException("unexpected end of file");
+  }
+  
+  static String readLine(ReadStream is)
+    throws IOException
+  {
+    String line = is.readLine();
+    
+    if (line == null)
+      throw new IOException("unexpected end of file");
+    
+    return line;
+  }
+  
+  /**
+   * Multi-key get for the keys owned by one server.
+   */
+  static class GetRequest extends MemcachedRequest {
+    private final String []_keys;
+    private final HashMap<String,Object> _values
+      = new HashMap<String,Object>();
+    
+    private final CharBuffer _cb = new CharBuffer();
+    
+    GetRequest(String []keys)
+    {
+      _keys = keys;
+    }
+    
+    HashMap<String,Object> getValues()
+    {
+      return _values;
+    }
+    
+    @Override
+    void write(WriteStream out)
+      throws IOException
+    {
+      out.print("get");
+      
+      for (String key : _keys) {
+        out.print(' ');
+        out.print(key);
+      }
+      
+      out.print("\r\n");
+    }
+    
+    @Override
+    void read(ReadStream is)
+      throws IOException
+    {
+      CharBuffer cb = _cb;
+      
+      while (true) {
+        readToken(is, cb);
+        
+        if (cb.matches("END")) {
+          skipToEndOfLine(is);
+          return;
+        }
+        
+        if (! cb.matches("VALUE"))
+          throw new IOException("unexpected memcached response '" + cb + "'");
+        
+        readToken(is, cb);
+        String key = cb.toString();
+        
+        readLong(is); // flags
+        long length = readLong(is);
+        
+        skipToEndOfLine(is);
+        
+        MemcachedClient.GetInputStream gis
+          = new MemcachedClient.GetInputStream(is, length);
+        
+        Hessian2Input hIn = getChannel().getHessianInput();
+        hIn.init(gis);
+        
+        Object value = hIn.readObject();
+        
+        while (gis.read() >= 0) {
+        }
+        
+        skipToEndOfLine(is);
+        
+        _values.put(key, value);
+      }
+    }
+  }
+  
+  /**
+   * Stores a serialized value.
+   */
+  static class SetRequest extends MemcachedRequest {
+    private final String _key;
+    private final TempStream _value;
+    private final long _expireSeconds;
+    
+    private boolean _isStored;
+    
+    SetRequest(String key, TempStream value, long expireSeconds)
+    {
+      _key = key;
+      _value = value;
+      _expireSeconds = expireSeconds;
+    }
+    
+    boolean isStored()
+    {
+      return _isStored;
+    }
+    
+    @Override
+    void write(WriteStream out)
+      throws IOException
+    {
+      out.print("set ");
+      out.print(_key);
+      out.print(" 0 ");
+      out.print(_expireSeconds);
+      out.print(' ');
+      out.print(_value.getLength());
+      out.print("\r\n");
+      
+      _value.writeToStream(out);
+      
+      out.print("\r\n");
+    }
+    
+    @Override
+    void read(ReadStream is)
+      throws IOException
+    {
+      String line = readLine(is);
+      
+      _isStored = "STORED".equals(line);
+    }
+  }
+  
+  /**
+   * Removes a key.
+   */
+  static class DeleteRequest extends MemcachedRequest {
+    private final String _key;
+    
+    private boolean _isDeleted;
+    
+    DeleteRequest(String key)
+    {
+      _key = key;
+    }
+    
+    boolean isDeleted()
+    {
+      return _isDeleted;
+    }
+    
+    @Override
+    void write(WriteStream out)
+      throws IOException
+    {
+      out.print("delete ");
+      out.print(_key);
+      out.print("\r\n");
+    }
+    
+    @Override
+    void read(ReadStream is)
+      throws IOException
+    {
+      String line = readLine(is);
+      
+      if ("DELETED".equals(line))
+        _isDeleted = true;
+      else if (! "NOT_FOUND".equals(line))
+        throw new IOException("unexpected memcached response '" + line + "'");
+    }
+  }
+}
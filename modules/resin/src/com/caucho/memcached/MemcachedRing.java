@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.memcached;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.caucho.util.CurrentTime;
+
+/**
+ * Ketama-style consistent hash ring over the memcached servers.
+ *
+ * Each server owns 160 points on the ring, derived from the md5 of its
+ * address, so adding or removing a server only moves the keys near its
+ * points. A key belongs to the first live server at or after its hash.
+ */
+class MemcachedRing
+{
+  private static final int DIGEST_PER_SERVER = 40;
+  
+  private static final MessageDigest _md5;
+  
+  private final MemcachedServer []_servers;
+  
+  private final long []_points;
+  private final MemcachedServer []_owners;
+  
+  MemcachedRing(ArrayList<MemcachedServer> servers)
+  {
+    _servers = new MemcachedServer[servers.size()];
+    servers.toArray(_servers);
+    
+    int size = 4 * DIGEST_PER_SERVER * _servers.length;
+    
+    long []points = new long[size];
+    MemcachedServer []owners = new MemcachedServer[size];
+    
+    int count = 0;
+    
+    for (MemcachedServer server : _servers) {
+      for (int i = 0; i < DIGEST_PER_SERVER; i++) {
+        byte []digest = digest(server.getId() + "-" + i);
+        
+        for (int j = 0; j < 4; j++) {
+          points[count] = (getPoint(digest, 4 * j) << 24) | count;
+          owners[count] = server;
+          count++;
+        }
+      }
+    }
+    
+    // points carry their index in the low bits so the sort keeps
+    // the owner association
+    Arrays.sort(points);
+    
+    _points = new long[size];
+    _owners = new MemcachedServer[size];
+    
+    for (int i = 0; i < size; i++) {
+      _points[i] = points[i] >>> 24;
+      _owners[i] = owners[(int) (points[i] & 0xffffff)];
+    }
+  }
+  
+  MemcachedServer []getServers()
+  {
+    return _servers;
+  }
+  
+  /**
+   * Returns the live server owning the key, or null if all are down.
+   */
+  MemcachedServer select(String key)
+  {
+    long []points = _points;
+    int size = points.length;
+    
+    if (size == 0)
+      return null;
+    
+    long hash = getPoint(digest(key), 0);
+    
+    int i = Arrays.binarySearch(points, hash);
+    
+    if (i < 0)
+      i = -(i + 1);
+    
+    long now = CurrentTime.getCurrentTime();
+    
+    for (int j = 0; j < size; j++) {
+      MemcachedServer server = _owners[(i + j) % size];
+      
+      if (server.isAvailable(now))
+        return server;
+    }
+    
+    return null;
+  }
+  
+  private static long getPoint(byte []digest, int offset)
+  {
+    return (((digest[offset + 3] & 0xffL) << 24)
+            | ((digest[offset + 2] & 0xffL) << 16)
+            | ((digest[offset + 1] & 0xffL) << 8)
+            | ((digest[offset] & 0xffL)));
+  }
+  
+  private static byte []digest(String value)
+  {
+    try {
+      MessageDigest md5 = (MessageDigest) _md5.clone();
+      
+      int len = value.length();
+      
+      for (int i = 0; i < len; i++) {
+        md5.update((byte) value.charAt(i));
+      }
+      
+      return md5.digest();
+    } catch (CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+  
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + Arrays.asList(_servers);
+  }
+  
+  static {
+    try {
+      _md5 = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
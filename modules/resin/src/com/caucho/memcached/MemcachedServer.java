@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.memcached;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.caucho.network.balance.ClientSocketFactory;
+import com.caucho.util.CurrentTime;
+
+/**
+ * A memcached server on the client's hash ring, with a fixed set of
+ * persistent multiplexed channels and latency tracking for failover.
+ */
+class MemcachedServer
+{
+  private static final Logger log
+    = Logger.getLogger(MemcachedServer.class.getName());
+  
+  private final String _id;
+  private final ClientSocketFactory _factory;
+  
+  private final MemcachedChannel []_channels;
+  private final AtomicInteger _channelIndex = new AtomicInteger();
+  
+  private final long _recoverTime;
+  // average latency limit in nanoseconds
+  private final long _latencyFailTime;
+  
+  // exponentially weighted average request time in nanoseconds
+  private volatile long _latency;
+  private volatile long _failExpireTime;
+  
+  private final AtomicLong _requestCount = new AtomicLong();
+  private final AtomicLong _failCount = new AtomicLong();
+  
+  MemcachedServer(String address,
+                  int channelCount,
+                  long recoverTime,
+                  long latencyFailTime)
+  {
+    _id = address;
+    
+    int p = address.lastIndexOf(':');
+    
+    if (p < 0)
+      throw new IllegalArgumentException(address);
+    
+    String host = address.substring(0, p);
+    int port = Integer.parseInt(address.substring(p + 1));
+    
+    _factory = new ClientSocketFactory(host, port);
+    _factory.init();
+    _factory.start();
+    
+    _channels = new MemcachedChannel[channelCount];
+    
+    for (int i = 0; i < channelCount; i++) {
+      _channels[i] = new MemcachedChannel(this);
+    }
+    
+    _recoverTime = recoverTime;
+    // the configured time is in milliseconds, the latency in nanoseconds
+    _latencyFailTime = latencyFailTime * 1000000L;
+  }
+  
+  String getId()
+  {
+    return _id;
+  }
+  
+  ClientSocketFactory getSocketFactory()
+  {
+    return _factory;
+  }
+  
+  /**
+   * Returns the next channel, round-robin.
+   */
+  MemcachedChannel getChannel()
+  {
+    int index = _channelIndex.getAndIncrement() & 0x7fffffff;
+    
+    return _channels[index % _channels.length];
+  }
+  
+  /**
+   * True if the server is not in a failure recovery period.
+   */
+  boolean isAvailable(long now)
+  {
+    return _failExpireTime <= now;
+  }
+  
+  /**
+   * Returns the average request latency in nanoseconds.
+   */
+  long getLatency()
+  {
+    return _latency;
+  }
+  
+  long getRequestCount()
+  {
+    return _requestCount.get();
+  }
+  
+  long getFailCount()
+  {
+    return _failCount.get();
+  }
+  
+  /**
+   * Records a completed request.
+   */
+  void addLatency(long nanos)
+  {
+    _requestCount.incrementAndGet();
+    
+    long latency = _latency;
+    
+    latency += (nanos - latency) >> 3;
+    
+    _latency = latency;
+    
+    if (_latencyFailTime > 0 && _latencyFailTime < latency) {
+      log.warning(this + " average latency "
+                  + (latency / 1000000L) + "ms exceeds the fail time");
+      
+      // restart the average so the server can recover
+      _latency = _latencyFailTime / 2;
+      
+      fail();
+    }
+  }
+  
+  /**
+   * Removes the server from the ring for the recover time.
+   */
+  void fail()
+  {
+    _failCount.incrementAndGet();
+    
+    _failExpireTime = CurrentTime.getCurrentTime() + _recoverTime;
+  }
+  
+  void close()
+  {
+    for (MemcachedChannel channel : _channels) {
+      channel.close();
+    }
+    
+    _factory.close();
+  }
+  
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _id + "]";
+  }
+}
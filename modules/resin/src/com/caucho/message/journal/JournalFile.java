@@ -74,7 +74,7 @@ public final class JournalFile
   
   public static final int H_LENGTH_MASK = 0x1fff;
   public static final int H_PAGE = 0xe000;
-  public static final int H_PAGE_OFF = 11;
+  public static final int H_PAGE_OFF = 13;
   
   public static final long H_FIN = (1L << 47);
   public static final long H_INIT = (1L << 46);
@@ -138,6 +138,14 @@ public final class JournalFile
     _flipAddress = 2 * BLOCK_SIZE * count + FILE_DATA_OFFSET;
   }
 
+  /**
+   * Returns the backing block store, used to read back written entries.
+   */
+  public BlockStore getBlockStore()
+  {
+    return _blockStore;
+  }
+
   /**
    * @param queueHeadAddress
    * @param tailAddress
@@ -487,6 +495,23 @@ public final class JournalFile
     }
   }
   
+  /**
+   * Writes the partial tail block and the checkpoint headers, so entries
+   * written so far survive a restart.
+   */
+  public void flush()
+    throws IOException
+  {
+    Block tailBlock = _tailBlock;
+    
+    if (tailBlock != null) {
+      tailBlock.commit();
+    }
+    
+    _headerBlockA.commit();
+    _headerBlockB.commit();
+  }
+  
   private void flip()
     throws IOException
   {
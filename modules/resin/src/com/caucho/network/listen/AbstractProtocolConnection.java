@@ -96,6 +96,16 @@ public abstract  class AbstractProtocolConnection implements ProtocolConnection
   @Override
   public abstract boolean handleRequest() throws IOException;
 
+  /**
+   * Rejects a request when the port is busy. By default, the connection
+   * is closed without a response.
+   */
+  @Override
+  public void handleBusyRequest()
+    throws IOException
+  {
+  }
+
   /**
    * Handles a resumption of the connection for an async/comet request.
    */
@@ -56,6 +56,16 @@ public class AsyncController {
   {
     return true;
   }
+
+  /**
+   * Wakes the connection when the socket has data to read.
+   *
+   * @return false if the controller can't wait for read readiness
+   */
+  public boolean requestRead()
+  {
+    return false;
+  }
   
   public boolean isCometComplete()
   {
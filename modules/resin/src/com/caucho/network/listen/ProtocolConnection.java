@@ -76,6 +76,13 @@ public interface ProtocolConnection {
    * the implementation must initialize any variables for each connection.
    */
   public boolean handleRequest() throws IOException;
+
+  /**
+   * Rejects a request because the port is at its request-concurrent-max.
+   * The connection closes after the call, so a protocol without a busy
+   * response may just return.
+   */
+  public void handleBusyRequest() throws IOException;
   
   /**
    * Returns a request URL for debugging/management.
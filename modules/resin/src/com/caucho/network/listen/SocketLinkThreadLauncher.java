@@ -33,6 +33,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import com.caucho.env.thread.AbstractThreadLauncher;
 import com.caucho.env.thread.ThreadPool;
+import com.caucho.env.thread.VirtualThreadExecutor;
 import com.caucho.inject.Module;
 import com.caucho.util.RingValueQueue;
 
@@ -196,7 +197,7 @@ class SocketLinkThreadLauncher extends AbstractThreadLauncher
       if (_resumeStartCount.compareAndSet(resumeCount, resumeCount + 1)) {
         startCount++;
 
-        _threadPool.schedule(new TcpSocketResumeThread(this));
+        startChildThread(new TcpSocketResumeThread(this));
       }
     }
   }
@@ -224,7 +225,7 @@ class SocketLinkThreadLauncher extends AbstractThreadLauncher
       if (acceptTask != null && _acceptTaskQueue.offer(acceptTask)) {
         startConn = null;
         
-        _threadPool.schedule(new TcpSocketAcceptThread(this));
+        startChildThread(new TcpSocketAcceptThread(this));
       }
     } catch (RuntimeException e) {
       throw e;
@@ -238,6 +239,21 @@ class SocketLinkThreadLauncher extends AbstractThreadLauncher
     }
   }
 
+  /**
+   * Starts a connection thread, using a virtual thread if the pool
+   * has virtual threads enabled.
+   */
+  private void startChildThread(Runnable task)
+  {
+    VirtualThreadExecutor virtualExecutor
+      = _threadPool.getVirtualThreadExecutor();
+
+    if (virtualExecutor != null)
+      virtualExecutor.execute(task);
+    else
+      _threadPool.schedule(task);
+  }
+
   @Override
   protected void startWorkerThread()
   {
@@ -117,6 +117,20 @@ class TcpAsyncController extends AsyncController {
     else
       return false;
   }
+
+  /**
+   * Wakes the connection when the socket has data to read.
+   */
+  @Override
+  public boolean requestRead()
+  {
+    TcpSocketLink conn = _conn;
+
+    if (conn != null)
+      return conn.requestAsyncRead();
+    else
+      return false;
+  }
   
   @Override
   public boolean isAsyncStarted()
@@ -60,7 +60,6 @@ import com.caucho.env.thread.ThreadPool;
 import com.caucho.lifecycle.Lifecycle;
 import com.caucho.management.server.PortMXBean;
 import com.caucho.management.server.TcpConnectionInfo;
-import com.caucho.server.cluster.ServletService;
 import com.caucho.server.util.CauchoSystem;
 import com.caucho.util.Alarm;
 import com.caucho.util.AlarmListener;
@@ -165,6 +164,8 @@ public class TcpPort
   private long _suspendTimeMax = 600 * 1000L;
   // after for 120s start checking for EOF on comet requests
   private long _suspendCloseTimeMax = 120 * 1000L;
+  private long _asyncReadPollTime = 10L;
+  private long _asyncReadPollMax = 200L;
 
   private long _requestTimeout = -1;
 
@@ -173,6 +174,7 @@ public class TcpPort
   private boolean _isTcpCork;
 
   private boolean _isEnableJni = true;
+  private boolean _isPortThreadMax;
 
   // The virtual host name
   private String _virtualHost;
@@ -205,6 +207,15 @@ public class TcpPort
   // reaper alarm for timed out comet requests
   private Alarm _suspendAlarm;
 
+  // async requests waiting for socket data (servlet ReadListener)
+  private final ConcurrentHashMap<TcpSocketLink,TcpSocketLink> _asyncReadSet
+    = new ConcurrentHashMap<TcpSocketLink,TcpSocketLink>();
+
+  // poll alarm for async reads
+  private Alarm _asyncReadAlarm;
+  // current poll interval, backing off while no waiting request has data
+  private volatile long _asyncReadPollDelay = 10L;
+
   // statistics
 
   private final AtomicLong _lifetimeRequestCount = new AtomicLong();
@@ -536,6 +547,8 @@ public class TcpPort
     }
 
     _launcher.setThreadMax(max);
+
+    _isPortThreadMax = true;
   }
 
   public int getPortThreadMax()
@@ -718,15 +731,58 @@ public class TcpPort
   }
 
   /**
-   * Configures the throttle.
+   * Configures the throttle's maximum open connections per client.
    */
   @Configurable
   public void setThrottleConcurrentMax(int max)
   {
-    Throttle throttle = createThrottle();
+    createThrottle().setClientConnectionMax(max);
+  }
+
+  /**
+   * Configures the throttle's new connections per second per client.
+   */
+  @Configurable
+  public void setThrottleClientRate(double rate)
+  {
+    createThrottle().setClientRate(rate);
+  }
 
-    if (throttle != null)
-      throttle.setMaxConcurrentRequests(max);
+  /**
+   * Configures the throttle's connection burst per client.
+   */
+  @Configurable
+  public void setThrottleClientBurst(int burst)
+  {
+    createThrottle().setClientBurst(burst);
+  }
+
+  /**
+   * Configures the number of clients tracked by the throttle.
+   */
+  @Configurable
+  public void setThrottleClientTableSize(int size)
+  {
+    createThrottle().setClientTableSize(size);
+  }
+
+  /**
+   * Configures the maximum number of requests active on the port. An
+   * HTTP request over the limit gets a 503; other protocols close the
+   * connection.
+   */
+  @Configurable
+  public void setRequestConcurrentMax(int max)
+  {
+    createThrottle().setRequestConcurrentMax(max);
+  }
+
+  public int getRequestConcurrentMax()
+  {
+    if (_throttle != null)
+      return _throttle.getRequestConcurrentMax();
+    else
+      return -1;
   }
 
   /**
@@ -735,7 +791,7 @@ public class TcpPort
   public long getThrottleConcurrentMax()
   {
     if (_throttle != null)
-      return _throttle.getMaxConcurrentRequests();
+      return _throttle.getClientConnectionMax();
     else
       return -1;
   }
@@ -760,10 +816,8 @@ public class TcpPort
     if (_throttle == null) {
       _throttle = Throttle.createPro();
 
-      if (_throttle == null
-          && ServletService.getCurrent() != null
-          && ! ServletService.getCurrent().isWatchdog())
-        throw new ConfigException(L.l("throttle configuration requires Resin Professional"));
+      if (_throttle == null)
+        _throttle = new Throttle();
     }
 
     return _throttle;
@@ -1105,6 +1159,13 @@ public class TcpPort
       _throttle = new Throttle();
 
     boolean isEnableJni = _isEnableJni && ! CauchoSystem.isWindows();
+
+    if (isEnableJni && isVirtualThreadEnable()) {
+      // blocking JNI socket calls would pin the virtual thread's carrier
+      log.fine(this + " uses JDK sockets for virtual threads");
+
+      isEnableJni = false;
+    }
     
     if (_serverSocket != null) {
       if (_address != null)
@@ -1285,11 +1346,18 @@ public class TcpPort
 
       enable();
 
+      if (isVirtualThreadEnable() && ! _isPortThreadMax) {
+        // virtual threads don't need the platform thread cap
+        _launcher.setThreadMax(_connectionMax);
+      }
+
       _launcher.start();
 
       _suspendAlarm = new Alarm(new SuspendReaper());
       _suspendAlarm.queue(_suspendReaperTimeout);
 
+      _asyncReadAlarm = new Alarm(new AsyncReadPoller());
+
       isValid = true;
     } finally {
       if (! isValid)
@@ -1414,6 +1482,26 @@ public class TcpPort
       _throttle.close(socket);
   }
 
+  /**
+   * Starts a request, returning false if the port is at its
+   * request-concurrent-max.
+   */
+  @Friend(TcpSocketLink.class)
+  boolean beginRequest()
+  {
+    return _throttle == null || _throttle.beginRequest();
+  }
+
+  /**
+   * Completes a request started by beginRequest.
+   */
+  @Friend(TcpSocketLink.class)
+  void endRequest()
+  {
+    if (_throttle != null)
+      _throttle.endRequest();
+  }
+
   /**
    * request threads in a shutdown, but not yet idle.
    */
@@ -1592,6 +1680,73 @@ public class TcpPort
     return _suspendConnectionSet.remove(conn);
   }
 
+  /**
+   * True if the port's connection threads are virtual threads.
+   */
+  public boolean isVirtualThreadEnable()
+  {
+    return ThreadPool.getThreadPool().isVirtualThreadEnable();
+  }
+
+  /**
+   * Adds an async request waiting for socket data. The poller wakes the
+   * connection when data is available.
+   */
+  @Friend(TcpSocketLink.class)
+  void asyncReadRegister(TcpSocketLink conn)
+  {
+    _asyncReadSet.put(conn, conn);
+
+    // a new waiter resets the backoff
+    long delay = _asyncReadPollTime;
+    _asyncReadPollDelay = delay;
+
+    Alarm alarm = _asyncReadAlarm;
+
+    if (alarm == null)
+      return;
+
+    long wakeTime = CurrentTime.getExactTime() + delay;
+
+    if (! alarm.isQueued() || wakeTime < alarm.getWakeTime())
+      alarm.queueAt(wakeTime);
+  }
+
+  /**
+   * Removes an async read request.
+   */
+  @Friend(TcpSocketLink.class)
+  void asyncReadDetach(TcpSocketLink conn)
+  {
+    _asyncReadSet.remove(conn);
+  }
+
+  /**
+   * Returns the number of async requests waiting for data.
+   */
+  public int getAsyncReadCount()
+  {
+    return _asyncReadSet.size();
+  }
+
+  /**
+   * Sets the poll time for async (non-blocking) reads.
+   */
+  public void setAsyncReadPollTime(Period period)
+  {
+    _asyncReadPollTime = Math.max(1, period.getPeriod());
+    _asyncReadPollDelay = _asyncReadPollTime;
+  }
+
+  /**
+   * Sets the maximum poll time for async reads. The poll backs off to
+   * this interval while none of the waiting requests has data.
+   */
+  public void setAsyncReadPollMax(Period period)
+  {
+    _asyncReadPollMax = Math.max(1, period.getPeriod());
+  }
+
   void duplexKeepaliveBegin()
   {
   }
@@ -1712,6 +1867,26 @@ public class TcpPort
     return _lifetimeThrottleDisconnectCount.get();
   }
 
+  long getLifetimeThrottleConcurrentRejectCount()
+  {
+    return _throttle != null ? _throttle.getRejectConcurrentCount() : 0;
+  }
+
+  long getLifetimeThrottleRateRejectCount()
+  {
+    return _throttle != null ? _throttle.getRejectRateCount() : 0;
+  }
+
+  long getLifetimeRequestConcurrentRejectCount()
+  {
+    return _throttle != null ? _throttle.getRejectRequestCount() : 0;
+  }
+
+  int getRequestActiveCount()
+  {
+    return _throttle != null ? _throttle.getRequestActiveCount() : 0;
+  }
+
   /**
    * Find the TcpConnection based on the thread id (for admin)
    */
@@ -1825,6 +2000,12 @@ public class TcpPort
     if (suspendAlarm != null)
       suspendAlarm.dequeue();
 
+    Alarm asyncReadAlarm = _asyncReadAlarm;
+    _asyncReadAlarm = null;
+
+    if (asyncReadAlarm != null)
+      asyncReadAlarm.dequeue();
+
     QServerSocket serverSocket = _serverSocket;
     _serverSocket = null;
 
@@ -1971,6 +2152,48 @@ public class TcpPort
       return getClass().getSimpleName() + "[" + getAddress() + ":" + getPort() + "]";
   }
 
+  /**
+   * Polls the async requests waiting for data, so a slow client uploading
+   * to a ReadListener doesn't hold a thread while it waits.
+   */
+  class AsyncReadPoller implements AlarmListener {
+    @Override
+    public void handleAlarm(Alarm alarm)
+    {
+      boolean isWake = false;
+
+      try {
+        for (TcpSocketLink conn : _asyncReadSet.keySet()) {
+          if (conn.isReadAvailable()
+              && _asyncReadSet.remove(conn) != null) {
+            isWake = true;
+
+            try {
+              conn.requestWakeComet();
+            } catch (Exception e) {
+              log.log(Level.WARNING, conn + ": " + e.getMessage(), e);
+            }
+          }
+        }
+      } catch (Throwable e) {
+        log.log(Level.WARNING, e.toString(), e);
+      } finally {
+        long delay;
+
+        if (isWake)
+          delay = _asyncReadPollTime;
+        else
+          delay = Math.min(2 * _asyncReadPollDelay, _asyncReadPollMax);
+
+        _asyncReadPollDelay = delay;
+
+        if (! isClosed() && ! _asyncReadSet.isEmpty()) {
+          alarm.queue(delay);
+        }
+      }
+    }
+  }
+
   public class SuspendReaper implements AlarmListener {
     private ArrayList<TcpSocketLink> _suspendSet
       = new ArrayList<TcpSocketLink>();
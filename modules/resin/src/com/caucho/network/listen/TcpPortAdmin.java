@@ -113,6 +113,12 @@ public class TcpPortAdmin extends AbstractManagedObject
     return _port.getPortThreadMax();
   }
 
+  @Override
+  public int getRequestConcurrentMax()
+  {
+    return _port.getRequestConcurrentMax();
+  }
+
   @Override
   public int getKeepaliveMax()
   {
@@ -185,6 +191,12 @@ public class TcpPortAdmin extends AbstractManagedObject
     return _port.getActiveThreadCount();
   }
 
+  @Override
+  public int getRequestActiveCount()
+  {
+    return _port.getRequestActiveCount();
+  }
+
   @Override
   public int getThreadIdleCount()
   {
@@ -257,6 +269,24 @@ public class TcpPortAdmin extends AbstractManagedObject
     return _port.getLifetimeThrottleDisconnectCount();
   }
 
+  @Override
+  public long getThrottleConcurrentRejectCountTotal()
+  {
+    return _port.getLifetimeThrottleConcurrentRejectCount();
+  }
+
+  @Override
+  public long getThrottleRateRejectCountTotal()
+  {
+    return _port.getLifetimeThrottleRateRejectCount();
+  }
+
+  @Override
+  public long getRequestConcurrentRejectCountTotal()
+  {
+    return _port.getLifetimeRequestConcurrentRejectCount();
+  }
+
   @Override
   public long getRequestTimeTotal()
   {
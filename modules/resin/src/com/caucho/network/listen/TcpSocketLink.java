@@ -662,6 +662,29 @@ public class TcpSocketLink extends AbstractSocketLink
     }
   }
   
+  /**
+   * Tests if the socket has data to read for an async read, without
+   * blocking. A closed socket is reported as available so the read
+   * sees the end of file.
+   */
+  @Friend(TcpPort.class)
+  boolean isReadAvailable()
+  {
+    QSocket socket = _socket;
+
+    if (socket == null) {
+      return true;
+    }
+
+    try {
+      return socket.isReadAvailable();
+    } catch (Exception e) {
+      log.log(Level.FINEST, e.toString(), e);
+
+      return true;
+    }
+  }
+  
   //
   // transition requests from external threads (thread-safe)
   
@@ -721,6 +744,21 @@ public class TcpSocketLink extends AbstractSocketLink
     }
   }
 
+  /**
+   * Wakes the suspended async request when the socket has data to read.
+   */
+  boolean requestAsyncRead()
+  {
+    TcpPort port = _port;
+
+    if (port == null || port.isClosed())
+      return false;
+
+    port.asyncReadRegister(this);
+
+    return true;
+  }
+
   /**
    * Closes the controller.
    */
@@ -1288,10 +1326,24 @@ public class TcpSocketLink extends AbstractSocketLink
       }
 
       getPort().addLifetimeRequestCount();
+
+      if (! _port.beginRequest()) {
+        if (log.isLoggable(Level.FINE))
+          log.fine(this + " closed because the port is at its request-concurrent-max");
+
+        killKeepalive("request-concurrent-max");
+
+        // HTTP answers with a 503 before the close
+        getRequest().handleBusyRequest();
+
+        return RequestState.CLOSED;
+      }
       
       try {
         result = handleRequest();
       } finally {
+        _port.endRequest();
+
         if (! result.isAsyncOrDuplex()) {
           closeAsyncIfNotAsync();
         }
@@ -1758,6 +1810,8 @@ public class TcpSocketLink extends AbstractSocketLink
       port.cometDetach(this);
       */
 
+    _port.asyncReadDetach(this);
+
     try {
       getWriteStream().close();
     } catch (Throwable e) {
@@ -1817,6 +1871,8 @@ public class TcpSocketLink extends AbstractSocketLink
     AsyncController async = _async;
     _async = null;
 
+    _port.asyncReadDetach(this);
+
     if (async != null) {
       async.onClose();
       async.close();
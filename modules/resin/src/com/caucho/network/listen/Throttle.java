@@ -29,31 +29,130 @@
 
 package com.caucho.network.listen;
 
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.*;
 
 import com.caucho.config.Configurable;
+import com.caucho.util.RandomUtil;
 import com.caucho.vfs.*;
 
 /**
- * Throttles connections
+ * Throttles connections by client address and requests by port.
+ *
+ * Each client has a token bucket for its connection rate and a count of
+ * its open connections. Clients are tracked in a fixed-size set-associative
+ * table, so a flood of new addresses replaces idle entries instead of
+ * growing memory. Within a full set, the entry holding the least state and
+ * with the fewest accepts is replaced, and the new client inherits its
+ * count, which keeps the heavy hitters in the table. A connection's entry
+ * is kept on its socket, so closing it releases the entry it was counted
+ * against even if that entry has since been replaced.
+ *
+ * All counters are atomic, so the accept and request paths do not lock.
  */
 @Configurable
 public class Throttle
 {
   private static final Logger log = Logger.getLogger(Throttle.class.getName());
+
+  private static final int SET_SIZE = 4;
+  private static final int TABLE_SIZE_DEFAULT = 4096;
+
+  private int _clientConnectionMax = -1;
+
+  private double _clientRate = -1;
+  private int _clientBurst = -1;
+
+  private int _clientTableSize = TABLE_SIZE_DEFAULT;
+
+  private int _requestConcurrentMax = -1;
+
+  private final long _hashSeed = RandomUtil.getRandomLong();
+
+  private volatile AtomicReferenceArray<ClientEntry> _clientTable;
+
+  private final AtomicInteger _requestActiveCount = new AtomicInteger();
+
+  private final AtomicLong _rejectConcurrentCount = new AtomicLong();
+  private final AtomicLong _rejectRateCount = new AtomicLong();
+  private final AtomicLong _rejectRequestCount = new AtomicLong();
   
   protected Throttle()
   {
   }
 
-  public void setMaxConcurrentRequests(int max)
+  /**
+   * Sets the maximum number of open connections from a single client.
+   */
+  public void setClientConnectionMax(int max)
+  {
+    _clientConnectionMax = max;
+  }
+
+  public int getClientConnectionMax()
+  {
+    return _clientConnectionMax;
+  }
+
+  /**
+   * Sets the sustained number of new connections per second allowed
+   * from a single client.
+   */
+  public void setClientRate(double rate)
+  {
+    _clientRate = rate;
+  }
+
+  public double getClientRate()
+  {
+    return _clientRate;
+  }
+
+  /**
+   * Sets the number of new connections a client may open at once before
+   * the rate applies. Defaults to one second at the client rate.
+   */
+  public void setClientBurst(int burst)
+  {
+    _clientBurst = burst;
+  }
+
+  public int getClientBurst()
+  {
+    if (_clientBurst > 0)
+      return _clientBurst;
+    else
+      return Math.max(1, (int) Math.ceil(_clientRate));
+  }
+
+  /**
+   * Sets the number of clients tracked by the throttle.
+   */
+  public void setClientTableSize(int size)
+  {
+    _clientTableSize = size;
+    _clientTable = null;
+  }
+
+  public int getClientTableSize()
+  {
+    return _clientTableSize;
+  }
+
+  /**
+   * Sets the maximum number of requests the port will process at once.
+   */
+  public void setRequestConcurrentMax(int max)
   {
-    throw new UnsupportedOperationException(getClass().getName());
+    _requestConcurrentMax = max;
   }
 
-  public int getMaxConcurrentRequests()
+  public int getRequestConcurrentMax()
   {
-    throw new UnsupportedOperationException(getClass().getName());
+    return _requestConcurrentMax;
   }
 
   public static Throttle createPro()
@@ -69,12 +168,304 @@ public class Throttle
     return null;
   }
 
+  /**
+   * Returns true if the client's new connection is allowed.
+   */
   public boolean accept(QSocket socket)
   {
+    socket.setThrottleEntry(null);
+
+    if (_clientConnectionMax <= 0 && _clientRate <= 0)
+      return true;
+
+    ClientEntry entry = getClient(socket);
+
+    if (entry == null)
+      return true;
+
+    if (! entry.allocateConnection(_clientConnectionMax)) {
+      _rejectConcurrentCount.incrementAndGet();
+
+      if (log.isLoggable(Level.FINER))
+        log.finer(this + " concurrent max exceeded for "
+                  + socket.getRemoteHost());
+
+      return false;
+    }
+
+    // the token is taken last, so a rejected connection doesn't spend one
+    if (_clientRate > 0 && ! entry.allocateToken(_clientRate,
+                                                  getClientBurst())) {
+      entry.freeConnection();
+
+      _rejectRateCount.incrementAndGet();
+
+      if (log.isLoggable(Level.FINER))
+        log.finer(this + " rate exceeded for " + socket.getRemoteHost());
+
+      return false;
+    }
+
+    socket.setThrottleEntry(entry);
+
     return true;
   }
 
   public void close(QSocket socket)
   {
+    ClientEntry entry = (ClientEntry) socket.getThrottleEntry();
+    socket.setThrottleEntry(null);
+
+    if (entry != null)
+      entry.freeConnection();
+  }
+
+  /**
+   * Starts a request, returning false if the port is at its concurrent
+   * request maximum.
+   */
+  public boolean beginRequest()
+  {
+    int count = _requestActiveCount.incrementAndGet();
+    int max = _requestConcurrentMax;
+
+    if (max > 0 && max < count) {
+      _requestActiveCount.decrementAndGet();
+      _rejectRequestCount.incrementAndGet();
+
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Completes a request started with beginRequest.
+   */
+  public void endRequest()
+  {
+    _requestActiveCount.decrementAndGet();
+  }
+
+  public int getRequestActiveCount()
+  {
+    return _requestActiveCount.get();
+  }
+
+  public long getRejectConcurrentCount()
+  {
+    return _rejectConcurrentCount.get();
+  }
+
+  public long getRejectRateCount()
+  {
+    return _rejectRateCount.get();
+  }
+
+  public long getRejectRequestCount()
+  {
+    return _rejectRequestCount.get();
+  }
+
+  /**
+   * Returns the client's entry, adding it if needed.
+   */
+  private ClientEntry getClient(QSocket socket)
+  {
+    InetAddress addr = socket.getRemoteAddress();
+
+    if (addr == null)
+      return null;
+
+    byte []bytes = addr.getAddress();
+
+    // an IPv6 client is identified by its /64, since a single host
+    // controls its full subnet
+    long key = 0;
+    int len = Math.min(bytes.length, 8);
+
+    for (int i = 0; i < len; i++) {
+      key = (key << 8) | (bytes[i] & 0xff);
+    }
+
+    AtomicReferenceArray<ClientEntry> table = getClientTable();
+
+    int set = hash(key) & (table.length() - 1) & ~(SET_SIZE - 1);
+
+    for (int retry = 0; retry < SET_SIZE; retry++) {
+      long now = System.nanoTime();
+      int emptyIndex = -1;
+      ClientEntry victim = null;
+      int victimIndex = -1;
+
+      for (int i = 0; i < SET_SIZE; i++) {
+        ClientEntry entry = table.get(set + i);
+
+        if (entry == null) {
+          if (emptyIndex < 0)
+            emptyIndex = set + i;
+        }
+        else if (entry._key == key) {
+          entry.hit();
+
+          return entry;
+        }
+        else if (victim == null || entry.isBetterVictim(victim, now)) {
+          victim = entry;
+          victimIndex = set + i;
+        }
+      }
+
+      if (emptyIndex >= 0) {
+        ClientEntry entry = new ClientEntry(key, 1);
+
+        if (table.compareAndSet(emptyIndex, null, entry))
+          return entry;
+      }
+      else {
+        ClientEntry entry = new ClientEntry(key, victim.getCount() + 1);
+
+        if (table.compareAndSet(victimIndex, victim, entry))
+          return entry;
+      }
+    }
+
+    return null;
+  }
+
+  private AtomicReferenceArray<ClientEntry> getClientTable()
+  {
+    AtomicReferenceArray<ClientEntry> table = _clientTable;
+
+    if (table == null) {
+      int size = SET_SIZE;
+
+      while (size < _clientTableSize && size < (1 << 24)) {
+        size *= 2;
+      }
+
+      table = new AtomicReferenceArray<ClientEntry>(size);
+
+      _clientTable = table;
+    }
+
+    return table;
+  }
+
+  private int hash(long key)
+  {
+    long h = (key ^ _hashSeed) * 0x9e3779b97f4a7c15L;
+
+    h ^= h >>> 29;
+    h *= 0xbf58476d1ce4e5b9L;
+    h ^= h >>> 32;
+
+    return (int) h;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[]";
+  }
+
+  /**
+   * A client's connection count and token bucket. The bucket is stored
+   * as its theoretical arrival time (GCRA), so a token is taken with a
+   * single compare-and-set.
+   */
+  static final class ClientEntry {
+    private final long _key;
+
+    private final AtomicInteger _connectionCount = new AtomicInteger();
+    private final AtomicLong _arrivalTime;
+    private final AtomicLong _count;
+
+    ClientEntry(long key, long count)
+    {
+      _key = key;
+      _count = new AtomicLong(count);
+      _arrivalTime = new AtomicLong(System.nanoTime());
+    }
+
+    long getCount()
+    {
+      return _count.get();
+    }
+
+    void hit()
+    {
+      _count.incrementAndGet();
+    }
+
+    boolean allocateToken(double rate, int burst)
+    {
+      long interval = (long) (1e9 / rate);
+      long limit = interval * burst;
+      
+      while (true) {
+        long now = System.nanoTime();
+        long arrival = _arrivalTime.get();
+        long base = arrival - now > 0 ? arrival : now;
+        long next = base + interval;
+
+        if (next - now > limit)
+          return false;
+
+        if (_arrivalTime.compareAndSet(arrival, next))
+          return true;
+      }
+    }
+
+    boolean allocateConnection(int max)
+    {
+      while (true) {
+        int count = _connectionCount.get();
+
+        if (max > 0 && max <= count)
+          return false;
+
+        if (_connectionCount.compareAndSet(count, count + 1))
+          return true;
+      }
+    }
+
+    void freeConnection()
+    {
+      while (true) {
+        int count = _connectionCount.get();
+
+        if (count <= 0
+            || _connectionCount.compareAndSet(count, count - 1))
+          return;
+      }
+    }
+
+    /**
+     * Returns the cost of replacing the entry. An idle entry has no open
+     * connections and a full token bucket, so replacing it loses no state.
+     * Entries with open connections are kept over those with only a
+     * partial token bucket, because their connection limit would be lost.
+     */
+    int getEvictCost(long now)
+    {
+      if (_connectionCount.get() > 0)
+        return 2;
+      else if (_arrivalTime.get() - now > 0)
+        return 1;
+      else
+        return 0;
+    }
+
+    boolean isBetterVictim(ClientEntry victim, long now)
+    {
+      int cost = getEvictCost(now);
+      int victimCost = victim.getEvictCost(now);
+
+      if (cost != victimCost)
+        return cost < victimCost;
+      else
+        return getCount() < victim.getCount();
+    }
   }
 }
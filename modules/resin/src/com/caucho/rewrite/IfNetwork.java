@@ -32,13 +32,12 @@ package com.caucho.rewrite;
 import com.caucho.config.ConfigException;
 import com.caucho.config.Configurable;
 import com.caucho.util.InetNetwork;
-import com.caucho.util.LruCache;
+import com.caucho.util.InetNetworkTrie;
 import com.caucho.util.L10N;
 
 import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
 
-import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.logging.Level;
@@ -78,18 +77,15 @@ public class IfNetwork implements RequestPredicate {
 
   private ArrayList<InetNetwork> _networkList = new ArrayList<InetNetwork>();
 
-  private int _cacheSize = 256;
+  private InetNetworkTrie _networkTrie = new InetNetworkTrie();
 
-  private LruCache<String,Boolean> _cache;
+  private int _cacheSize = 256;
 
   /**
-   * Size of the cache used to hold whether or not to allow a certain IP
-   * address, default is 256.  The first time a request is received from an ip,
-   * the allow and deny rules are checked to determine if the ip is allowed.
-   * The result of this check is cached in a an LRU cache.  Subsequent requests
-   * can do a cache lookup based on the ip instead of checking the rules.  This
-   * is especially important if there are a large number of allow and/or deny
-   * rules, and to protect against denial of service attacks.  
+   * Size of the cache formerly used to hold whether or not to allow a
+   * certain IP address. The networks are now matched by a radix trie
+   * whose lookup is cheaper than the cache, so the value is ignored and
+   * kept only for configuration compatibility.
    */ 
   @Configurable
   public void setCacheSize(int cacheSize)
@@ -118,14 +114,16 @@ public class IfNetwork implements RequestPredicate {
     if (_networkList == null)
       _networkList = new ArrayList<InetNetwork>();
 
-    _networkList.add(InetNetwork.create(network));
+    InetNetwork inetNetwork = InetNetwork.create(network);
+
+    _networkList.add(inetNetwork);
+    _networkTrie.add(inetNetwork);
   }
 
   @PostConstruct
   public void init()
     throws ConfigException
   {
-    _cache = new LruCache<String,Boolean>(_cacheSize);
   }
 
   /**
@@ -140,43 +138,13 @@ public class IfNetwork implements RequestPredicate {
 
     if (remoteAddr == null)
       return false;
-    
-    if (_cache != null) {
-      Boolean cacheValue = _cache.get(remoteAddr);
-
-      if (cacheValue != null)
-        return cacheValue;
-    }
-
-    InetAddress addr = null;
-    
-    try {
-      addr = InetAddress.getByName(remoteAddr);
-    } catch (Exception e) {
-      log.log(Level.FINE, e.toString(), e);
-      
-      return false;
-    }
 
-    boolean isMatch = false;
-    for (int i = 0; i < _networkList.size(); i++) {
-      InetNetwork net = _networkList.get(i);
-      
-      if (net.isMatch(addr)) {
-        isMatch = true;
-        break;
-      }
-    }
+    boolean isMatch = _networkTrie.isMatch(remoteAddr);
     
     if (log.isLoggable(Level.FINER)) {
-      log.finer(this + " match=" + isMatch + " " + addr);
+      log.finer(this + " match=" + isMatch + " " + remoteAddr);
     }
 
-    // update cache
-
-    if (_cache != null)
-      _cache.put(remoteAddr, isMatch);
-
     return isMatch;
   }
 
@@ -31,6 +31,7 @@ package com.caucho.rewrite;
 
 import com.caucho.config.Configurable;
 import com.caucho.util.InetNetwork;
+import com.caucho.util.InetNetworkTrie;
 
 import java.util.ArrayList;
 
@@ -40,7 +41,7 @@ import javax.servlet.http.HttpServletRequest;
 public class IfRemoteAddr implements RequestPredicate
 {
   private ArrayList<InetNetwork> _networkList = new ArrayList<InetNetwork>();
-  private InetNetwork []_networks = new InetNetwork[0];
+  private InetNetworkTrie _networkTrie = new InetNetworkTrie();
 
   public void addValue(InetNetwork value)
   {
@@ -50,8 +51,7 @@ public class IfRemoteAddr implements RequestPredicate
   public void addNetwork(InetNetwork value)
   {
     _networkList.add(value);
-    _networks = new InetNetwork[_networkList.size()];
-    _networkList.toArray(_networks);
+    _networkTrie.add(value);
   }
 
   @Override
@@ -62,11 +62,6 @@ public class IfRemoteAddr implements RequestPredicate
     if (remoteAddr == null)
       return false;
 
-    for (InetNetwork network : _networks) {
-      if (network.isMatch(remoteAddr))
-        return true;
-    }
-
-    return false;
+    return _networkTrie.isMatch(remoteAddr);
   }
 }
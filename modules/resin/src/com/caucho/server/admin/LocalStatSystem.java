@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.admin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.config.ConfigException;
+import com.caucho.config.types.Period;
+import com.caucho.env.meter.AbstractMeter;
+import com.caucho.env.meter.MeterService;
+import com.caucho.env.service.ResinSystem;
+import com.caucho.env.service.RootDirectorySystem;
+import com.caucho.management.server.StatServiceValue;
+import com.caucho.util.Alarm;
+import com.caucho.util.AlarmListener;
+import com.caucho.util.Crc64;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.L10N;
+import com.caucho.vfs.Path;
+
+/**
+ * Statistics system for the open source server. It samples the
+ * MeterService meters each period and records the values in a local
+ * time-series store, so the history survives restarts.
+ */
+public class LocalStatSystem extends StatSystem implements AlarmListener
+{
+  private static final L10N L = new L10N(LocalStatSystem.class);
+  private static final Logger log
+    = Logger.getLogger(LocalStatSystem.class.getName());
+
+  private long _samplePeriod = 60 * 1000L;
+
+  private Path _path;
+  private long _minuteRetention = 7 * TimeSeriesStore.DAY;
+  private long _hourRetention = 90 * TimeSeriesStore.DAY;
+
+  private TimeSeriesStore _store;
+  private StatServiceAdmin _admin;
+
+  private Alarm _alarm;
+
+  protected LocalStatSystem()
+  {
+  }
+
+  public static LocalStatSystem createAndAddService()
+  {
+    ResinSystem system = preCreate(StatSystem.class);
+
+    LocalStatSystem service = new LocalStatSystem();
+    system.addService(StatSystem.class, service);
+
+    return service;
+  }
+
+  @Override
+  public void setSamplePeriod(Period period)
+  {
+    _samplePeriod = period.getPeriod();
+  }
+
+  @Override
+  public long getSamplePeriod()
+  {
+    return _samplePeriod;
+  }
+
+  /**
+   * Sets the store's directory, defaulting to resin-data/stat.
+   */
+  public void setPath(Path path)
+  {
+    _path = path;
+  }
+
+  /**
+   * Sets how long the per-sample history is kept.
+   */
+  public void setMinuteRetention(Period period)
+  {
+    _minuteRetention = period.getPeriod();
+  }
+
+  /**
+   * Sets how long the hourly rollups are kept.
+   */
+  public void setHourRetention(Period period)
+  {
+    _hourRetention = period.getPeriod();
+  }
+
+  @Override
+  public void init()
+  {
+  }
+
+  @Override
+  public void start()
+    throws Exception
+  {
+    super.start();
+
+    if (_path == null)
+      _path = RootDirectorySystem.getCurrentDataDirectory().lookup("stat");
+
+    _store = new TimeSeriesStore(_path);
+    _store.setMinuteRetention(_minuteRetention);
+    _store.setHourRetention(_hourRetention);
+
+    try {
+      _store.init();
+    } catch (IOException e) {
+      throw ConfigException.create(e);
+    }
+
+    _admin = new StatServiceAdmin(this);
+
+    _alarm = new Alarm(this);
+    _alarm.queue(getNextDelay());
+  }
+
+  @Override
+  public void addMeter(AbstractMeter meter)
+  {
+    MeterService.create().createMeter(meter);
+  }
+
+  @Override
+  public void addJmxMeter(String name, String objectName, String attribute)
+  {
+    MeterService.createJmx(name, objectName, attribute);
+  }
+
+  @Override
+  public void addJmx(JmxItem item)
+  {
+    addJmxMeter(item.getName(), item.getObjectName(), item.getAttribute());
+  }
+
+  @Override
+  public void addJmxDeltaMeter(String name, String objectName, String attribute)
+  {
+    MeterService.createJmxDelta(name, objectName, attribute);
+  }
+
+  @Override
+  public void addJmxDelta(JmxItem item)
+  {
+    addJmxDeltaMeter(item.getName(), item.getObjectName(), item.getAttribute());
+  }
+
+  @Override
+  public void addSample(Sample sample)
+  {
+    addMeter(sample.getMeter());
+  }
+
+  @Override
+  public void addSample(long now, long id, double data)
+  {
+    addSample(now, new long[] { id }, new double[] { data });
+  }
+
+  @Override
+  public void addSample(long now, long []sampleIds, double []sampleData)
+  {
+    TimeSeriesStore store = _store;
+
+    if (store != null)
+      store.addSample(now, sampleIds, null, sampleData);
+  }
+
+  @Override
+  public StatServiceValue []getStatisticsData(String name,
+                                              long beginTime,
+                                              long endTime,
+                                              long step)
+  {
+    return getStatisticsData(Crc64.generate(name), beginTime, endTime, step);
+  }
+
+  @Override
+  public StatServiceValue []getStatisticsData(long id,
+                                              long beginTime,
+                                              long endTime,
+                                              long step)
+  {
+    TimeSeriesStore store = _store;
+
+    if (store == null)
+      return new StatServiceValue[0];
+
+    return store.getValues(id, beginTime, endTime, step);
+  }
+
+  @Override
+  public double getLastValue(String name)
+  {
+    return getLastValue(Crc64.generate(name));
+  }
+
+  @Override
+  public double getLastValue(long id)
+  {
+    TimeSeriesStore store = _store;
+
+    return store != null ? store.getLastValue(id) : 0;
+  }
+
+  @Override
+  public String []getStatisticsNames()
+  {
+    TimeSeriesStore store = _store;
+
+    return store != null ? store.getNames() : new String[0];
+  }
+
+  /**
+   * Samples the meters.
+   */
+  @Override
+  public void handleAlarm(Alarm alarm)
+  {
+    try {
+      if (! isActive())
+        return;
+
+      long now = CurrentTime.getCurrentTime();
+      now = now - now % _samplePeriod;
+
+      ArrayList<AbstractMeter> meters = MeterService.getMeters();
+
+      for (AbstractMeter meter : meters) {
+        meter.sample();
+      }
+
+      long []ids = new long[meters.size()];
+      String []names = new String[meters.size()];
+      double []values = new double[meters.size()];
+
+      for (int i = 0; i < ids.length; i++) {
+        AbstractMeter meter = meters.get(i);
+
+        names[i] = meter.getName();
+        ids[i] = Crc64.generate(names[i]);
+        values[i] = meter.calculate();
+      }
+
+      _store.addSample(now, ids, names, values);
+    } catch (Exception e) {
+      log.log(Level.WARNING, e.toString(), e);
+    } finally {
+      if (isActive())
+        alarm.queue(getNextDelay());
+    }
+  }
+
+  private long getNextDelay()
+  {
+    long now = CurrentTime.getCurrentTime();
+
+    return _samplePeriod - now % _samplePeriod;
+  }
+
+  @Override
+  public void stop()
+    throws Exception
+  {
+    super.stop();
+
+    Alarm alarm = _alarm;
+    _alarm = null;
+
+    if (alarm != null)
+      alarm.dequeue();
+
+    TimeSeriesStore store = _store;
+
+    if (store != null)
+      store.close();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _path + "]";
+  }
+}
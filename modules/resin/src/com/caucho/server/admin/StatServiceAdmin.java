@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.admin;
+
+import com.caucho.management.server.AbstractManagedObject;
+import com.caucho.management.server.BaselineQueryResult;
+import com.caucho.management.server.DownTime;
+import com.caucho.management.server.MeterGraphInfo;
+import com.caucho.management.server.MeterGraphPageInfo;
+import com.caucho.management.server.StatServiceMXBean;
+import com.caucho.management.server.StatServiceValue;
+
+/**
+ * Administration for the local statistics history.
+ */
+class StatServiceAdmin extends AbstractManagedObject
+  implements StatServiceMXBean
+{
+  private final LocalStatSystem _statSystem;
+
+  StatServiceAdmin(LocalStatSystem statSystem)
+  {
+    _statSystem = statSystem;
+
+    registerSelf();
+  }
+
+  @Override
+  public String getName()
+  {
+    return null;
+  }
+
+  @Override
+  public long getSamplePeriod()
+  {
+    return _statSystem.getSamplePeriod();
+  }
+
+  @Override
+  public StatServiceValue []statisticsData(String name,
+                                           long beginTime,
+                                           long endTime,
+                                           long stepTime)
+  {
+    return _statSystem.getStatisticsData(name, beginTime, endTime, stepTime);
+  }
+
+  @Override
+  public double getLastValue(String name)
+  {
+    return _statSystem.getLastValue(name);
+  }
+
+  @Override
+  public BaselineQueryResult getBaseline(String name,
+                                         long beginTime,
+                                         long endTime,
+                                         int minSampleSize)
+  {
+    return null;
+  }
+
+  @Override
+  public String []statisticsNames()
+  {
+    return _statSystem.getStatisticsNames();
+  }
+
+  @Override
+  public long []getStartTimes(int serverIndex, long beginTime, long endTime)
+  {
+    return new long[0];
+  }
+
+  @Override
+  public MeterGraphInfo []getMeterGraphs()
+  {
+    return new MeterGraphInfo[0];
+  }
+
+  @Override
+  public MeterGraphPageInfo []getMeterGraphPages()
+  {
+    return new MeterGraphPageInfo[0];
+  }
+
+  @Override
+  public MeterGraphPageInfo getMeterGraphPage(String name)
+  {
+    return null;
+  }
+
+  @Override
+  public DownTime []getDownTimes(int index, long beginTime, long endTime)
+  {
+    return new DownTime[0];
+  }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.admin;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import com.caucho.management.server.StatServiceValue;
+import com.caucho.server.admin.TimeSeriesCodec.BitReader;
+import com.caucho.server.admin.TimeSeriesCodec.BitWriter;
+
+/**
+ * A columnar block of statistics samples covering a fixed time window.
+ * The sample times are shared by all series in the block. Each point
+ * holds a count, sum, min and max, so minute samples and hourly rollups
+ * use the same format.
+ */
+class TimeSeriesBlock {
+  private static final int MAGIC = 0x52545342; // "RTSB"
+
+  private final long _startTime;
+  private final long _period;
+
+  private long []_times = new long[16];
+  private int _size;
+
+  private final LinkedHashMap<Long,Series> _seriesMap
+    = new LinkedHashMap<Long,Series>();
+
+  TimeSeriesBlock(long startTime, long period)
+  {
+    _startTime = startTime;
+    _period = period;
+  }
+
+  long getStartTime()
+  {
+    return _startTime;
+  }
+
+  long getEndTime()
+  {
+    return _startTime + _period;
+  }
+
+  boolean isEmpty()
+  {
+    return _size == 0;
+  }
+
+  /**
+   * Adds a single sample value.
+   */
+  void add(long time, long id, double value)
+  {
+    if (! Double.isNaN(value))
+      add(time, id, 1, value, value, value);
+  }
+
+  /**
+   * Adds an aggregated point.
+   */
+  void add(long time, long id, int count, double sum, double min, double max)
+  {
+    int index = addTime(time);
+
+    Series series = _seriesMap.get(id);
+
+    if (series == null) {
+      series = new Series(id, index);
+      _seriesMap.put(id, series);
+    }
+
+    series.set(index, count, sum, min, max);
+  }
+
+  private int addTime(long time)
+  {
+    if (_size > 0 && _times[_size - 1] == time)
+      return _size - 1;
+
+    if (_size > 0 && time < _times[_size - 1])
+      throw new IllegalStateException(time + " is before the block's last time");
+
+    if (_times.length <= _size)
+      _times = Arrays.copyOf(_times, 2 * _times.length);
+
+    _times[_size] = time;
+
+    return _size++;
+  }
+
+  /**
+   * Adds the block's points in [beginTime, endTime) for a series.
+   */
+  void getValues(long id,
+                 long beginTime,
+                 long endTime,
+                 ArrayList<StatServiceValue> values)
+  {
+    Series series = _seriesMap.get(id);
+
+    if (series == null)
+      return;
+
+    for (int i = 0; i < series._size; i++) {
+      long time = _times[series._offset + i];
+
+      if (time < beginTime || endTime <= time || series._count[i] == 0)
+        continue;
+
+      values.add(new StatServiceValue(time,
+                                      series._count[i],
+                                      series._sum[i],
+                                      series._min[i],
+                                      series._max[i]));
+    }
+  }
+
+  /**
+   * Aggregates each series of the block into a single point of the
+   * target block.
+   */
+  void rollup(TimeSeriesBlock target, long time)
+  {
+    for (Series series : _seriesMap.values()) {
+      int count = 0;
+      double sum = 0;
+      double min = Double.MAX_VALUE;
+      double max = -Double.MAX_VALUE;
+
+      for (int i = 0; i < series._size; i++) {
+        if (series._count[i] == 0)
+          continue;
+
+        count += series._count[i];
+        sum += series._sum[i];
+        min = Math.min(min, series._min[i]);
+        max = Math.max(max, series._max[i]);
+      }
+
+      if (count > 0)
+        target.add(time, series._id, count, sum, min, max);
+    }
+  }
+
+  /**
+   * Copies the block's points to the target.
+   */
+  void copyTo(TimeSeriesBlock target)
+  {
+    for (int i = 0; i < _size; i++) {
+      for (Series series : _seriesMap.values()) {
+        int j = i - series._offset;
+
+        if (j < 0 || series._size <= j || series._count[j] == 0)
+          continue;
+
+        target.add(_times[i], series._id, series._count[j],
+                   series._sum[j], series._min[j], series._max[j]);
+      }
+    }
+  }
+
+  /**
+   * Writes the block.
+   */
+  void write(DataOutputStream out)
+    throws IOException
+  {
+    out.writeInt(MAGIC);
+    out.writeLong(_startTime);
+    out.writeLong(_period);
+    out.writeInt(_size);
+
+    BitWriter timeWriter = new BitWriter();
+    TimeSeriesCodec.writeTimes(timeWriter, _times, _size);
+    writeBits(out, timeWriter);
+
+    out.writeInt(_seriesMap.size());
+
+    for (Series series : _seriesMap.values()) {
+      boolean isRaw = series.isRaw();
+
+      out.writeLong(series._id);
+      out.writeInt(series._offset);
+      out.writeInt(series._size);
+      out.writeBoolean(isRaw);
+
+      BitWriter writer = new BitWriter();
+
+      if (isRaw) {
+        TimeSeriesCodec.writeValues(writer, series._sum, series._size);
+      }
+      else {
+        double []count = new double[series._size];
+
+        for (int i = 0; i < count.length; i++) {
+          count[i] = series._count[i];
+        }
+
+        TimeSeriesCodec.writeValues(writer, count, series._size);
+        TimeSeriesCodec.writeValues(writer, series._sum, series._size);
+        TimeSeriesCodec.writeValues(writer, series._min, series._size);
+        TimeSeriesCodec.writeValues(writer, series._max, series._size);
+      }
+
+      writeBits(out, writer);
+    }
+  }
+
+  private static void writeBits(DataOutputStream out, BitWriter writer)
+    throws IOException
+  {
+    out.writeInt(writer.getByteLength());
+    out.write(writer.getBuffer(), 0, writer.getByteLength());
+  }
+
+  /**
+   * Reads a block written by write().
+   */
+  static TimeSeriesBlock read(DataInputStream in)
+    throws IOException
+  {
+    if (in.readInt() != MAGIC)
+      throw new IOException("invalid time-series block");
+
+    long startTime = in.readLong();
+    long period = in.readLong();
+
+    TimeSeriesBlock block = new TimeSeriesBlock(startTime, period);
+
+    int size = in.readInt();
+
+    block._times = TimeSeriesCodec.readTimes(readBits(in), size);
+    block._size = size;
+
+    if (block._times.length == 0)
+      block._times = new long[16];
+
+    int seriesCount = in.readInt();
+
+    for (int i = 0; i < seriesCount; i++) {
+      long id = in.readLong();
+      int offset = in.readInt();
+      int seriesSize = in.readInt();
+      boolean isRaw = in.readBoolean();
+
+      BitReader reader = readBits(in);
+
+      Series series = new Series(id, offset);
+      series._size = seriesSize;
+
+      if (isRaw) {
+        double []values = TimeSeriesCodec.readValues(reader, seriesSize);
+
+        series._count = new int[seriesSize];
+        series._sum = values;
+        series._min = values;
+        series._max = values;
+
+        for (int j = 0; j < seriesSize; j++) {
+          series._count[j] = Double.isNaN(values[j]) ? 0 : 1;
+        }
+      }
+      else {
+        double []count = TimeSeriesCodec.readValues(reader, seriesSize);
+
+        series._count = new int[seriesSize];
+
+        for (int j = 0; j < seriesSize; j++) {
+          series._count[j] = (int) count[j];
+        }
+
+        series._sum = TimeSeriesCodec.readValues(reader, seriesSize);
+        series._min = TimeSeriesCodec.readValues(reader, seriesSize);
+        series._max = TimeSeriesCodec.readValues(reader, seriesSize);
+      }
+
+      block._seriesMap.put(id, series);
+    }
+
+    return block;
+  }
+
+  private static BitReader readBits(DataInputStream in)
+    throws IOException
+  {
+    int length = in.readInt();
+
+    byte []buffer = new byte[length];
+    in.readFully(buffer);
+
+    return new BitReader(buffer, 0, length);
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[" + _startTime + ",size=" + _size + "]");
+  }
+
+  /**
+   * A series column, aligned with the block's times from its offset.
+   */
+  static class Series {
+    private final long _id;
+    private final int _offset;
+
+    private int _size;
+
+    private int []_count = new int[4];
+    private double []_sum = new double[4];
+    private double []_min = new double[4];
+    private double []_max = new double[4];
+
+    Series(long id, int offset)
+    {
+      _id = id;
+      _offset = offset;
+    }
+
+    void set(int index, int count, double sum, double min, double max)
+    {
+      int i = index - _offset;
+
+      if (_count.length <= i) {
+        int length = Math.max(2 * _count.length, i + 1);
+
+        _count = Arrays.copyOf(_count, length);
+        _sum = Arrays.copyOf(_sum, length);
+        _min = Arrays.copyOf(_min, length);
+        _max = Arrays.copyOf(_max, length);
+      }
+
+      // missing samples are empty points
+      for (; _size < i; _size++) {
+        _count[_size] = 0;
+        _sum[_size] = Double.NaN;
+        _min[_size] = Double.NaN;
+        _max[_size] = Double.NaN;
+      }
+
+      _count[i] = count;
+      _sum[i] = sum;
+      _min[i] = min;
+      _max[i] = max;
+
+      if (_size <= i)
+        _size = i + 1;
+    }
+
+    /**
+     * True if every point is a single sample, so only the value column
+     * needs to be stored.
+     */
+    boolean isRaw()
+    {
+      for (int i = 0; i < _size; i++) {
+        if (_count[i] == 0) {
+          if (! Double.isNaN(_sum[i]))
+            return false;
+        }
+        else if (_count[i] != 1
+                 || Double.isNaN(_sum[i])
+                 || _sum[i] != _min[i]
+                 || _sum[i] != _max[i]) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
+}
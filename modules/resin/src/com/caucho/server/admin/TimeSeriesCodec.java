@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.admin;
+
+/**
+ * Bit-level compression for the statistics time-series blocks, following
+ * the Gorilla scheme. Times are stored as a delta of deltas, and values
+ * as the XOR of the previous value, so regular sample times and slowly
+ * changing values take one or two bits per point.
+ */
+class TimeSeriesCodec {
+  private TimeSeriesCodec()
+  {
+  }
+
+  /**
+   * Encodes a column of times.
+   */
+  static void writeTimes(BitWriter out, long []times, int length)
+  {
+    long prevTime = 0;
+    long prevDelta = 0;
+
+    for (int i = 0; i < length; i++) {
+      long time = times[i];
+
+      if (i == 0) {
+        out.write(time, 64);
+        prevTime = time;
+        continue;
+      }
+
+      long delta = time - prevTime;
+      long dod = delta - prevDelta;
+
+      if (dod == 0) {
+        out.write(0, 1);
+      }
+      else if (-64 <= dod && dod < 64) {
+        out.write(0x2, 2);
+        out.write(dod, 7);
+      }
+      else if (-256 <= dod && dod < 256) {
+        out.write(0x6, 3);
+        out.write(dod, 9);
+      }
+      else if (-2048 <= dod && dod < 2048) {
+        out.write(0xe, 4);
+        out.write(dod, 12);
+      }
+      else {
+        out.write(0xf, 4);
+        out.write(dod, 64);
+      }
+
+      prevTime = time;
+      prevDelta = delta;
+    }
+  }
+
+  /**
+   * Decodes a column of times.
+   */
+  static long []readTimes(BitReader in, int length)
+  {
+    long []times = new long[length];
+
+    long prevTime = 0;
+    long prevDelta = 0;
+
+    for (int i = 0; i < length; i++) {
+      if (i == 0) {
+        prevTime = in.read(64);
+        times[i] = prevTime;
+        continue;
+      }
+
+      long dod;
+
+      if (in.read(1) == 0)
+        dod = 0;
+      else if (in.read(1) == 0)
+        dod = in.readSigned(7);
+      else if (in.read(1) == 0)
+        dod = in.readSigned(9);
+      else if (in.read(1) == 0)
+        dod = in.readSigned(12);
+      else
+        dod = in.read(64);
+
+      prevDelta = prevDelta + dod;
+      prevTime = prevTime + prevDelta;
+
+      times[i] = prevTime;
+    }
+
+    return times;
+  }
+
+  /**
+   * Encodes a column of values.
+   */
+  static void writeValues(BitWriter out, double []values, int length)
+  {
+    long prev = 0;
+    int prevLeading = -1;
+    int prevTrailing = 0;
+
+    for (int i = 0; i < length; i++) {
+      long bits = Double.doubleToRawLongBits(values[i]);
+
+      if (i == 0) {
+        out.write(bits, 64);
+        prev = bits;
+        continue;
+      }
+
+      long xor = bits ^ prev;
+      prev = bits;
+
+      if (xor == 0) {
+        out.write(0, 1);
+        continue;
+      }
+
+      int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+      int trailing = Long.numberOfTrailingZeros(xor);
+
+      if (0 <= prevLeading
+          && prevLeading <= leading && prevTrailing <= trailing) {
+        // fits in the previous meaningful-bit window
+        out.write(0x2, 2);
+        out.write(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+      }
+      else {
+        int bitLength = 64 - leading - trailing;
+
+        out.write(0x3, 2);
+        out.write(leading, 5);
+        out.write(bitLength - 1, 6);
+        out.write(xor >>> trailing, bitLength);
+
+        prevLeading = leading;
+        prevTrailing = trailing;
+      }
+    }
+  }
+
+  /**
+   * Decodes a column of values.
+   */
+  static double []readValues(BitReader in, int length)
+  {
+    double []values = new double[length];
+
+    long prev = 0;
+    int prevLeading = 0;
+    int prevTrailing = 0;
+
+    for (int i = 0; i < length; i++) {
+      if (i == 0) {
+        prev = in.read(64);
+      }
+      else if (in.read(1) == 0) {
+      }
+      else if (in.read(1) == 0) {
+        int bitLength = 64 - prevLeading - prevTrailing;
+
+        prev ^= in.read(bitLength) << prevTrailing;
+      }
+      else {
+        prevLeading = (int) in.read(5);
+        int bitLength = (int) in.read(6) + 1;
+        prevTrailing = 64 - prevLeading - bitLength;
+
+        prev ^= in.read(bitLength) << prevTrailing;
+      }
+
+      values[i] = Double.longBitsToDouble(prev);
+    }
+
+    return values;
+  }
+
+  static class BitWriter {
+    private byte []_buffer = new byte[256];
+    private int _bitLength;
+
+    /**
+     * Writes the low length bits of the value, most significant first.
+     */
+    void write(long value, int length)
+    {
+      for (int i = length - 1; i >= 0; i--) {
+        int offset = _bitLength >> 3;
+
+        if (_buffer.length <= offset) {
+          byte []buffer = new byte[2 * _buffer.length];
+          System.arraycopy(_buffer, 0, buffer, 0, _buffer.length);
+          _buffer = buffer;
+        }
+
+        if (((value >>> i) & 1) != 0)
+          _buffer[offset] |= 0x80 >> (_bitLength & 7);
+
+        _bitLength++;
+      }
+    }
+
+    int getByteLength()
+    {
+      return (_bitLength + 7) >> 3;
+    }
+
+    byte []getBuffer()
+    {
+      return _buffer;
+    }
+  }
+
+  static class BitReader {
+    private final byte []_buffer;
+    private final int _end;
+    private int _bitOffset;
+
+    BitReader(byte []buffer, int offset, int length)
+    {
+      _buffer = buffer;
+      _bitOffset = 8 * offset;
+      _end = 8 * (offset + length);
+    }
+
+    /**
+     * Reads length bits as an unsigned value.
+     */
+    long read(int length)
+    {
+      if (_end < _bitOffset + length)
+        throw new IllegalStateException("unexpected end of time-series block");
+
+      long value = 0;
+
+      for (int i = 0; i < length; i++) {
+        int bit = (_buffer[_bitOffset >> 3] >> (7 - (_bitOffset & 7))) & 1;
+
+        value = (value << 1) | bit;
+        _bitOffset++;
+      }
+
+      return value;
+    }
+
+    /**
+     * Reads length bits as a two's complement value.
+     */
+    long readSigned(int length)
+    {
+      long value = read(length);
+
+      return (value << (64 - length)) >> (64 - length);
+    }
+  }
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.admin;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.management.server.StatServiceValue;
+import com.caucho.util.Crc64;
+import com.caucho.util.L10N;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * On-disk history of the statistics samples. Samples are kept in hourly
+ * blocks of minute data, and each finished block is rolled up into a
+ * daily block of hourly points. Each block is a file in the store's
+ * directory, and files older than the retention time are removed.
+ */
+class TimeSeriesStore {
+  private static final L10N L = new L10N(TimeSeriesStore.class);
+  private static final Logger log
+    = Logger.getLogger(TimeSeriesStore.class.getName());
+
+  static final long HOUR = 3600 * 1000L;
+  static final long DAY = 24 * HOUR;
+
+  private static final String MINUTE_PREFIX = "m-";
+  private static final String HOUR_PREFIX = "h-";
+  private static final String NAMES = "names";
+
+  private final Path _dir;
+
+  private long _minuteRetention = 7 * DAY;
+  private long _hourRetention = 90 * DAY;
+
+  private final ConcurrentHashMap<Long,String> _nameMap
+    = new ConcurrentHashMap<Long,String>();
+
+  private final ConcurrentHashMap<Long,Double> _lastValueMap
+    = new ConcurrentHashMap<Long,Double>();
+
+  private TimeSeriesBlock _minuteBlock;
+  private TimeSeriesBlock _hourBlock;
+
+  TimeSeriesStore(Path dir)
+  {
+    _dir = dir;
+  }
+
+  /**
+   * Sets how long the minute samples are kept.
+   */
+  void setMinuteRetention(long retention)
+  {
+    _minuteRetention = retention;
+  }
+
+  /**
+   * Sets how long the hourly rollups are kept.
+   */
+  void setHourRetention(long retention)
+  {
+    _hourRetention = retention;
+  }
+
+  /**
+   * Opens the store, loading the series names.
+   */
+  void init()
+    throws IOException
+  {
+    _dir.mkdirs();
+
+    Path namesPath = _dir.lookup(NAMES);
+
+    if (! namesPath.canRead())
+      return;
+
+    ReadStream is = namesPath.openRead();
+
+    try {
+      String name;
+
+      while ((name = is.readLine()) != null) {
+        if (name.length() > 0)
+          _nameMap.put(Crc64.generate(name), name);
+      }
+    } finally {
+      is.close();
+    }
+  }
+
+  /**
+   * Returns the names of the stored series.
+   */
+  String []getNames()
+  {
+    ArrayList<String> names = new ArrayList<String>(_nameMap.values());
+
+    Collections.sort(names);
+
+    String []nameArray = new String[names.size()];
+
+    return names.toArray(nameArray);
+  }
+
+  /**
+   * Returns the most recent value of a series.
+   */
+  double getLastValue(long id)
+  {
+    Double value = _lastValueMap.get(id);
+
+    return value != null ? value : 0;
+  }
+
+  /**
+   * Adds the values sampled at the same time.
+   */
+  synchronized void addSample(long now,
+                              long []ids,
+                              String []names,
+                              double []values)
+  {
+    for (int i = 0; i < ids.length; i++) {
+      if (names != null && names[i] != null)
+        addName(ids[i], names[i]);
+    }
+
+    long blockStart = now - now % HOUR;
+
+    if (_minuteBlock == null) {
+      long lastStart = findLastStartTime(MINUTE_PREFIX, blockStart);
+
+      if (lastStart >= 0) {
+        // roll up the block left by the previous run
+        _minuteBlock = loadBlock(MINUTE_PREFIX, lastStart, HOUR);
+        finishMinuteBlock();
+      }
+
+      _minuteBlock = loadBlock(MINUTE_PREFIX, blockStart, HOUR);
+    }
+    else if (_minuteBlock.getStartTime() != blockStart) {
+      finishMinuteBlock();
+
+      _minuteBlock = new TimeSeriesBlock(blockStart, HOUR);
+    }
+
+    for (int i = 0; i < ids.length; i++) {
+      _minuteBlock.add(now, ids[i], values[i]);
+      _lastValueMap.put(ids[i], values[i]);
+    }
+
+    // the open block is rewritten on each sample, so a restart loses
+    // at most one sample
+    writeBlock(MINUTE_PREFIX, _minuteBlock);
+  }
+
+  private void addName(long id, String name)
+  {
+    if (_nameMap.putIfAbsent(id, name) != null)
+      return;
+
+    try {
+      WriteStream out = _dir.lookup(NAMES).openAppend();
+
+      try {
+        out.println(name);
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      log.log(Level.WARNING, e.toString(), e);
+    }
+  }
+
+  /**
+   * Rolls the finished minute block up into the hour block.
+   */
+  private void finishMinuteBlock()
+  {
+    long startTime = _minuteBlock.getStartTime();
+    long dayStart = startTime - startTime % DAY;
+
+    if (_hourBlock == null)
+      _hourBlock = loadBlock(HOUR_PREFIX, dayStart, DAY);
+    else if (_hourBlock.getStartTime() != dayStart)
+      _hourBlock = new TimeSeriesBlock(dayStart, DAY);
+
+    _minuteBlock.rollup(_hourBlock, startTime);
+
+    writeBlock(HOUR_PREFIX, _hourBlock);
+
+    removeExpired(startTime);
+  }
+
+  /**
+   * Returns the values of a series in [beginTime, endTime), merged
+   * into steps.
+   */
+  StatServiceValue []getValues(long id,
+                               long beginTime,
+                               long endTime,
+                               long step)
+  {
+    long now = beginTime;
+
+    synchronized (this) {
+      if (_minuteBlock != null)
+        now = _minuteBlock.getEndTime();
+    }
+
+    boolean isHour = (HOUR <= step || beginTime < now - _minuteRetention);
+
+    String prefix = isHour ? HOUR_PREFIX : MINUTE_PREFIX;
+
+    ArrayList<StatServiceValue> values = new ArrayList<StatServiceValue>();
+
+    for (TimeSeriesBlock block : findBlocks(prefix, beginTime, endTime)) {
+      block.getValues(id, beginTime, endTime, values);
+    }
+
+    if (isHour) {
+      // the current hour isn't rolled up yet
+      synchronized (this) {
+        if (_minuteBlock != null
+            && beginTime < _minuteBlock.getEndTime()
+            && _minuteBlock.getStartTime() < endTime) {
+          TimeSeriesBlock block
+            = new TimeSeriesBlock(_minuteBlock.getStartTime(), HOUR);
+
+          _minuteBlock.rollup(block, _minuteBlock.getStartTime());
+          block.getValues(id, beginTime, endTime, values);
+        }
+      }
+    }
+
+    return mergeSteps(values, beginTime, step);
+  }
+
+  private ArrayList<TimeSeriesBlock> findBlocks(String prefix,
+                                                long beginTime,
+                                                long endTime)
+  {
+    ArrayList<Long> startTimes = new ArrayList<Long>();
+
+    try {
+      for (String name : _dir.list()) {
+        long startTime = parseStartTime(prefix, name);
+
+        if (startTime < 0 || endTime <= startTime)
+          continue;
+
+        startTimes.add(startTime);
+      }
+    } catch (IOException e) {
+      log.log(Level.WARNING, e.toString(), e);
+    }
+
+    Collections.sort(startTimes);
+
+    ArrayList<TimeSeriesBlock> blocks = new ArrayList<TimeSeriesBlock>();
+
+    for (long startTime : startTimes) {
+      TimeSeriesBlock block = getOpenBlock(prefix, startTime);
+
+      if (block == null)
+        block = readBlock(_dir.lookup(prefix + startTime));
+
+      if (block != null && beginTime < block.getEndTime())
+        blocks.add(block);
+    }
+
+    return blocks;
+  }
+
+  private synchronized TimeSeriesBlock getOpenBlock(String prefix,
+                                                    long startTime)
+  {
+    TimeSeriesBlock block;
+
+    if (prefix.equals(MINUTE_PREFIX))
+      block = _minuteBlock;
+    else
+      block = _hourBlock;
+
+    if (block != null && block.getStartTime() == startTime) {
+      // copy, because the open block continues to change
+      return copy(block);
+    }
+    else
+      return null;
+  }
+
+  private static StatServiceValue []mergeSteps(ArrayList<StatServiceValue> values,
+                                               long beginTime,
+                                               long step)
+  {
+    ArrayList<StatServiceValue> result = new ArrayList<StatServiceValue>();
+
+    StatServiceValue current = null;
+    long currentStep = -1;
+
+    for (StatServiceValue value : values) {
+      long valueStep = step > 0 ? (value.getTime() - beginTime) / step : -1;
+
+      if (current != null && (valueStep < 0 || valueStep != currentStep)) {
+        result.add(current);
+        current = null;
+      }
+
+      if (current == null) {
+        current = value;
+        currentStep = valueStep;
+
+        if (valueStep >= 0) {
+          current = new StatServiceValue(beginTime + valueStep * step,
+                                         value.getCount(),
+                                         value.getSum(),
+                                         value.getMin(),
+                                         value.getMax());
+        }
+      }
+      else {
+        current = new StatServiceValue(current.getTime(),
+                                       current.getCount() + value.getCount(),
+                                       current.getSum() + value.getSum(),
+                                       Math.min(current.getMin(), value.getMin()),
+                                       Math.max(current.getMax(), value.getMax()));
+      }
+    }
+
+    if (current != null)
+      result.add(current);
+
+    StatServiceValue []valueArray = new StatServiceValue[result.size()];
+
+    return result.toArray(valueArray);
+  }
+
+  private void removeExpired(long now)
+  {
+    try {
+      for (String name : _dir.list()) {
+        long startTime;
+        long retention;
+
+        if ((startTime = parseStartTime(MINUTE_PREFIX, name)) >= 0)
+          retention = _minuteRetention + HOUR;
+        else if ((startTime = parseStartTime(HOUR_PREFIX, name)) >= 0)
+          retention = _hourRetention + DAY;
+        else
+          continue;
+
+        if (startTime + retention < now)
+          _dir.lookup(name).remove();
+      }
+    } catch (IOException e) {
+      log.log(Level.WARNING, e.toString(), e);
+    }
+  }
+
+  private long findLastStartTime(String prefix, long beforeTime)
+  {
+    long lastStart = -1;
+
+    try {
+      for (String name : _dir.list()) {
+        long startTime = parseStartTime(prefix, name);
+
+        if (lastStart < startTime && startTime < beforeTime)
+          lastStart = startTime;
+      }
+    } catch (IOException e) {
+      log.log(Level.WARNING, e.toString(), e);
+    }
+
+    return lastStart;
+  }
+
+  private static long parseStartTime(String prefix, String name)
+  {
+    if (! name.startsWith(prefix))
+      return -1;
+
+    try {
+      return Long.parseLong(name.substring(prefix.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private TimeSeriesBlock loadBlock(String prefix, long startTime, long period)
+  {
+    Path path = _dir.lookup(prefix + startTime);
+
+    TimeSeriesBlock block = null;
+
+    if (path.canRead())
+      block = readBlock(path);
+
+    if (block == null)
+      block = new TimeSeriesBlock(startTime, period);
+
+    return block;
+  }
+
+  private TimeSeriesBlock readBlock(Path path)
+  {
+    try {
+      ReadStream is = path.openRead();
+
+      try {
+        return TimeSeriesBlock.read(new DataInputStream(is));
+      } finally {
+        is.close();
+      }
+    } catch (IOException e) {
+      log.warning(L.l("{0}: cannot read statistics block {1}\n  {2}",
+                      this, path.getNativePath(), e.toString()));
+
+      log.log(Level.FINER, e.toString(), e);
+
+      return null;
+    }
+  }
+
+  private void writeBlock(String prefix, TimeSeriesBlock block)
+  {
+    Path path = _dir.lookup(prefix + block.getStartTime());
+    Path tempPath = _dir.lookup(prefix + block.getStartTime() + ".tmp");
+
+    try {
+      WriteStream os = tempPath.openWrite();
+
+      try {
+        DataOutputStream out = new DataOutputStream(os);
+
+        block.write(out);
+
+        out.flush();
+      } finally {
+        os.close();
+      }
+
+      path.remove();
+      tempPath.renameTo(path);
+    } catch (IOException e) {
+      log.log(Level.WARNING, e.toString(), e);
+    }
+  }
+
+  private static TimeSeriesBlock copy(TimeSeriesBlock block)
+  {
+    TimeSeriesBlock copy
+      = new TimeSeriesBlock(block.getStartTime(),
+                            block.getEndTime() - block.getStartTime());
+
+    block.copyTo(copy);
+
+    return copy;
+  }
+
+  /**
+   * Writes the open blocks.
+   */
+  synchronized void close()
+  {
+    if (_minuteBlock != null && ! _minuteBlock.isEmpty())
+      writeBlock(MINUTE_PREFIX, _minuteBlock);
+
+    if (_hourBlock != null && ! _hourBlock.isEmpty())
+      writeBlock(HOUR_PREFIX, _hourBlock);
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _dir + "]";
+  }
+}
@@ -94,6 +94,15 @@ public class ServerConfig
   {
     _config.setThreadExecutorTaskMax(max);
   }
+
+  /**
+   * Runs port request threads as virtual threads when the JVM supports it.
+   */
+  @Configurable
+  public void setThreadVirtualEnable(boolean isEnable)
+  {
+    _config.setThreadVirtualEnable(isEnable);
+  }
   
   @Configurable
   public void setSendfileEnable(boolean isEnable)
@@ -49,6 +49,7 @@ import com.caucho.loader.EnvironmentClassLoader;
 import com.caucho.network.listen.TcpPort;
 import com.caucho.rewrite.DispatchRule;
 import com.caucho.server.admin.Management;
+import com.caucho.server.dispatch.ConcurrencyLimiter;
 import com.caucho.server.distcache.PersistentStoreConfig;
 import com.caucho.server.e_app.EarConfig;
 import com.caucho.server.host.HostConfig;
@@ -91,6 +92,7 @@ public class ServletContainerConfig implements EnvironmentBean, SchemaBean
   private int _threadIdleMin = -1;
   private int _threadIdleMax = -1;
   private long _threadIdleTimeout = -1;
+  private boolean _isThreadVirtualEnable;
   
   private CloudServer _selfServer;
   private ServletService _servletContainer;
@@ -410,6 +412,15 @@ public class ServletContainerConfig implements EnvironmentBean, SchemaBean
     _threadIdleTimeout = timeout.getPeriod();
   }
 
+  /**
+   * Runs port request threads as virtual threads when the JVM supports it.
+   */
+  @Configurable
+  public void setThreadVirtualEnable(boolean isEnable)
+  {
+    _isThreadVirtualEnable = isEnable;
+  }
+
   //
   // Configuration from <cluster>
   //
@@ -479,6 +490,15 @@ public class ServletContainerConfig implements EnvironmentBean, SchemaBean
     _servletContainer.setHeaderCountMax(max);
   }
 
+  /**
+   * Sets the adaptive concurrency-limit
+   */
+  @Configurable
+  public void setConcurrencyLimit(ConcurrencyLimiter limiter)
+  {
+    _servletContainer.setConcurrencyLimit(limiter);
+  }
+
   /**
    * Sets the url-length-max
    */
@@ -728,6 +748,9 @@ public class ServletContainerConfig implements EnvironmentBean, SchemaBean
       threadPool.setIdleTimeout(_threadIdleTimeout);
 
     threadPool.setExecutorTaskMax(_threadExecutorTaskMax);
+
+    if (_isThreadVirtualEnable)
+      threadPool.setVirtualThreadEnable(true);
     
     /*
     if (_keepaliveSelectEnable) {
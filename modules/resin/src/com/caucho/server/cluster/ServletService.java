@@ -72,6 +72,7 @@ import com.caucho.management.server.ServerMXBean;
 import com.caucho.rewrite.DispatchRule;
 import com.caucho.security.AdminAuthenticator;
 import com.caucho.security.PermissionManager;
+import com.caucho.server.dispatch.ConcurrencyLimiter;
 import com.caucho.server.dispatch.ErrorFilterChain;
 import com.caucho.server.dispatch.ExceptionFilterChain;
 import com.caucho.server.dispatch.Invocation;
@@ -150,6 +151,8 @@ public class ServletService
   private int _headerSizeMax = TempBuffer.isSmallmem() ? 4 * 1024 : 16 * 1024;
   private int _headerCountMax = TempBuffer.isSmallmem() ? 32 : 256;
 
+  private ConcurrencyLimiter _concurrencyLimiter;
+
   private long _waitForActiveTime = 10000L;
 
   private boolean _isDevelopmentModeErrorPage;
@@ -733,6 +736,22 @@ public class ServletService
     return _headerCountMax;
   }
 
+  /**
+   * Sets the adaptive concurrency limit for request dispatch.
+   */
+  public void setConcurrencyLimit(ConcurrencyLimiter limiter)
+  {
+    _concurrencyLimiter = limiter;
+  }
+
+  /**
+   * Returns the concurrency limiter, or null if requests are unlimited.
+   */
+  public ConcurrencyLimiter getConcurrencyLimiter()
+  {
+    return _concurrencyLimiter;
+  }
+
   /**
    * Adds a WebAppDefault.
    */
@@ -0,0 +1,534 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.dispatch;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+
+import com.caucho.config.ConfigException;
+import com.caucho.config.Configurable;
+import com.caucho.config.types.Period;
+import com.caucho.env.meter.AbstractMeter;
+import com.caucho.env.meter.CountMeter;
+import com.caucho.env.meter.MeterService;
+import com.caucho.util.L10N;
+
+/**
+ * Adaptive limit on the number of requests dispatched at once. Requests
+ * over the limit are rejected immediately instead of queueing for a
+ * thread, so a slow backend raises latency for its own requests rather
+ * than for everyone.
+ *
+ * The limit follows a latency gradient. Each window, at least window-size
+ * requests and window-period long, compares the long-term average request
+ * time to the window's average. When requests
+ * slow down the limit shrinks in proportion, and while latency holds
+ * steady it grows by a queue allowance of sqrt(limit).
+ *
+ * <pre>
+ * &lt;concurrency-limit initial-limit="64" max-limit="512"&gt;
+ *   &lt;priority url-prefix="/batch" share="0.5"/&gt;
+ * &lt;/concurrency-limit&gt;
+ * </pre>
+ *
+ * A priority class may use only its share of the current limit, so
+ * low-priority requests are shed first as the limit tightens.
+ *
+ * Async requests count against the limit only while they're
+ * dispatched, and their times are excluded from the gradient, because
+ * the dispatch returns before the response completes.
+ */
+@Configurable
+public class ConcurrencyLimiter {
+  private static final L10N L = new L10N(ConcurrencyLimiter.class);
+  private static final Logger log
+    = Logger.getLogger(ConcurrencyLimiter.class.getName());
+
+  private static final String METER_PREFIX = "Resin|Http|Concurrency ";
+
+  // weight of a window in the long-term latency average
+  private static final double LONG_WINDOW = 60;
+
+  private int _initialLimit = 64;
+  private int _minLimit = 8;
+  private int _maxLimit = 1024;
+  private double _smoothing = 0.2;
+  private int _windowSize = 100;
+  private long _windowPeriod = 100L;
+  private long _retryAfter = 1000L;
+
+  private final ArrayList<Priority> _priorityList
+    = new ArrayList<Priority>();
+  private Priority []_priorities = new Priority[0];
+
+  private volatile int _limit;
+
+  // guarded by _isUpdate
+  private double _estimate;
+  private double _longTime;
+
+  private final AtomicInteger _activeCount = new AtomicInteger();
+  private final AtomicInteger _windowActiveMax = new AtomicInteger();
+  private final AtomicLong _windowTime = new AtomicLong();
+  private final AtomicInteger _windowCount = new AtomicInteger();
+  private final AtomicBoolean _isUpdate = new AtomicBoolean();
+  private volatile long _windowStartTime = System.nanoTime();
+
+  private final AtomicLong _shedCount = new AtomicLong();
+
+  private CountMeter _shedMeter;
+
+  /**
+   * Sets the limit before any latency has been measured.
+   */
+  @Configurable
+  public void setInitialLimit(int limit)
+  {
+    _initialLimit = limit;
+  }
+
+  /**
+   * Sets the smallest limit the estimate may reach.
+   */
+  @Configurable
+  public void setMinLimit(int limit)
+  {
+    _minLimit = limit;
+  }
+
+  /**
+   * Sets the largest limit the estimate may reach.
+   */
+  @Configurable
+  public void setMaxLimit(int limit)
+  {
+    _maxLimit = limit;
+  }
+
+  /**
+   * Sets the fraction of each new estimate applied to the limit.
+   */
+  @Configurable
+  public void setSmoothing(double smoothing)
+  {
+    _smoothing = smoothing;
+  }
+
+  /**
+   * Sets the minimum number of completed requests between limit updates.
+   */
+  @Configurable
+  public void setWindowSize(int size)
+  {
+    _windowSize = size;
+  }
+
+  /**
+   * Sets the minimum time between limit updates.
+   */
+  @Configurable
+  public void setWindowPeriod(Period period)
+  {
+    _windowPeriod = period.getPeriod();
+  }
+
+  /**
+   * Sets the Retry-After time sent with a rejected request.
+   */
+  @Configurable
+  public void setRetryAfter(Period period)
+  {
+    _retryAfter = period.getPeriod();
+  }
+
+  public long getRetryAfter()
+  {
+    return _retryAfter;
+  }
+
+  /**
+   * Adds a priority class.
+   */
+  @Configurable
+  public void addPriority(Priority priority)
+  {
+    _priorityList.add(priority);
+  }
+
+  @PostConstruct
+  public void init()
+  {
+    if (_minLimit < 1)
+      throw new ConfigException(L.l("min-limit '{0}' must be at least 1",
+                                    (long) _minLimit));
+
+    if (_maxLimit < _minLimit)
+      throw new ConfigException(L.l("max-limit '{0}' must not be less than min-limit '{1}'",
+                                    (long) _maxLimit, (long) _minLimit));
+
+    if (_smoothing <= 0 || 1 < _smoothing)
+      throw new ConfigException(L.l("smoothing '{0}' must be greater than 0 and at most 1",
+                                    _smoothing));
+
+    _estimate = Math.max(_minLimit, Math.min(_maxLimit, _initialLimit));
+    _limit = (int) _estimate;
+
+    _priorities = new Priority[_priorityList.size()];
+    _priorityList.toArray(_priorities);
+
+    MeterService meterService = MeterService.create();
+
+    // the meters outlive a reconfigure, so they follow the new limiter
+    AbstractMeter limitMeter = new LimitMeter(METER_PREFIX + "Limit");
+    limitMeter = meterService.createMeter(limitMeter);
+    ((LimitMeter) limitMeter).setLimiter(this);
+
+    AbstractMeter activeMeter = new ActiveCountMeter(METER_PREFIX + "Active");
+    activeMeter = meterService.createMeter(activeMeter);
+    ((ActiveCountMeter) activeMeter).setLimiter(this);
+
+    _shedMeter = MeterService.createCountMeter(METER_PREFIX + "Shed");
+  }
+
+  /**
+   * Returns the current limit.
+   */
+  public int getLimit()
+  {
+    return _limit;
+  }
+
+  /**
+   * Returns the number of requests in progress.
+   */
+  public int getActiveCount()
+  {
+    return _activeCount.get();
+  }
+
+  /**
+   * Returns the number of rejected requests.
+   */
+  public long getShedCount()
+  {
+    return _shedCount.get();
+  }
+
+  /**
+   * Starts a request, returning false if it must be rejected.
+   */
+  public boolean acquire(Invocation invocation)
+  {
+    int limit = _limit;
+    double share = getShare(invocation);
+
+    if (share < 1)
+      limit = Math.max(1, (int) (limit * share));
+
+    int active;
+
+    do {
+      active = _activeCount.get();
+
+      if (limit <= active) {
+        _shedCount.incrementAndGet();
+
+        if (_shedMeter != null)
+          _shedMeter.start();
+
+        return false;
+      }
+    } while (! _activeCount.compareAndSet(active, active + 1));
+
+    active++;
+
+    int activeMax;
+
+    while ((activeMax = _windowActiveMax.get()) < active) {
+      _windowActiveMax.compareAndSet(activeMax, active);
+    }
+
+    return true;
+  }
+
+  /**
+   * Completes an async request started by acquire, without using its
+   * time for the limit.
+   */
+  public void release()
+  {
+    _activeCount.decrementAndGet();
+  }
+
+  /**
+   * Completes a request started by acquire.
+   *
+   * @param time the request's duration
+   */
+  public void release(long time)
+  {
+    _activeCount.decrementAndGet();
+
+    _windowTime.addAndGet(time);
+
+    if (_windowCount.incrementAndGet() < _windowSize)
+      return;
+
+    long now = System.nanoTime();
+
+    if (now - _windowStartTime < 1000000L * _windowPeriod)
+      return;
+
+    if (_isUpdate.compareAndSet(false, true)) {
+      try {
+        _windowStartTime = now;
+
+        updateLimit();
+      } finally {
+        _isUpdate.set(false);
+      }
+    }
+  }
+
+  private double getShare(Invocation invocation)
+  {
+    Priority []priorities = _priorities;
+
+    if (priorities.length == 0)
+      return 1;
+
+    String uri = invocation.getURI();
+    String contextPath = invocation.getContextPath();
+
+    for (Priority priority : priorities) {
+      if (priority.isMatch(uri, contextPath))
+        return priority.getShare();
+    }
+
+    return 1;
+  }
+
+  /**
+   * Recalculates the limit from the window's average request time.
+   */
+  private void updateLimit()
+  {
+    int count = _windowCount.getAndSet(0);
+    long time = _windowTime.getAndSet(0);
+    int activeMax = _windowActiveMax.getAndSet(0);
+
+    if (count <= 0)
+      return;
+
+    double shortTime = Math.max(1.0, (double) time / count);
+
+    if (_longTime <= 0)
+      _longTime = shortTime;
+    else
+      _longTime += (shortTime - _longTime) / LONG_WINDOW;
+
+    // after a long slow period, let the baseline recover quickly
+    if (2 * shortTime < _longTime)
+      _longTime *= 0.95;
+
+    double estimate = _estimate;
+    double gradient = Math.max(0.5, Math.min(1.0, _longTime / shortTime));
+    double newEstimate = estimate * gradient + Math.sqrt(estimate);
+
+    // an idle server has no evidence for a larger limit
+    if (estimate < newEstimate && activeMax < estimate / 2)
+      newEstimate = estimate;
+
+    newEstimate = estimate + _smoothing * (newEstimate - estimate);
+    newEstimate = Math.max(_minLimit, Math.min(_maxLimit, newEstimate));
+
+    _estimate = newEstimate;
+
+    int limit = (int) newEstimate;
+
+    if (limit != _limit && log.isLoggable(Level.FINER)) {
+      log.finer(this + " limit " + _limit + " -> " + limit
+                + " (time=" + (long) shortTime + " long-time=" + (long) _longTime + ")");
+    }
+
+    _limit = limit;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _limit + "]";
+  }
+
+  /**
+   * A priority class, matching a url prefix or a web-app context path.
+   */
+  @Configurable
+  public static class Priority {
+    private String _urlPrefix;
+    private String _webApp;
+    private double _share = 1;
+
+    /**
+     * Matches request URIs starting with the prefix.
+     */
+    @Configurable
+    public void setUrlPrefix(String prefix)
+    {
+      _urlPrefix = prefix;
+    }
+
+    /**
+     * Matches requests for the web-app with the context path.
+     */
+    @Configurable
+    public void setWebApp(String contextPath)
+    {
+      _webApp = contextPath;
+    }
+
+    /**
+     * Sets the fraction of the limit available to the class.
+     */
+    @Configurable
+    public void setShare(double share)
+    {
+      _share = share;
+    }
+
+    public double getShare()
+    {
+      return _share;
+    }
+
+    @PostConstruct
+    public void init()
+    {
+      if (_urlPrefix == null && _webApp == null)
+        throw new ConfigException(L.l("<priority> requires a url-prefix or web-app"));
+
+      if (_share <= 0 || 1 < _share)
+        throw new ConfigException(L.l("share '{0}' must be greater than 0 and at most 1",
+                                      _share));
+    }
+
+    boolean isMatch(String uri, String contextPath)
+    {
+      if (_urlPrefix != null)
+        return uri != null && uri.startsWith(_urlPrefix);
+      else
+        return _webApp.equals(contextPath);
+    }
+
+    @Override
+    public String toString()
+    {
+      String match = _urlPrefix != null ? _urlPrefix : _webApp;
+
+      return getClass().getSimpleName() + "[" + match + "," + _share + "]";
+    }
+  }
+
+  static class LimitMeter extends AbstractMeter {
+    private volatile ConcurrencyLimiter _limiter;
+    private double _value;
+
+    LimitMeter(String name)
+    {
+      super(name);
+    }
+
+    void setLimiter(ConcurrencyLimiter limiter)
+    {
+      _limiter = limiter;
+    }
+
+    @Override
+    public void sample()
+    {
+      _value = peek();
+    }
+
+    @Override
+    public double calculate()
+    {
+      return _value;
+    }
+
+    @Override
+    public double peek()
+    {
+      ConcurrencyLimiter limiter = _limiter;
+
+      return limiter != null ? limiter.getLimit() : 0;
+    }
+  }
+
+  static class ActiveCountMeter extends AbstractMeter {
+    private volatile ConcurrencyLimiter _limiter;
+    private double _value;
+
+    ActiveCountMeter(String name)
+    {
+      super(name);
+    }
+
+    void setLimiter(ConcurrencyLimiter limiter)
+    {
+      _limiter = limiter;
+    }
+
+    @Override
+    public void sample()
+    {
+      _value = peek();
+    }
+
+    @Override
+    public double calculate()
+    {
+      return _value;
+    }
+
+    @Override
+    public double peek()
+    {
+      ConcurrencyLimiter limiter = _limiter;
+
+      return limiter != null ? limiter.getActiveCount() : 0;
+    }
+  }
+}
@@ -32,6 +32,7 @@ package com.caucho.server.dispatch;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -186,8 +187,17 @@ public class PageFilterChain implements FilterChain
     else if (req instanceof HttpServletRequest) {
       try {
         if (_isSingleThread) {
-          synchronized (page) {
+          // the lock belongs to the page, which is shared by the chains
+          // for other URLs, includes and forwards. A ReentrantLock
+          // instead of a monitor so a waiting virtual thread does not
+          // pin its carrier
+          ReentrantLock lock = page._caucho_getSingleThreadLock();
+
+          lock.lock();
+          try {
             page.pageservice(req, res);
+          } finally {
+            lock.unlock();
           }
         }
         else
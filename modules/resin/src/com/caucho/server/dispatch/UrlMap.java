@@ -51,6 +51,9 @@ public class UrlMap<E> {
 
   // List of matching regular expressions
   private ArrayList<RegexpEntry<E>> _regexps;
+
+  // index of the entries, rebuilt after a change
+  private volatile UrlMapIndex<E> _index;
   
   /**
    * Create a new map
@@ -217,8 +220,52 @@ public class UrlMap<E> {
     if (cb.length() > 0 && cb.charAt(0) == '/')
       cb.insert(0, '^');
 
-    addRegexp(prefixLength, pattern, cb.close(), flags, value,
-              isShort, isIgnore, ifAbsent, ! hasWildcard);
+    RegexpEntry<E> entry
+      = new RegexpEntry<E>(prefixLength, pattern, cb.close(), flags, value,
+                           isIgnore, ! hasWildcard);
+
+    classifyUrlPattern(entry, pattern);
+
+    addEntry(entry, isShort, ifAbsent);
+  }
+
+  /**
+   * Marks url-patterns which can be matched without the regexp: exact
+   * paths, prefix paths like /foo/* and extensions like *.jsp. Any
+   * other pattern uses the regexp.
+   */
+  private static void classifyUrlPattern(RegexpEntry<?> entry, String pattern)
+  {
+    int length = pattern.length();
+
+    for (int i = 0; i < length; i++) {
+      char ch = pattern.charAt(i);
+
+      // characters left unescaped in the regexp
+      if (ch == '+' || ch == '\\' || ch == ']' || isLineTerminator(ch))
+        return;
+    }
+
+    int star = pattern.indexOf('*');
+
+    if (star < 0) {
+      entry.setKind(RegexpEntry.KIND_EXACT, pattern);
+    }
+    else if (star != pattern.lastIndexOf('*')) {
+    }
+    else if (star > 0 && star + 1 == length) {
+      if (pattern.charAt(star - 1) == '/')
+        star--;
+
+      if (star > 0 && pattern.charAt(0) == '/')
+        entry.setKind(RegexpEntry.KIND_PREFIX, pattern.substring(0, star));
+    }
+    else if (star == 0) {
+      String extension = pattern.substring(1);
+
+      if (extension.indexOf('.') >= 0 && extension.indexOf('/') < 0)
+        entry.setKind(RegexpEntry.KIND_EXTENSION, extension);
+    }
   }
 
   public static String urlPatternToRegexpPattern(String pattern)
@@ -410,6 +457,8 @@ public class UrlMap<E> {
       entry.setIgnore(true);
 
     _regexps.add(entry);
+
+    _index = null;
   }
 
   /**
@@ -434,6 +483,13 @@ public class UrlMap<E> {
       = new RegexpEntry<E>(prefixLength, pattern, regexp, flags, value,
                            isIgnore, isSimple);
 
+    addEntry(entry, isShort, ifAbsent);
+  }
+
+  private void addEntry(RegexpEntry<E> entry,
+                        boolean isShort,
+                        boolean ifAbsent)
+  {
     for (int i = _regexps.size() - 1; i >= 0; i--) {
       RegexpEntry<E> re = _regexps.get(i);
 
@@ -451,6 +507,8 @@ public class UrlMap<E> {
       entry.setShortMatch();
 
     _regexps.add(entry);
+
+    _index = null;
   }
 
   /**
@@ -488,9 +546,17 @@ public class UrlMap<E> {
 
     int bestPrefixLength = -2;
     int bestMinLength = -2;
+
+    UrlMapIndex<E> index = getIndex();
+    RegexpEntry<E> []entries = index.getEntries();
+
+    // only the entries which might match, in order
+    IntArray candidates = index.findCandidates(uri);
+    int []candidateArray = candidates.getArray();
+    int size = candidates.size();
     
-    for (int i = 0; i < _regexps.size(); i++) {
-      RegexpEntry<E> entry = _regexps.get(i);
+    for (int i = 0; i < size; i++) {
+      RegexpEntry<E> entry = entries[candidateArray[i]];
 
       if (isWelcome && ! entry.isSimple())
         continue;
@@ -500,13 +566,27 @@ public class UrlMap<E> {
       if (entry._prefixLength < bestPrefixLength)
         continue;
 
-      Matcher matcher = entry._regexp.matcher(uri);
+      Matcher matcher = null;
+      int begin;
+      int end;
 
-      if (! matcher.find())
-        continue;
+      if (entry.isRegexp()) {
+        matcher = entry._regexp.matcher(uri);
+
+        if (! matcher.find())
+          continue;
+
+        begin = matcher.start();
+        end = matcher.end();
+      }
+      else {
+        end = entry.match(uri);
 
-      int begin = matcher.start();
-      int end = matcher.end();
+        if (end < 0)
+          continue;
+
+        begin = 0;
+      }
 
       int length = end - begin;
 
@@ -520,7 +600,7 @@ public class UrlMap<E> {
           else
             vars.add(uri.substring(0, end));
 
-          for (int j = 1; j <= matcher.groupCount(); j++)
+          for (int j = 1; matcher != null && j <= matcher.groupCount(); j++)
             vars.add(matcher.group(j));
         }
 
@@ -537,6 +617,32 @@ public class UrlMap<E> {
     return best;
   }
 
+  private UrlMapIndex<E> getIndex()
+  {
+    UrlMapIndex<E> index = _index;
+
+    if (index == null) {
+      index = new UrlMapIndex<E>(_regexps);
+      _index = index;
+    }
+
+    return index;
+  }
+
+  /**
+   * Returns true for the regexp line terminators, which '$' matches
+   * before and '.' does not match.
+   */
+  static boolean isLineTerminator(char ch)
+  {
+    switch (ch) {
+    case '\n': case '\r': case '\u0085': case '\u2028': case '\u2029':
+      return true;
+    default:
+      return false;
+    }
+  }
+
   /**
    * Return the matching url patterns.
    */
@@ -557,6 +663,13 @@ public class UrlMap<E> {
   }
 
   static class RegexpEntry<E> {
+    static final int KIND_REGEXP = 0;
+    static final int KIND_DEFAULT = 1;   // "", matches everything
+    static final int KIND_SLASH = 2;     // "/*", matches the leading slashes
+    static final int KIND_EXACT = 3;     // "^/foo$"
+    static final int KIND_PREFIX = 4;    // "^/foo(?=/)|^/foo\z"
+    static final int KIND_EXTENSION = 5; // "^.*\.jsp(?=/)|^.*\.jsp\z"
+
     String _urlPattern;
     String _pattern;
     int _flags;
@@ -566,6 +679,8 @@ public class UrlMap<E> {
     boolean _shortMatch;
     boolean _isIgnore; // plugin_match or plugin-ignore
     boolean _isSimple; //simple when does not start with a / and contains no *
+    int _kind;
+    String _key;
 
     RegexpEntry(int prefixLength, String pattern, String flags, E value)
       throws PatternSyntaxException
@@ -591,6 +706,157 @@ public class UrlMap<E> {
       _value = value;
       _isIgnore = isIgnore;
       _isSimple = isSimple;
+
+      if ("".equals(pattern))
+        _kind = KIND_DEFAULT;
+      else if ("/*".equals(pattern))
+        _kind = KIND_SLASH;
+      else if ("^/$".equals(pattern))
+        setKind(KIND_EXACT, "/");
+    }
+
+    /**
+     * Sets the kind of match for patterns which don't need the regexp.
+     *
+     * @param kind the match kind
+     * @param key the literal path, prefix or extension
+     */
+    void setKind(int kind, String key)
+    {
+      _kind = kind;
+      _key = key;
+    }
+
+    int getKind()
+    {
+      return _kind;
+    }
+
+    String getKey()
+    {
+      return _key;
+    }
+
+    boolean isRegexp()
+    {
+      return _kind == KIND_REGEXP;
+    }
+
+    boolean isCaseInsensitive()
+    {
+      return (_flags & Pattern.CASE_INSENSITIVE) != 0;
+    }
+
+    /**
+     * Matches the uri without the regexp, returning the end of the match
+     * like Matcher.end(), or -1 if the uri doesn't match.
+     */
+    int match(String uri)
+    {
+      String key = _key;
+      int length = uri.length();
+
+      switch (_kind) {
+      case KIND_DEFAULT:
+        return 0;
+
+      case KIND_SLASH:
+        {
+          int i = 0;
+
+          for (; i < length && uri.charAt(i) == '/'; i++) {
+          }
+
+          return i;
+        }
+
+      case KIND_EXACT:
+        {
+          int keyLength = key.length();
+
+          if (! regionMatches(uri, 0, key))
+            return -1;
+          else if (length == keyLength)
+            return keyLength;
+          // '$' also matches before a final line terminator
+          else if (length == keyLength + 1
+                   && isLineTerminator(uri.charAt(keyLength)))
+            return keyLength;
+          else if (length == keyLength + 2
+                   && uri.charAt(keyLength) == '\r'
+                   && uri.charAt(keyLength + 1) == '\n')
+            return keyLength;
+          else
+            return -1;
+        }
+
+      case KIND_PREFIX:
+        {
+          int keyLength = key.length();
+
+          if (regionMatches(uri, 0, key)
+              && (length == keyLength || uri.charAt(keyLength) == '/'))
+            return keyLength;
+          else
+            return -1;
+        }
+
+      case KIND_EXTENSION:
+        {
+          int keyLength = key.length();
+
+          // the ".*" can't match past a line terminator
+          int lineEnd = 0;
+          for (; lineEnd < length; lineEnd++) {
+            if (isLineTerminator(uri.charAt(lineEnd)))
+              break;
+          }
+
+          // the greedy first alternative matches the last extension
+          // before a '/'
+          for (int end = uri.lastIndexOf('/');
+               keyLength <= end;
+               end = uri.lastIndexOf('/', end - 1)) {
+            if (end - keyLength <= lineEnd
+                && regionMatches(uri, end - keyLength, key))
+              return end;
+          }
+
+          if (keyLength <= length
+              && length - keyLength <= lineEnd
+              && regionMatches(uri, length - keyLength, key))
+            return length;
+          else
+            return -1;
+        }
+
+      default:
+        throw new IllegalStateException(String.valueOf(_kind));
+      }
+    }
+
+    /**
+     * Compares a region like the regexp, where a case-insensitive
+     * match only folds US-ASCII.
+     */
+    private boolean regionMatches(String uri, int offset, String key)
+    {
+      int keyLength = key.length();
+
+      if (offset < 0 || uri.length() < offset + keyLength)
+        return false;
+      else if (! isCaseInsensitive())
+        return uri.regionMatches(offset, key, 0, keyLength);
+
+      for (int i = 0; i < keyLength; i++) {
+        char a = uri.charAt(offset + i);
+        char b = key.charAt(i);
+
+        if (a != b && UrlMapIndex.toLowerAscii(a) != UrlMapIndex.toLowerAscii(b))
+          return false;
+      }
+
+      return true;
     }
     
     void setIgnore(boolean isIgnore)
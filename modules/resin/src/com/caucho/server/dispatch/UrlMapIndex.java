@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.dispatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.caucho.util.IntArray;
+
+/**
+ * Index of the UrlMap entries. Exact and prefix patterns are stored in
+ * a path-segment trie and extension patterns in a map, so a lookup only
+ * checks the entries which might match instead of every regexp.
+ */
+final class UrlMapIndex<E> {
+  private final UrlMap.RegexpEntry<E> []_entries;
+
+  // entries which are always checked, including true regexps
+  private final IntArray _scanEntries = new IntArray();
+
+  private final Node _root = new Node();
+
+  private final HashMap<String,IntArray> _extensionMap
+    = new HashMap<String,IntArray>();
+
+  // keys are lower case if any indexed entry is case-insensitive
+  private final boolean _isLowerCase;
+
+  UrlMapIndex(ArrayList<UrlMap.RegexpEntry<E>> entryList)
+  {
+    _entries = entryList.toArray(new UrlMap.RegexpEntry[entryList.size()]);
+
+    boolean isLowerCase = false;
+
+    for (UrlMap.RegexpEntry<E> entry : _entries) {
+      if (isIndexed(entry) && entry.isCaseInsensitive())
+        isLowerCase = true;
+    }
+
+    _isLowerCase = isLowerCase;
+
+    for (int i = 0; i < _entries.length; i++) {
+      UrlMap.RegexpEntry<E> entry = _entries[i];
+
+      if (! isIndexed(entry)) {
+        _scanEntries.add(i);
+        continue;
+      }
+
+      String key = entry.getKey();
+
+      if (isLowerCase)
+        key = toLowerAscii(key);
+
+      switch (entry.getKind()) {
+      case UrlMap.RegexpEntry.KIND_EXACT:
+        getNode(key)._exactEntries.add(i);
+        break;
+
+      case UrlMap.RegexpEntry.KIND_PREFIX:
+        getNode(key)._prefixEntries.add(i);
+        break;
+
+      case UrlMap.RegexpEntry.KIND_EXTENSION:
+        {
+          String extension = key.substring(key.lastIndexOf('.') + 1);
+
+          IntArray extensionEntries = _extensionMap.get(extension);
+
+          if (extensionEntries == null) {
+            extensionEntries = new IntArray();
+            _extensionMap.put(extension, extensionEntries);
+          }
+
+          extensionEntries.add(i);
+          break;
+        }
+      }
+    }
+  }
+
+  UrlMap.RegexpEntry<E> []getEntries()
+  {
+    return _entries;
+  }
+
+  /**
+   * Returns the indexes of the entries which might match the uri,
+   * in order.
+   */
+  IntArray findCandidates(String uri)
+  {
+    IntArray candidates = new IntArray();
+
+    int length = uri.length();
+
+    // '$' matches before a trailing line terminator, which the trie
+    // doesn't model
+    if (length > 0 && UrlMap.isLineTerminator(uri.charAt(length - 1))) {
+      for (int i = 0; i < _entries.length; i++) {
+        candidates.add(i);
+      }
+
+      return candidates;
+    }
+
+    candidates.add(_scanEntries);
+
+    if (_isLowerCase)
+      uri = toLowerAscii(uri);
+
+    boolean isExtension = _extensionMap.size() > 0;
+
+    // exact and prefix keys start with '/'
+    Node node = length > 0 && uri.charAt(0) == '/' ? _root : null;
+
+    int offset = node != null ? 1 : 0;
+
+    while (node != null || isExtension) {
+      int p = uri.indexOf('/', offset);
+      int end = p < 0 ? length : p;
+
+      if (node != null) {
+        node = node.get(uri, offset, end);
+
+        if (node != null) {
+          candidates.add(node._prefixEntries);
+
+          if (p < 0)
+            candidates.add(node._exactEntries);
+        }
+      }
+
+      if (isExtension) {
+        int dot = uri.lastIndexOf('.', end - 1);
+
+        if (offset <= dot) {
+          IntArray extensionEntries
+            = _extensionMap.get(uri.substring(dot + 1, end));
+
+          if (extensionEntries != null)
+            candidates.add(extensionEntries);
+        }
+      }
+
+      if (p < 0)
+        break;
+
+      offset = p + 1;
+    }
+
+    sortUnique(candidates);
+
+    return candidates;
+  }
+
+  private Node getNode(String key)
+  {
+    Node node = _root;
+
+    int length = key.length();
+    int offset = 1;
+
+    while (true) {
+      int p = key.indexOf('/', offset);
+      int end = p < 0 ? length : p;
+
+      node = node.create(key.substring(offset, end));
+
+      if (p < 0)
+        return node;
+
+      offset = p + 1;
+    }
+  }
+
+  private static boolean isIndexed(UrlMap.RegexpEntry<?> entry)
+  {
+    switch (entry.getKind()) {
+    case UrlMap.RegexpEntry.KIND_EXACT:
+    case UrlMap.RegexpEntry.KIND_PREFIX:
+    case UrlMap.RegexpEntry.KIND_EXTENSION:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  private static void sortUnique(IntArray values)
+  {
+    int []array = values.getArray();
+    int size = values.size();
+
+    Arrays.sort(array, 0, size);
+
+    int j = 0;
+
+    for (int i = 0; i < size; i++) {
+      if (j == 0 || array[j - 1] != array[i])
+        array[j++] = array[i];
+    }
+
+    values.setLength(j);
+  }
+
+  static char toLowerAscii(char ch)
+  {
+    if ('A' <= ch && ch <= 'Z')
+      return (char) (ch + 'a' - 'A');
+    else
+      return ch;
+  }
+
+  static String toLowerAscii(String s)
+  {
+    int length = s.length();
+
+    for (int i = 0; i < length; i++) {
+      char ch = s.charAt(i);
+
+      if ('A' <= ch && ch <= 'Z') {
+        char []chars = s.toCharArray();
+
+        for (; i < length; i++) {
+          chars[i] = toLowerAscii(chars[i]);
+        }
+
+        return new String(chars);
+      }
+    }
+
+    return s;
+  }
+
+  /**
+   * A path segment in the trie.
+   */
+  static final class Node {
+    private HashMap<String,Node> _children;
+
+    final IntArray _exactEntries = new IntArray();
+    final IntArray _prefixEntries = new IntArray();
+
+    Node get(String uri, int offset, int end)
+    {
+      HashMap<String,Node> children = _children;
+
+      if (children == null)
+        return null;
+
+      return children.get(uri.substring(offset, end));
+    }
+
+    Node create(String segment)
+    {
+      if (_children == null)
+        _children = new HashMap<String,Node>();
+
+      Node node = _children.get(segment);
+
+      if (node == null) {
+        node = new Node();
+        _children.put(segment, node);
+      }
+
+      return node;
+    }
+  }
+}
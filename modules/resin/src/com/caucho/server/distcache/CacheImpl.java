@@ -38,6 +38,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -88,6 +89,8 @@ public class CacheImpl<K,V>
 {
   private static final L10N L = new L10N(CacheImpl.class);
   private static final Logger log = Logger.getLogger(CacheImpl.class.getName());
+  
+  private static final long BATCH_LOAD_TIMEOUT = 30 * 1000L;
 
   private CacheManagerImpl _localManager;
   private final CacheStoreManager _manager;
@@ -544,6 +547,34 @@ public class CacheImpl<K,V>
     return getDistCacheEntry(key).putIfNew(update, is);
   }
 
+  /**
+   * Updates the cache if the old value hash matches the current value.
+   *
+   * @param key          the key to compare
+   * @param oldValueHash the hash of the old value, returned by getEntry
+   * @param is           the new value
+   * @return true if the update succeeds, false if it fails
+   */
+  @Override
+  public boolean compareAndPut(Object key,
+                               long oldValueHash,
+                               InputStream is,
+                               long accessedExpireTimeout,
+                               long modifiedExpireTimeout,
+                               int flags)
+    throws IOException
+  {
+    boolean isPut = getDistCacheEntry(key).compareAndPut(oldValueHash, is,
+                                                          accessedExpireTimeout,
+                                                          modifiedExpireTimeout,
+                                                          flags);
+
+    if (isPut)
+      _putCount.incrementAndGet();
+
+    return isPut;
+  }
+
   /*
   public boolean compareAndPut(HashKey key, 
                                long valueHash,
@@ -671,6 +702,36 @@ public class CacheImpl<K,V>
     return getExtCacheEntry(distEntry);
   }
   
+  /**
+   * Returns the live entries for a batch of keys. Stale entries are
+   * reloaded concurrently, so a multi-key get waits for the slowest load
+   * instead of the sum of the loads.
+   */
+  public ExtCacheEntry []getLiveCacheEntries(Object []keys)
+  {
+    DistCacheEntry []distEntries = new DistCacheEntry[keys.length];
+    
+    for (int i = 0; i < keys.length; i++) {
+      distEntries[i] = getDistCacheEntry(keys[i]);
+    }
+    
+    BatchLoadListener listener = new BatchLoadListener(keys.length);
+    
+    for (DistCacheEntry distEntry : distEntries) {
+      distEntry.load(listener);
+    }
+    
+    listener.waitForLoad(BATCH_LOAD_TIMEOUT);
+    
+    ExtCacheEntry []entries = new ExtCacheEntry[keys.length];
+    
+    for (int i = 0; i < keys.length; i++) {
+      entries[i] = getExtCacheEntry(distEntries[i]);
+    }
+    
+    return entries;
+  }
+  
   private ExtCacheEntryFacade getExtCacheEntry(DistCacheEntry distEntry)
   {
     return new ExtCacheEntryFacade(distEntry);
@@ -1594,4 +1655,30 @@ public class CacheImpl<K,V>
       mnodeOnPutUpdate(key, cacheKey, value);
     }
   }
+  
+  static class BatchLoadListener implements DistCacheLoadListener {
+    private final CountDownLatch _latch;
+    
+    BatchLoadListener(int count)
+    {
+      _latch = new CountDownLatch(count);
+    }
+    
+    @Override
+    public void onLoad(DistCacheEntry entry)
+    {
+      _latch.countDown();
+    }
+    
+    void waitForLoad(long timeout)
+    {
+      try {
+        if (! _latch.await(timeout, TimeUnit.MILLISECONDS)) {
+          log.fine(L.l("batch cache load timed out after {0}ms", timeout));
+        }
+      } catch (InterruptedException e) {
+        log.log(Level.FINEST, e.toString(), e);
+      }
+    }
+  }
 }
@@ -639,24 +639,87 @@ public class DistCacheEntry {
                                     long valueDataTime,
                                     Object value)
   {
-    MnodeEntry mnodeValue = loadLocalMnodeValue();
+    // add 25% window for update efficiency
+    // idleTimeout = idleTimeout * 5L / 4;
 
-    long oldValueHash = mnodeValue.getValueHash();
+    // the hash is tested in the update loop so a concurrent put can't
+    // slip in between the test and the set
+    MnodeEntry mnodeValue = putLocalValueImpl(update,
+                                              valueDataId, valueDataTime,
+                                              value,
+                                              true, testValueHash);
+    
+    return (mnodeValue != null);
+  }
 
-    if (testValueHash == oldValueHash) {
-    }
-    else if (testValueHash == MnodeEntry.ANY_KEY && oldValueHash != 0) {
-    }
-    else {
+  /**
+   * Sets the value by an input stream if the current value hash matches
+   * the test hash. The test and the update are atomic for the local
+   * entry.
+   *
+   * @return true if the value was stored
+   */
+  public boolean compareAndPut(long testValueHash,
+                               InputStream is,
+                               long accessedExpireTime,
+                               long modifiedExpireTime,
+                               int userFlags)
+    throws IOException
+  {
+    MnodeEntry mnodeEntry = loadLocalMnodeValue();
+
+    DataItemLocal valueItem = getLocalDataManager().writeData(is);
+    
+    long valueDataId = valueItem.getValueDataId();
+    long valueDataTime = valueItem.getValueDataTime();
+    
+    CacheConfig config = getConfig();
+    
+    long flags = config.getFlags() | ((long) userFlags) << 32;
+    
+    if (accessedExpireTime < 0)
+      accessedExpireTime = config.getAccessedExpireTimeout();
+    
+    if (modifiedExpireTime < 0)
+      modifiedExpireTime = config.getModifiedExpireTimeout();
+    
+    long now = CurrentTime.getCurrentTime();
+    
+    MnodeUpdate mnodeUpdate
+      = new MnodeUpdate(valueItem.getValueHash(),
+                        valueItem.getLength(),
+                        getNewVersion(mnodeEntry),
+                        flags,
+                        accessedExpireTime,
+                        modifiedExpireTime,
+                        config.getLeaseExpireTimeout(),
+                        mnodeEntry.getLeaseOwner(),
+                        now,
+                        now);
+    
+    MnodeEntry newEntry = putLocalValueImpl(mnodeUpdate,
+                                            valueDataId, valueDataTime,
+                                            null,
+                                            true, testValueHash);
+    
+    if (newEntry == null || newEntry.getValueDataId() != valueDataId) {
+      // mismatched hash or obsolete version
+      getLocalDataManager().removeData(valueDataId, valueDataTime);
+      
       return false;
     }
     
-    // add 25% window for update efficiency
-    // idleTimeout = idleTimeout * 5L / 4;
+    config.getEngine().put(getKeyHash(), getCacheKey(), 
+                           mnodeUpdate, 
+                           valueDataId, valueDataTime);
+    
+    CacheWriterExt writer = config.getCacheWriterExt();
 
-    mnodeValue = putLocalValueImpl(update, valueDataId, valueDataTime, value);
+    if (writer != null && config.isWriteThrough()) {
+      writer.write(this);
+    }
     
-    return (mnodeValue != null);
+    return true;
   }
 
   protected boolean compareAndPut(DistCacheEntry entry,
@@ -1331,6 +1394,22 @@ public class DistCacheEntry {
                                              long valueDataId,
                                              long valueDataTime,
                                              Object value)
+  {
+    return putLocalValueImpl(mnodeUpdate, valueDataId, valueDataTime, value,
+                             false, 0);
+  }
+
+  /**
+   * Sets the local value. When isCompare is set, the update only
+   * succeeds if the current value hash matches testValueHash, and null
+   * is returned on a mismatch.
+   */
+  private final MnodeEntry putLocalValueImpl(MnodeUpdate mnodeUpdate,
+                                             long valueDataId,
+                                             long valueDataTime,
+                                             Object value,
+                                             boolean isCompare,
+                                             long testValueHash)
   {
     HashKey key = getKeyHash();
     
@@ -1348,6 +1427,10 @@ public class DistCacheEntry {
       long oldValueHash
         = oldEntryValue != null ? oldEntryValue.getValueHash() : 0;
 
+      if (isCompare && ! isValueHashMatch(testValueHash, oldValueHash)) {
+        return null;
+      }
+
       long oldVersion = oldEntryValue != null ? oldEntryValue.getVersion() : 0;
       long now = CurrentTime.getCurrentTime();
       
@@ -1417,6 +1500,15 @@ public class DistCacheEntry {
     return mnodeValue;
   }
 
+  private static boolean isValueHashMatch(long testValueHash,
+                                          long oldValueHash)
+  {
+    if (testValueHash == oldValueHash)
+      return true;
+    else
+      return testValueHash == MnodeEntry.ANY_KEY && oldValueHash != 0;
+  }
+
   /**
    * Sets a cache entry
    */
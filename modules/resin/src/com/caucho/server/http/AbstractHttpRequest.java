@@ -133,7 +133,7 @@ public abstract class AbstractHttpRequest extends AbstractProtocolConnection
   private final ArrayList<Locale> _locales = new ArrayList<Locale>();
 
   // Servlet input stream for post contents
-  private final ServletInputStreamImpl _is = new ServletInputStreamImpl();
+  private final ServletInputStreamImpl _is = new ServletInputStreamImpl(this);
   // Reader for post contents
   private final BufferedReaderAdapter _bufferedReader;
 
@@ -1317,6 +1317,32 @@ public abstract class AbstractHttpRequest extends AbstractProtocolConnection
     return _readStream.getBufferAvailable();
   }
 
+  /**
+   * Returns true if the request body can be read without blocking,
+   * because data is buffered or the body is complete.
+   */
+  public boolean isReadReady()
+    throws IOException
+  {
+    return (_readStream.getBufferAvailable() > 0
+            || _rawRead.getBufferAvailable() > 0);
+  }
+
+  /**
+   * Fills the raw buffer for a non-blocking read, waiting at most the
+   * timeout for data.
+   *
+   * @return true if the request body can be read without blocking
+   */
+  boolean fillReadReady(long timeout)
+    throws IOException
+  {
+    if (isReadReady())
+      return true;
+
+    return _rawRead.fillWithTimeout(timeout) != 0;
+  }
+
   protected void skip()
     throws IOException
   {
@@ -1651,6 +1677,10 @@ public abstract class AbstractHttpRequest extends AbstractProtocolConnection
         getResponseFacade().sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         return false;
       }
+      else if (url == null && asyncContext.handleIo()) {
+        // ReadListener/WriteListener wake
+        return isSuspend();
+      }
 
       if (url != null) {
         if (webApp == null)
@@ -1876,6 +1906,8 @@ public abstract class AbstractHttpRequest extends AbstractProtocolConnection
       if (requestFacade != null)
         requestFacade.finishRequest();
 
+      _is.free();
+
       // server/0219, but must be freed for GC
       _response.finishRequest();
 
@@ -124,8 +124,7 @@ abstract public class AbstractHttpResponse {
 
   private final AbstractResponseStream _responseStream;
 
-  private final ServletOutputStreamImpl _responseOutputStream
-    = new ServletOutputStreamImpl();
+  private final ServletOutputStreamImpl _responseOutputStream;
   private final ResponseWriter _responsePrintWriter
     = new ResponseWriter();
 
@@ -162,6 +161,7 @@ abstract public class AbstractHttpResponse {
     _request = request;
 
     _responseStream = createResponseStream();
+    _responseOutputStream = new ServletOutputStreamImpl(request);
 
     int logSize = request.getServer().getAccessLogBufferSize();
 
@@ -1403,6 +1403,8 @@ abstract public class AbstractHttpResponse {
       */
     } finally {
       _isClosed = true;
+
+      _responseOutputStream.free();
     }
   }
 
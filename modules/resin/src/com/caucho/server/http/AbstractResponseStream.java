@@ -263,6 +263,27 @@ public abstract class AbstractResponseStream
   abstract public void print(char []buffer, int offset, int length)
     throws IOException;
 
+  /**
+   * Returns the Java name of the encoding used to convert printed
+   * characters, or null if pre-encoded text can't be written.
+   */
+  public String getPrintEncoding()
+  {
+    return null;
+  }
+
+  /**
+   * Writes printed text which has already been converted with the
+   * print encoding, e.g. static JSP template text.
+   *
+   * @return false if the caller must print the characters instead
+   */
+  public boolean printEncoded(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    return false;
+  }
+
   /**
    * Clears the output buffer, including headers if possible.
    */
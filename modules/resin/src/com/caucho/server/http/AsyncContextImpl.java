@@ -77,6 +77,13 @@ public class AsyncContextImpl
   private WebApp _dispatchWebApp;
   private String _dispatchPath;
   private boolean _isDispatch;
+
+  // streams with a ReadListener or WriteListener
+  private ServletInputStreamImpl _readStream;
+  private ServletOutputStreamImpl _writeStream;
+
+  private final AtomicBoolean _isReadWait = new AtomicBoolean();
+  private final AtomicBoolean _isWriteWait = new AtomicBoolean();
   
   public AsyncContextImpl(AbstractHttpRequest httpConn)
   {
@@ -318,6 +325,109 @@ public class AsyncContextImpl
     }
   }
   
+  //
+  // non-blocking io
+  //
+
+  void setReadStream(ServletInputStreamImpl is)
+  {
+    _readStream = is;
+  }
+
+  void setWriteStream(ServletOutputStreamImpl os)
+  {
+    _writeStream = os;
+  }
+
+  /**
+   * Wakes the request for a read with already buffered data.
+   */
+  void wakeRead()
+  {
+    _isReadWait.set(true);
+
+    wakeIo();
+  }
+
+  /**
+   * Wakes the request when the socket has data to read.
+   */
+  void requestRead()
+  {
+    AsyncController cometController = _cometController;
+
+    if (cometController == null)
+      throw new IllegalStateException(L.l("non-blocking read is not valid when no AsyncContext is available"));
+
+    _isReadWait.set(true);
+
+    if (! cometController.requestRead()) {
+      // no readiness support, so the wake thread fills the read
+      wakeIo();
+    }
+  }
+
+  /**
+   * Wakes the request to flush the response and call the WriteListener.
+   */
+  void requestWrite()
+  {
+    _isWriteWait.set(true);
+
+    wakeIo();
+  }
+
+  private void wakeIo()
+  {
+    AsyncController cometController = _cometController;
+
+    if (cometController == null)
+      throw new IllegalStateException(L.l("non-blocking io is not valid when no AsyncContext is available"));
+
+    cometController.wake();
+  }
+
+  /**
+   * Calls the ReadListener and WriteListener after an io wake.
+   *
+   * @return true if the wake was for non-blocking io
+   */
+  boolean handleIo()
+  {
+    ServletOutputStreamImpl writeStream = _writeStream;
+    ServletInputStreamImpl readStream = _readStream;
+
+    boolean isWrite = writeStream != null && _isWriteWait.getAndSet(false);
+    boolean isRead = readStream != null && _isReadWait.getAndSet(false);
+
+    if (! isWrite && ! isRead)
+      return false;
+
+    // the resume ended the async cycle; restart it before the callbacks
+    // so their wakes aren't lost
+    restart();
+
+    Thread thread = Thread.currentThread();
+    ClassLoader oldLoader = thread.getContextClassLoader();
+
+    try {
+      WebApp webApp = _dispatchWebApp;
+
+      if (webApp != null)
+        thread.setContextClassLoader(webApp.getClassLoader());
+
+      if (isWrite)
+        writeStream.onWritePossible();
+
+      if (isRead)
+        readStream.onDataAvailable();
+    } finally {
+      thread.setContextClassLoader(oldLoader);
+    }
+
+    return true;
+  }
+
   //
   // CometHandler callbacks
   //
@@ -57,6 +57,14 @@ class ChunkedInputStream extends StreamImpl {
     return _available;
   }
 
+  /**
+   * Returns true when the last chunk has been read.
+   */
+  boolean isEnd()
+  {
+    return _available < 0;
+  }
+
   /**
    * Reads more data from the input stream.
    */
@@ -91,6 +91,14 @@ public class ContentLengthStream extends StreamImpl {
     }
   }
 
+  /**
+   * Returns true when the content has been read.
+   */
+  boolean isEnd()
+  {
+    return _length <= 0;
+  }
+
   public int getAvailable()
     throws IOException
   {
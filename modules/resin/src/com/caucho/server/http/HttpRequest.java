@@ -39,6 +39,7 @@ import java.util.logging.Logger;
 
 import com.caucho.env.meter.ActiveTimeMeter;
 import com.caucho.env.meter.AverageMeter;
+import com.caucho.env.meter.HistogramMeter;
 import com.caucho.env.meter.MeterService;
 import com.caucho.network.listen.ProtocolConnection;
 import com.caucho.network.listen.SocketLink;
@@ -47,6 +48,7 @@ import com.caucho.network.listen.SocketLinkDuplexListener;
 import com.caucho.network.listen.TcpSocketLink;
 import com.caucho.server.cluster.ServletService;
 import com.caucho.server.dispatch.BadRequestException;
+import com.caucho.server.dispatch.ConcurrencyLimiter;
 import com.caucho.server.dispatch.Invocation;
 import com.caucho.util.CharBuffer;
 import com.caucho.util.CharSegment;
@@ -55,6 +57,7 @@ import com.caucho.vfs.ClientDisconnectException;
 import com.caucho.vfs.QSocket;
 import com.caucho.vfs.ReadStream;
 import com.caucho.vfs.SocketTimeoutException;
+import com.caucho.vfs.StreamImpl;
 
 /**
  * Handles a new request from an HTTP connection.
@@ -113,6 +116,7 @@ public class HttpRequest extends AbstractHttpRequest
   private RawInputStream _rawInputStream = new RawInputStream();
 
   private ActiveTimeMeter _requestTimeProbe;
+  private HistogramMeter _requestTimeHistogram;
   private AverageMeter _requestReadBytesProbe;
   private AverageMeter _requestWriteBytesProbe;
 
@@ -128,6 +132,9 @@ public class HttpRequest extends AbstractHttpRequest
     _requestTimeProbe
       = MeterService.createActiveTimeMeter(REQUEST_TIME_PROBE);
 
+    _requestTimeHistogram
+      = MeterService.createHistogramMeter(REQUEST_TIME_PROBE + " Time");
+
     _requestReadBytesProbe
       = MeterService.createAverageMeter(REQUEST_READ_BYTES_PROBE, "");
 
@@ -760,6 +767,23 @@ public class HttpRequest extends AbstractHttpRequest
     }
   }
 
+  /**
+   * Returns true if the post data can be read without blocking.
+   */
+  @Override
+  public boolean isReadReady()
+    throws IOException
+  {
+    StreamImpl source = getReadStream().getSource();
+
+    if (source == _contentLengthStream && _contentLengthStream.isEnd())
+      return true;
+    else if (source == _chunkedInputStream && _chunkedInputStream.isEnd())
+      return true;
+    else
+      return super.isReadReady();
+  }
+
   @Override
   protected void skip()
     throws IOException
@@ -792,6 +816,8 @@ public class HttpRequest extends AbstractHttpRequest
     throws IOException
   {
     boolean isInvocation = false;
+    ConcurrencyLimiter limiter = null;
+    long limitStartTime = 0;
 
     ServletService server = getServer();
     // Thread thread = getTcpSocketLink().getThread();
@@ -831,6 +857,19 @@ public class HttpRequest extends AbstractHttpRequest
 
       requestFacade.setInvocation(invocation);
 
+      ConcurrencyLimiter concurrencyLimiter = server.getConcurrencyLimiter();
+
+      if (concurrencyLimiter != null) {
+        if (! concurrencyLimiter.acquire(invocation)) {
+          sendConcurrencyLimitError(concurrencyLimiter);
+
+          return true;
+        }
+
+        limiter = concurrencyLimiter;
+        limitStartTime = System.nanoTime();
+      }
+
       isInvocation = true;
       startTime = _requestTimeProbe.start();
       startInvocation();
@@ -862,6 +901,14 @@ public class HttpRequest extends AbstractHttpRequest
 
       return false;
     } finally {
+      if (limiter != null) {
+        // an async dispatch returns before the response completes
+        if (isSuspend())
+          limiter.release();
+        else
+          limiter.release(System.nanoTime() - limitStartTime);
+      }
+
       if (isInvocation) {
         finishInvocation();
       }
@@ -871,7 +918,7 @@ public class HttpRequest extends AbstractHttpRequest
       }
 
       if (startTime > 0) {
-        _requestTimeProbe.end(startTime);
+        _requestTimeHistogram.add(_requestTimeProbe.end(startTime));
         
         long endReadBytes = getRawRead().getPosition();
         long endWriteBytes = getRawWrite().getPosition();
@@ -886,6 +933,70 @@ public class HttpRequest extends AbstractHttpRequest
     return true;
   }
 
+  /**
+   * Rejects a request when the port is at its request-concurrent-max,
+   * reading the request and answering with a 503.
+   */
+  @Override
+  public void handleBusyRequest()
+    throws IOException
+  {
+    ServletService server = getServer();
+    Thread thread = Thread.currentThread();
+    ClassLoader oldLoader = thread.getContextClassLoader();
+
+    try {
+      thread.setContextClassLoader(server.getClassLoader());
+
+      startRequest();
+
+      if (! parseRequest())
+        return;
+
+      if (log.isLoggable(Level.FINE)) {
+        log.fine(dbgId() + "request-concurrent-max exceeded for "
+                 + new String(_uri, 0, _uriLength));
+      }
+
+      Invocation invocation = new Invocation();
+      invocation.setWebApp(server.getErrorWebApp());
+
+      getRequestFacade().setInvocation(invocation);
+
+      getResponseFacade().sendError(503);
+    } catch (ClientDisconnectException e) {
+      clientDisconnect();
+
+      throw e;
+    } catch (Throwable e) {
+      log.log(Level.FINE, e.toString(), e);
+    } finally {
+      finishRequest();
+
+      thread.setContextClassLoader(oldLoader);
+    }
+  }
+
+  /**
+   * Rejects a request over the concurrency limit with a 503 and a
+   * Retry-After, without dispatching to the web-app.
+   */
+  private void sendConcurrencyLimitError(ConcurrencyLimiter limiter)
+    throws IOException
+  {
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(dbgId() + "concurrency limit " + limiter.getLimit()
+               + " exceeded for " + new String(_uri, 0, _uriLength));
+    }
+
+    long retryAfter = Math.max(1, (limiter.getRetryAfter() + 999) / 1000);
+
+    HttpServletResponseImpl response = getResponseFacade();
+
+    response.setHeader("Retry-After", String.valueOf(retryAfter));
+    response.sendError(503);
+  }
+
   private boolean parseRequest()
     throws IOException
   {
@@ -30,14 +30,40 @@ package com.caucho.server.http;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import javax.servlet.ReadListener;
 import javax.servlet.ServletInputStream;
 
+import com.caucho.util.L10N;
+
 public class ServletInputStreamImpl extends ServletInputStream  {
+  private static final L10N L = new L10N(ServletInputStreamImpl.class);
+  private static final Logger log
+    = Logger.getLogger(ServletInputStreamImpl.class.getName());
+
+  // timeout for the fill after a poll wake, for sockets that can't
+  // report their available data
+  private static final long READ_FILL_TIMEOUT = 1;
+
+  private final AbstractHttpRequest _request;
+
   private InputStream _is;
 
+  private ReadListener _readListener;
+  private AsyncContextImpl _asyncContext;
+  private boolean _isFinished;
+  private boolean _isAllDataRead;
+
   public ServletInputStreamImpl()
   {
+    this(null);
+  }
+
+  ServletInputStreamImpl(AbstractHttpRequest request)
+  {
+    _request = request;
   }
 
   public void init(InputStream is)
@@ -66,8 +92,13 @@ public class ServletInputStreamImpl extends ServletInputStream  {
   {
     if (_is == null)
       return -1;
-    else
-      return _is.read();
+
+    int ch = _is.read();
+
+    if (ch < 0)
+      _isFinished = true;
+
+    return ch;
   }
 
   @Override
@@ -75,8 +106,13 @@ public class ServletInputStreamImpl extends ServletInputStream  {
   {
     if (_is == null)
       return -1;
-    else
-      return _is.read(buf, offset, len);
+
+    int sublen = _is.read(buf, offset, len);
+
+    if (sublen < 0)
+      _isFinished = true;
+
+    return sublen;
   }
 
   @Override
@@ -89,6 +125,99 @@ public class ServletInputStreamImpl extends ServletInputStream  {
       return _is.skip(n);
   }
 
+  //
+  // non-blocking reads
+  //
+
+  /**
+   * Returns true when the end of the post data has been read.
+   */
+  @Override
+  public boolean isFinished()
+  {
+    return _isFinished;
+  }
+
+  /**
+   * Returns true if a read will not block. When false, the listener's
+   * onDataAvailable will be called when the socket has data.
+   */
+  @Override
+  public boolean isReady()
+  {
+    if (_readListener == null || _isFinished)
+      return true;
+
+    try {
+      if (_request.isReadReady())
+        return true;
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return true;
+    }
+
+    _asyncContext.requestRead();
+
+    return false;
+  }
+
+  @Override
+  public void setReadListener(ReadListener listener)
+  {
+    if (listener == null)
+      throw new NullPointerException();
+
+    if (_readListener != null)
+      throw new IllegalStateException(L.l("setReadListener may only be called once for a request."));
+
+    AbstractHttpRequest request = _request;
+    HttpServletRequestImpl requestFacade
+      = request != null ? request.getRequestFacade() : null;
+
+    if (requestFacade == null || ! requestFacade.isAsyncStarted())
+      throw new IllegalStateException(L.l("setReadListener requires an async request started with startAsync()."));
+
+    _readListener = listener;
+    _asyncContext = requestFacade.getAsyncContext();
+    _asyncContext.setReadStream(this);
+
+    // the first onDataAvailable is called from the async wake
+    _asyncContext.wakeRead();
+  }
+
+  /**
+   * Called from the async wake when the socket has data.
+   */
+  void onDataAvailable()
+  {
+    ReadListener listener = _readListener;
+
+    if (listener == null)
+      return;
+
+    try {
+      if (! _isFinished && ! _request.fillReadReady(READ_FILL_TIMEOUT)) {
+        // spurious wake from a socket without an accurate available()
+        _asyncContext.requestRead();
+        return;
+      }
+
+      if (! _isFinished)
+        listener.onDataAvailable();
+
+      if (_isFinished && ! _isAllDataRead) {
+        _isAllDataRead = true;
+
+        listener.onAllDataRead();
+      }
+    } catch (Throwable e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      listener.onError(e);
+    }
+  }
+
   @Override
   public void close() 
     throws IOException
@@ -98,6 +227,11 @@ public class ServletInputStreamImpl extends ServletInputStream  {
   public void free()
   {
     _is = null;
+
+    _readListener = null;
+    _asyncContext = null;
+    _isFinished = false;
+    _isAllDataRead = false;
   }
   
   @Override
@@ -31,21 +31,40 @@ package com.caucho.server.http;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 
 import com.caucho.util.Hex;
+import com.caucho.util.L10N;
 import com.caucho.vfs.WriteStream;
 
 /**
  * Implementation of the ServletOutputStream.
  */
 public class ServletOutputStreamImpl extends ServletOutputStream {
+  private static final L10N L = new L10N(ServletOutputStreamImpl.class);
+  private static final Logger log
+    = Logger.getLogger(ServletOutputStreamImpl.class.getName());
+
+  private final AbstractHttpRequest _request;
+
   private OutputStream _out;
   private byte []_buffer;
 
+  private WriteListener _writeListener;
+  private AsyncContextImpl _asyncContext;
+
   public ServletOutputStreamImpl()
   {
+    this(null);
+  }
+
+  ServletOutputStreamImpl(AbstractHttpRequest request)
+  {
+    _request = request;
   }
 
   /**
@@ -131,6 +150,91 @@ public class ServletOutputStreamImpl extends ServletOutputStream {
   {
   }
 
+  //
+  // non-blocking writes
+  //
+
+  /**
+   * Returns true if a write will fit in the response buffer. When false,
+   * the buffer is flushed from the async wake and the listener's
+   * onWritePossible is called.
+   */
+  @Override
+  public boolean isReady()
+  {
+    if (_writeListener == null)
+      return true;
+
+    OutputStream out = _out;
+
+    if (! (out instanceof AbstractResponseStream)
+        || ((AbstractResponseStream) out).getRemaining() > 0) {
+      return true;
+    }
+
+    _asyncContext.requestWrite();
+
+    return false;
+  }
+
+  @Override
+  public void setWriteListener(WriteListener listener)
+  {
+    if (listener == null)
+      throw new NullPointerException();
+
+    if (_writeListener != null)
+      throw new IllegalStateException(L.l("setWriteListener may only be called once for a request."));
+
+    AbstractHttpRequest request = _request;
+    HttpServletRequestImpl requestFacade
+      = request != null ? request.getRequestFacade() : null;
+
+    if (requestFacade == null || ! requestFacade.isAsyncStarted())
+      throw new IllegalStateException(L.l("setWriteListener requires an async request started with startAsync()."));
+
+    _writeListener = listener;
+    _asyncContext = requestFacade.getAsyncContext();
+    _asyncContext.setWriteStream(this);
+
+    // the first onWritePossible is called from the async wake
+    _asyncContext.requestWrite();
+  }
+
+  /**
+   * Called from the async wake after a write was requested.
+   */
+  void onWritePossible()
+  {
+    WriteListener listener = _writeListener;
+
+    if (listener == null)
+      return;
+
+    try {
+      OutputStream out = _out;
+
+      if (out instanceof AbstractResponseStream) {
+        AbstractResponseStream responseStream = (AbstractResponseStream) out;
+
+        if (responseStream.getRemaining() <= 0)
+          responseStream.flushBuffer();
+      }
+
+      listener.onWritePossible();
+    } catch (Throwable e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      listener.onError(e);
+    }
+  }
+
+  void free()
+  {
+    _writeListener = null;
+    _asyncContext = null;
+  }
+
   public String toString()
   {
     return getClass().getSimpleName() + "[" + _out + "]";
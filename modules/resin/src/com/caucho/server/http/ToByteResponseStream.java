@@ -426,6 +426,43 @@ public abstract class ToByteResponseStream extends AbstractResponseStream {
     _charLength = charLength;
   }
 
+  /**
+   * Returns the Java name of the char to byte encoding.
+   */
+  @Override
+  public String getPrintEncoding()
+  {
+    if (_isOutputStreamOnly)
+      return null;
+    else
+      return _toByte.getJavaEncoding();
+  }
+
+  /**
+   * Writes pre-encoded text after any pending characters.
+   */
+  @Override
+  public boolean printEncoded(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    if (isClosed() || isHead())
+      return true;
+    else if (_isOutputStreamOnly)
+      return false;
+
+    if (_charLength > 0) {
+      flushCharBuffer();
+
+      // a split surrogate pair is still pending
+      if (_charLength > 0)
+        return false;
+    }
+
+    write(buffer, offset, length);
+
+    return true;
+  }
+
   /**
    * Converts the char buffer.
    */
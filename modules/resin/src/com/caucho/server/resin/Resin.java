@@ -53,6 +53,7 @@ import com.caucho.cloud.network.NetworkListenSystem;
 import com.caucho.cloud.topology.CloudServer;
 import com.caucho.cloud.topology.CloudSystem;
 import com.caucho.config.Config;
+import com.caucho.config.ConfigDocumentCache;
 import com.caucho.config.ConfigException;
 import com.caucho.config.core.ResinProperties;
 import com.caucho.config.inject.WebBeansAddLoaderListener;
@@ -248,6 +249,11 @@ public class Resin
     preConfigureInit();
     
     if (! isWatchdog()) {
+      Path snapshotDirectory
+        = getResinDataDirectory().lookup("config-snapshot");
+      
+      ConfigDocumentCache.setDirectory(snapshotDirectory);
+      
       configureFile(_resinConf);
     }
   }
@@ -56,6 +56,7 @@ import com.caucho.env.warning.WarningService;
 import com.caucho.license.LicenseCheck;
 import com.caucho.license.LicenseStore;
 import com.caucho.server.admin.Management;
+import com.caucho.server.admin.LocalStatSystem;
 import com.caucho.server.admin.StatSystem;
 import com.caucho.server.cluster.ClusterPod;
 import com.caucho.server.cluster.ServletService;
@@ -244,7 +245,12 @@ public class ResinDelegate
 
   public StatSystem createStatSystem()
   {
-    throw new ConfigException("StatSystem is available with Resin Professional");
+    StatSystem statSystem = StatSystem.getCurrent();
+
+    if (statSystem == null)
+      statSystem = LocalStatSystem.createAndAddService();
+
+    return statSystem;
   }
 
   protected String getResinName()
@@ -107,6 +107,15 @@ public class ThreadPoolAdmin extends AbstractManagedObject
     return _threadPool.getPriorityIdleMin();
   }
 
+  /**
+   * Returns true if port request threads run as virtual threads.
+   */
+  @Override
+  public boolean isThreadVirtualEnable()
+  {
+    return _threadPool.isVirtualThreadEnable();
+  }
+
   //
   // statistics
   //
@@ -183,6 +192,22 @@ public class ThreadPoolAdmin extends AbstractManagedObject
     return _threadPool.getThreadTaskQueueSize();
   }
 
+  /**
+   * Returns the current number of active virtual threads.
+   */
+  public int getThreadVirtualActiveCount()
+  {
+    return _threadPool.getVirtualThreadActiveCount();
+  }
+
+  /**
+   * Returns the total number of created virtual threads.
+   */
+  public long getThreadVirtualCreateCountTotal()
+  {
+    return _threadPool.getVirtualThreadCreateCountTotal();
+  }
+
   public void register()
   {
     registerSelf();
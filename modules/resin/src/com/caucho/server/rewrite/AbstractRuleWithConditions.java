@@ -31,6 +31,7 @@ package com.caucho.server.rewrite;
 
 import com.caucho.config.Config;
 import com.caucho.config.ConfigException;
+import com.caucho.util.IntArray;
 import com.caucho.util.L10N;
 import com.caucho.vfs.CaseInsensitive;
 
@@ -64,6 +65,11 @@ public abstract class AbstractRuleWithConditions
 
   private Condition []_conditions;
 
+  // index of the parent's rules, skipping rules which can't match
+  private RegexpRuleIndex _ruleIndex;
+  private Rule []_indexRules;
+  private FilterChainMapper _indexTail;
+  private int _indexPosition;
 
   protected AbstractRuleWithConditions(RewriteDispatch rewriteDispatch)
   {
@@ -145,6 +151,37 @@ public abstract class AbstractRuleWithConditions
     _conditionList.add(not);
   }
 
+  /**
+   * Sets the index of the parent's rule list.
+   *
+   * @param index the regexp index of the rules
+   * @param rules the rules in order
+   * @param tail the mapper after the last rule
+   * @param position this rule's position in the list
+   */
+  void setRuleIndex(RegexpRuleIndex index,
+                    Rule []rules,
+                    FilterChainMapper tail,
+                    int position)
+  {
+    _ruleIndex = index;
+    _indexRules = rules;
+    _indexTail = tail;
+    _indexPosition = position;
+  }
+
+  /**
+   * Returns the regexp the index can use to skip this rule, or null
+   * if the rule must always be checked.
+   */
+  Pattern getIndexRegexp()
+  {
+    if (_urlRegexp != null && _regexp == null)
+      return null;
+
+    return _regexp;
+  }
+
   /**
    * Throws an exception if the passed value is null.
    */
@@ -183,8 +220,40 @@ public abstract class AbstractRuleWithConditions
     throws ServletException
   {
     AbstractRuleWithConditions rule = this;
+
+    RegexpRuleIndex candidateIndex = null;
+    IntArray candidates = null;
     
     while (rule != null) {
+      RegexpRuleIndex index = rule._ruleIndex;
+
+      if (index != null) {
+        if (index != candidateIndex) {
+          candidateIndex = index;
+          candidates = index.findCandidates(uri);
+        }
+
+        // skip the rules whose regexp can't match
+        int position = RegexpRuleIndex.nextCandidate(candidates,
+                                                     rule._indexPosition);
+
+        if (position != rule._indexPosition) {
+          FilterChainMapper nextRule;
+
+          if (position < 0)
+            nextRule = rule._indexTail;
+          else
+            nextRule = rule._indexRules[position];
+
+          if (nextRule instanceof AbstractRuleWithConditions) {
+            rule = (AbstractRuleWithConditions) nextRule;
+            continue;
+          }
+          else
+            return nextRule.map(uri, queryString, accept);
+        }
+      }
+
       FilterChain next = rule.mapImpl(uri, queryString, accept);
 
       if (next != NEXT)
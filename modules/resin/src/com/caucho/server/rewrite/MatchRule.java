@@ -30,6 +30,7 @@
 package com.caucho.server.rewrite;
 
 import java.util.ArrayList;
+import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
 import javax.servlet.FilterChain;
@@ -287,6 +288,8 @@ public class MatchRule
 
     _ruleList.trimToSize();
 
+    initRuleIndex();
+
     register();
 
     if (_depend.size() > 0) {
@@ -296,6 +299,53 @@ public class MatchRule
     }
   }
 
+  /**
+   * Indexes the rules' regexps when the list is large, so a uri only
+   * checks the rules which might match.
+   */
+  private void initRuleIndex()
+  {
+    int size = _ruleList.size();
+
+    if (size < RegexpRuleIndex.INDEX_MIN)
+      return;
+
+    Rule []rules = new Rule[size];
+    _ruleList.toArray(rules);
+
+    Pattern []regexps = new Pattern[size];
+
+    for (int i = 0; i < size; i++) {
+      Rule rule = rules[i];
+
+      if (! (rule instanceof AbstractRuleWithConditions))
+        continue;
+
+      AbstractRuleWithConditions condRule = (AbstractRuleWithConditions) rule;
+
+      // a skipped rule must fail to the next rule
+      FilterChainMapper fail = condRule.getFailFilterChainMapper();
+      FilterChainMapper next
+        = i + 1 < size ? rules[i + 1] : _lastFilterChainMapper;
+
+      if (fail != next)
+        return;
+
+      regexps[i] = condRule.getIndexRegexp();
+    }
+
+    RegexpRuleIndex index = new RegexpRuleIndex(regexps);
+
+    for (int i = 0; i < size; i++) {
+      if (rules[i] instanceof AbstractRuleWithConditions) {
+        AbstractRuleWithConditions condRule
+          = (AbstractRuleWithConditions) rules[i];
+
+        condRule.setRuleIndex(index, rules, _lastFilterChainMapper, i);
+      }
+    }
+  }
+
   public String rewriteUri(String uri, String queryString)
   {
     return uri;
@@ -0,0 +1,504 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Sam
+ */
+
+package com.caucho.server.rewrite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.caucho.util.IntArray;
+
+/**
+ * Index of the regexps of a rule list, returning the rules which might
+ * match a uri without running each regexp.
+ *
+ * A literal is extracted from each regexp: the prefix of an anchored
+ * regexp, or else the longest literal the regexp requires. Prefixes are
+ * stored in a trie, and the other literals are matched together with an
+ * Aho-Corasick automaton, so a lookup is a single pass over the uri.
+ * Rules without a usable literal are always candidates.
+ *
+ * The candidates are a superset of the matching rules, so the caller
+ * still runs the regexp of each candidate in order, keeping first-match
+ * semantics and the regexp groups.
+ */
+final class RegexpRuleIndex {
+  // the minimum rule count where an index is worthwhile
+  static final int INDEX_MIN = 8;
+
+  private final int _size;
+
+  // rules which are always candidates
+  private final IntArray _scanRules = new IntArray();
+
+  private final Node _root = new Node();
+
+  private final boolean _hasFloating;
+
+  /**
+   * Creates the index.
+   *
+   * @param regexps the rule regexps, where null is always a candidate
+   */
+  RegexpRuleIndex(Pattern []regexps)
+  {
+    _size = regexps.length;
+
+    boolean hasFloating = false;
+
+    for (int i = 0; i < regexps.length; i++) {
+      Literal literal = regexps[i] != null ? extractLiteral(regexps[i]) : null;
+
+      if (literal == null) {
+        _scanRules.add(i);
+      }
+      else if (literal.isPrefix()) {
+        addNode(literal.getValue())._prefixRules.add(i);
+      }
+      else {
+        addNode(literal.getValue())._floatingRules.add(i);
+        hasFloating = true;
+      }
+    }
+
+    _root.freeze();
+
+    _hasFloating = hasFloating;
+
+    if (hasFloating)
+      buildFailLinks();
+  }
+
+  /**
+   * Returns the number of rules.
+   */
+  int size()
+  {
+    return _size;
+  }
+
+  /**
+   * Returns the sorted positions of the rules which might match the uri.
+   */
+  IntArray findCandidates(String uri)
+  {
+    IntArray candidates = new IntArray();
+
+    candidates.add(_scanRules);
+
+    int length = uri.length();
+
+    // prefixes: walk the trie from the start of the uri
+    Node node = _root;
+
+    for (int i = 0; node != null; i++) {
+      candidates.add(node._prefixRules);
+
+      if (i == length)
+        break;
+
+      node = node.get(uri.charAt(i));
+    }
+
+    // floating literals: one pass of the automaton
+    if (_hasFloating) {
+      node = _root;
+
+      for (int i = 0; i < length; i++) {
+        char ch = uri.charAt(i);
+
+        Node next;
+
+        while ((next = node.get(ch)) == null && node != _root) {
+          node = node._fail;
+        }
+
+        if (next != null)
+          node = next;
+
+        Node out = node._floatingRules.size() > 0 ? node : node._outputLink;
+
+        for (; out != null; out = out._outputLink) {
+          candidates.add(out._floatingRules);
+        }
+      }
+    }
+
+    int []array = candidates.getArray();
+    int size = candidates.size();
+
+    Arrays.sort(array, 0, size);
+
+    int j = 0;
+
+    for (int i = 0; i < size; i++) {
+      if (j == 0 || array[j - 1] != array[i])
+        array[j++] = array[i];
+    }
+
+    candidates.setLength(j);
+
+    return candidates;
+  }
+
+  /**
+   * Returns the first candidate at or after the position, or -1.
+   */
+  static int nextCandidate(IntArray candidates, int position)
+  {
+    int i = Arrays.binarySearch(candidates.getArray(), 0, candidates.size(),
+                                position);
+
+    if (i < 0)
+      i = -(i + 1);
+
+    if (i < candidates.size())
+      return candidates.get(i);
+    else
+      return -1;
+  }
+
+  /**
+   * Returns true if the position is a candidate.
+   */
+  static boolean isCandidate(IntArray candidates, int position)
+  {
+    return Arrays.binarySearch(candidates.getArray(), 0, candidates.size(),
+                               position) >= 0;
+  }
+
+  private Node addNode(String value)
+  {
+    Node node = _root;
+
+    for (int i = 0; i < value.length(); i++) {
+      node = node.create(value.charAt(i));
+    }
+
+    return node;
+  }
+
+  /**
+   * Adds the Aho-Corasick failure links with a breadth-first walk.
+   */
+  private void buildFailLinks()
+  {
+    ArrayList<Node> queue = new ArrayList<Node>();
+
+    for (Node child : _root._children) {
+      child._fail = _root;
+      queue.add(child);
+    }
+
+    for (int head = 0; head < queue.size(); head++) {
+      Node node = queue.get(head);
+
+      for (int i = 0; i < node._chars.length; i++) {
+        char ch = node._chars[i];
+        Node child = node._children[i];
+
+        Node fail = node._fail;
+        Node next;
+
+        while ((next = fail.get(ch)) == null && fail != _root) {
+          fail = fail._fail;
+        }
+
+        child._fail = next != null ? next : _root;
+
+        Node failNode = child._fail;
+
+        child._outputLink = (failNode._floatingRules.size() > 0
+                             ? failNode
+                             : failNode._outputLink);
+
+        queue.add(child);
+      }
+    }
+  }
+
+  /**
+   * Extracts the literal from a regexp, returning null if the regexp
+   * has no literal the index can use. The parse is conservative: flags,
+   * alternation and special groups disable the index for the rule.
+   */
+  static Literal extractLiteral(Pattern regexp)
+  {
+    if (regexp.flags() != 0)
+      return null;
+
+    String pattern = regexp.pattern();
+    int length = pattern.length();
+
+    boolean isAnchored = length > 0 && pattern.charAt(0) == '^';
+    int i = isAnchored ? 1 : 0;
+
+    StringBuilder run = new StringBuilder();
+    String prefix = null;
+    String longest = "";
+    int depth = 0;
+
+    while (i < length) {
+      char ch = pattern.charAt(i);
+
+      switch (ch) {
+      case '\\':
+        {
+          if (length <= i + 1)
+            return null;
+
+          char next = pattern.charAt(i + 1);
+
+          if ("dDsSwWbBAGZz".indexOf(next) >= 0) {
+            prefix = endPrefix(prefix, run, isAnchored);
+            longest = endRun(longest, run);
+          }
+          else if (Character.isLetterOrDigit(next))
+            return null;
+          else if (depth == 0)
+            run.append(next);
+
+          i += 2;
+          break;
+        }
+
+      case '[':
+        {
+          prefix = endPrefix(prefix, run, isAnchored);
+          longest = endRun(longest, run);
+
+          i++;
+
+          if (i < length && pattern.charAt(i) == '^')
+            i++;
+          if (i < length && pattern.charAt(i) == ']')
+            i++;
+
+          for (; i < length && pattern.charAt(i) != ']'; i++) {
+            char classCh = pattern.charAt(i);
+
+            if (classCh == '\\')
+              i++;
+            else if (classCh == '[')
+              return null;
+          }
+
+          if (length <= i)
+            return null;
+
+          i++;
+          break;
+        }
+
+      case '(':
+        if (pattern.startsWith("(?", i) && ! pattern.startsWith("(?:", i))
+          return null;
+
+        prefix = endPrefix(prefix, run, isAnchored);
+        longest = endRun(longest, run);
+        depth++;
+        i++;
+        break;
+
+      case ')':
+        prefix = endPrefix(prefix, run, isAnchored);
+        longest = endRun(longest, run);
+        depth--;
+        i++;
+        break;
+
+      case '|':
+        return null;
+
+      case '?': case '*': case '+': case '{':
+        // the quantifier makes the last literal optional
+        if (run.length() > 0)
+          run.setLength(run.length() - 1);
+
+        prefix = endPrefix(prefix, run, isAnchored);
+        longest = endRun(longest, run);
+
+        if (ch == '{') {
+          i = pattern.indexOf('}', i);
+
+          if (i < 0)
+            return null;
+        }
+
+        i++;
+        break;
+
+      case '.': case '^': case '$':
+        prefix = endPrefix(prefix, run, isAnchored);
+        longest = endRun(longest, run);
+        i++;
+        break;
+
+      default:
+        if (depth == 0)
+          run.append(ch);
+        i++;
+        break;
+      }
+    }
+
+    // the trailing run
+    prefix = endPrefix(prefix, run, isAnchored);
+    longest = endRun(longest, run);
+
+    if (prefix != null && prefix.length() > 0)
+      return new Literal(prefix, true);
+    else if (longest.length() > 0)
+      return new Literal(longest, false);
+    else
+      return null;
+  }
+
+  /**
+   * The first run of an anchored regexp is its prefix. A run which
+   * ends with a quantifier has already dropped its optional literal.
+   */
+  private static String endPrefix(String prefix,
+                                  StringBuilder run,
+                                  boolean isAnchored)
+  {
+    if (prefix == null && isAnchored)
+      return run.toString();
+    else if (prefix == null)
+      return "";
+    else
+      return prefix;
+  }
+
+  private static String endRun(String longest, StringBuilder run)
+  {
+    if (longest.length() < run.length())
+      longest = run.toString();
+
+    run.setLength(0);
+
+    return longest;
+  }
+
+  static final class Literal {
+    private final String _value;
+    private final boolean _isPrefix;
+
+    Literal(String value, boolean isPrefix)
+    {
+      _value = value;
+      _isPrefix = isPrefix;
+    }
+
+    String getValue()
+    {
+      return _value;
+    }
+
+    boolean isPrefix()
+    {
+      return _isPrefix;
+    }
+
+    @Override
+    public String toString()
+    {
+      return (getClass().getSimpleName()
+              + "[" + _value + (_isPrefix ? ",prefix" : "") + "]");
+    }
+  }
+
+  static final class Node {
+    private static final char []NULL_CHARS = new char[0];
+    private static final Node []NULL_NODES = new Node[0];
+
+    private Map<Character,Node> _childMap;
+
+    // sorted by character after the build
+    private char []_chars = NULL_CHARS;
+    private Node []_children = NULL_NODES;
+
+    private Node _fail;
+    private Node _outputLink;
+
+    private final IntArray _prefixRules = new IntArray();
+    private final IntArray _floatingRules = new IntArray();
+
+    Node get(char ch)
+    {
+      char []chars = _chars;
+
+      int i = Arrays.binarySearch(chars, ch);
+
+      return i >= 0 ? _children[i] : null;
+    }
+
+    Node create(char ch)
+    {
+      if (_childMap == null)
+        _childMap = new HashMap<Character,Node>();
+
+      Node node = _childMap.get(ch);
+
+      if (node == null) {
+        node = new Node();
+        _childMap.put(ch, node);
+      }
+
+      return node;
+    }
+
+    void freeze()
+    {
+      if (_childMap == null)
+        return;
+
+      _chars = new char[_childMap.size()];
+
+      int i = 0;
+      for (char ch : _childMap.keySet()) {
+        _chars[i++] = ch;
+      }
+
+      Arrays.sort(_chars);
+
+      _children = new Node[_chars.length];
+
+      for (i = 0; i < _chars.length; i++) {
+        _children[i] = _childMap.get(_chars[i]);
+        _children[i].freeze();
+      }
+
+      _childMap = null;
+    }
+  }
+}
@@ -30,6 +30,7 @@
 package com.caucho.server.rewrite;
 
 import com.caucho.util.InetNetwork;
+import com.caucho.util.InetNetworkTrie;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -38,10 +39,12 @@ public class RemoteAddrCondition
   extends AbstractCondition
 {
   private InetNetwork _value;
+  private InetNetworkTrie _networkTrie = new InetNetworkTrie();
 
   public RemoteAddrCondition(InetNetwork value)
   {
     _value = value;
+    _networkTrie.add(value);
   }
 
   public String getTagName()
@@ -56,6 +59,6 @@ public class RemoteAddrCondition
 
     String remoteAddr = request.getRemoteAddr();
 
-    return remoteAddr != null && _value.isMatch(remoteAddr);
+    return remoteAddr != null && _networkTrie.isMatch(remoteAddr);
   }
 }
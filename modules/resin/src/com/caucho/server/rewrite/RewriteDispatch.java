@@ -43,10 +43,13 @@ import javax.servlet.ServletException;
 import com.caucho.config.ConfigException;
 import com.caucho.config.program.ConfigProgram;
 import com.caucho.config.program.ContainerProgram;
+import com.caucho.rewrite.AbstractRegexpDispatchRule;
 import com.caucho.rewrite.DispatchRule;
+import com.caucho.rewrite.Rewrite;
 import com.caucho.rewrite.RewriteFilter;
 import com.caucho.server.cluster.ServletService;
 import com.caucho.server.webapp.WebApp;
+import com.caucho.util.IntArray;
 import com.caucho.util.L10N;
 
 /**
@@ -73,6 +76,14 @@ public class RewriteDispatch
   private ArrayList<RewriteFilter> _filterList
     = new ArrayList<RewriteFilter>();
 
+  // index of the dispatch rules, when the list is large
+  private DispatchRule []_rules;
+  private RegexpRuleIndex _ruleIndex;
+  // rules whose rewriteUri can change the uri
+  private int []_rewriteRules;
+  // rules which rewrite only when their regexp matches
+  private boolean []_isRewriteRegexp;
+
   private final boolean _isFiner;
   private final boolean _isFinest;
 
@@ -175,6 +186,71 @@ public class RewriteDispatch
     _program.configure(_matchRule);
 
     _matchRule.init();
+
+    initRuleIndex();
+  }
+
+  /**
+   * Indexes the dispatch rules' regexps. A regexp rule returns the
+   * next chain unchanged when its regexp doesn't match, so only the
+   * index's candidates need to be mapped.
+   */
+  private void initRuleIndex()
+  {
+    int size = _ruleList.size();
+
+    if (size < RegexpRuleIndex.INDEX_MIN)
+      return;
+
+    DispatchRule []rules = new DispatchRule[size];
+    _ruleList.toArray(rules);
+
+    Pattern []regexps = new Pattern[size];
+    boolean []isRewriteRegexp = new boolean[size];
+    IntArray rewriteRules = new IntArray();
+
+    for (int i = 0; i < size; i++) {
+      DispatchRule rule = rules[i];
+
+      Class<?> mapClass = getDeclaringClass(rule, "map",
+                                            DispatcherType.class,
+                                            String.class, String.class,
+                                            FilterChain.class,
+                                            FilterChain.class);
+
+      Class<?> rewriteClass = getDeclaringClass(rule, "rewriteUri",
+                                                String.class, String.class);
+
+      if (mapClass == AbstractRegexpDispatchRule.class)
+        regexps[i] = ((AbstractRegexpDispatchRule) rule).getRegexp();
+
+      if (rewriteClass == AbstractRegexpDispatchRule.class) {
+      }
+      else if (rewriteClass == Rewrite.class && regexps[i] != null) {
+        isRewriteRegexp[i] = true;
+        rewriteRules.add(i);
+      }
+      else
+        rewriteRules.add(i);
+    }
+
+    _rules = rules;
+    _isRewriteRegexp = isRewriteRegexp;
+    _rewriteRules = rewriteRules.toArray();
+    _ruleIndex = new RegexpRuleIndex(regexps);
+  }
+
+  private static Class<?> getDeclaringClass(Object obj,
+                                            String name,
+                                            Class<?> ...types)
+  {
+    try {
+      return obj.getClass().getMethod(name, types).getDeclaringClass();
+    } catch (Exception e) {
+      log.log(Level.FINEST, e.toString(), e);
+
+      return null;
+    }
   }
 
   public FilterChain map(DispatcherType type,
@@ -232,6 +308,9 @@ public class RewriteDispatch
     
     if (size <= index)
       return next;
+
+    if (_ruleIndex != null)
+      return mapIndexChain(index, type, uri, queryString, chain);
     
     DispatchRule firstRule = _ruleList.get(index);
     
@@ -259,6 +338,60 @@ public class RewriteDispatch
     return next;
   }
 
+  /**
+   * Maps the chain like mapChain, but only calls the rules which
+   * might match the uri.
+   */
+  private FilterChain mapIndexChain(int index,
+                                    DispatcherType type,
+                                    String uri, String queryString,
+                                    FilterChain chain)
+    throws ServletException
+  {
+    DispatchRule []rules = _rules;
+    int size = rules.length;
+
+    FilterChain next = chain;
+
+    DispatchRule firstRule = rules[index];
+
+    uri = firstRule.rewriteUri(uri, queryString);
+
+    IntArray candidates = _ruleIndex.findCandidates(uri);
+
+    // scan unless the URI is rewritten, then force recursion
+    int tail = size;
+    for (int rewriteRule : _rewriteRules) {
+      if (rewriteRule <= index)
+        continue;
+
+      if (_isRewriteRegexp[rewriteRule]
+          && ! RegexpRuleIndex.isCandidate(candidates, rewriteRule))
+        continue;
+
+      String newUri = rules[rewriteRule].rewriteUri(uri, queryString);
+
+      if (newUri != uri) {
+        tail = rewriteRule;
+        next = mapChain(tail, type, uri, queryString, chain);
+        break;
+      }
+    }
+
+    int []candidateArray = candidates.getArray();
+
+    for (int i = candidates.size() - 1; i >= 0; i--) {
+      int position = candidateArray[i];
+
+      if (position < index || tail <= position)
+        continue;
+
+      next = rules[position].map(type, uri, queryString, next, chain);
+    }
+
+    return next;
+  }
+
   public void clearCache()
   {
     if (_webApp != null)
@@ -31,8 +31,8 @@ package com.caucho.server.security;
 
 import com.caucho.config.ConfigException;
 import com.caucho.util.InetNetwork;
+import com.caucho.util.InetNetworkTrie;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
 
 import javax.annotation.PostConstruct;
 import javax.servlet.ServletContext;
@@ -40,7 +40,6 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.logging.Logger;
@@ -84,12 +83,13 @@ public class IPConstraint extends AbstractConstraint {
   private ArrayList<InetNetwork> _allowNetworkList;
   private ArrayList<InetNetwork> _denyNetworkList;
 
+  private InetNetworkTrie _allowTrie;
+  private InetNetworkTrie _denyTrie;
+
   private int _cacheSize = 256;
   private int _errorCode = HttpServletResponse.SC_FORBIDDEN;
   private String _errorMessage = L.l("Forbidden IP Address");
 
-  private LruCache<String,Boolean> _cache;
-
   /** see method SecurityConstraint.addIPConstraint() for explanation */
   private boolean _oldStyle = false;
 
@@ -132,13 +132,9 @@ public class IPConstraint extends AbstractConstraint {
   }
 
   /**
-   * Size of the cache used to hold whether or not to allow a certain IP
-   * address, default is 256.  The first time a request is received from an ip,
-   * the allow and deny rules are checked to determine if the ip is allowed.
-   * The result of this check is cached in a an LRU cache.  Subsequent requests
-   * can do a cache lookup based on the ip instead of checking the rules.  This
-   * is especially important if there are a large number of allow and/or deny
-   * rules, and to protect against denial of service attacks.  
+   * Size of the per-address result cache used by older versions. The
+   * allow and deny networks are now held in radix tries, so no cache is
+   * needed and the value is ignored.
    */ 
   public void setCacheSize(int cacheSize)
   {
@@ -161,10 +157,7 @@ public class IPConstraint extends AbstractConstraint {
    */
   public void addAllow(String network) throws UnknownHostException
   {
-    if (_allowNetworkList == null)
-      _allowNetworkList = new ArrayList<InetNetwork>();
-
-    _allowNetworkList.add(InetNetwork.create(network));
+    addAllowInetNetwork(InetNetwork.create(network));
   }
 
   /**
@@ -173,10 +166,7 @@ public class IPConstraint extends AbstractConstraint {
    */
   public void addDeny(String network) throws UnknownHostException
   {
-    if (_denyNetworkList == null)
-      _denyNetworkList = new ArrayList<InetNetwork>();
-
-    _denyNetworkList.add(InetNetwork.create(network));
+    addDenyInetNetwork(InetNetwork.create(network));
   }
 
   /** backwards compatibility, same as addAllow() 
@@ -210,16 +200,22 @@ public class IPConstraint extends AbstractConstraint {
 
   private void addAllowInetNetwork(InetNetwork a)
   {
-    if (_allowNetworkList == null)
+    if (_allowNetworkList == null) {
       _allowNetworkList = new ArrayList<InetNetwork>();
+      _allowTrie = new InetNetworkTrie();
+    }
     _allowNetworkList.add(a);
+    _allowTrie.add(a);
   }
 
   private void addDenyInetNetwork(InetNetwork d)
   {
-    if (_denyNetworkList == null)
+    if (_denyNetworkList == null) {
       _denyNetworkList = new ArrayList<InetNetwork>();
+      _denyTrie = new InetNetworkTrie();
+    }
     _denyNetworkList.add(d);
+    _denyTrie.add(d);
   }
 
   @PostConstruct
@@ -234,11 +230,6 @@ public class IPConstraint extends AbstractConstraint {
 
     if (_denyNetworkList != null)
       _denyNetworkList.trimToSize();
-
-    int rules = _allowNetworkList == null ? 0 : _allowNetworkList.size();
-    rules += _denyNetworkList == null ? 0 : _denyNetworkList.size();
-
-    _cache = new LruCache<String,Boolean>(_cacheSize);
   }
 
   /**
@@ -250,61 +241,12 @@ public class IPConstraint extends AbstractConstraint {
     throws ServletException, IOException
   {
     String remoteAddr = request.getRemoteAddr();
-    boolean allow =  false;
-    InetAddress addr = null;
-
-    if (remoteAddr != null) {
-      if (_cache != null) {
-        Boolean cacheValue = _cache.get(remoteAddr);
-        if (cacheValue != null) {
-          allow = cacheValue.booleanValue();
-
-          if (! allow)
-            response.sendError(_errorCode, _errorMessage);
-
-          return (allow
-                  ? AuthorizationResult.ALLOW
-                  : AuthorizationResult.DENY_SENT_RESPONSE);
-        }
-      }
-      
-      addr = InetAddress.getByName(remoteAddr);
-    }
-
-    // check allow
-
-    if (_allowNetworkList == null) {
-      // if no allow specified, then allow all
-      allow = true;
-    }
-    else {
-      for (int i = 0; i < _allowNetworkList.size(); i++) {
-        InetNetwork net = _allowNetworkList.get(i);
-
-        if (net.isMatch(addr)) {
-          allow = true;
-          break;
-        }
-      }
-    }
-
-    // check deny
-
-    if (allow && _denyNetworkList != null) {
-      for (int i = 0; i < _denyNetworkList.size(); i++) {
-        InetNetwork net = _denyNetworkList.get(i);
-
-        if (net.isMatch(addr)) {
-          allow = false;
-          break;
-        }
-      }
-    }
 
-    // update cache
+    // if no allow specified, then allow all
+    boolean allow = (_allowTrie == null || _allowTrie.isMatch(remoteAddr));
 
-    if (_cache != null)
-      _cache.put(remoteAddr, allow ? Boolean.TRUE : Boolean.FALSE);
+    if (allow && _denyTrie != null && _denyTrie.isMatch(remoteAddr))
+      allow = false;
 
     // respond accordingly
 
@@ -100,6 +100,7 @@ import javax.servlet.http.HttpSessionListener;
 
 import com.caucho.amber.manager.AmberContainer;
 import com.caucho.config.Config;
+import com.caucho.config.ConfigDocumentCache;
 import com.caucho.config.ConfigException;
 import com.caucho.config.Configurable;
 import com.caucho.config.SchemaBean;
@@ -3850,6 +3851,13 @@ public class WebApp extends ServletContextImpl
       _lifecycle.toActive();
 
       clearCache();
+
+      long configTimeSaved = ConfigDocumentCache.getTimeSaved();
+
+      if (configTimeSaved > 0 && log.isLoggable(Level.CONFIG)) {
+        log.config(L.l("{0} config snapshots saved {1}ms of parsing",
+                       this, configTimeSaved));
+      }
       
       if (! getRootDirectory().canRead()
           && ! getHost().getHostName().equals("admin.resin")) {
@@ -708,6 +708,38 @@ public class DBPool
     getPool().setXAForbidSameRM(isXAForbidSameRM);
   }
 
+  /**
+   * Set true to gather statistics for each normalized SQL statement.
+   */
+  public void setQueryStatistics(boolean isEnable)
+  {
+    getPool().setQueryStatistics(isEnable);
+  }
+
+  /**
+   * Sets the maximum number of distinct statements in the statistics.
+   */
+  public void setQueryStatisticsMax(int max)
+  {
+    getPool().setQueryStatisticsMax(max);
+  }
+
+  /**
+   * Sets the time for a query to be logged as a slow query.
+   */
+  public void setSlowQueryTime(Period period)
+  {
+    getPool().setSlowQueryTime(period);
+  }
+
+  /**
+   * Returns the query statistics, or null if disabled.
+   */
+  QueryStatistics getQueryStatistics()
+  {
+    return getPool().getQueryStatistics();
+  }
+
   /**
    * Set the output for spying.
    */
@@ -195,6 +195,12 @@ public class DBPoolImpl implements AlarmListener, EnvironmentListener {
   private int _preparedStatementCacheSize = 0;
 
   private boolean _isWrapStatements = true;
+
+  // per-SQL statistics
+  private boolean _isQueryStatistics;
+  private int _queryStatisticsMax = 256;
+  private long _slowQueryTime = -1;
+  private QueryStatistics _queryStatistics;
   
   // The connections currently in the pool.
   // transient ArrayList<PoolItem> _connections = new ArrayList<PoolItem>();
@@ -811,6 +817,58 @@ public class DBPoolImpl implements AlarmListener, EnvironmentListener {
     _isXAForbidSameRM = isXAForbidSameRM;
   }
 
+  /**
+   * Set true to gather statistics for each normalized SQL statement.
+   */
+  public void setQueryStatistics(boolean isEnable)
+  {
+    _isQueryStatistics = isEnable;
+  }
+
+  /**
+   * Returns true if statistics are gathered for SQL statements.
+   */
+  public boolean isQueryStatistics()
+  {
+    return _isQueryStatistics;
+  }
+
+  /**
+   * Sets the maximum number of distinct statements in the statistics.
+   */
+  public void setQueryStatisticsMax(int max)
+  {
+    _queryStatisticsMax = max;
+  }
+
+  /**
+   * Sets the time for a query to be logged as a slow query. Setting the
+   * time enables the query statistics.
+   */
+  public void setSlowQueryTime(Period period)
+  {
+    _slowQueryTime = period.getPeriod();
+
+    if (_slowQueryTime > 0)
+      _isQueryStatistics = true;
+  }
+
+  /**
+   * Returns the slow query time.
+   */
+  public long getSlowQueryTime()
+  {
+    return _slowQueryTime;
+  }
+
+  /**
+   * Returns the query statistics, or null if disabled.
+   */
+  QueryStatistics getQueryStatistics()
+  {
+    return _queryStatistics;
+  }
+
   /**
    * Set the output for spying.
    */
@@ -1005,6 +1063,12 @@ public class DBPoolImpl implements AlarmListener, EnvironmentListener {
     }
 
     _spyDataSource = new SpyDataSource(_name);
+
+    if (_isQueryStatistics) {
+      _queryStatistics = new QueryStatistics(_name,
+                                             _queryStatisticsMax,
+                                             _slowQueryTime);
+    }
   }
 
   /**
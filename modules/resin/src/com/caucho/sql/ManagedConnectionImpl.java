@@ -484,6 +484,11 @@ public class ManagedConnectionImpl
       }
     }
 
+    QueryStatistics queryStats = _dbPool.getQueryStatistics();
+
+    if (queryStats != null)
+      queryStats.addCacheMiss(sql);
+
     PreparedStatement pStmt;
     pStmt = conn.prepareStatement(sql);
 
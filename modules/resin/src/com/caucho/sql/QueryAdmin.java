@@ -41,6 +41,7 @@ import java.util.ArrayList;
 import com.caucho.management.server.AbstractManagedObject;
 import com.caucho.management.server.JdbcQueryMXBean;
 import com.caucho.management.server.JdbcQueryResult;
+import com.caucho.management.server.JdbcQueryStatistic;
 import com.caucho.management.server.JdbcTableColumn;
 
 public class QueryAdmin extends AbstractManagedObject
@@ -178,6 +179,50 @@ public class QueryAdmin extends AbstractManagedObject
     }
   }
   
+  @Override
+  public JdbcQueryStatistic []getQueryStatistics()
+  {
+    QueryStatistics queryStats = _pool.getQueryStatistics();
+
+    if (queryStats == null)
+      return new JdbcQueryStatistic[0];
+
+    QueryStat []stats = queryStats.getQueryStats();
+
+    JdbcQueryStatistic []result = new JdbcQueryStatistic[stats.length];
+
+    for (int i = 0; i < stats.length; i++) {
+      QueryStat stat = stats[i];
+
+      JdbcQueryStatistic value = new JdbcQueryStatistic();
+
+      value.setSql(stat.getFingerprint());
+      value.setCount(stat.getCount());
+      value.setErrorCount(stat.getErrorCount());
+      value.setSlowCount(stat.getSlowCount());
+      value.setRowCount(stat.getRowCount());
+      value.setCacheMissCount(stat.getCacheMissCount());
+      value.setTimeTotal(stat.getTimeTotal() / 1e6);
+      value.setTimeMax(stat.getTimeMax() / 1e6);
+      value.setTime50(stat.getPercentile(0.50));
+      value.setTime90(stat.getPercentile(0.90));
+      value.setTime99(stat.getPercentile(0.99));
+
+      result[i] = value;
+    }
+
+    return result;
+  }
+
+  @Override
+  public void clearQueryStatistics()
+  {
+    QueryStatistics queryStats = _pool.getQueryStatistics();
+
+    if (queryStats != null)
+      queryStats.clear();
+  }
+
   @Override
   public String getName()
   {
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ * @author Scott Ferguson
+ */
+
+package com.caucho.sql;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.caucho.env.meter.Histogram;
+
+/**
+ * Statistics for a single SQL fingerprint. The latency histogram is
+ * kept in microseconds.
+ */
+class QueryStat {
+  private final String _fingerprint;
+
+  private final AtomicLong _count = new AtomicLong();
+  private final AtomicLong _errorCount = new AtomicLong();
+  private final AtomicLong _slowCount = new AtomicLong();
+  private final AtomicLong _rowCount = new AtomicLong();
+  private final AtomicLong _cacheMissCount = new AtomicLong();
+  private final AtomicLong _timeTotal = new AtomicLong();
+  private final AtomicLong _timeMax = new AtomicLong();
+
+  private final Histogram _histogram = new Histogram();
+
+  QueryStat(String fingerprint)
+  {
+    _fingerprint = fingerprint;
+  }
+
+  /**
+   * Returns the normalized sql.
+   */
+  String getFingerprint()
+  {
+    return _fingerprint;
+  }
+
+  /**
+   * Adds an execution time in nanoseconds.
+   */
+  void addTime(long time, boolean isError)
+  {
+    _count.incrementAndGet();
+
+    if (isError)
+      _errorCount.incrementAndGet();
+
+    _timeTotal.addAndGet(time);
+
+    long max;
+    while ((max = _timeMax.get()) < time
+           && ! _timeMax.compareAndSet(max, time)) {
+    }
+
+    _histogram.add(time / 1000);
+  }
+
+  void addRows(long rows)
+  {
+    _rowCount.addAndGet(rows);
+  }
+
+  void addSlow()
+  {
+    _slowCount.incrementAndGet();
+  }
+
+  void addCacheMiss()
+  {
+    _cacheMissCount.incrementAndGet();
+  }
+
+  long getCount()
+  {
+    return _count.get();
+  }
+
+  long getErrorCount()
+  {
+    return _errorCount.get();
+  }
+
+  long getSlowCount()
+  {
+    return _slowCount.get();
+  }
+
+  long getRowCount()
+  {
+    return _rowCount.get();
+  }
+
+  long getCacheMissCount()
+  {
+    return _cacheMissCount.get();
+  }
+
+  /**
+   * Returns the total execution time in nanoseconds.
+   */
+  long getTimeTotal()
+  {
+    return _timeTotal.get();
+  }
+
+  /**
+   * Returns the maximum execution time in nanoseconds.
+   */
+  long getTimeMax()
+  {
+    return _timeMax.get();
+  }
+
+  /**
+   * Returns the percentile time in milliseconds.
+   */
+  double getPercentile(double percentile)
+  {
+    return _histogram.getPercentile(percentile) / 1000.0;
+  }
+
+  /**
+   * Clears the statistics.
+   */
+  void clear()
+  {
+    _count.set(0);
+    _errorCount.set(0);
+    _slowCount.set(0);
+    _rowCount.set(0);
+    _cacheMissCount.set(0);
+    _timeTotal.set(0);
+    _timeMax.set(0);
+    _histogram.clear();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _fingerprint + "]";
+  }
+}
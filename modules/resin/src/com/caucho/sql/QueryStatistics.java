@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ * @author Scott Ferguson
+ */
+
+package com.caucho.sql;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import com.caucho.env.meter.HistogramMeter;
+import com.caucho.env.meter.MeterService;
+import com.caucho.env.meter.SampleCountMeter;
+import com.caucho.util.L10N;
+
+/**
+ * Per-SQL statistics for a database pool. Statements are grouped by their
+ * fingerprint, and the number of fingerprints is bounded. Once the limit
+ * is reached, new statements are counted in a shared overflow entry.
+ */
+class QueryStatistics {
+  private static final L10N L = new L10N(QueryStatistics.class);
+  private static final Logger log
+    = Logger.getLogger(QueryStatistics.class.getName());
+
+  static final String OVERFLOW = "(other)";
+
+  private final String _name;
+  private final int _maxFingerprints;
+  // slow query threshold in nanoseconds, or -1 when disabled
+  private final long _slowQueryTime;
+
+  private final ConcurrentHashMap<String,QueryStat> _statMap
+    = new ConcurrentHashMap<String,QueryStat>();
+
+  private final QueryStat _overflowStat = new QueryStat(OVERFLOW);
+
+  // query times of the pool in microseconds, reported in milliseconds
+  private final HistogramMeter _queryTimeMeter;
+  private final SampleCountMeter _slowQueryMeter;
+  private final SampleCountMeter _cacheMissMeter;
+
+  QueryStatistics(String name, int maxFingerprints, long slowQueryTime)
+  {
+    _name = name;
+    _maxFingerprints = maxFingerprints;
+
+    if (slowQueryTime > 0)
+      _slowQueryTime = slowQueryTime * 1000000L;
+    else
+      _slowQueryTime = -1;
+
+    _slowQueryMeter
+      = MeterService.createSampleCountMeter("Resin|Database|Slow Query|"
+                                            + name);
+    _cacheMissMeter
+      = MeterService.createSampleCountMeter("Resin|Database|Prepared Cache Miss|"
+                                            + name);
+
+    _queryTimeMeter
+      = MeterService.createHistogramMeter("Resin|Database|Query", name, 0.001);
+  }
+
+  /**
+   * Returns the statistics for the sql.
+   */
+  QueryStat getQueryStat(String sql)
+  {
+    if (sql == null)
+      return null;
+
+    String fingerprint = SqlFingerprint.normalize(sql);
+
+    QueryStat stat = _statMap.get(fingerprint);
+
+    if (stat != null)
+      return stat;
+    else if (_maxFingerprints <= _statMap.size())
+      return _overflowStat;
+
+    stat = new QueryStat(fingerprint);
+
+    QueryStat oldStat = _statMap.putIfAbsent(fingerprint, stat);
+
+    return oldStat != null ? oldStat : stat;
+  }
+
+  /**
+   * Adds a completed statement execution.
+   *
+   * @param stat the statement's statistics
+   * @param startTime the nanosecond start time of the execution
+   * @param isError true if the execution threw an exception
+   */
+  void addQuery(QueryStat stat, long startTime, boolean isError)
+  {
+    long time = System.nanoTime() - startTime;
+
+    stat.addTime(time, isError);
+    _queryTimeMeter.add(time / 1000);
+
+    if (0 < _slowQueryTime && _slowQueryTime <= time) {
+      stat.addSlow();
+      _slowQueryMeter.addData();
+
+      log.warning(L.l("{0}: slow query {1}ms: {2}",
+                      _name, time / 1000000L, stat.getFingerprint()));
+    }
+  }
+
+  /**
+   * Adds a prepared statement cache miss.
+   */
+  void addCacheMiss(String sql)
+  {
+    QueryStat stat = getQueryStat(sql);
+
+    if (stat != null)
+      stat.addCacheMiss();
+
+    _cacheMissMeter.addData();
+  }
+
+  /**
+   * Returns the current statistics.
+   */
+  QueryStat []getQueryStats()
+  {
+    ArrayList<QueryStat> stats = new ArrayList<QueryStat>(_statMap.values());
+
+    if (_overflowStat.getCount() > 0)
+      stats.add(_overflowStat);
+
+    QueryStat []statArray = new QueryStat[stats.size()];
+
+    return stats.toArray(statArray);
+  }
+
+  /**
+   * Clears the statistics.
+   */
+  void clear()
+  {
+    _statMap.clear();
+    _overflowStat.clear();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _name + "]";
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ * @author Scott Ferguson
+ */
+
+package com.caucho.sql;
+
+/**
+ * Normalizes SQL to a fingerprint for the query statistics. Literals are
+ * replaced by '?', comments are removed, whitespace is collapsed and
+ * parameter lists are folded, so statements which only differ in their
+ * values share a fingerprint.
+ */
+final class SqlFingerprint {
+  private static final int MAX_LENGTH = 512;
+
+  private SqlFingerprint()
+  {
+  }
+
+  /**
+   * Returns the fingerprint of the sql.
+   */
+  static String normalize(String sql)
+  {
+    int length = sql.length();
+
+    StringBuilder sb = new StringBuilder(Math.min(length, MAX_LENGTH));
+
+    int i = 0;
+    while (i < length && sb.length() < MAX_LENGTH) {
+      char ch = sql.charAt(i);
+
+      if (Character.isWhitespace(ch)) {
+        for (i++; i < length && Character.isWhitespace(sql.charAt(i)); i++) {
+        }
+
+        int sbLength = sb.length();
+
+        if (sbLength > 0 && sb.charAt(sbLength - 1) != ' ')
+          sb.append(' ');
+      }
+      else if (ch == '\'') {
+        // string literal, with '' as the escape
+        for (i++; i < length; i++) {
+          if (sql.charAt(i) != '\'') {
+          }
+          else if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+            i++;
+          }
+          else {
+            break;
+          }
+        }
+
+        i++;
+        appendParam(sb);
+      }
+      else if (ch == '"' || ch == '`') {
+        // quoted identifier
+        int end = sql.indexOf(ch, i + 1);
+
+        if (end < 0)
+          end = length - 1;
+
+        sb.append(sql, i, end + 1);
+        i = end + 1;
+      }
+      else if (ch == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        for (; i < length && sql.charAt(i) != '\n'; i++) {
+        }
+      }
+      else if (ch == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+
+        i = end < 0 ? length : end + 2;
+      }
+      else if (isDigit(ch) && ! isIdentifierEnd(sb)) {
+        for (i++; i < length && isNumberPart(sql.charAt(i)); i++) {
+        }
+
+        appendParam(sb);
+      }
+      else if (ch == '?') {
+        i++;
+        appendParam(sb);
+      }
+      else {
+        sb.append(Character.toLowerCase(ch));
+        i++;
+      }
+    }
+
+    int sbLength = sb.length();
+
+    if (sbLength > 0 && sb.charAt(sbLength - 1) == ' ')
+      sb.setLength(sbLength - 1);
+
+    return sb.toString();
+  }
+
+  /**
+   * Appends a parameter, folding lists like "in (?, ?, ?)" to a
+   * single "?".
+   */
+  private static void appendParam(StringBuilder sb)
+  {
+    int length = sb.length();
+
+    if (length >= 2
+        && sb.charAt(length - 1) == ' '
+        && sb.charAt(length - 2) == ',') {
+      length -= 2;
+    }
+    else if (length >= 1 && sb.charAt(length - 1) == ',') {
+      length -= 1;
+    }
+    else {
+      sb.append('?');
+      return;
+    }
+
+    int tail = length;
+
+    if (tail > 0 && sb.charAt(tail - 1) == ' ')
+      tail--;
+
+    if (tail > 0 && sb.charAt(tail - 1) == '?')
+      sb.setLength(length);
+    else
+      sb.append('?');
+  }
+
+  private static boolean isIdentifierEnd(StringBuilder sb)
+  {
+    int length = sb.length();
+
+    if (length == 0)
+      return false;
+
+    char ch = sb.charAt(length - 1);
+
+    return Character.isLetterOrDigit(ch) || ch == '_' || ch == '$';
+  }
+
+  private static boolean isDigit(char ch)
+  {
+    return '0' <= ch && ch <= '9';
+  }
+
+  private static boolean isNumberPart(char ch)
+  {
+    return ('0' <= ch && ch <= '9'
+            || 'a' <= ch && ch <= 'f'
+            || 'A' <= ch && ch <= 'F'
+            || ch == '.' || ch == 'x' || ch == 'X');
+  }
+}
@@ -93,6 +93,11 @@ public class UserConnection implements java.sql.Connection {
     return _mConn.getDBPool().getTimeProbe();
   }
 
+  QueryStatistics getQueryStatistics()
+  {
+    return _mConn.getDBPool().getQueryStatistics();
+  }
+
   public Class<?> getDriverClass()
   {
     return getMConn().getDriverClass();
@@ -246,7 +251,7 @@ public class UserConnection implements java.sql.Connection {
     addStatement(stmt);
 
     if (_mConn.isWrapStatements())
-      return new UserPreparedStatement(this, stmt);
+      return new UserPreparedStatement(this, stmt, sql);
     else
       return stmt;
   }
@@ -284,7 +289,7 @@ public class UserConnection implements java.sql.Connection {
     addStatement(stmt);
 
     if (_mConn.isWrapStatements())
-      return new UserPreparedStatement(this, stmt);
+      return new UserPreparedStatement(this, stmt, sql);
     else
       return stmt;
   }
@@ -326,7 +331,7 @@ public class UserConnection implements java.sql.Connection {
     addStatement(stmt);
 
     if (_mConn.isWrapStatements())
-      return new UserPreparedStatement(this, stmt);
+      return new UserPreparedStatement(this, stmt, sql);
     else
       return stmt;
   }
@@ -367,7 +372,7 @@ public class UserConnection implements java.sql.Connection {
     addStatement(stmt);
 
     if (_mConn.isWrapStatements())
-      return new UserPreparedStatement(this, stmt);
+      return new UserPreparedStatement(this, stmt, sql);
     else
       return stmt;
   }
@@ -404,7 +409,7 @@ public class UserConnection implements java.sql.Connection {
     addStatement(stmt);
 
     if (_mConn.isWrapStatements())
-      return new UserPreparedStatement(this, stmt);
+      return new UserPreparedStatement(this, stmt, sql);
     else
       return stmt;
   }
@@ -441,7 +446,7 @@ public class UserConnection implements java.sql.Connection {
     addStatement(stmt);
 
     if (_mConn.isWrapStatements())
-      return new UserPreparedStatement(this, stmt);
+      return new UserPreparedStatement(this, stmt, sql);
     else
       return stmt;
   }
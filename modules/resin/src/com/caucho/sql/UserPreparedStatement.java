@@ -66,6 +66,9 @@ public class UserPreparedStatement extends UserStatement
   private boolean _isClosed;
 
   private ActiveTimeSensor _timeProbe;
+
+  // statistics for the statement's sql, null when disabled
+  private QueryStat _stat;
   
   UserPreparedStatement(UserConnection conn,
                         PreparedStatement pStmt,
@@ -84,7 +87,16 @@ public class UserPreparedStatement extends UserStatement
   UserPreparedStatement(UserConnection conn,
                         PreparedStatement pStmt)
   {
-    this(conn, pStmt, null);
+    this(conn, pStmt, (PreparedStatementCacheItem) null);
+  }
+
+  UserPreparedStatement(UserConnection conn,
+                        PreparedStatement pStmt,
+                        String sql)
+  {
+    this(conn, pStmt, (PreparedStatementCacheItem) null);
+
+    _stat = getQueryStat(sql);
   }
 
   /**
@@ -103,9 +115,10 @@ public class UserPreparedStatement extends UserStatement
     throws SQLException
   {
     long startTime = _timeProbe.start();
+    QueryStat stat = startQuery(_stat);
     
     try {
-      return _pstmt.executeQuery();
+      return wrapResultSet(_pstmt.executeQuery(), stat);
     } catch (RuntimeException e) {
       onRuntimeException(e);
       
@@ -116,6 +129,7 @@ public class UserPreparedStatement extends UserStatement
       throw e;
     } finally {
       _timeProbe.end(startTime);
+      endQuery(stat);
     }
   }
 
@@ -127,6 +141,7 @@ public class UserPreparedStatement extends UserStatement
     throws SQLException
   {
     long startTime = _timeProbe.start();
+    QueryStat stat = startQuery(_stat);
     
     try {
       return _pstmt.executeUpdate();
@@ -140,6 +155,7 @@ public class UserPreparedStatement extends UserStatement
       throw e;
     } finally {
       _timeProbe.end(startTime);
+      endQuery(stat);
     }
   }
 
@@ -151,6 +167,7 @@ public class UserPreparedStatement extends UserStatement
     throws SQLException
   {
     long startTime = _timeProbe.start();
+    QueryStat stat = startQuery(_stat);
     
     try {
       return _pstmt.execute();
@@ -164,9 +181,21 @@ public class UserPreparedStatement extends UserStatement
       throw e;
     } finally {
       _timeProbe.end(startTime);
+      endQuery(stat);
     }
   }
 
+  /**
+   * A prepared batch is counted under the prepared sql.
+   */
+  @Override
+  QueryStat getBatchQueryStat()
+  {
+    super.getBatchQueryStat();
+
+    return _stat;
+  }
+
   /**
    * Adds the statement as a batch.
    */
@@ -0,0 +1,1453 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ * @author Scott Ferguson
+ */
+
+package com.caucho.sql;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Map;
+
+/**
+ * User-view of a result set, counting the fetched rows for the
+ * query statistics.
+ */
+@SuppressWarnings("deprecation")
+public class UserResultSet implements ResultSet {
+  private final UserStatement _stmt;
+  private final ResultSet _rs;
+  private final QueryStat _stat;
+
+  private long _rowCount;
+
+  UserResultSet(UserStatement stmt, ResultSet rs, QueryStat stat)
+  {
+    _stmt = stmt;
+    _rs = rs;
+    _stat = stat;
+  }
+
+  /**
+   * Returns the underlying result set.
+   */
+  public ResultSet getResultSet()
+  {
+    return _rs;
+  }
+
+  @Override
+  public Statement getStatement()
+    throws SQLException
+  {
+    return _stmt;
+  }
+
+  @Override
+  public boolean next()
+    throws SQLException
+  {
+    if (_rs.next()) {
+      _rowCount++;
+
+      return true;
+    }
+    else
+      return false;
+  }
+
+  @Override
+  public void close()
+    throws SQLException
+  {
+    try {
+      _rs.close();
+    } finally {
+      finishRows();
+    }
+  }
+
+  /**
+   * Adds the fetched rows to the statistics.
+   */
+  void finishRows()
+  {
+    long rowCount = _rowCount;
+    _rowCount = 0;
+
+    if (rowCount > 0)
+      _stat.addRows(rowCount);
+  }
+
+  @Override
+  public boolean absolute(int row)
+    throws SQLException
+  {
+    return _rs.absolute(row);
+  }
+
+  @Override
+  public void afterLast()
+    throws SQLException
+  {
+    _rs.afterLast();
+  }
+
+  @Override
+  public void beforeFirst()
+    throws SQLException
+  {
+    _rs.beforeFirst();
+  }
+
+  @Override
+  public void cancelRowUpdates()
+    throws SQLException
+  {
+    _rs.cancelRowUpdates();
+  }
+
+  @Override
+  public void clearWarnings()
+    throws SQLException
+  {
+    _rs.clearWarnings();
+  }
+
+  @Override
+  public void deleteRow()
+    throws SQLException
+  {
+    _rs.deleteRow();
+  }
+
+  @Override
+  public int findColumn(String columnLabel)
+    throws SQLException
+  {
+    return _rs.findColumn(columnLabel);
+  }
+
+  @Override
+  public boolean first()
+    throws SQLException
+  {
+    return _rs.first();
+  }
+
+  @Override
+  public Array getArray(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getArray(columnLabel);
+  }
+
+  @Override
+  public Array getArray(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getArray(columnIndex);
+  }
+
+  @Override
+  public InputStream getAsciiStream(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getAsciiStream(columnLabel);
+  }
+
+  @Override
+  public InputStream getAsciiStream(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getAsciiStream(columnIndex);
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(String columnLabel, int scale)
+    throws SQLException
+  {
+    return _rs.getBigDecimal(columnLabel, scale);
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getBigDecimal(columnLabel);
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(int columnIndex, int scale)
+    throws SQLException
+  {
+    return _rs.getBigDecimal(columnIndex, scale);
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getBigDecimal(columnIndex);
+  }
+
+  @Override
+  public InputStream getBinaryStream(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getBinaryStream(columnLabel);
+  }
+
+  @Override
+  public InputStream getBinaryStream(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getBinaryStream(columnIndex);
+  }
+
+  @Override
+  public Blob getBlob(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getBlob(columnLabel);
+  }
+
+  @Override
+  public Blob getBlob(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getBlob(columnIndex);
+  }
+
+  @Override
+  public boolean getBoolean(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getBoolean(columnLabel);
+  }
+
+  @Override
+  public boolean getBoolean(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getBoolean(columnIndex);
+  }
+
+  @Override
+  public byte getByte(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getByte(columnLabel);
+  }
+
+  @Override
+  public byte getByte(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getByte(columnIndex);
+  }
+
+  @Override
+  public byte[] getBytes(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getBytes(columnLabel);
+  }
+
+  @Override
+  public byte[] getBytes(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getBytes(columnIndex);
+  }
+
+  @Override
+  public Reader getCharacterStream(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getCharacterStream(columnLabel);
+  }
+
+  @Override
+  public Reader getCharacterStream(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getCharacterStream(columnIndex);
+  }
+
+  @Override
+  public Clob getClob(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getClob(columnLabel);
+  }
+
+  @Override
+  public Clob getClob(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getClob(columnIndex);
+  }
+
+  @Override
+  public int getConcurrency()
+    throws SQLException
+  {
+    return _rs.getConcurrency();
+  }
+
+  @Override
+  public String getCursorName()
+    throws SQLException
+  {
+    return _rs.getCursorName();
+  }
+
+  @Override
+  public Date getDate(String columnLabel, Calendar cal)
+    throws SQLException
+  {
+    return _rs.getDate(columnLabel, cal);
+  }
+
+  @Override
+  public Date getDate(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getDate(columnLabel);
+  }
+
+  @Override
+  public Date getDate(int columnIndex, Calendar cal)
+    throws SQLException
+  {
+    return _rs.getDate(columnIndex, cal);
+  }
+
+  @Override
+  public Date getDate(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getDate(columnIndex);
+  }
+
+  @Override
+  public double getDouble(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getDouble(columnLabel);
+  }
+
+  @Override
+  public double getDouble(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getDouble(columnIndex);
+  }
+
+  @Override
+  public int getFetchDirection()
+    throws SQLException
+  {
+    return _rs.getFetchDirection();
+  }
+
+  @Override
+  public int getFetchSize()
+    throws SQLException
+  {
+    return _rs.getFetchSize();
+  }
+
+  @Override
+  public float getFloat(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getFloat(columnLabel);
+  }
+
+  @Override
+  public float getFloat(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getFloat(columnIndex);
+  }
+
+  @Override
+  public int getHoldability()
+    throws SQLException
+  {
+    return _rs.getHoldability();
+  }
+
+  @Override
+  public int getInt(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getInt(columnLabel);
+  }
+
+  @Override
+  public int getInt(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getInt(columnIndex);
+  }
+
+  @Override
+  public long getLong(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getLong(columnLabel);
+  }
+
+  @Override
+  public long getLong(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getLong(columnIndex);
+  }
+
+  @Override
+  public ResultSetMetaData getMetaData()
+    throws SQLException
+  {
+    return _rs.getMetaData();
+  }
+
+  @Override
+  public Reader getNCharacterStream(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getNCharacterStream(columnLabel);
+  }
+
+  @Override
+  public Reader getNCharacterStream(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getNCharacterStream(columnIndex);
+  }
+
+  @Override
+  public NClob getNClob(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getNClob(columnLabel);
+  }
+
+  @Override
+  public NClob getNClob(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getNClob(columnIndex);
+  }
+
+  @Override
+  public String getNString(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getNString(columnLabel);
+  }
+
+  @Override
+  public String getNString(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getNString(columnIndex);
+  }
+
+  @Override
+  public <T> T getObject(String columnLabel, Class<T> type)
+    throws SQLException
+  {
+    return _rs.getObject(columnLabel, type);
+  }
+
+  @Override
+  public Object getObject(String columnLabel, Map<String,Class<?>> map)
+    throws SQLException
+  {
+    return _rs.getObject(columnLabel, map);
+  }
+
+  @Override
+  public Object getObject(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getObject(columnLabel);
+  }
+
+  @Override
+  public <T> T getObject(int columnIndex, Class<T> type)
+    throws SQLException
+  {
+    return _rs.getObject(columnIndex, type);
+  }
+
+  @Override
+  public Object getObject(int columnIndex, Map<String,Class<?>> map)
+    throws SQLException
+  {
+    return _rs.getObject(columnIndex, map);
+  }
+
+  @Override
+  public Object getObject(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getObject(columnIndex);
+  }
+
+  @Override
+  public Ref getRef(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getRef(columnLabel);
+  }
+
+  @Override
+  public Ref getRef(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getRef(columnIndex);
+  }
+
+  @Override
+  public int getRow()
+    throws SQLException
+  {
+    return _rs.getRow();
+  }
+
+  @Override
+  public RowId getRowId(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getRowId(columnLabel);
+  }
+
+  @Override
+  public RowId getRowId(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getRowId(columnIndex);
+  }
+
+  @Override
+  public SQLXML getSQLXML(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getSQLXML(columnLabel);
+  }
+
+  @Override
+  public SQLXML getSQLXML(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getSQLXML(columnIndex);
+  }
+
+  @Override
+  public short getShort(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getShort(columnLabel);
+  }
+
+  @Override
+  public short getShort(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getShort(columnIndex);
+  }
+
+  @Override
+  public String getString(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getString(columnLabel);
+  }
+
+  @Override
+  public String getString(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getString(columnIndex);
+  }
+
+  @Override
+  public Time getTime(String columnLabel, Calendar cal)
+    throws SQLException
+  {
+    return _rs.getTime(columnLabel, cal);
+  }
+
+  @Override
+  public Time getTime(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getTime(columnLabel);
+  }
+
+  @Override
+  public Time getTime(int columnIndex, Calendar cal)
+    throws SQLException
+  {
+    return _rs.getTime(columnIndex, cal);
+  }
+
+  @Override
+  public Time getTime(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getTime(columnIndex);
+  }
+
+  @Override
+  public Timestamp getTimestamp(String columnLabel, Calendar cal)
+    throws SQLException
+  {
+    return _rs.getTimestamp(columnLabel, cal);
+  }
+
+  @Override
+  public Timestamp getTimestamp(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getTimestamp(columnLabel);
+  }
+
+  @Override
+  public Timestamp getTimestamp(int columnIndex, Calendar cal)
+    throws SQLException
+  {
+    return _rs.getTimestamp(columnIndex, cal);
+  }
+
+  @Override
+  public Timestamp getTimestamp(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getTimestamp(columnIndex);
+  }
+
+  @Override
+  public int getType()
+    throws SQLException
+  {
+    return _rs.getType();
+  }
+
+  @Override
+  public URL getURL(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getURL(columnLabel);
+  }
+
+  @Override
+  public URL getURL(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getURL(columnIndex);
+  }
+
+  @Override
+  public InputStream getUnicodeStream(String columnLabel)
+    throws SQLException
+  {
+    return _rs.getUnicodeStream(columnLabel);
+  }
+
+  @Override
+  public InputStream getUnicodeStream(int columnIndex)
+    throws SQLException
+  {
+    return _rs.getUnicodeStream(columnIndex);
+  }
+
+  @Override
+  public SQLWarning getWarnings()
+    throws SQLException
+  {
+    return _rs.getWarnings();
+  }
+
+  @Override
+  public void insertRow()
+    throws SQLException
+  {
+    _rs.insertRow();
+  }
+
+  @Override
+  public boolean isAfterLast()
+    throws SQLException
+  {
+    return _rs.isAfterLast();
+  }
+
+  @Override
+  public boolean isBeforeFirst()
+    throws SQLException
+  {
+    return _rs.isBeforeFirst();
+  }
+
+  @Override
+  public boolean isClosed()
+    throws SQLException
+  {
+    return _rs.isClosed();
+  }
+
+  @Override
+  public boolean isFirst()
+    throws SQLException
+  {
+    return _rs.isFirst();
+  }
+
+  @Override
+  public boolean isLast()
+    throws SQLException
+  {
+    return _rs.isLast();
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface)
+    throws SQLException
+  {
+    return _rs.isWrapperFor(iface);
+  }
+
+  @Override
+  public boolean last()
+    throws SQLException
+  {
+    return _rs.last();
+  }
+
+  @Override
+  public void moveToCurrentRow()
+    throws SQLException
+  {
+    _rs.moveToCurrentRow();
+  }
+
+  @Override
+  public void moveToInsertRow()
+    throws SQLException
+  {
+    _rs.moveToInsertRow();
+  }
+
+  @Override
+  public boolean previous()
+    throws SQLException
+  {
+    return _rs.previous();
+  }
+
+  @Override
+  public void refreshRow()
+    throws SQLException
+  {
+    _rs.refreshRow();
+  }
+
+  @Override
+  public boolean relative(int rows)
+    throws SQLException
+  {
+    return _rs.relative(rows);
+  }
+
+  @Override
+  public boolean rowDeleted()
+    throws SQLException
+  {
+    return _rs.rowDeleted();
+  }
+
+  @Override
+  public boolean rowInserted()
+    throws SQLException
+  {
+    return _rs.rowInserted();
+  }
+
+  @Override
+  public boolean rowUpdated()
+    throws SQLException
+  {
+    return _rs.rowUpdated();
+  }
+
+  @Override
+  public void setFetchDirection(int direction)
+    throws SQLException
+  {
+    _rs.setFetchDirection(direction);
+  }
+
+  @Override
+  public void setFetchSize(int rows)
+    throws SQLException
+  {
+    _rs.setFetchSize(rows);
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface)
+    throws SQLException
+  {
+    return _rs.unwrap(iface);
+  }
+
+  @Override
+  public void updateArray(String columnLabel, Array x)
+    throws SQLException
+  {
+    _rs.updateArray(columnLabel, x);
+  }
+
+  @Override
+  public void updateArray(int columnIndex, Array x)
+    throws SQLException
+  {
+    _rs.updateArray(columnIndex, x);
+  }
+
+  @Override
+  public void updateAsciiStream(String columnLabel, InputStream x, int length)
+    throws SQLException
+  {
+    _rs.updateAsciiStream(columnLabel, x, length);
+  }
+
+  @Override
+  public void updateAsciiStream(String columnLabel,
+                                InputStream x,
+                                long length)
+    throws SQLException
+  {
+    _rs.updateAsciiStream(columnLabel, x, length);
+  }
+
+  @Override
+  public void updateAsciiStream(String columnLabel, InputStream x)
+    throws SQLException
+  {
+    _rs.updateAsciiStream(columnLabel, x);
+  }
+
+  @Override
+  public void updateAsciiStream(int columnIndex, InputStream x, int length)
+    throws SQLException
+  {
+    _rs.updateAsciiStream(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateAsciiStream(int columnIndex, InputStream x, long length)
+    throws SQLException
+  {
+    _rs.updateAsciiStream(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateAsciiStream(int columnIndex, InputStream x)
+    throws SQLException
+  {
+    _rs.updateAsciiStream(columnIndex, x);
+  }
+
+  @Override
+  public void updateBigDecimal(String columnLabel, BigDecimal x)
+    throws SQLException
+  {
+    _rs.updateBigDecimal(columnLabel, x);
+  }
+
+  @Override
+  public void updateBigDecimal(int columnIndex, BigDecimal x)
+    throws SQLException
+  {
+    _rs.updateBigDecimal(columnIndex, x);
+  }
+
+  @Override
+  public void updateBinaryStream(String columnLabel,
+                                 InputStream x,
+                                 int length)
+    throws SQLException
+  {
+    _rs.updateBinaryStream(columnLabel, x, length);
+  }
+
+  @Override
+  public void updateBinaryStream(String columnLabel,
+                                 InputStream x,
+                                 long length)
+    throws SQLException
+  {
+    _rs.updateBinaryStream(columnLabel, x, length);
+  }
+
+  @Override
+  public void updateBinaryStream(String columnLabel, InputStream x)
+    throws SQLException
+  {
+    _rs.updateBinaryStream(columnLabel, x);
+  }
+
+  @Override
+  public void updateBinaryStream(int columnIndex, InputStream x, int length)
+    throws SQLException
+  {
+    _rs.updateBinaryStream(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateBinaryStream(int columnIndex, InputStream x, long length)
+    throws SQLException
+  {
+    _rs.updateBinaryStream(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateBinaryStream(int columnIndex, InputStream x)
+    throws SQLException
+  {
+    _rs.updateBinaryStream(columnIndex, x);
+  }
+
+  @Override
+  public void updateBlob(String columnLabel, InputStream x, long length)
+    throws SQLException
+  {
+    _rs.updateBlob(columnLabel, x, length);
+  }
+
+  @Override
+  public void updateBlob(String columnLabel, InputStream x)
+    throws SQLException
+  {
+    _rs.updateBlob(columnLabel, x);
+  }
+
+  @Override
+  public void updateBlob(String columnLabel, Blob x)
+    throws SQLException
+  {
+    _rs.updateBlob(columnLabel, x);
+  }
+
+  @Override
+  public void updateBlob(int columnIndex, InputStream x, long length)
+    throws SQLException
+  {
+    _rs.updateBlob(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateBlob(int columnIndex, InputStream x)
+    throws SQLException
+  {
+    _rs.updateBlob(columnIndex, x);
+  }
+
+  @Override
+  public void updateBlob(int columnIndex, Blob x)
+    throws SQLException
+  {
+    _rs.updateBlob(columnIndex, x);
+  }
+
+  @Override
+  public void updateBoolean(String columnLabel, boolean x)
+    throws SQLException
+  {
+    _rs.updateBoolean(columnLabel, x);
+  }
+
+  @Override
+  public void updateBoolean(int columnIndex, boolean x)
+    throws SQLException
+  {
+    _rs.updateBoolean(columnIndex, x);
+  }
+
+  @Override
+  public void updateByte(String columnLabel, byte x)
+    throws SQLException
+  {
+    _rs.updateByte(columnLabel, x);
+  }
+
+  @Override
+  public void updateByte(int columnIndex, byte x)
+    throws SQLException
+  {
+    _rs.updateByte(columnIndex, x);
+  }
+
+  @Override
+  public void updateBytes(String columnLabel, byte[] x)
+    throws SQLException
+  {
+    _rs.updateBytes(columnLabel, x);
+  }
+
+  @Override
+  public void updateBytes(int columnIndex, byte[] x)
+    throws SQLException
+  {
+    _rs.updateBytes(columnIndex, x);
+  }
+
+  @Override
+  public void updateCharacterStream(String columnLabel, Reader x, int length)
+    throws SQLException
+  {
+    _rs.updateCharacterStream(columnLabel, x, length);
+  }
+
+  @Override
+  public void updateCharacterStream(String columnLabel, Reader x, long length)
+    throws SQLException
+  {
+    _rs.updateCharacterStream(columnLabel, x, length);
+  }
+
+  @Override
+  public void updateCharacterStream(String columnLabel, Reader x)
+    throws SQLException
+  {
+    _rs.updateCharacterStream(columnLabel, x);
+  }
+
+  @Override
+  public void updateCharacterStream(int columnIndex, Reader x, int length)
+    throws SQLException
+  {
+    _rs.updateCharacterStream(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateCharacterStream(int columnIndex, Reader x, long length)
+    throws SQLException
+  {
+    _rs.updateCharacterStream(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateCharacterStream(int columnIndex, Reader x)
+    throws SQLException
+  {
+    _rs.updateCharacterStream(columnIndex, x);
+  }
+
+  @Override
+  public void updateClob(String columnLabel, Reader x, long length)
+    throws SQLException
+  {
+    _rs.updateClob(columnLabel, x, length);
+  }
+
+  @Override
+  public void updateClob(String columnLabel, Reader x)
+    throws SQLException
+  {
+    _rs.updateClob(columnLabel, x);
+  }
+
+  @Override
+  public void updateClob(String columnLabel, Clob x)
+    throws SQLException
+  {
+    _rs.updateClob(columnLabel, x);
+  }
+
+  @Override
+  public void updateClob(int columnIndex, Reader x, long length)
+    throws SQLException
+  {
+    _rs.updateClob(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateClob(int columnIndex, Reader x)
+    throws SQLException
+  {
+    _rs.updateClob(columnIndex, x);
+  }
+
+  @Override
+  public void updateClob(int columnIndex, Clob x)
+    throws SQLException
+  {
+    _rs.updateClob(columnIndex, x);
+  }
+
+  @Override
+  public void updateDate(String columnLabel, Date x)
+    throws SQLException
+  {
+    _rs.updateDate(columnLabel, x);
+  }
+
+  @Override
+  public void updateDate(int columnIndex, Date x)
+    throws SQLException
+  {
+    _rs.updateDate(columnIndex, x);
+  }
+
+  @Override
+  public void updateDouble(String columnLabel, double x)
+    throws SQLException
+  {
+    _rs.updateDouble(columnLabel, x);
+  }
+
+  @Override
+  public void updateDouble(int columnIndex, double x)
+    throws SQLException
+  {
+    _rs.updateDouble(columnIndex, x);
+  }
+
+  @Override
+  public void updateFloat(String columnLabel, float x)
+    throws SQLException
+  {
+    _rs.updateFloat(columnLabel, x);
+  }
+
+  @Override
+  public void updateFloat(int columnIndex, float x)
+    throws SQLException
+  {
+    _rs.updateFloat(columnIndex, x);
+  }
+
+  @Override
+  public void updateInt(String columnLabel, int x)
+    throws SQLException
+  {
+    _rs.updateInt(columnLabel, x);
+  }
+
+  @Override
+  public void updateInt(int columnIndex, int x)
+    throws SQLException
+  {
+    _rs.updateInt(columnIndex, x);
+  }
+
+  @Override
+  public void updateLong(String columnLabel, long x)
+    throws SQLException
+  {
+    _rs.updateLong(columnLabel, x);
+  }
+
+  @Override
+  public void updateLong(int columnIndex, long x)
+    throws SQLException
+  {
+    _rs.updateLong(columnIndex, x);
+  }
+
+  @Override
+  public void updateNCharacterStream(String columnLabel,
+                                     Reader x,
+                                     long length)
+    throws SQLException
+  {
+    _rs.updateNCharacterStream(columnLabel, x, length);
+  }
+
+  @Override
+  public void updateNCharacterStream(String columnLabel, Reader x)
+    throws SQLException
+  {
+    _rs.updateNCharacterStream(columnLabel, x);
+  }
+
+  @Override
+  public void updateNCharacterStream(int columnIndex, Reader x, long length)
+    throws SQLException
+  {
+    _rs.updateNCharacterStream(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateNCharacterStream(int columnIndex, Reader x)
+    throws SQLException
+  {
+    _rs.updateNCharacterStream(columnIndex, x);
+  }
+
+  @Override
+  public void updateNClob(String columnLabel, Reader x, long length)
+    throws SQLException
+  {
+    _rs.updateNClob(columnLabel, x, length);
+  }
+
+  @Override
+  public void updateNClob(String columnLabel, Reader x)
+    throws SQLException
+  {
+    _rs.updateNClob(columnLabel, x);
+  }
+
+  @Override
+  public void updateNClob(String columnLabel, NClob x)
+    throws SQLException
+  {
+    _rs.updateNClob(columnLabel, x);
+  }
+
+  @Override
+  public void updateNClob(int columnIndex, Reader x, long length)
+    throws SQLException
+  {
+    _rs.updateNClob(columnIndex, x, length);
+  }
+
+  @Override
+  public void updateNClob(int columnIndex, Reader x)
+    throws SQLException
+  {
+    _rs.updateNClob(columnIndex, x);
+  }
+
+  @Override
+  public void updateNClob(int columnIndex, NClob x)
+    throws SQLException
+  {
+    _rs.updateNClob(columnIndex, x);
+  }
+
+  @Override
+  public void updateNString(String columnLabel, String x)
+    throws SQLException
+  {
+    _rs.updateNString(columnLabel, x);
+  }
+
+  @Override
+  public void updateNString(int columnIndex, String x)
+    throws SQLException
+  {
+    _rs.updateNString(columnIndex, x);
+  }
+
+  @Override
+  public void updateNull(String columnLabel)
+    throws SQLException
+  {
+    _rs.updateNull(columnLabel);
+  }
+
+  @Override
+  public void updateNull(int columnIndex)
+    throws SQLException
+  {
+    _rs.updateNull(columnIndex);
+  }
+
+  @Override
+  public void updateObject(String columnLabel, Object x, int scaleOrLength)
+    throws SQLException
+  {
+    _rs.updateObject(columnLabel, x, scaleOrLength);
+  }
+
+  @Override
+  public void updateObject(String columnLabel, Object x)
+    throws SQLException
+  {
+    _rs.updateObject(columnLabel, x);
+  }
+
+  @Override
+  public void updateObject(int columnIndex, Object x, int scaleOrLength)
+    throws SQLException
+  {
+    _rs.updateObject(columnIndex, x, scaleOrLength);
+  }
+
+  @Override
+  public void updateObject(int columnIndex, Object x)
+    throws SQLException
+  {
+    _rs.updateObject(columnIndex, x);
+  }
+
+  @Override
+  public void updateRef(String columnLabel, Ref x)
+    throws SQLException
+  {
+    _rs.updateRef(columnLabel, x);
+  }
+
+  @Override
+  public void updateRef(int columnIndex, Ref x)
+    throws SQLException
+  {
+    _rs.updateRef(columnIndex, x);
+  }
+
+  @Override
+  public void updateRow()
+    throws SQLException
+  {
+    _rs.updateRow();
+  }
+
+  @Override
+  public void updateRowId(String columnLabel, RowId x)
+    throws SQLException
+  {
+    _rs.updateRowId(columnLabel, x);
+  }
+
+  @Override
+  public void updateRowId(int columnIndex, RowId x)
+    throws SQLException
+  {
+    _rs.updateRowId(columnIndex, x);
+  }
+
+  @Override
+  public void updateSQLXML(String columnLabel, SQLXML x)
+    throws SQLException
+  {
+    _rs.updateSQLXML(columnLabel, x);
+  }
+
+  @Override
+  public void updateSQLXML(int columnIndex, SQLXML x)
+    throws SQLException
+  {
+    _rs.updateSQLXML(columnIndex, x);
+  }
+
+  @Override
+  public void updateShort(String columnLabel, short x)
+    throws SQLException
+  {
+    _rs.updateShort(columnLabel, x);
+  }
+
+  @Override
+  public void updateShort(int columnIndex, short x)
+    throws SQLException
+  {
+    _rs.updateShort(columnIndex, x);
+  }
+
+  @Override
+  public void updateString(String columnLabel, String x)
+    throws SQLException
+  {
+    _rs.updateString(columnLabel, x);
+  }
+
+  @Override
+  public void updateString(int columnIndex, String x)
+    throws SQLException
+  {
+    _rs.updateString(columnIndex, x);
+  }
+
+  @Override
+  public void updateTime(String columnLabel, Time x)
+    throws SQLException
+  {
+    _rs.updateTime(columnLabel, x);
+  }
+
+  @Override
+  public void updateTime(int columnIndex, Time x)
+    throws SQLException
+  {
+    _rs.updateTime(columnIndex, x);
+  }
+
+  @Override
+  public void updateTimestamp(String columnLabel, Timestamp x)
+    throws SQLException
+  {
+    _rs.updateTimestamp(columnLabel, x);
+  }
+
+  @Override
+  public void updateTimestamp(int columnIndex, Timestamp x)
+    throws SQLException
+  {
+    _rs.updateTimestamp(columnIndex, x);
+  }
+
+  @Override
+  public boolean wasNull()
+    throws SQLException
+  {
+    return _rs.wasNull();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _rs + "]";
+  }
+}
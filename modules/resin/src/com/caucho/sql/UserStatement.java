@@ -55,11 +55,22 @@ public class UserStatement implements Statement {
 
   private final ActiveTimeSensor _timeProbe;
 
+  // per-SQL statistics, null when disabled
+  private final QueryStatistics _queryStats;
+
+  private QueryStat _lastStat;
+  private long _queryStartTime;
+  private boolean _isQueryError;
+  private UserResultSet _resultSet;
+  // the first sql of the current batch, naming its statistics
+  private String _batchSql;
+
   UserStatement(UserConnection conn, Statement stmt)
   {
     _conn = conn;
     _stmt = stmt;
     _timeProbe = conn.getTimeProbe();
+    _queryStats = conn.getQueryStatistics();
   }
 
   @Override
@@ -93,6 +104,9 @@ public class UserStatement implements Statement {
   public void addBatch(String sql)
     throws SQLException
   {
+    if (_batchSql == null)
+      _batchSql = sql;
+
     try {
       _stmt.addBatch(sql);
     } catch (RuntimeException e) {
@@ -127,6 +141,8 @@ public class UserStatement implements Statement {
   public void clearBatch()
     throws SQLException
   {
+    _batchSql = null;
+
     try {
       _stmt.clearBatch();
     } catch (RuntimeException e) {
@@ -171,6 +187,12 @@ public class UserStatement implements Statement {
       Statement stmt = _stmt;
       _stmt = null;
 
+      UserResultSet resultSet = _resultSet;
+      _resultSet = null;
+
+      if (resultSet != null)
+        resultSet.finishRows();
+
       if (stmt != null) {
         _conn.closeStatement(stmt);
 
@@ -199,8 +221,10 @@ public class UserStatement implements Statement {
     if (_stmt == null)
       throw new SQLException(L.l("statement `{0}' appears to be closed", this));
 
+    QueryStat stat = startQuery(sql);
+
     try {
-      return _stmt.executeQuery(sql);
+      return wrapResultSet(_stmt.executeQuery(sql), stat);
     } catch (RuntimeException e) {
       onRuntimeException(e);
       
@@ -211,6 +235,7 @@ public class UserStatement implements Statement {
       throw e;
     } finally {
       _timeProbe.end(startTime);
+      endQuery(stat);
     }
   }
 
@@ -226,6 +251,8 @@ public class UserStatement implements Statement {
     if (_stmt == null)
       throw new SQLException(L.l("statement `{0}' appears to be closed", this));
 
+    QueryStat stat = startQuery(sql);
+
     try {
       return _stmt.executeUpdate(sql);
     } catch (RuntimeException e) {
@@ -238,6 +265,7 @@ public class UserStatement implements Statement {
       throw e;
     } finally {
       _timeProbe.end(startTime);
+      endQuery(stat);
     }
   }
 
@@ -253,6 +281,8 @@ public class UserStatement implements Statement {
     if (_stmt == null)
       throw new SQLException(L.l("statement `{0}' appears to be closed", this));
 
+    QueryStat stat = startQuery(query);
+
     try {
       return _stmt.executeUpdate(query, resultType);
     } catch (RuntimeException e) {
@@ -265,6 +295,7 @@ public class UserStatement implements Statement {
       throw e;
     } finally {
       _timeProbe.end(startTime);
+      endQuery(stat);
     }
   }
 
@@ -280,6 +311,8 @@ public class UserStatement implements Statement {
     if (_stmt == null)
       throw new SQLException(L.l("statement `{0}' appears to be closed", this));
 
+    QueryStat stat = startQuery(query);
+
     try {
       return _stmt.executeUpdate(query, columns);
     } catch (RuntimeException e) {
@@ -292,6 +325,7 @@ public class UserStatement implements Statement {
       throw e;
     } finally {
       _timeProbe.end(startTime);
+      endQuery(stat);
     }
   }
 
@@ -307,6 +341,8 @@ public class UserStatement implements Statement {
     if (_stmt == null)
       throw new SQLException(L.l("statement `{0}' appears to be closed", this));
 
+    QueryStat stat = startQuery(query);
+
     try {
       return _stmt.executeUpdate(query, columns);
     } catch (RuntimeException e) {
@@ -319,6 +355,7 @@ public class UserStatement implements Statement {
       throw e;
     } finally {
       _timeProbe.end(startTime);
+      endQuery(stat);
     }
   }
 
@@ -333,6 +370,8 @@ public class UserStatement implements Statement {
     if (_stmt == null)
       throw new SQLException(L.l("statement `{0}' appears to be closed", this));
 
+    QueryStat stat = startQuery(sql);
+
     try {
       return _stmt.execute(sql);
     } catch (RuntimeException e) {
@@ -345,6 +384,7 @@ public class UserStatement implements Statement {
       throw e;
     } finally {
       _timeProbe.end(startTime);
+      endQuery(stat);
     }
   }
 
@@ -360,6 +400,8 @@ public class UserStatement implements Statement {
     if (_stmt == null)
       throw new SQLException(L.l("statement `{0}' appears to be closed", this));
 
+    QueryStat stat = startQuery(query);
+
     try {
       return _stmt.execute(query, resultType);
     } catch (RuntimeException e) {
@@ -372,6 +414,7 @@ public class UserStatement implements Statement {
       throw e;
     } finally {
       _timeProbe.end(startTime);
+      endQuery(stat);
     }
   }
 
@@ -388,6 +431,8 @@ public class UserStatement implements Statement {
     if (_stmt == null)
       throw new SQLException(L.l("statement `{0}' appears to be closed", this));
 
+    QueryStat stat = startQuery(query);
+
     try {
       return _stmt.execute(query, columns);
     } catch (RuntimeException e) {
@@ -400,6 +445,7 @@ public class UserStatement implements Statement {
       throw e;
     } finally {
       _timeProbe.end(startTime);
+      endQuery(stat);
     }
   }
 
@@ -416,6 +462,8 @@ public class UserStatement implements Statement {
     if (_stmt == null)
       throw new SQLException(L.l("statement `{0}' appears to be closed", this));
 
+    QueryStat stat = startQuery(query);
+
     try {
       return _stmt.execute(query, columns);
     } catch (RuntimeException e) {
@@ -428,6 +476,7 @@ public class UserStatement implements Statement {
       throw e;
     } finally {
       _timeProbe.end(startTime);
+      endQuery(stat);
     }
   }
 
@@ -443,6 +492,8 @@ public class UserStatement implements Statement {
     if (_stmt == null)
       throw new SQLException(L.l("statement `{0}' appears to be closed", this));
 
+    QueryStat stat = startQuery(getBatchQueryStat());
+
     try {
       return _stmt.executeBatch();
     } catch (RuntimeException e) {
@@ -455,6 +506,7 @@ public class UserStatement implements Statement {
       throw e;
     } finally {
       _timeProbe.end(startTime);
+      endQuery(stat);
     }
   }
 
@@ -466,7 +518,7 @@ public class UserStatement implements Statement {
     throws SQLException
   {
     try {
-      return _stmt.getResultSet();
+      return wrapResultSet(_stmt.getResultSet(), _lastStat);
     } catch (RuntimeException e) {
       onRuntimeException(e);
       
@@ -948,8 +1000,93 @@ public class UserStatement implements Statement {
     return false;
   }
 
+  /**
+   * Returns the statistics for the sql, or null if disabled.
+   */
+  QueryStat getQueryStat(String sql)
+  {
+    if (_queryStats != null)
+      return _queryStats.getQueryStat(sql);
+    else
+      return null;
+  }
+
+  /**
+   * Returns the statistics for the current batch, named by its first
+   * sql. Executing the batch clears it.
+   */
+  QueryStat getBatchQueryStat()
+  {
+    String sql = _batchSql;
+    _batchSql = null;
+
+    if (sql != null)
+      return getQueryStat(sql);
+    else
+      return null;
+  }
+
+  /**
+   * Starts a query for the statistics.
+   */
+  QueryStat startQuery(String sql)
+  {
+    if (_queryStats != null)
+      return startQuery(_queryStats.getQueryStat(sql));
+    else
+      return null;
+  }
+
+  /**
+   * Starts a query for the statistics.
+   */
+  QueryStat startQuery(QueryStat stat)
+  {
+    if (stat != null) {
+      _lastStat = stat;
+      _isQueryError = false;
+      _queryStartTime = System.nanoTime();
+    }
+
+    return stat;
+  }
+
+  /**
+   * Completes a query for the statistics.
+   */
+  void endQuery(QueryStat stat)
+  {
+    if (stat != null)
+      _queryStats.addQuery(stat, _queryStartTime, _isQueryError);
+  }
+
+  /**
+   * Wraps the result set to count fetched rows.
+   */
+  ResultSet wrapResultSet(ResultSet rs, QueryStat stat)
+  {
+    if (rs == null || stat == null)
+      return rs;
+
+    UserResultSet oldResultSet = _resultSet;
+
+    if (oldResultSet != null) {
+      // getResultSet() returns the same wrapper for the current result
+      if (oldResultSet.getResultSet() == rs)
+        return oldResultSet;
+
+      oldResultSet.finishRows();
+    }
+
+    _resultSet = new UserResultSet(this, rs, stat);
+
+    return _resultSet;
+  }
+
   protected void onSqlException(SQLException e)
   {
+    _isQueryError = true;
+
     setPoolable(false);
     
     if (_conn != null)
@@ -958,6 +1095,8 @@ public class UserStatement implements Statement {
   
   protected void onRuntimeException(RuntimeException e)
   {
+    _isQueryError = true;
+
     if (_conn != null)
       _conn.killPool();
   }
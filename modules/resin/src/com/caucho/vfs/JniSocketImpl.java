@@ -35,6 +35,9 @@ public final class JniSocketImpl extends QSocket {
 
   private static final JniTroubleshoot _jniTroubleshoot;
 
+  // false when the native library predates nativeIsReadAvailable
+  private static volatile boolean _isReadAvailableNative = true;
+
   private JniServerSocketImpl _ss;
   private final long _socketFd;
   private int _nativeFd;
@@ -416,6 +419,29 @@ public final class JniSocketImpl extends QSocket {
     }
   }
 
+  /**
+   * Returns true if a read would not block, without reading.
+   */
+  @Override
+  public boolean isReadAvailable()
+  {
+    if (! _isReadAvailableNative)
+      return true;
+
+    try {
+      synchronized (_readLock) {
+        return nativeIsReadAvailable(_socketFd);
+      }
+    } catch (UnsatisfiedLinkError e) {
+      // an older native library, so every poll reports data
+      _isReadAvailableNative = false;
+
+      log.log(Level.FINER, e.toString(), e);
+
+      return true;
+    }
+  }
+
   /**
    * Reads from the socket.
    */
@@ -720,6 +746,8 @@ public final class JniSocketImpl extends QSocket {
 
   native boolean nativeIsEof(long fd);
 
+  native boolean nativeIsReadAvailable(long fd);
+
   /*
   private native boolean nativeAccept(long serverSocketFd,
                                       long socketfd,
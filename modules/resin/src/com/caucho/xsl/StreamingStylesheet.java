@@ -0,0 +1,832 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.xsl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.caucho.util.L10N;
+import com.caucho.vfs.TempOutputStream;
+import com.caucho.xml.DOMBuilder;
+import com.caucho.xml.QDocument;
+import com.caucho.xml.Xml;
+
+/**
+ * Streaming execution for a forward-only subset of stylesheets.
+ *
+ * <p>A stylesheet is streamable when its root template is literal
+ * output around a single <code>xsl:apply-templates</code> or
+ * <code>xsl:for-each</code> over a child path like
+ * <code>rss/channel/item</code>, and the rest of the stylesheet only
+ * looks at the selected record and its descendants. The stylesheet is
+ * split into a shell, the root template's output with a marker for the
+ * records, and a record stylesheet, which is applied to each record as
+ * it's parsed. Only one record is in memory at a time.
+ */
+public class StreamingStylesheet {
+  private static final L10N L = new L10N(StreamingStylesheet.class);
+  private static final Logger log
+    = Logger.getLogger(StreamingStylesheet.class.getName());
+
+  private static final String MARKER = "caucho-streaming-records";
+
+  private static final Pattern STEP_PATTERN
+    = Pattern.compile("\\s*(?:child::)?(?:([a-zA-Z_][\\w.-]*):)?([a-zA-Z_][\\w.-]*|\\*)\\s*");
+
+  private static final Pattern ABSOLUTE_PATTERN
+    = Pattern.compile("(^|[(\\[,|=<>!+*-]|\\band\\b|\\bor\\b)\\s*/");
+
+  private static final Pattern LITERAL_PATTERN
+    = Pattern.compile("\\s*('[^']*'|\"[^\"]*\"|-?[0-9.]+)\\s*");
+
+  private static final String []REVERSE_TOKENS = new String[] {
+    "..", "//", "ancestor", "preceding", "following", "parent",
+    "id(", "key(", "document(", "position(", "last(", "generate-id(",
+    "lang(", "unparsed-entity-uri("
+  };
+
+  private final Templates _shellTemplates;
+  private final Templates _recordTemplates;
+
+  private final String []_stepUris;
+  private final String []_stepNames;
+
+  private StreamingStylesheet(Templates shellTemplates,
+                              Templates recordTemplates,
+                              String []stepUris,
+                              String []stepNames)
+  {
+    _shellTemplates = shellTemplates;
+    _recordTemplates = recordTemplates;
+    _stepUris = stepUris;
+    _stepNames = stepNames;
+  }
+
+  /**
+   * Returns a streaming stylesheet for the parsed xsl, or null if the
+   * stylesheet needs the full document.
+   */
+  public static StreamingStylesheet create(AbstractStylesheetFactory factory,
+                                           Document xsl)
+    throws TransformerConfigurationException
+  {
+    Element top = xsl.getDocumentElement();
+
+    if (top == null)
+      return null;
+
+    String topName = getXslLocal(top);
+
+    if (! "stylesheet".equals(topName) && ! "transform".equals(topName))
+      return null;
+
+    Element rootTemplate = null;
+    boolean hasOutputMethod = false;
+
+    for (Node node = top.getFirstChild();
+         node != null;
+         node = node.getNextSibling()) {
+      if (! (node instanceof Element))
+        continue;
+
+      Element elt = (Element) node;
+      String local = getXslLocal(elt);
+
+      if (local == null) {
+      }
+      else if (local.equals("template")) {
+        String match = elt.getAttribute("match").trim();
+
+        if (match.equals("/") && elt.getAttribute("mode").equals("")) {
+          if (rootTemplate != null)
+            return notStreamable(xsl, "multiple root templates");
+
+          rootTemplate = elt;
+        }
+        else if (! isForwardPattern(match))
+          return notStreamable(xsl, "template match '" + match + "'");
+        else if (! isForwardBody(elt))
+          return notStreamable(xsl, "template '" + match + "'");
+      }
+      else if (local.equals("output")) {
+        String method = elt.getAttribute("method").trim();
+
+        // the text printer drops the marker comment
+        if (method.equals("text"))
+          return notStreamable(xsl, "text output");
+        else if (! method.equals(""))
+          hasOutputMethod = true;
+      }
+      else if (local.equals("attribute-set")) {
+        if (! isForwardBody(elt))
+          return notStreamable(xsl, "attribute-set");
+      }
+      else if (local.equals("variable") || local.equals("param")) {
+        String select = elt.getAttribute("select");
+
+        // global values are evaluated against the root, which isn't
+        // available while streaming
+        if (! select.equals("")
+            && ! LITERAL_PATTERN.matcher(select).matches())
+          return notStreamable(xsl, "global " + local + " '" + select + "'");
+        else if (elt.getFirstChild() != null && ! isForwardBody(elt))
+          return notStreamable(xsl, "global " + local);
+      }
+      else if (local.equals("strip-space")
+               || local.equals("preserve-space")
+               || local.equals("decimal-format")
+               || local.equals("namespace-alias")) {
+      }
+      else
+        return notStreamable(xsl, "xsl:" + local);
+    }
+
+    if (rootTemplate == null)
+      return notStreamable(xsl, "no root template");
+
+    // the shell and the records must use the same output method
+    if (! hasOutputMethod)
+      return notStreamable(xsl, "no xsl:output method");
+
+    ArrayList<Element> records = new ArrayList<Element>();
+
+    if (! isShellBody(rootTemplate, records) || records.size() != 1)
+      return notStreamable(xsl, "root template");
+
+    Element recordNode = records.get(0);
+
+    ArrayList<String> stepUris = new ArrayList<String>();
+    ArrayList<String> stepNames = new ArrayList<String>();
+
+    if (! parseChildPath(recordNode, recordNode.getAttribute("select"),
+                         stepUris, stepNames))
+      return notStreamable(xsl, "select '" + recordNode.getAttribute("select") + "'");
+
+    // DOM sources are compiled under a name from their contents, so the
+    // derived stylesheets don't collide with the original
+    Templates shellTemplates
+      = factory.newTemplates(new DOMSource(createShell(xsl)));
+    Templates recordTemplates
+      = factory.newTemplates(new DOMSource(createRecord(xsl)));
+
+    String []uris = new String[stepUris.size()];
+    String []names = new String[stepNames.size()];
+
+    return new StreamingStylesheet(shellTemplates,
+                                   recordTemplates,
+                                   stepUris.toArray(uris),
+                                   stepNames.toArray(names));
+  }
+
+  private static StreamingStylesheet notStreamable(Document xsl, String reason)
+  {
+    if (log.isLoggable(Level.FINER))
+      log.finer(L.l("{0} is not streamable because of {1}",
+                    xsl.getDocumentURI(), reason));
+
+    return null;
+  }
+
+  /**
+   * Returns the transformer for the output before and after the records.
+   * Output properties and parameters should be set on this transformer.
+   */
+  public Transformer newShellTransformer()
+    throws TransformerConfigurationException
+  {
+    return _shellTemplates.newTransformer();
+  }
+
+  /**
+   * Returns the transformer for the records.
+   */
+  public Transformer newRecordTransformer()
+    throws TransformerConfigurationException
+  {
+    return _recordTemplates.newTransformer();
+  }
+
+  /**
+   * Transforms the input, writing each record's output as it's parsed.
+   */
+  public void transform(InputStream is,
+                        String systemId,
+                        OutputStream os,
+                        Transformer shell,
+                        Transformer record)
+    throws IOException, SAXException, TransformerException
+  {
+    TempOutputStream shellOut = new TempOutputStream();
+
+    shell.transform(new DOMSource(new QDocument()),
+                    new StreamResult(shellOut));
+
+    byte []shellBytes = shellOut.toByteArray();
+    shellOut.destroy();
+
+    int []marker = findMarker(shellBytes);
+
+    os.write(shellBytes, 0, marker[0]);
+
+    Xml parser = new Xml();
+    parser.setContentHandler(new RecordHandler(record, os));
+    parser.parse(is, systemId);
+
+    os.write(shellBytes, marker[1], shellBytes.length - marker[1]);
+  }
+
+  /**
+   * Returns the start and end of the marker comment.
+   */
+  private static int []findMarker(byte []buffer)
+  {
+    byte []marker = MARKER.getBytes();
+
+    for (int i = 0; i + marker.length <= buffer.length; i++) {
+      int j = 0;
+
+      for (; j < marker.length && buffer[i + j] == marker[j]; j++) {
+      }
+
+      if (j < marker.length)
+        continue;
+
+      int start = i;
+
+      while (start > 0 && buffer[start] != '<')
+        start--;
+
+      int end = i + marker.length;
+
+      while (end < buffer.length && buffer[end - 1] != '>')
+        end++;
+
+      return new int[] { start, end };
+    }
+
+    throw new IllegalStateException(L.l("streaming record marker is missing from the stylesheet output"));
+  }
+
+  /**
+   * The shell is the original stylesheet with the record instruction
+   * replaced by a marker comment.
+   */
+  private static Document createShell(Document xsl)
+  {
+    Document shell = (Document) xsl.cloneNode(true);
+
+    Element recordNode = findRecordNode(shell);
+
+    String prefix = recordNode.getPrefix();
+    String name = prefix != null ? prefix + ":comment" : "xsl:comment";
+
+    Element comment;
+
+    if (recordNode.getNamespaceURI() != null)
+      comment = shell.createElementNS(recordNode.getNamespaceURI(), name);
+    else
+      comment = shell.createElement(name);
+
+    comment.appendChild(shell.createTextNode(MARKER));
+
+    recordNode.getParentNode().replaceChild(comment, recordNode);
+
+    return shell;
+  }
+
+  /**
+   * The record stylesheet's root template applies the record
+   * instruction to the record element, which is the document element
+   * of each record's document.
+   */
+  private static Document createRecord(Document xsl)
+  {
+    Document record = (Document) xsl.cloneNode(true);
+
+    Element recordNode = findRecordNode(record);
+    Element rootTemplate = (Element) findRootTemplate(record);
+
+    recordNode.getParentNode().removeChild(recordNode);
+    recordNode.setAttribute("select", "*");
+
+    Node child;
+    while ((child = rootTemplate.getFirstChild()) != null) {
+      rootTemplate.removeChild(child);
+    }
+
+    rootTemplate.appendChild(recordNode);
+
+    for (Node node = record.getDocumentElement().getFirstChild();
+         node != null;
+         node = node.getNextSibling()) {
+      if (node instanceof Element
+          && "output".equals(getXslLocal((Element) node))) {
+        Element output = (Element) node;
+
+        output.setAttribute("omit-xml-declaration", "yes");
+        output.removeAttribute("doctype-system");
+        output.removeAttribute("doctype-public");
+        output.removeAttribute("standalone");
+      }
+    }
+
+    return record;
+  }
+
+  private static Node findRootTemplate(Document xsl)
+  {
+    for (Node node = xsl.getDocumentElement().getFirstChild();
+         node != null;
+         node = node.getNextSibling()) {
+      if (node instanceof Element
+          && "template".equals(getXslLocal((Element) node))
+          && ((Element) node).getAttribute("match").trim().equals("/")
+          && ((Element) node).getAttribute("mode").equals(""))
+        return node;
+    }
+
+    return null;
+  }
+
+  private static Element findRecordNode(Document xsl)
+  {
+    ArrayList<Element> records = new ArrayList<Element>();
+
+    isShellBody((Element) findRootTemplate(xsl), records);
+
+    return records.get(0);
+  }
+
+  /**
+   * The root template may only produce literal output, apart from the
+   * record instruction.
+   */
+  private static boolean isShellBody(Element elt, ArrayList<Element> records)
+  {
+    for (Node node = elt.getFirstChild();
+         node != null;
+         node = node.getNextSibling()) {
+      if (! (node instanceof Element))
+        continue;
+
+      Element child = (Element) node;
+      String local = getXslLocal(child);
+
+      if (local == null) {
+        NamedNodeMap attrs = child.getAttributes();
+
+        for (int i = 0; i < attrs.getLength(); i++) {
+          Attr attr = (Attr) attrs.item(i);
+
+          if (attr.getNodeValue().indexOf('{') >= 0)
+            return false;
+        }
+
+        if (! isShellBody(child, records))
+          return false;
+      }
+      else if (local.equals("text")) {
+      }
+      else if (local.equals("apply-templates")) {
+        if (child.getFirstChild() != null
+            && hasElementChild(child))
+          return false;
+
+        records.add(child);
+      }
+      else if (local.equals("for-each")) {
+        for (Node forNode = child.getFirstChild();
+             forNode != null;
+             forNode = forNode.getNextSibling()) {
+          if (forNode instanceof Element
+              && "sort".equals(getXslLocal((Element) forNode)))
+            return false;
+        }
+
+        if (! isForwardBody(child))
+          return false;
+
+        records.add(child);
+      }
+      else
+        return false;
+    }
+
+    return true;
+  }
+
+  private static boolean hasElementChild(Element elt)
+  {
+    for (Node node = elt.getFirstChild();
+         node != null;
+         node = node.getNextSibling()) {
+      if (node instanceof Element)
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * True if the instructions only look at the context node and its
+   * descendants.
+   */
+  private static boolean isForwardBody(Element elt)
+  {
+    for (Node node = elt.getFirstChild();
+         node != null;
+         node = node.getNextSibling()) {
+      if (! (node instanceof Element))
+        continue;
+
+      Element child = (Element) node;
+      String local = getXslLocal(child);
+
+      if ("number".equals(local) || "apply-imports".equals(local))
+        return false;
+
+      NamedNodeMap attrs = child.getAttributes();
+
+      for (int i = 0; i < attrs.getLength(); i++) {
+        Attr attr = (Attr) attrs.item(i);
+        String name = attr.getNodeName();
+        String value = attr.getNodeValue();
+
+        if (local != null && (name.equals("select") || name.equals("test"))) {
+          if (! isForwardExpr(value))
+            return false;
+        }
+        else if (value.indexOf('{') >= 0 && ! isForwardAvt(value))
+          return false;
+      }
+
+      if (! isForwardBody(child))
+        return false;
+    }
+
+    return true;
+  }
+
+  private static boolean isForwardAvt(String value)
+  {
+    int i = 0;
+
+    while ((i = value.indexOf('{', i)) >= 0) {
+      if (i + 1 < value.length() && value.charAt(i + 1) == '{') {
+        i += 2;
+        continue;
+      }
+
+      int tail = value.indexOf('}', i);
+
+      if (tail < 0 || ! isForwardExpr(value.substring(i + 1, tail)))
+        return false;
+
+      i = tail + 1;
+    }
+
+    return true;
+  }
+
+  private static boolean isForwardPattern(String pattern)
+  {
+    // a step like channel/item tests the parent, which isn't part
+    // of the record
+    return (isForwardExpr(pattern)
+            && stripLiterals(pattern).indexOf('/') < 0);
+  }
+
+  private static boolean isForwardExpr(String expr)
+  {
+    String code = stripLiterals(expr);
+
+    for (String token : REVERSE_TOKENS) {
+      if (code.indexOf(token) >= 0)
+        return false;
+    }
+
+    return ! ABSOLUTE_PATTERN.matcher(code).find();
+  }
+
+  private static String stripLiterals(String expr)
+  {
+    StringBuilder sb = new StringBuilder();
+    char quote = 0;
+
+    for (int i = 0; i < expr.length(); i++) {
+      char ch = expr.charAt(i);
+
+      if (quote != 0) {
+        if (ch == quote)
+          quote = 0;
+      }
+      else if (ch == '\'' || ch == '"') {
+        quote = ch;
+        sb.append("''");
+      }
+      else
+        sb.append(ch);
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Parses a child path like rss/channel/item into its steps.
+   */
+  private static boolean parseChildPath(Element context,
+                                        String select,
+                                        ArrayList<String> uris,
+                                        ArrayList<String> names)
+  {
+    if (select.equals(""))
+      return false;
+
+    for (String step : select.split("/", -1)) {
+      Matcher matcher = STEP_PATTERN.matcher(step);
+
+      if (! matcher.matches())
+        return false;
+
+      String prefix = matcher.group(1);
+      String name = matcher.group(2);
+
+      if (prefix != null) {
+        String uri = lookupNamespace(context, prefix);
+
+        if (uri == null)
+          return false;
+
+        uris.add(uri);
+      }
+      else
+        uris.add("");
+
+      names.add(name);
+    }
+
+    return true;
+  }
+
+  private static String lookupNamespace(Node node, String prefix)
+  {
+    for (; node instanceof Element; node = node.getParentNode()) {
+      Attr attr = ((Element) node).getAttributeNode("xmlns:" + prefix);
+
+      if (attr != null)
+        return attr.getNodeValue();
+    }
+
+    return null;
+  }
+
+  private static String getXslLocal(Element elt)
+  {
+    String ns = elt.getNamespaceURI();
+
+    if (ns == null || ns.equals("")) {
+      String name = elt.getNodeName();
+
+      return name.startsWith("xsl:") ? name.substring(4) : null;
+    }
+    else if (ns.startsWith(Generator.XSLNS)
+             && (ns.length() == Generator.XSLNS.length()
+                 || ns.charAt(Generator.XSLNS.length()) == '/'))
+      return elt.getLocalName();
+    else
+      return null;
+  }
+
+  private boolean isStepMatch(int i, String uri, String localName)
+  {
+    if (! _stepNames[i].equals("*") && ! _stepNames[i].equals(localName))
+      return false;
+
+    String stepUri = _stepUris[i];
+
+    if (uri == null)
+      uri = "";
+
+    return stepUri.equals(uri);
+  }
+
+  @Override
+  public String toString()
+  {
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < _stepNames.length; i++) {
+      if (i > 0)
+        sb.append('/');
+
+      sb.append(_stepNames[i]);
+    }
+
+    return getClass().getSimpleName() + "[" + sb + "]";
+  }
+
+  /**
+   * Builds a document for each record and transforms it.
+   */
+  class RecordHandler extends DefaultHandler {
+    private final Transformer _transformer;
+    private final OutputStream _os;
+
+    private int _depth;
+    // number of path steps matched by the current element's ancestors
+    private int _matchDepth;
+
+    private DOMBuilder _builder;
+    private QDocument _doc;
+
+    // in-scope prefix mappings as prefix, uri pairs, innermost last
+    private final ArrayList<String> _prefixMappings = new ArrayList<String>();
+
+    RecordHandler(Transformer transformer, OutputStream os)
+    {
+      _transformer = transformer;
+      _os = os;
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri)
+    {
+      if (prefix == null)
+        prefix = "";
+
+      _prefixMappings.add(prefix);
+      _prefixMappings.add(uri);
+
+      if (_builder != null)
+        _builder.startPrefixMapping(prefix, uri);
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix)
+    {
+      if (prefix == null)
+        prefix = "";
+
+      for (int i = _prefixMappings.size() - 2; i >= 0; i -= 2) {
+        if (_prefixMappings.get(i).equals(prefix)) {
+          _prefixMappings.remove(i + 1);
+          _prefixMappings.remove(i);
+          return;
+        }
+      }
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName,
+                             Attributes attributes)
+      throws SAXException
+    {
+      int depth = _depth++;
+
+      if (_builder != null) {
+        _builder.startElement(uri, localName, qName, attributes);
+        return;
+      }
+
+      if (depth != _matchDepth || _stepNames.length <= depth
+          || ! isStepMatch(depth, uri, localName))
+        return;
+
+      _matchDepth = depth + 1;
+
+      if (_matchDepth == _stepNames.length) {
+        _doc = new QDocument();
+        _builder = new DOMBuilder();
+        _builder.init(_doc);
+        _builder.startDocument();
+        startRecordPrefixMappings();
+        _builder.startElement(uri, localName, qName, attributes);
+      }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName)
+      throws SAXException
+    {
+      int depth = --_depth;
+
+      if (_builder != null) {
+        _builder.endElement(uri, localName, qName);
+
+        // only the record element itself completes the record
+        if (depth != _stepNames.length - 1)
+          return;
+
+        _builder.endDocument();
+        _builder = null;
+
+        transformRecord(_doc);
+        _doc = null;
+      }
+
+      if (depth + 1 == _matchDepth)
+        _matchDepth = depth;
+    }
+
+    @Override
+    public void characters(char []buffer, int offset, int length)
+      throws SAXException
+    {
+      if (_builder != null)
+        _builder.characters(buffer, offset, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char []buffer, int offset, int length)
+      throws SAXException
+    {
+      if (_builder != null)
+        _builder.ignorableWhitespace(buffer, offset, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data)
+      throws SAXException
+    {
+      if (_builder != null)
+        _builder.processingInstruction(target, data);
+    }
+
+    /**
+     * Declares the mappings in scope at the record element, including
+     * the ones from its ancestors, on the record's document element.
+     */
+    private void startRecordPrefixMappings()
+    {
+      HashSet<String> prefixes = new HashSet<String>();
+
+      for (int i = _prefixMappings.size() - 2; i >= 0; i -= 2) {
+        String prefix = _prefixMappings.get(i);
+
+        // an inner mapping hides the outer ones for the same prefix
+        if (prefixes.add(prefix))
+          _builder.startPrefixMapping(prefix, _prefixMappings.get(i + 1));
+      }
+    }
+
+    private void transformRecord(QDocument doc)
+      throws SAXException
+    {
+      try {
+        _transformer.transform(new DOMSource(doc), new StreamResult(_os));
+      } catch (TransformerException e) {
+        throw new SAXException(e);
+      }
+    }
+  }
+}
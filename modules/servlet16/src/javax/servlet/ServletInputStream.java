@@ -69,4 +69,36 @@ public abstract class ServletInputStream extends InputStream {
 
     return i;
   }
+
+  /**
+   * Returns true when all the request data has been read.
+   *
+   * @since Servlet 3.1
+   */
+  public boolean isFinished()
+  {
+    return false;
+  }
+
+  /**
+   * Returns true if data can be read without blocking. If it returns
+   * false, the ReadListener will be called when data is available.
+   *
+   * @since Servlet 3.1
+   */
+  public boolean isReady()
+  {
+    return true;
+  }
+
+  /**
+   * Sets the listener for non-blocking reads. The request must be
+   * in async mode.
+   *
+   * @since Servlet 3.1
+   */
+  public void setReadListener(ReadListener listener)
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
 }
@@ -212,4 +212,26 @@ public abstract class ServletOutputStream extends OutputStream {
   {
     println(String.valueOf(d));
   }
+
+  /**
+   * Returns true if data can be written without blocking. If it returns
+   * false, the WriteListener will be called when a write is possible.
+   *
+   * @since Servlet 3.1
+   */
+  public boolean isReady()
+  {
+    return true;
+  }
+
+  /**
+   * Sets the listener for non-blocking writes. The request must be
+   * in async mode.
+   *
+   * @since Servlet 3.1
+   */
+  public void setWriteListener(WriteListener listener)
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
 }